@@ -1,6 +1,7 @@
 package edu.umass.cs.contextservice.integration;
 
 
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.contextservice.client.ContextServiceClient;
@@ -9,7 +10,16 @@ import edu.umass.cs.contextservice.client.callback.implementations.NoopUpdateRep
 import edu.umass.cs.contextservice.config.ContextServiceConfig.PrivacySchemes;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.AbstractCommand;
 import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import edu.umass.cs.gnscommon.GNSProtocol;
 
@@ -17,82 +27,213 @@ import edu.umass.cs.gnscommon.GNSProtocol;
  * This class interacts with context service using context service client.
  * It also implements the ContextServiceInterface.
  *
+ * Triggers are put on a bounded queue and sent by a background thread
+ * so that updates don't wait for the context service. The thread collects
+ * triggers for CNS_TRIGGER_BATCH_WINDOW_IN_MS and sends one update per
+ * guid with all the attributes updated in that window. Triggers that
+ * don't fit in the queue are dropped and counted.
+ *
  * @author adipc
  *
  */
 public class ContextServiceGNSClient implements ContextServiceGNSInterface {
 
+  /**
+   * The stats key of the number of triggers accepted for sending.
+   */
+  public static final String TRIGGERS_QUEUED = "triggersQueued";
+  /**
+   * The stats key of the number of triggers dropped because the queue was full.
+   */
+  public static final String TRIGGERS_DROPPED = "triggersDropped";
+  /**
+   * The stats key of the number of updates sent to the context service.
+   */
+  public static final String UPDATES_SENT = "updatesSent";
+
   private ContextServiceClient csClient;
   private final NoopCallBack csNoopCallBack;
   private final NoopUpdateReply csNoopUpdateReply;
 
+  private final BlockingQueue<JSONObject> triggerQueue
+          = new LinkedBlockingQueue<>(Config.getGlobalInt(GNSConfig.GNSC.CNS_TRIGGER_QUEUE_SIZE));
+  private final long batchWindow = Config.getGlobalInt(GNSConfig.GNSC.CNS_TRIGGER_BATCH_WINDOW_IN_MS);
+  private final int maxBatchSize = Config.getGlobalInt(GNSConfig.GNSC.CNS_TRIGGER_MAX_BATCH_SIZE);
+
+  private final AtomicLong triggersQueued = new AtomicLong();
+  private final AtomicLong triggersDropped = new AtomicLong();
+  private final AtomicLong updatesSent = new AtomicLong();
+
   /**
    *
    * @param hostName
    * @param portNum
    */
-  public ContextServiceGNSClient(String hostName, int portNum) 
+  public ContextServiceGNSClient(String hostName, int portNum)
   {
     // catching everything here, otherwise exception doesn't get printed in executor service.
-    try 
+    try
     {
       csClient = new ContextServiceClient (hostName, portNum, false, PrivacySchemes.NO_PRIVACY);
     } catch (Error | Exception er) {
       er.printStackTrace();
     }
-    
+
     csNoopCallBack = new NoopCallBack();
     csNoopUpdateReply = new NoopUpdateReply();
+
+    Thread sender = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        sendTriggers();
+      }
+    }, ContextServiceGNSClient.class.getSimpleName() + "Sender");
+    sender.setDaemon(true);
+    sender.start();
   }
-  
+
 
   @Override
   public void sendTiggerOnGnsCommand(JSONObject jsonFormattedCommand, AbstractCommand command, boolean blocking) {
-    try {
-      // code copied exactly from AbstractUpdate class
-      String guid = jsonFormattedCommand.getString(GNSProtocol.GUID.toString());
-      String field = jsonFormattedCommand.optString(GNSProtocol.FIELD.toString(), null);
-      String value = jsonFormattedCommand.optString(GNSProtocol.VALUE.toString(), null);
-      //String oldValue = jsonFormattedCommand.optString(GNSProtocol.OLD_VALUE.toString(), null);
-      //int index = jsonFormattedCommand.optInt(GNSProtocol.N.toString(), -1);
-      JSONObject userJSON = jsonFormattedCommand.has(GNSProtocol.USER_JSON.toString()) ? new JSONObject(jsonFormattedCommand.getString(GNSProtocol.USER_JSON.toString())) : null;
-      // writer might be unspecified so we use the guid
-      String writer = jsonFormattedCommand.optString(GNSProtocol.WRITER.toString(), guid);
-      //String signature = jsonFormattedCommand.optString(GNSProtocol.SIGNATURE.toString(), null);
-      //String message = jsonFormattedCommand.optString(GNSProtocol.SIGNATUREFULLMESSAGE.toString(), null);
-
-      if (writer.equals(
-    		  GNSProtocol.INTERNAL_QUERIER.toString()
-    		  //GNSConfig.getInternalOpSecret()
-    		  //Config.getGlobalString(GNSConfig.GNSC.INTERNAL_OP_SECRET)
-    		  )) {
-        writer = null;
+    if (blocking) {
+      try {
+        triggerQueue.put(jsonFormattedCommand);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        triggersDropped.incrementAndGet();
+        return;
+      }
+    } else if (!triggerQueue.offer(jsonFormattedCommand)) {
+      long dropped = triggersDropped.incrementAndGet();
+      // don't flood the log when the context service can't keep up
+      if (Long.bitCount(dropped) == 1) {
+        GNSConfig.getLogger().log(Level.WARNING,
+                "Context service trigger queue is full; {0} triggers dropped so far", dropped);
       }
+      return;
+    }
+    triggersQueued.incrementAndGet();
+  }
+
+  /**
+   * Returns the number of triggers that were accepted for sending.
+   *
+   * @return the number of triggers
+   */
+  public long getTriggersQueued() {
+    return triggersQueued.get();
+  }
+
+  /**
+   * Returns the number of triggers that were dropped because the queue was full.
+   *
+   * @return the number of triggers
+   */
+  public long getTriggersDropped() {
+    return triggersDropped.get();
+  }
 
-      if (field == null) {
-        //responseCode = FieldAccess.updateUserJSON(guid, userJSON, writer, signature, message, handler);
+  /**
+   * Returns the number of updates sent to the context service. This is less
+   * than the number of triggers queued when updates of a guid are combined.
+   *
+   * @return the number of updates
+   */
+  public long getUpdatesSent() {
+    return updatesSent.get();
+  }
 
-        // full json update
-        // send the full JSON, contextServiceClient will check what attributes are supported 
-        // by context service and send them to CS
-        GNSConfig.getLogger().log(Level.FINE, "Trigger to CS guid {0} userJSON {1}",
-                new Object[]{guid, userJSON});
+  /**
+   * Returns the counts of triggers and updates keyed by {@link #TRIGGERS_QUEUED},
+   * {@link #TRIGGERS_DROPPED} and {@link #UPDATES_SENT}. They are served by the
+   * admin server's CNSSTATS operation.
+   *
+   * @return a JSONObject
+   * @throws JSONException
+   */
+  @Override
+  public JSONObject getStats() throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put(TRIGGERS_QUEUED, getTriggersQueued());
+    json.put(TRIGGERS_DROPPED, getTriggersDropped());
+    json.put(UPDATES_SENT, getUpdatesSent());
+    return json;
+  }
 
-        csClient.sendUpdateWithCallBack(guid, null, userJSON, -1, 
-        		csNoopUpdateReply, csNoopCallBack);
-      } else {
-        // single field update
-        JSONObject attrValJSON = new JSONObject();
-        attrValJSON.put(field, value);
+  private void sendTriggers() {
+    List<JSONObject> batch = new ArrayList<>();
+    while (true) {
+      try {
+        batch.add(triggerQueue.take());
+        if (batchWindow > 0) {
+          Thread.sleep(batchWindow);
+        }
+        triggerQueue.drainTo(batch, maxBatchSize - 1);
+        sendBatch(batch);
+      } catch (InterruptedException e) {
+        return;
+      } catch (Exception | Error ex) {
+        // catching everything here, otherwise the sender thread dies silently
+        ex.printStackTrace();
+      }
+      batch.clear();
+    }
+  }
 
-        GNSConfig.getLogger().log(Level.FINE, "Trigger to CS guid {0} attrValJSON {1}",
-                new Object[]{guid, attrValJSON});
+  private void sendBatch(List<JSONObject> batch) {
+    // guid to the attributes updated in the batch in the order they were first updated
+    Map<String, JSONObject> updates = new LinkedHashMap<>();
+    for (JSONObject jsonFormattedCommand : batch) {
+      try {
+        addTrigger(jsonFormattedCommand, updates);
+      } catch (JSONException e) {
+        GNSConfig.getLogger().log(Level.WARNING, "Unable to parse trigger {0}: {1}",
+                new Object[]{jsonFormattedCommand, e});
+      }
+    }
+    GNSConfig.getLogger().log(Level.FINE, "Sending {0} updates to CS for {1} triggers",
+            new Object[]{updates.size(), batch.size()});
+    for (Map.Entry<String, JSONObject> update : updates.entrySet()) {
+      if (update.getValue().length() == 0) {
+        continue;
+      }
+      csClient.sendUpdateWithCallBack(update.getKey(), null, update.getValue(), -1,
+              csNoopUpdateReply, csNoopCallBack);
+      updatesSent.incrementAndGet();
+    }
+  }
 
-        csClient.sendUpdateWithCallBack(guid, null, attrValJSON, -1, 
-        		csNoopUpdateReply, csNoopCallBack);
+  private void addTrigger(JSONObject jsonFormattedCommand, Map<String, JSONObject> updates)
+          throws JSONException {
+    // code copied exactly from AbstractUpdate class
+    String guid = jsonFormattedCommand.getString(GNSProtocol.GUID.toString());
+    String field = jsonFormattedCommand.optString(GNSProtocol.FIELD.toString(), null);
+    String value = jsonFormattedCommand.optString(GNSProtocol.VALUE.toString(), null);
+    JSONObject userJSON = jsonFormattedCommand.has(GNSProtocol.USER_JSON.toString()) ? new JSONObject(jsonFormattedCommand.getString(GNSProtocol.USER_JSON.toString())) : null;
+
+    JSONObject attrValJSON = updates.get(guid);
+    if (attrValJSON == null) {
+      attrValJSON = new JSONObject();
+      updates.put(guid, attrValJSON);
+    }
+    if (field == null) {
+      // full json update
+      // send the full JSON, contextServiceClient will check what attributes are supported
+      // by context service and send them to CS
+      GNSConfig.getLogger().log(Level.FINE, "Trigger to CS guid {0} userJSON {1}",
+              new Object[]{guid, userJSON});
+      if (userJSON != null) {
+        Iterator<?> keys = userJSON.keys();
+        while (keys.hasNext()) {
+          String key = (String) keys.next();
+          attrValJSON.put(key, userJSON.get(key));
+        }
       }
-    } catch (Exception | Error ex) {
-      ex.printStackTrace();
+    } else {
+      // single field update
+      GNSConfig.getLogger().log(Level.FINE, "Trigger to CS guid {0} field {1} value {2}",
+              new Object[]{guid, field, value});
+      attrValJSON.put(field, value);
     }
   }
 
@@ -1,5 +1,6 @@
 package edu.umass.cs.contextservice.integration;
 
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.AbstractCommand;
@@ -32,4 +33,12 @@ public interface ContextServiceGNSInterface {
    * @param blocking
    */
   public void sendTiggerOnGnsCommand(JSONObject jsonFormattedCommand, AbstractCommand command, boolean blocking);
+
+  /**
+   * Returns the counts of triggers and updates sent to the context service.
+   *
+   * @return a JSONObject
+   * @throws JSONException
+   */
+  public JSONObject getStats() throws JSONException;
 }
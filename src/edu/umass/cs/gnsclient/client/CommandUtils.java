@@ -138,7 +138,11 @@ public class CommandUtils {
    * @throws JSONException
    */
   public static void addMessageWithoutSignatureToJSON(JSONObject command) throws JSONException {
+    Object signedMessage = command.remove(GNSProtocol.SIGNED_MESSAGE.toString());
     if (command.has(GNSProtocol.SIGNATURE.toString())) {
+      if (signedMessage instanceof String && useSignedMessage(command, (String) signedMessage)) {
+        return;
+      }
       String signature = command.getString(GNSProtocol.SIGNATURE.toString());
       command.remove(GNSProtocol.SIGNATURE.toString());
       String commandSansSignature = CanonicalJSON.getCanonicalForm(command);
@@ -147,6 +151,59 @@ public class CommandUtils {
     }
   }
 
+  // The fields that decide where a command is sent and how it's handled.
+  // These are looked at before the signature is checked so they have to
+  // match the signed message.
+  private static final String[] ROUTING_FIELDS = {GNSProtocol.COMMAND_INT.toString(),
+    GNSProtocol.GUID.toString(), GNSProtocol.NAME.toString()};
+
+  /**
+   * Uses the message the client sent in {@link GNSProtocol#SIGNED_MESSAGE} as
+   * the message to check the signature against instead of rendering the
+   * canonical form of the command. The fields of the command are replaced by
+   * the ones in the signed message so that what gets executed is exactly
+   * what was signed.
+   *
+   * @param command
+   * @param signedMessage
+   * @return false if the signed message doesn't match the command in which
+   * case the command is left alone
+   * @throws JSONException
+   */
+  private static boolean useSignedMessage(JSONObject command, String signedMessage)
+          throws JSONException {
+    JSONObject signed;
+    try {
+      signed = new JSONObject(signedMessage);
+    } catch (JSONException e) {
+      return false;
+    }
+    for (String field : ROUTING_FIELDS) {
+      String value = command.optString(field, null);
+      if (value == null ? signed.has(field) : !value.equals(signed.optString(field, null))) {
+        return false;
+      }
+    }
+    String signature = command.getString(GNSProtocol.SIGNATURE.toString());
+    String[] keys = JSONObject.getNames(command);
+    if (keys != null) {
+      for (String key : keys) {
+        if (!signed.has(key)) {
+          command.remove(key);
+        }
+      }
+    }
+    keys = JSONObject.getNames(signed);
+    if (keys != null) {
+      for (String key : keys) {
+        command.put(key, signed.get(key));
+      }
+    }
+    command.put(GNSProtocol.SIGNATURE.toString(), signature).put(GNSProtocol.SIGNATUREFULLMESSAGE.toString(),
+            signedMessage);
+    return true;
+  }
+
   /**
    * @param cvrp
    * @return Response
@@ -366,6 +423,9 @@ public class CommandUtils {
         signatureString = CryptoUtils.signDigestOfMessage(guidEntry, canonicalJSON);
       }
       result.put(GNSProtocol.SIGNATURE.toString(), signatureString);
+      if (Config.getGlobalBoolean(GNSCC.SEND_SIGNED_MESSAGE)) {
+        result.put(GNSProtocol.SIGNED_MESSAGE.toString(), canonicalJSON);
+      }
       if (edu.umass.cs.utils.Util.oneIn(10)) {
         DelayProfiler.updateDelayNano("signature", t);
       }
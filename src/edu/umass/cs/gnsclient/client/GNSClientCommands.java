@@ -34,6 +34,7 @@ import java.security.PublicKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import org.json.JSONException;
 import edu.umass.cs.gnscommon.GNSProtocol;
@@ -415,6 +416,98 @@ public class GNSClientCommands extends GNSClient {
     return execute(GNSCommand.selectQuery(reader, query)).getResultJSONArray();
   }
 
+  /**
+   * Selects one page of the records that match query. Returns a JSONObject
+   * containing a JSONArray of the guids in the page and the cursor to pass
+   * in to get the next page. The cursor is missing after the last page.
+   *
+   * To read all the results:
+   * <pre>
+   * String cursor = null;
+   * do {
+   *   JSONObject page = client.selectQueryPage(query, cursor, 1000);
+   *   JSONArray guids = page.getJSONArray(GNSProtocol.SELECT_GUIDS.toString());
+   *   cursor = page.optString(GNSProtocol.SELECT_CURSOR.toString(), null);
+   * } while (cursor != null);
+   * </pre>
+   *
+   * @param query
+   * - the query
+   * @param cursor
+   * - the cursor of the previous page or null for the first page
+   * @param pageSize
+   * - the maximum number of guids in the page
+   * @return - a JSONObject
+   * @throws edu.umass.cs.gnscommon.exceptions.client.ClientException
+   * if a protocol error occurs or the list cannot be parsed
+   * @throws java.io.IOException
+   * if a communication error occurs
+   */
+  public JSONObject selectQueryPage(String query, String cursor, int pageSize) throws ClientException, IOException {
+    return execute(GNSCommand.selectQueryPage(query, cursor, pageSize)).getResultJSONObject();
+  }
+
+  /**
+   * Selects one page of the records that match query. See
+   * {@link #selectQueryPage(String, String, int)}.
+   *
+   * @param reader
+   * @param query
+   * - the query
+   * @param cursor
+   * - the cursor of the previous page or null for the first page
+   * @param pageSize
+   * - the maximum number of guids in the page
+   * @return - a JSONObject
+   * @throws edu.umass.cs.gnscommon.exceptions.client.ClientException
+   * if a protocol error occurs or the list cannot be parsed
+   * @throws java.io.IOException
+   * if a communication error occurs
+   */
+  public JSONObject selectQueryPage(GuidEntry reader, String query, String cursor, int pageSize)
+          throws ClientException, IOException {
+    return execute(GNSCommand.selectQueryPage(reader, query, cursor, pageSize)).getResultJSONObject();
+  }
+
+  /**
+   * Selects the records that match query and returns the given fields of
+   * each of them. Returns a JSONObject mapping each guid to a JSONObject of
+   * its fields.
+   *
+   * @param query
+   * - the query
+   * @param fields
+   * - the fields to return
+   * @return - a JSONObject
+   * @throws edu.umass.cs.gnscommon.exceptions.client.ClientException
+   * if a protocol error occurs or the list cannot be parsed
+   * @throws java.io.IOException
+   * if a communication error occurs
+   */
+  public JSONObject selectQueryWithFields(String query, List<String> fields) throws ClientException, IOException {
+    return execute(GNSCommand.selectQueryWithFields(query, fields)).getResultJSONObject();
+  }
+
+  /**
+   * Selects the records that match query and returns the given fields of
+   * each of them. See {@link #selectQueryWithFields(String, List)}.
+   *
+   * @param reader
+   * @param query
+   * - the query
+   * @param fields
+   * - the fields to return
+   * @return - a JSONObject
+   * @throws edu.umass.cs.gnscommon.exceptions.client.ClientException
+   * if a protocol error occurs or the list cannot be parsed
+   * @throws java.io.IOException
+   * if a communication error occurs
+   */
+  public JSONObject selectQueryWithFields(GuidEntry reader, String query, List<String> fields)
+          throws ClientException, IOException {
+    return execute(GNSCommand.selectQueryWithFields(reader, query, fields)).getResultJSONObject();
+  }
+
   /**
    * Set up a context aware group guid using a query. Requires a accountGuid
    * and a publicKey which are used to set up the new guid or look it up if it
@@ -78,6 +78,14 @@ public class GNSClientConfig {
      * CommandValueReturnPacket, etc.
      */
     BYTE_MODE(0),
+    /**
+     * If set to true, signed commands also carry the exact message that was
+     * signed so that the server can verify the signature over it instead of
+     * rendering the canonical form of the command again. This makes large
+     * commands bigger on the wire and requires servers that understand
+     * {@link edu.umass.cs.gnscommon.GNSProtocol#SIGNED_MESSAGE}.
+     */
+    SEND_SIGNED_MESSAGE(false),
     /**
      * If set to true, the client uses java preferences to store keys rather than DerbyDB.
      * Specifically, KeyPairUtils class uses JavaPreferences instead of DerbyDB.
@@ -1574,6 +1574,113 @@ public class GNSCommand extends CommandPacket {
             GNSProtocol.QUERY.toString(), query);
   }
 
+  /**
+   * Selects one page of the guid records that match {@code query}. The
+   * result type of the execution result of this query is
+   * {@link CommandResultType#MAP}. The map contains the guids of the page
+   * as a list under {@link GNSProtocol#SELECT_GUIDS} and the cursor of the
+   * next page under {@link GNSProtocol#SELECT_CURSOR}. The cursor is
+   * missing after the last page. Pages are in guid order.
+   * Requires all fields accessed to be world readable.
+   *
+   * Unlike {@link #selectQuery(String)} this can be used to read any
+   * number of results without the servers or the client having to hold
+   * all of them at once.
+   *
+   * @param query
+   * The select query being issued.
+   * @param cursor
+   * The cursor returned with the previous page or null for the first page.
+   * @param pageSize
+   * The maximum number of guids in the page.
+   * @return CommandPacket
+   * @throws ClientException
+   */
+  public static final CommandPacket selectQueryPage(String query, String cursor, int pageSize)
+          throws ClientException {
+    return cursor == null
+            ? getCommand(CommandType.SelectQueryPage,
+                    GNSProtocol.QUERY.toString(), query,
+                    GNSProtocol.PAGE_SIZE.toString(), pageSize)
+            : getCommand(CommandType.SelectQueryPage,
+                    GNSProtocol.QUERY.toString(), query,
+                    GNSProtocol.PAGE_SIZE.toString(), pageSize,
+                    GNSProtocol.SELECT_CURSOR.toString(), cursor);
+  }
+
+  /**
+   * Selects one page of the guid records that match {@code query}. See
+   * {@link #selectQueryPage(String, String, int)}.
+   *
+   * @param reader
+   * @param query
+   * The select query being issued.
+   * @param cursor
+   * The cursor returned with the previous page or null for the first page.
+   * @param pageSize
+   * The maximum number of guids in the page.
+   * @return CommandPacket
+   * @throws ClientException
+   */
+  public static final CommandPacket selectQueryPage(GuidEntry reader, String query, String cursor, int pageSize)
+          throws ClientException {
+    return cursor == null
+            ? getCommand(CommandType.SelectQueryPage, reader,
+                    GNSProtocol.GUID.toString(), reader.getGuid(),
+                    GNSProtocol.QUERY.toString(), query,
+                    GNSProtocol.PAGE_SIZE.toString(), pageSize)
+            : getCommand(CommandType.SelectQueryPage, reader,
+                    GNSProtocol.GUID.toString(), reader.getGuid(),
+                    GNSProtocol.QUERY.toString(), query,
+                    GNSProtocol.PAGE_SIZE.toString(), pageSize,
+                    GNSProtocol.SELECT_CURSOR.toString(), cursor);
+  }
+
+  /**
+   * Selects all guid records that match {@code query} and returns
+   * {@code fields} of each of them. The result type of the execution result
+   * of this query is {@link CommandResultType#MAP}. The map contains a map
+   * of the fields of each guid keyed by the guid.
+   * Requires all fields accessed to be world readable.
+   *
+   * Only the requested fields are read and sent so this is much cheaper
+   * than a {@link #selectQuery(String)} followed by a read of each guid.
+   *
+   * @param query
+   * The select query being issued.
+   * @param fields
+   * The fields to return.
+   * @return CommandPacket
+   * @throws ClientException
+   */
+  public static final CommandPacket selectQueryWithFields(String query, List<String> fields)
+          throws ClientException {
+    return getCommand(CommandType.SelectQueryWithFields,
+            GNSProtocol.QUERY.toString(), query,
+            GNSProtocol.FIELDS.toString(), fields);
+  }
+
+  /**
+   * Selects all guid records that match {@code query} and returns
+   * {@code fields} of each of them. See
+   * {@link #selectQueryWithFields(String, List)}.
+   *
+   * @param reader
+   * @param query
+   * The select query being issued.
+   * @param fields
+   * The fields to return.
+   * @return CommandPacket
+   * @throws ClientException
+   */
+  public static final CommandPacket selectQueryWithFields(GuidEntry reader, String query, List<String> fields)
+          throws ClientException {
+    return getCommand(CommandType.SelectQueryWithFields, reader,
+            GNSProtocol.GUID.toString(), reader.getGuid(),
+            GNSProtocol.QUERY.toString(), query,
+            GNSProtocol.FIELDS.toString(), fields);
+  }
+
   /**
    * Set up a context-aware group guid corresponding to the query. Requires
    * {@code accountGuid} and {@code publicKey} that are used to set up the new
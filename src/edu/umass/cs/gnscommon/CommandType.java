@@ -729,6 +729,37 @@ public enum CommandType {
           new String[]{GNSProtocol.GUID.toString(), // the reader
                   GNSProtocol.SIGNATURE.toString(),
                   GNSProtocol.SIGNATUREFULLMESSAGE.toString()}),
+  /**
+   *
+   */
+  SelectQueryPage(323, CommandCategory.SELECT, "edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.select.SelectQueryPage",
+          CommandResultType.MAP, false, false,
+          "Returns one page of the guids of all records that satisfy the query. "
+                  + "For details see http://gns.name/wiki/index.php/Query_Syntax "
+                  + "Pages are in guid order. Leave out the cursor to get the first page. "
+                  + "Values are returned as a JSON object with the guids of the page in a JSON array "
+                  + "and the cursor of the next page which is missing after the last page.",
+          new String[]{GNSProtocol.QUERY.toString(),
+                  GNSProtocol.PAGE_SIZE.toString()},
+          // optional parameters
+          new String[]{GNSProtocol.SELECT_CURSOR.toString(),
+                  GNSProtocol.GUID.toString(), // the reader
+                  GNSProtocol.SIGNATURE.toString(),
+                  GNSProtocol.SIGNATUREFULLMESSAGE.toString()}),
+  /**
+   *
+   */
+  SelectQueryWithFields(324, CommandCategory.SELECT, "edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.select.SelectQueryWithFields",
+          CommandResultType.MAP, false, false,
+          "Returns the guids of all records that satisfy the query along with the given fields of each of them. "
+                  + "For details see http://gns.name/wiki/index.php/Query_Syntax "
+                  + "Values are returned as a JSON object mapping each guid to a JSON object of its fields.",
+          new String[]{GNSProtocol.QUERY.toString(),
+                  GNSProtocol.FIELDS.toString()},
+          // optional parameters
+          new String[]{GNSProtocol.GUID.toString(), // the reader
+                  GNSProtocol.SIGNATURE.toString(),
+                  GNSProtocol.SIGNATUREFULLMESSAGE.toString()}),
   //
   // Select commands that maintain a group guid
   //
@@ -1846,6 +1877,8 @@ public enum CommandType {
     SelectNear.setChain();
     SelectWithin.setChain();
     SelectQuery.setChain();
+    SelectQueryPage.setChain();
+    SelectQueryWithFields.setChain();
     //
     AddGuid.setChain(LookupGuid, ReplaceUserJSONUnsigned, ReadUnsigned); // what else?
     RemoveGuid.setChain(ReadUnsigned);
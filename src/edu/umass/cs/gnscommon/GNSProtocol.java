@@ -304,6 +304,19 @@ public enum GNSProtocol {
    * to determine refresh interval.
    */
   INTERVAL("interval"),
+  /**
+   * The cursor field in a command and its result. Used for paged selects
+   * to say where the next page starts.
+   */
+  SELECT_CURSOR("cursor"),
+  /**
+   * The page size field in a command. Used for paged selects.
+   */
+  PAGE_SIZE("pageSize"),
+  /**
+   * The guids field in the result of a paged select.
+   */
+  SELECT_GUIDS("guids"),
   /**
    * Used in commands to represent the use of all fields.
    */
@@ -344,6 +357,12 @@ public enum GNSProtocol {
    * The message that was signed field in a command packet.
    */
   SIGNATUREFULLMESSAGE("_signatureFullMessage_"),
+  /**
+   * The exact message the client signed, sent along with the command so the
+   * server doesn't have to render the canonical form again.
+   * See {@link edu.umass.cs.gnsclient.client.GNSClientConfig.GNSCC#SEND_SIGNED_MESSAGE}.
+   */
+  SIGNED_MESSAGE("_signedMessage_"),
   // Special fields for ACL
   /**
    *
@@ -21,11 +21,16 @@ import edu.umass.cs.gnscommon.ResponseCode;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.CommandResponse;
 import edu.umass.cs.gnsserver.gnsapp.packet.BasicPacketWithClientAddress;
 import edu.umass.cs.gnsserver.gnsapp.packet.Packet;
+import edu.umass.cs.gnsserver.gnsapp.packet.PacketBytes;
 import edu.umass.cs.gnsserver.gnsapp.packet.Packet.PacketType;
+import edu.umass.cs.nio.JSONPacket;
 import edu.umass.cs.nio.MessageNIOTransport;
+import edu.umass.cs.nio.interfaces.Byteable;
+import edu.umass.cs.reconfiguration.reconfigurationutils.RequestParseException;
 import edu.umass.cs.utils.Util;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 
 import org.json.JSONException;
@@ -38,7 +43,7 @@ import org.json.JSONObject;
  *
  */
 public class ResponsePacket extends BasicPacketWithClientAddress
-        implements ClientRequest {
+        implements ClientRequest, Byteable {
 
   private final static String QID = GNSProtocol.REQUEST_ID.toString();
   private final static String NAME = GNSProtocol.SERVICE_NAME.toString();
@@ -191,90 +196,117 @@ public class ResponsePacket extends BasicPacketWithClientAddress
   }
 
   /**
-   * Converts the CommandValueReturnPacket to a byte array.
+   * Version of the byte format written by {@link #toBinaryBytes()}. Bump this
+   * whenever the layout changes so that receivers can reject packets they
+   * don't understand instead of misparsing them.
+   */
+  private static final byte BYTES_VERSION = 1;
+
+  /**
+   * Converts the ResponsePacket to bytes. Unless BYTE_MODE is set this is
+   * just the JSON form so that receivers that only speak JSON still work.
    *
-   * @return The byte array
+   * @return Refer {@link Byteable#toBytes()}
    */
+  @Override
   public byte[] toBytes() {
+    if (PacketBytes.SEND_BYTES) {
+      return toBinaryBytes();
+    }
     try {
-
-      // We need to include the following fields in our byte array:
-      // private long clientRequestId; - 8 bytes
-      // private long LNSRequestId; - 8 bytes
-      // private final ResponseCode errorCode; - Represented by an
-      // integer - 4 bytes
-      // serviceName String's length - an int - 4 bytes
-      // private final String serviceName; - variable length
-      // returnValue String's length - ant int - 4 bytes
-      // private final String returnValue; - variable length
-      int errorCodeInt = errorCode.getCodeValue();
-      byte[] serviceNameBytes = serviceName
-              .getBytes(MessageNIOTransport.NIO_CHARSET_ENCODING);
-      byte[] returnValueBytes = returnValue
+      return this.toJSONObject().toString()
               .getBytes(MessageNIOTransport.NIO_CHARSET_ENCODING);
+    } catch (JSONException | UnsupportedEncodingException e) {
+      throw new RuntimeException("Unable to byteify " + this, e);
+    }
+  }
 
+  /**
+   * Converts the ResponsePacket to its byte form regardless of BYTE_MODE.
+   *
+   * The byte form is:
+   * packet type - int
+   * version - byte
+   * clientRequestId - long
+   * errorCode - int
+   * serviceName - int length followed by UTF-8 bytes, length -1 for null
+   * returnValue - int length followed by UTF-8 bytes, length -1 for null
+   *
+   * @return the bytes
+   */
+  public byte[] toBinaryBytes() {
+    try {
+      byte[] serviceNameBytes = PacketBytes.encode(serviceName);
+      byte[] returnValueBytes = PacketBytes.encode(returnValue);
       ByteBuffer buf = ByteBuffer.allocate(
+              // packet type
+              Integer.BYTES
+              // version
+              + 1
               // requestID
-              Long.BYTES
+              + Long.BYTES
               // error code
               + Integer.BYTES
-              // name length
-              + Integer.BYTES
-              // name bytes
-              + serviceNameBytes.length
-              // returnValue length
-              + Integer.BYTES
-              // returnValue bytes
-              + returnValueBytes.length);
-
-      // requestID
-      buf.putLong(clientRequestId)
-              // error code
-              .putInt(errorCodeInt)
-              // name length
-
-              // name bytes
-              .putInt(serviceNameBytes.length)
-              .put(serviceNameBytes)
-              // returnValue length
-              .putInt(returnValueBytes.length)
-              // returnValue bytes
-              .put(returnValueBytes);
-
+              // name length and bytes
+              + PacketBytes.sizeOf(serviceNameBytes)
+              // returnValue length and bytes
+              + PacketBytes.sizeOf(returnValueBytes));
+      buf.putInt(getType().getInt())
+              .put(BYTES_VERSION)
+              .putLong(clientRequestId)
+              .putInt(errorCode != null ? errorCode.getCodeValue()
+                      : ResponseCode.NO_ERROR.getCodeValue());
+      PacketBytes.putBytes(buf, serviceNameBytes);
+      PacketBytes.putBytes(buf, returnValueBytes);
       return buf.array();
     } catch (UnsupportedEncodingException e) {
-      throw new RuntimeException(e);
+      throw new RuntimeException("Unable to byteify " + this, e);
     }
+  }
 
+  /**
+   * Reconstructs a ResponsePacket from the bytes created by
+   * {@link #toBinaryBytes()}. The buffer is positioned just after the packet type.
+   *
+   * @param buf
+   * @throws RequestParseException
+   */
+  public ResponsePacket(ByteBuffer buf) throws RequestParseException {
+    this.setType(PacketType.COMMAND_RETURN_VALUE);
+    PacketBytes.checkVersion(buf, BYTES_VERSION, getType());
+    try {
+      this.clientRequestId = buf.getLong();
+      this.errorCode = ResponseCode.getResponseCode(buf.getInt());
+      this.serviceName = PacketBytes.getString(buf);
+      this.returnValue = PacketBytes.getString(buf);
+    } catch (UnsupportedEncodingException | BufferUnderflowException e) {
+      throw new RequestParseException(e);
+    }
   }
 
   /**
-   * Constructs a CommandValueReturnPacket from a byte array.
+   * Constructs a ResponsePacket from a byte array in either of the forms
+   * created by {@link #toBytes()}.
    *
    * @param bytes
-   * The byte array created by the toBytes method of a
-   * CommandValueReturnPacket
-   * @return The CommandValueReturnPacket represented by the bytes
-   * @throws UnsupportedEncodingException
+   * The byte array created by the toBytes method of a ResponsePacket
+   * @return The ResponsePacket represented by the bytes
+   * @throws RequestParseException
    */
   public static final ResponsePacket fromBytes(byte[] bytes)
-          throws UnsupportedEncodingException {
-    ByteBuffer buf = ByteBuffer.wrap(bytes);
-    long clientReqId = buf.getLong();
-    int errorCodeInt = buf.getInt();
-    int serviceNameLength = buf.getInt();
-    byte[] serviceNameBytes = new byte[serviceNameLength];
-    buf.get(serviceNameBytes);
-    String serviceNameString = new String(serviceNameBytes,
-            MessageNIOTransport.NIO_CHARSET_ENCODING);
-    int returnValueLength = buf.getInt();
-    byte[] returnValueBytes = new byte[returnValueLength];
-    buf.get(returnValueBytes);
-    String returnValueString = new String(returnValueBytes,
-            MessageNIOTransport.NIO_CHARSET_ENCODING);
-    return new ResponsePacket(clientReqId, errorCodeInt,
-            serviceNameString, returnValueString);
-
+          throws RequestParseException {
+    try {
+      if (JSONPacket.couldBeJSON(bytes)) {
+        return new ResponsePacket(new JSONObject(new String(bytes,
+                MessageNIOTransport.NIO_CHARSET_ENCODING)));
+      }
+      ByteBuffer buf = ByteBuffer.wrap(bytes);
+      // packet type
+      buf.getInt();
+      return new ResponsePacket(buf);
+    } catch (JSONException | UnsupportedEncodingException | BufferUnderflowException e) {
+      throw new RequestParseException(e);
+    }
   }
 
   /**
@@ -48,6 +48,12 @@ public class ActiveCodeConfig {
 	   */
 	  public static int activeWorkerHeapSize = 128;
 	  
+	  /**
+	   * Number of compiled scripts (by content hash) and of guid script 
+	   * contexts each worker keeps before evicting the least recently used
+	   */
+	  public static int activeWorkerCodeCacheSize = 1000;
+	  
 	  /**
 	   * To use GeoIP API, put the binary DB file to the proper path.
 	   */
@@ -87,6 +93,8 @@ public class ActiveCodeConfig {
 	  
 	  private static final String ACTIVE_WORKER_HEAP_SIZE = "ACTIVE_WORKER_HEAP_SIZE";
 	  
+	  private static final String ACTIVE_WORKER_CODE_CACHE_SIZE = "ACTIVE_WORKER_CODE_CACHE_SIZE";
+	  
 	  private static final String ACTIVE_GEOIP_FILE_PATH = "ACTIVE_GEOIP_FILE_PATH";
 	  
 	  private static final String ACTIVE_REQUEST_TIMEOUT = "ACTIVE_REQUEST_TIMEOUT";
@@ -132,6 +140,10 @@ public class ActiveCodeConfig {
 		    	activeWorkerHeapSize = Integer.parseInt(allValues.getProperty(ACTIVE_WORKER_HEAP_SIZE));
 		    }
 		    
+		    if(allValues.containsKey(ACTIVE_WORKER_CODE_CACHE_SIZE)){
+		    	activeWorkerCodeCacheSize = Integer.parseInt(allValues.getProperty(ACTIVE_WORKER_CODE_CACHE_SIZE));
+		    }
+		    
 		    if(allValues.containsKey(ACTIVE_REQUEST_TIMEOUT)) {
 		    	activeRequestTimeout = Integer.parseInt(allValues.getProperty(ACTIVE_REQUEST_TIMEOUT));
 		    }
@@ -24,7 +24,11 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,7 +42,6 @@ import edu.umass.cs.gnscommon.exceptions.server.FieldNotFoundException;
 import edu.umass.cs.gnscommon.exceptions.server.InternalRequestException;
 import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
 import edu.umass.cs.gnscommon.utils.Base64;
-import edu.umass.cs.gnsserver.activecode.prototype.ActiveException;
 import edu.umass.cs.gnsserver.activecode.prototype.ActiveHandler;
 import edu.umass.cs.gnsserver.database.ColumnFieldType;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.ActiveCode;
@@ -142,17 +145,51 @@ public class ActiveCodeHandler {
    */
   private static JSONObject runCode(InternalRequestHeader header, String code, String guid, String accessor, 
           String action, JSONObject value, int activeCodeTTL) throws InternalRequestException {
+    return join(runCodeAsync(header, code, guid, accessor, action, value, activeCodeTTL));
+  }
+
+  private static CompletableFuture<JSONObject> runCodeAsync(InternalRequestHeader header, String code, String guid,
+          String accessor, String action, JSONObject value, int activeCodeTTL) {
+    final CompletableFuture<JSONObject> result = new CompletableFuture<>();
+    handler.runCodeAsync(header, guid, accessor, code, value, activeCodeTTL).whenComplete(
+            new BiConsumer<JSONObject, Throwable>() {
+      @Override
+      public void accept(JSONObject value, Throwable e) {
+        if (e == null) {
+          result.complete(value);
+          return;
+        }
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        ActiveCodeHandler.getLogger().log(Level.INFO, "ActiveGNS request execution failed", cause);
+        /**
+         * return the original value without executing, as there is an error
+         * returned from the worker. The error indicates that the code failed
+         * to execute on worker.
+         * Note: cannot return null as specified by gigapaxos execute method
+         */
+        result.completeExceptionally(new InternalRequestException(ResponseCode.INTERNAL_REQUEST_EXCEPTION,
+                "ActiveGNS request execution failed:" + cause.getMessage()));
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Waits for the result of {@link #handleActiveCodeAsync}.
+   */
+  private static JSONObject join(CompletableFuture<JSONObject> future) throws InternalRequestException {
     try {
-      return handler.runCode(header, guid, accessor, code, value, activeCodeTTL);
-    } catch (ActiveException e) {
-      ActiveCodeHandler.getLogger().log(Level.INFO, "ActiveGNS request execution failed", e);
-      /**
-       * return the original value without executing, as there is an error
-       * returned from the worker. The error indicates that the code failed
-       * to execute on worker.
-       * Note: cannot return null as specified by gigapaxos execute method
-       */
-      throw new InternalRequestException(ResponseCode.INTERNAL_REQUEST_EXCEPTION, "ActiveGNS request execution failed:" + e.getMessage());
+      return future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof InternalRequestException) {
+        throw (InternalRequestException) e.getCause();
+      }
+      throw new InternalRequestException(ResponseCode.INTERNAL_REQUEST_EXCEPTION,
+              "ActiveGNS request execution failed:" + e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InternalRequestException(ResponseCode.INTERNAL_REQUEST_EXCEPTION,
+              "ActiveGNS request execution interrupted");
     }
   }
 
@@ -174,12 +211,31 @@ public class ActiveCodeHandler {
   public static JSONObject handleActiveCode(InternalRequestHeader header,
           String guid, String field, String action, JSONObject value, BasicRecordMap db) 
           throws InternalRequestException {
+    return join(handleActiveCodeAsync(header, guid, field, action, value, db));
+  }
+
+  /**
+   * Same as {@link #handleActiveCode} but the calling thread only fetches the
+   * code and does not wait for the worker to run it. The returned future
+   * completes with the processed result or exceptionally with an
+   * InternalRequestException.
+   *
+   * @param header header is needed for depth query
+   * @param guid
+   * @param field
+   * @param action the actions in {@code ActiveCode}
+   * @param value
+   * @param db db is needed for fetching active code to run
+   * @return a future of the processed result
+   */
+  public static CompletableFuture<JSONObject> handleActiveCodeAsync(InternalRequestHeader header,
+          String guid, String field, String action, final JSONObject value, BasicRecordMap db) {
 
     if (Config.getGlobalBoolean(GNSConfig.GNSC.DISABLE_ACTIVE_CODE)) {
-      return value;
+      return CompletableFuture.completedFuture(value);
     }
 
-    long t = System.nanoTime();
+    final long t = System.nanoTime();
     ActiveCodeHandler.getLogger().log(DEBUG_LEVEL,
             "OOOOOOOOOOOOO handles:[guid:{0},field:{1},action:{2},value:{3},header:{4}]",
             new Object[]{guid, field, action, value, header});
@@ -196,9 +252,8 @@ public class ActiveCodeHandler {
      */
     if (action.equals(ActiveCode.READ_ACTION) && field != null && InternalField.isInternalField(field)
             || (action.equals(ActiveCode.WRITE_ACTION) && value != null && containInternalField(value))) {
-      return value;
+      return CompletableFuture.completedFuture(value);
     }
-    JSONObject newResult = value;
     if (field == null || !InternalField.isInternalField(field)) {
       //FIXME: Seems like this field lookup all could be replaced by something 
       // like NSFieldAccess.lookupJSONFieldLocalNoAuth
@@ -208,7 +263,7 @@ public class ActiveCodeHandler {
                 ColumnFieldType.USER_JSON, ActiveCode.getCodeField(action));
       } catch (RecordNotFoundException | FailedDBOperationException | IllegalArgumentException e) {
         e.printStackTrace();
-        return value;
+        return CompletableFuture.completedFuture(value);
       }
 
       ValuesMap codeMap = null;
@@ -216,7 +271,7 @@ public class ActiveCodeHandler {
         codeMap = activeCodeNameRecord.getValuesMap();
       } catch (FieldNotFoundException e) {
         e.printStackTrace();
-        return value;
+        return CompletableFuture.completedFuture(value);
       }
 
       if (codeMap != null && value != null) {
@@ -224,17 +279,23 @@ public class ActiveCodeHandler {
         try {
           code = codeMap.getString(ActiveCode.getCodeField(action));
         } catch (JSONException | IllegalArgumentException e) {
-          return value;
+          return CompletableFuture.completedFuture(value);
         }
         String accessorGuid = header == null ? guid : header.getOriginatingGUID();
-        newResult = runCode(header, code, guid, accessorGuid, action, value, 5);
+        return runCodeAsync(header, code, guid, accessorGuid, action, value, 5).thenApply(
+                new Function<JSONObject, JSONObject>() {
+          @Override
+          public JSONObject apply(JSONObject newResult) {
+            ActiveCodeHandler.getLogger().log(DEBUG_LEVEL,
+                    "OOOOOOOOOOOOO The result after executing active code is {0}",
+                    new Object[]{newResult});
+            DelayProfiler.updateDelayNano("activeTotal", t);
+            return newResult;
+          }
+        });
       }
     }
-    ActiveCodeHandler.getLogger().log(DEBUG_LEVEL,
-            "OOOOOOOOOOOOO The result after executing active code is {0}",
-            new Object[]{newResult});
-    DelayProfiler.updateDelayNano("activeTotal", t);
-    return newResult;
+    return CompletableFuture.completedFuture(value);
   }
 
   /**
@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -130,6 +131,23 @@ public class ActiveHandler {
 		return clientPool[counter.getAndIncrement()%numProcess].runCode(header, guid, accessor, code, value, ttl, 2000);
 	}
 	
+	/**
+	 * Same as {@link #runCode} but returns without waiting
+	 * for the worker if the client is non-blocking.
+	 * 
+	 * @param header 
+	 * @param guid
+	 * @param accessor
+	 * @param code
+	 * @param value
+	 * @param ttl
+	 * @return a future of the executed result
+	 */
+	public CompletableFuture<JSONObject> runCodeAsync(InternalRequestHeader header, String guid, 
+			String accessor, String code, JSONObject value, int ttl){
+		return clientPool[counter.getAndIncrement()%numProcess].runCodeAsync(header, guid, accessor, code, value, ttl, 2000);
+	}
+	
 	/***************** Test methods ****************/	
 	/**
 	 * @param args
@@ -5,6 +5,9 @@ import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.json.JSONException;
@@ -21,6 +24,25 @@ public class ActiveMessage implements Message{
 	private final static String CHARSET = "ISO-8859-1";
 	private final static AtomicLong counter = new AtomicLong();
 	
+	private final static String CODE_HASH_ALGORITHM = "SHA-256";
+	private final static ThreadLocal<MessageDigest> codeDigests = new ThreadLocal<MessageDigest>(){
+		@Override
+		protected MessageDigest initialValue(){
+			try {
+				return MessageDigest.getInstance(CODE_HASH_ALGORITHM);
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+	
+	/**
+	 * The error a worker sends back for a REQUEST that carries only
+	 * a code hash the worker doesn't have compiled. The request
+	 * needs to be resent with the code.
+	 */
+	public final static String CODE_NOT_CACHED_ERROR = "Code is not cached by the worker";
+	
 	/**
 	 * Message type
 	 */
@@ -31,6 +53,7 @@ public class ActiveMessage implements Message{
 	private String guid;
 	private String accessor;
 	private String code;
+	private String codeHash;
 	private String value;
 	private String targetGuid;
 	private String error;
@@ -93,13 +116,31 @@ public class ActiveMessage implements Message{
 	 * @param error 
 	 */
 	public ActiveMessage(Type type, long id, int ttl, long budget, String guid, String accessor, String code, String value, String targetGuid, String error){
+		this(type, id, ttl, budget, guid, accessor, code, null, value, targetGuid, error);
+	}
+	
+	/**
+	 * @param type 
+	 * @param id 
+	 * @param guid
+	 * @param accessor
+	 * @param code
+	 * @param codeHash 
+	 * @param ttl
+	 * @param budget 
+	 * @param value  
+	 * @param targetGuid 
+	 * @param error 
+	 */
+	public ActiveMessage(Type type, long id, int ttl, long budget, String guid, String accessor, String code, String codeHash, String value, String targetGuid, String error){
 		this.type = type;
 		this.id = id;
 		this.ttl = ttl;
 		this.budget = budget;
 		this.guid = guid;
 		this.accessor = accessor;
-		this.code = code;		
+		this.code = code;
+		this.codeHash = codeHash;
 		this.value = value;
 		this.targetGuid = targetGuid;
 		this.error = error;
@@ -115,7 +156,36 @@ public class ActiveMessage implements Message{
 	 * @param budget 
 	 */
 	public ActiveMessage(String guid, String accessor, String code, String value, int ttl, long budget){
-		this(Type.REQUEST, counter.getAndIncrement(), ttl, budget, guid, accessor, code, value, null, null);
+		this(guid, accessor, code, null, value, ttl, budget);
+	}
+	
+	/**
+	 * This is a REQUEST message that identifies its code by codeHash.
+	 * The code can be null if the worker already has the code, see
+	 * {@link #computeCodeHash(String)}.
+	 * 
+	 * @param guid
+	 * @param accessor
+	 * @param code
+	 * @param codeHash
+	 * @param value
+	 * @param ttl
+	 * @param budget 
+	 */
+	public ActiveMessage(String guid, String accessor, String code, String codeHash, String value, int ttl, long budget){
+		this(Type.REQUEST, counter.getAndIncrement(), ttl, budget, guid, accessor, code, codeHash, value, null, null);
+	}
+	
+	/**
+	 * @param code
+	 * @return the content hash that identifies the code
+	 */
+	public static String computeCodeHash(String code){
+		try {
+			return Base64.getEncoder().encodeToString(codeDigests.get().digest(code.getBytes("UTF-8")));
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
 	}
 	
 	/**
@@ -183,11 +253,18 @@ public class ActiveMessage implements Message{
 	}
 	
 	/**
-	 * @return the code to be run
+	 * @return the code to be run, null if the request only carries the code hash
 	 */
 	public String getCode() {
 		return code;
 	}
+	
+	/**
+	 * @return the content hash of the code to be run, or null
+	 */
+	public String getCodeHash() {
+		return codeHash;
+	}
 
 	/**
 	 * @return value
@@ -218,49 +295,52 @@ public class ActiveMessage implements Message{
 	}
 	
 	/**
+	 * Strings are encoded in ISO-8859-1, so a string takes
+	 * exactly one byte per char after its length.
 	 * 
-	 * @return an integer estimated length
+	 * @return the exact number of bytes {@link #writeTo(ByteBuffer)} writes
 	 */
-	private int getEstimatedLengthExceptWithoutValue(){
-		int length = 0;
+	public int getSerializedLength(){
+		int length = Integer.BYTES + Long.BYTES; // type, id
 		switch(type){
 		case REQUEST:
-			length = 6*Integer.BYTES // type, ttl, guid length, accessor length, code length, valuesMap size 
-			+ 2*Long.BYTES // id, budget
-			+ guid.length() // guid
-			+ (accessor!=null?accessor.length():0) // accessor
-			+ code.length();
+			length += Integer.BYTES + Long.BYTES // ttl, budget
+			+ stringLength(guid)
+			+ stringLength(accessor)
+			+ stringLength(codeHash)
+			+ stringLength(code)
+			+ stringLength(value);
 			break;
 			
 		case RESPONSE:
-			length = 3*Integer.BYTES // type, ttl, error length
-			+ Long.BYTES // id
-			+ (error != null?error.length():0);
+			length += stringLength(value)
+			+ stringLength(error);
 			break;
 			
 		case READ_QUERY:
-			length = 5*Integer.BYTES // type, ttl, guid length, accessor length, targetGuid length
-			+ Long.BYTES // id
-			+ guid.length()
-			+ accessor.length()
-			+ targetGuid.length();
+			length += Integer.BYTES // ttl
+			+ stringLength(guid)
+			+ stringLength(accessor)
+			+ stringLength(targetGuid);
 			break;
 			
 		case WRITE_QUERY:
-			length = 5*Integer.BYTES // type, ttl, guid length, accessor length, targetGuid length
-			+ Long.BYTES // id
-			+ guid.length()
-			+ accessor.length()
-			+ targetGuid.length();
+			length += Integer.BYTES // ttl
+			+ stringLength(guid)
+			+ stringLength(accessor)
+			+ stringLength(targetGuid)
+			+ stringLength(value);
 			break;
 			
 		default:
 			break;
 		}
-
-		return (int) (length*1.25);
+		return length;
 	}
 	
+	private static int stringLength(String s){
+		return Integer.BYTES + ((s != null)?s.length():0);
+	}
 	
 	/**
 	 * @return the byte array being serialized
@@ -268,141 +348,119 @@ public class ActiveMessage implements Message{
 	 */
 	@Override
 	public byte[] toBytes() throws UnsupportedEncodingException{
-		
-		//FIXME: one more step
-		String valuesMapString = value;
-		
-		byte[] buffer = new byte[this.getEstimatedLengthExceptWithoutValue()+( (valuesMapString==null)?0:valuesMapString.length() )];
-		ByteBuffer bbuf = ByteBuffer.wrap(buffer);
-		byte[] guidBytes,accessorBytes,codeBytes,valuesMapBytes,targetGuidBytes;
+		byte[] buffer = new byte[getSerializedLength()];
+		writeTo(ByteBuffer.wrap(buffer));
+		return buffer;
+	}
+	
+	/**
+	 * Serializes this message into bbuf, which must have at least
+	 * {@link #getSerializedLength()} bytes remaining. The strings
+	 * are encoded directly into the buffer without intermediate
+	 * byte arrays.
+	 * 
+	 * @param bbuf
+	 */
+	public void writeTo(ByteBuffer bbuf){
+		int start = bbuf.position();
 		
 		// put type and request id
 		bbuf.putInt(type.getType());
-		int exactLength = Integer.BYTES;
 		bbuf.putLong(id);
-		exactLength += Long.BYTES;
 		
 		switch(type){
 		case REQUEST:
-			// put ttl 
 			bbuf.putInt(ttl);
-			exactLength += Integer.BYTES;
-			
 			bbuf.putLong(budget);
-			exactLength += Long.BYTES;
-			
-			// put guid, can't be null, ~100ns
+			// guid can't be null
 			assert(guid != null):"guid can't be null for active request";
-			guidBytes = guid.getBytes(CHARSET);
-			bbuf.putInt(guidBytes.length);
-			bbuf.put(guidBytes);
-			exactLength += (Integer.BYTES + guidBytes.length);
-			
-			// put accessor, ~100ns			
-			accessorBytes = (accessor!=null)?accessor.getBytes(CHARSET):new byte[0];
-			bbuf.putInt((accessor!=null)?accessorBytes.length:0);
-			bbuf.put(accessorBytes);
-			exactLength += (Integer.BYTES + accessorBytes.length);
-			
-			// put code, can be null
-			assert(code != null):"code can't be null for active request";
-			codeBytes = code.getBytes(CHARSET);
-			bbuf.putInt( codeBytes.length );
-			bbuf.put(codeBytes);
-			exactLength += (Integer.BYTES + codeBytes.length);
-			
-			// put valuesMapString, can be null
-			assert(valuesMapString != null):"valuesMapString can't be null for active request";
-			valuesMapBytes = valuesMapString.getBytes(CHARSET);
-			bbuf.putInt( valuesMapBytes.length );
-			bbuf.put(valuesMapBytes);
-			exactLength += (Integer.BYTES + valuesMapBytes.length);
+			putString(bbuf, guid);
+			// accessor can be null
+			putString(bbuf, accessor);
+			// code hash can be null
+			putString(bbuf, codeHash);
+			// code can only be null if there is a code hash, -1 means null
+			assert(code != null || codeHash != null):"code and code hash can't both be null for active request";
+			if(code != null){
+				putString(bbuf, code);
+			}else{
+				bbuf.putInt(-1);
+			}
+			assert(value != null):"valuesMapString can't be null for active request";
+			putString(bbuf, value);
 			break;
 			
 		case READ_QUERY:
-			// put ttl
 			bbuf.putInt(ttl);
-			exactLength += Integer.BYTES;
-			
-			// put guid, can't be null, ~100ns
 			assert(guid != null):"guid can't be null for read query";
-			guidBytes = guid.getBytes(CHARSET);
-			bbuf.putInt(guidBytes.length);
-			bbuf.put(guidBytes);
-			exactLength += (Integer.BYTES + guidBytes.length);
-			
-			// put field, can't be null, ~100ns
+			putString(bbuf, guid);
 			assert(accessor != null):"field can't be null for read query";
-			accessorBytes = accessor.getBytes(CHARSET);
-			bbuf.putInt(accessorBytes.length);
-			bbuf.put(accessorBytes);
-			exactLength += (Integer.BYTES + accessorBytes.length);
-			
-			// put targetGuid, can't be null, ~100ns
+			putString(bbuf, accessor);
 			assert(targetGuid != null):"targetGuid can't be null for read query";
-			targetGuidBytes = targetGuid.getBytes(CHARSET);
-			bbuf.putInt(targetGuidBytes.length);
-			bbuf.put(targetGuidBytes);
-			exactLength += (Integer.BYTES + targetGuidBytes.length);
+			putString(bbuf, targetGuid);
 			break;
 			
 		case WRITE_QUERY:
-			// put ttl
 			bbuf.putInt(ttl);
-			exactLength += Integer.BYTES;
-			
-			// put guid, can't be null, ~100ns
-			assert(guid != null):"guid can't be null for read query";
-			guidBytes = guid.getBytes(CHARSET);
-			bbuf.putInt(guidBytes.length);
-			bbuf.put(guidBytes);
-			exactLength += (Integer.BYTES + guidBytes.length);
-			
-			// put field, can't be null, ~100ns
-			assert(accessor != null):"field can't be null for read query";
-			accessorBytes = accessor.getBytes(CHARSET);
-			bbuf.putInt(accessorBytes.length);
-			bbuf.put(accessorBytes);
-			exactLength += (Integer.BYTES + accessorBytes.length);
-			
-			// put targetGuid, can't be null, ~100ns
-			assert(targetGuid != null):"targetGuid can't be null for read query";
-			targetGuidBytes = targetGuid.getBytes(CHARSET);
-			bbuf.putInt(targetGuidBytes.length);
-			bbuf.put(targetGuidBytes);
-			exactLength += (Integer.BYTES + targetGuidBytes.length);
-			
-			// put value
-			assert(valuesMapString != null);
-			valuesMapBytes = valuesMapString.getBytes(CHARSET);
-			bbuf.putInt(valuesMapBytes.length);
-			bbuf.put(valuesMapBytes);
-			exactLength += (Integer.BYTES + valuesMapBytes.length);
+			assert(guid != null):"guid can't be null for write query";
+			putString(bbuf, guid);
+			assert(accessor != null):"field can't be null for write query";
+			putString(bbuf, accessor);
+			assert(targetGuid != null):"targetGuid can't be null for write query";
+			putString(bbuf, targetGuid);
+			assert(value != null);
+			putString(bbuf, value);
 			break;
 			
 		case RESPONSE:
-			valuesMapBytes = (valuesMapString==null)?new byte[0]:valuesMapString.getBytes(CHARSET);
-			bbuf.putInt((valuesMapString==null)?0:valuesMapBytes.length);
-			bbuf.put(valuesMapBytes);
-			exactLength += (Integer.BYTES + valuesMapBytes.length);
-			
-			byte[] errorBytes = (error==null)? new byte[0]:error.getBytes(CHARSET);
-			bbuf.putInt( (error==null)?0:errorBytes.length );
-			bbuf.put(errorBytes);
-			exactLength += (Integer.BYTES + ((error==null)? 0:errorBytes.length));
+			// both can be null
+			putString(bbuf, value);
+			putString(bbuf, error);
 			break;
 		default:
 			break;
-		
 		}
-		
-		byte[] exactBytes = new byte[exactLength];
-		bbuf.flip();
-		assert (bbuf.remaining() == exactLength) : bbuf.remaining() + " != " + exactLength;
-		
-		bbuf.get(exactBytes);
-		
-		return exactBytes;
+		assert (bbuf.position() - start == getSerializedLength()) : (bbuf.position() - start) + " != " + getSerializedLength();
+	}
+	
+	/**
+	 * Puts the length of s and s encoded in ISO-8859-1, a null s is
+	 * put as an empty string.
+	 */
+	private static void putString(ByteBuffer bbuf, String s){
+		int length = (s != null)?s.length():0;
+		bbuf.putInt(length);
+		if(bbuf.hasArray()){
+			byte[] array = bbuf.array();
+			int offset = bbuf.arrayOffset() + bbuf.position();
+			for(int i=0; i<length; i++){
+				char c = s.charAt(i);
+				array[offset+i] = (c <= 0xFF)?(byte) c:(byte) '?';
+			}
+			bbuf.position(bbuf.position()+length);
+		}else{
+			for(int i=0; i<length; i++){
+				char c = s.charAt(i);
+				bbuf.put((c <= 0xFF)?(byte) c:(byte) '?');
+			}
+		}
+	}
+	
+	/**
+	 * Gets a string of length bytes, without copying them first
+	 * if bbuf is backed by an array.
+	 */
+	private static String getString(ByteBuffer bbuf, int length) throws UnsupportedEncodingException{
+		String s;
+		if(bbuf.hasArray()){
+			s = new String(bbuf.array(), bbuf.arrayOffset()+bbuf.position(), length, CHARSET);
+			bbuf.position(bbuf.position()+length);
+		}else{
+			byte[] bytes = new byte[length];
+			bbuf.get(bytes);
+			s = new String(bytes, CHARSET);
+		}
+		return s;
 	}
 	
 	/**
@@ -415,6 +473,9 @@ public class ActiveMessage implements Message{
 	}
 	
 	/**
+	 * The strings are decoded from bbuf, so bbuf can be reused 
+	 * once this returns.
+	 * 
 	 * @param bbuf
 	 * @throws UnsupportedEncodingException 
 	 * @throws JSONException 
@@ -424,7 +485,6 @@ public class ActiveMessage implements Message{
 		this.type = Type.values()[bbuf.getInt()];	
 		this.id = bbuf.getLong();
 		int length = 0;
-		byte[] guidBytes,accessorBytes,codeBytes,targetGuidBytes,valueBytes,errorBytes;
 		
 		switch(type){
 		case REQUEST:
@@ -432,93 +492,61 @@ public class ActiveMessage implements Message{
 			budget = bbuf.getLong();
 			
 			// get guid
-			length = bbuf.getInt();
-			guidBytes = new byte[length];
-			bbuf.get(guidBytes);
-			guid = new String(guidBytes, CHARSET);
+			guid = getString(bbuf, bbuf.getInt());
 			
 			// get accessor
 			length = bbuf.getInt();
 			if(length>0){
-				accessorBytes = new byte[length];
-				bbuf.get(accessorBytes);
-				accessor = new String(accessorBytes, CHARSET);
+				accessor = getString(bbuf, length);
+			}
+			
+			// get code hash
+			length = bbuf.getInt();
+			if(length>0){
+				codeHash = getString(bbuf, length);
 			}
 			
 			// get code
 			length = bbuf.getInt();
-			codeBytes = new byte[length];
-			bbuf.get(codeBytes);
-			code = new String(codeBytes, CHARSET);
+			if(length>=0){
+				code = getString(bbuf, length);
+			}
 						
 			// get valuesMap
-			length = bbuf.getInt();
-			valueBytes = new byte[length];
-			bbuf.get(valueBytes);
-			value = new String(valueBytes, CHARSET);
+			value = getString(bbuf, bbuf.getInt());
 			break;
 		case READ_QUERY:
 			ttl = bbuf.getInt();
 			// get guid
-			length = bbuf.getInt();
-			guidBytes = new byte[length];
-			bbuf.get(guidBytes);
-			guid = new String(guidBytes, CHARSET);
-			
+			guid = getString(bbuf, bbuf.getInt());
 			// get field
-			length = bbuf.getInt();
-			accessorBytes = new byte[length];
-			bbuf.get(accessorBytes);
-			accessor = new String(accessorBytes, CHARSET);
-			
+			accessor = getString(bbuf, bbuf.getInt());
 			// get targetGuid
-			length = bbuf.getInt();
-			targetGuidBytes = new byte[length];
-			bbuf.get(targetGuidBytes);
-			targetGuid = new String(targetGuidBytes, CHARSET);
+			targetGuid = getString(bbuf, bbuf.getInt());
 			break;
 			
 		case WRITE_QUERY:
 			ttl = bbuf.getInt();
 			// get guid
-			length = bbuf.getInt();
-			guidBytes = new byte[length];
-			bbuf.get(guidBytes);
-			guid = new String(guidBytes, CHARSET);
-			
+			guid = getString(bbuf, bbuf.getInt());
 			// get field
-			length = bbuf.getInt();
-			accessorBytes = new byte[length];
-			bbuf.get(accessorBytes);
-			accessor = new String(accessorBytes, CHARSET);
-			
+			accessor = getString(bbuf, bbuf.getInt());
 			// get targetGuid
-			length = bbuf.getInt();
-			targetGuidBytes = new byte[length];
-			bbuf.get(targetGuidBytes);
-			targetGuid = new String(targetGuidBytes, CHARSET);
-			
+			targetGuid = getString(bbuf, bbuf.getInt());
 			// get valuesMap
-			length = bbuf.getInt();
-			valueBytes = new byte[length];
-			bbuf.get(valueBytes);
-			value = new String(valueBytes, CHARSET);
+			value = getString(bbuf, bbuf.getInt());
 			break;
 			
 		case RESPONSE:
 			// get valuesMap
 			length = bbuf.getInt();
 			if(length>0){
-				valueBytes = new byte[length];
-				bbuf.get(valueBytes);
-				value = new String(valueBytes, CHARSET);
+				value = getString(bbuf, length);
 			}
 			
 			length = bbuf.getInt();
 			if(length>0){
-				errorBytes = new byte[length];
-				bbuf.get(errorBytes);
-				error = new String(errorBytes, CHARSET);
+				error = getString(bbuf, length);
 			}
 			
 			break;
@@ -8,6 +8,7 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -18,7 +19,6 @@ import org.json.JSONObject;
 import edu.umass.cs.gnscommon.exceptions.client.ClientException;
 import edu.umass.cs.gnscommon.exceptions.server.InternalRequestException;
 import edu.umass.cs.gnsserver.activecode.ActiveCodeHandler;
-import edu.umass.cs.gnsserver.activecode.prototype.unblocking.ActiveNonBlockingClient.Monitor;
 import edu.umass.cs.gnsserver.interfaces.ActiveDBInterface;
 import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
 
@@ -65,12 +65,12 @@ public class ActiveQueryHandler {
 	private static class ActiveQuerierTask implements Runnable{
 		ActiveMessage am;
 		InternalRequestHeader header;
-		Monitor monitor;
+		CompletableFuture<ActiveMessage> future;
 		
-		ActiveQuerierTask(ActiveMessage am, InternalRequestHeader header, Monitor monitor){
+		ActiveQuerierTask(ActiveMessage am, InternalRequestHeader header, CompletableFuture<ActiveMessage> future){
 			this.am = am;
 			this.header = header;
-			this.monitor = monitor;
+			this.future = future;
 		}
 		
 		@Override
@@ -99,7 +99,7 @@ public class ActiveQueryHandler {
 			}
 			ActiveCodeHandler.getLogger().log(ActiveCodeHandler.DEBUG_LEVEL, "################ {0} returns response to worker:{1}", new Object[]{this, response} );
 			
-			monitor.setResult(response, false);
+			future.complete(response);
 		}
 		
 	}
@@ -108,11 +108,12 @@ public class ActiveQueryHandler {
 	 * Submit this task to a thread pool
 	 * @param am
 	 * @param header
-	 * @param monitor
+	 * @return a future completed with the response to send back to the worker
 	 */
-	public void handleQueryAsync(ActiveMessage am, InternalRequestHeader header, Monitor monitor){
-		queryExecutor.execute(new ActiveQuerierTask(am, header, monitor));
-				
+	public CompletableFuture<ActiveMessage> handleQueryAsync(ActiveMessage am, InternalRequestHeader header){
+		CompletableFuture<ActiveMessage> future = new CompletableFuture<ActiveMessage>();
+		queryExecutor.execute(new ActiveQuerierTask(am, header, future));
+		return future;
 	}
 	
 	/**
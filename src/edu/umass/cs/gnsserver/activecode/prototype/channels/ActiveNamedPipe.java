@@ -1,5 +1,8 @@
 package edu.umass.cs.gnsserver.activecode.prototype.channels;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -21,11 +24,32 @@ import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Message;
  */
 public class ActiveNamedPipe implements Channel {
 	
+	/**
+	 * Send buffers larger than this are not kept for reuse.
+	 */
+	private static final int MAX_RETAINED_BUFFER_SIZE = 1024*1024;
+	
+	private static final int INITIAL_BUFFER_SIZE = 4096;
+	
+	/**
+	 * Messages are serialized outside the write lock into a buffer
+	 * owned by the sending thread, so only the write is serialized.
+	 */
+	private static final ThreadLocal<ByteBuffer> sendBuffers = new ThreadLocal<ByteBuffer>(){
+		@Override
+		protected ByteBuffer initialValue(){
+			return ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+		}
+	};
+	
 	private InputStream reader;
 	private OutputStream writer;
+	private DataInputStream input;
+	
+	private final Object writeLock = new Object();
 	
-	byte[] readerLengthBuffer = new byte[Integer.BYTES];
-	byte[] writerLengthBuffer = new byte[Integer.BYTES];
+	// Only used by the single receiving thread of this channel
+	private byte[] receiveBuffer = new byte[INITIAL_BUFFER_SIZE];
 	
 	/**
 	 * @param ifile 
@@ -54,37 +78,73 @@ public class ActiveNamedPipe implements Channel {
 		} catch (InterruptedException e) {
 			e.printStackTrace();
 		}
+		if(reader != null)
+			input = new DataInputStream(new BufferedInputStream(reader, INITIAL_BUFFER_SIZE));
 	}
 	
 	@Override
-	public synchronized void sendMessage(Message msg) throws IOException {
-		byte[] buf = msg.toBytes();
-		int length = buf.length;
+	public void sendMessage(Message msg) throws IOException {
+		ByteBuffer buf;
+		if(msg instanceof ActiveMessage){
+			ActiveMessage am = (ActiveMessage) msg;
+			int length = am.getSerializedLength();
+			buf = getSendBuffer(Integer.BYTES+length);
+			// the length of the message first then the content
+			buf.putInt(length);
+			am.writeTo(buf);
+		}else{
+			byte[] bytes = msg.toBytes();
+			buf = getSendBuffer(Integer.BYTES+bytes.length);
+			buf.putInt(bytes.length).put(bytes);
+		}
 		try {
-			// write the length of byte array first then send the content
-			
-			writer.write(ByteBuffer.allocate(Integer.BYTES+length).putInt(length).put(buf).array());
-			writer.flush();
+			synchronized(writeLock){
+				writer.write(buf.array(), buf.arrayOffset(), buf.position());
+				writer.flush();
+			}
 		} catch (IOException e) {			
 			//e.printStackTrace();
 		}
 	}
+	
+	private static ByteBuffer getSendBuffer(int size){
+		ByteBuffer buf = sendBuffers.get();
+		if(buf.capacity() < size){
+			buf = ByteBuffer.allocate(Math.max(size, 2*buf.capacity()));
+			if(buf.capacity() <= MAX_RETAINED_BUFFER_SIZE)
+				sendBuffers.set(buf);
+		}
+		buf.clear();
+		return buf;
+	}
 
+	/**
+	 * This method must only be called by a single thread, as
+	 * the receive buffer is reused across messages.
+	 */
 	@Override
 	public Message receiveMessage() throws IOException {
 		Message am = null;
-		int len = -1;
-		if(reader != null)
-			len = reader.read(readerLengthBuffer, 0, readerLengthBuffer.length);
-		if(len>0){
-			int length = ByteBuffer.wrap(readerLengthBuffer).getInt();
-			byte[] buffer = new byte[length];
-			reader.read(buffer, 0, length);			
-			try {
-				am = new ActiveMessage(buffer);
-			} catch (JSONException e) {
-				//e.printStackTrace();
+		if(input == null)
+			return null;
+		int length;
+		try {
+			length = input.readInt();
+			if(receiveBuffer.length < length){
+				receiveBuffer = new byte[Math.max(length, 2*receiveBuffer.length)];
 			}
+			input.readFully(receiveBuffer, 0, length);
+		} catch (EOFException e) {
+			// the other end is closed
+			return null;
+		}
+		try {
+			am = new ActiveMessage(ByteBuffer.wrap(receiveBuffer, 0, length));
+		} catch (JSONException e) {
+			//e.printStackTrace();
+		}
+		if(receiveBuffer.length > MAX_RETAINED_BUFFER_SIZE){
+			receiveBuffer = new byte[INITIAL_BUFFER_SIZE];
 		}
 		
 		return am;
@@ -1,5 +1,7 @@
 package edu.umass.cs.gnsserver.activecode.prototype.interfaces;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.json.JSONObject;
 
 import edu.umass.cs.gnsserver.activecode.prototype.ActiveException;
@@ -35,6 +37,32 @@ public interface Client {
 	 */
 	public JSONObject runCode(InternalRequestHeader header, String guid, String accessor, String code, JSONObject valuesMap, int ttl, long budget) throws ActiveException;
 	
+	/**
+	 * Same as {@link #runCode} but does not block the caller. The
+	 * returned future completes with the executed result or
+	 * exceptionally with an ActiveException.
+	 * 
+	 * <p>The default implementation runs the request on the calling thread.
+	 * 
+	 * @param header 
+	 * @param guid
+	 * @param accessor
+	 * @param code
+	 * @param valuesMap
+	 * @param ttl
+	 * @param budget 
+	 * @return a future of the executed result
+	 */
+	public default CompletableFuture<JSONObject> runCodeAsync(InternalRequestHeader header, String guid, String accessor, String code, JSONObject valuesMap, int ttl, long budget){
+		CompletableFuture<JSONObject> future = new CompletableFuture<JSONObject>();
+		try {
+			future.complete(runCode(header, guid, accessor, code, valuesMap, ttl, budget));
+		} catch (ActiveException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+	
 	
 	/**
 	 * Shutdown this client when system stopped.
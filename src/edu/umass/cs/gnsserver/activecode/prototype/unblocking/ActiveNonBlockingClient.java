@@ -6,14 +6,20 @@ import java.io.IOException;
 import java.lang.ProcessBuilder.Redirect;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import edu.umass.cs.gnsserver.activecode.ActiveCodeConfig;
 import edu.umass.cs.gnsserver.activecode.ActiveCodeHandler;
 import edu.umass.cs.gnsserver.activecode.prototype.ActiveException;
@@ -54,7 +60,15 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 	private final String ofile;
 	private final int workerNumThread;
 	
-	private ConcurrentHashMap<Long, Monitor> tasks = new ConcurrentHashMap<Long, Monitor>();
+	private ConcurrentHashMap<Long, PendingRequest> tasks = new ConcurrentHashMap<Long, PendingRequest>();
+	
+	/**
+	 * The hashes of the code the current worker has compiled, so requests
+	 * for it only need to carry the hash. This is a hint: if the worker
+	 * has evicted the code it asks for the code and the request is resent.
+	 */
+	private final Cache<String, Boolean> workerCodeHashes = CacheBuilder.newBuilder()
+			.maximumSize(ActiveCodeConfig.activeWorkerCodeCacheSize).build();
 	
 	private Process workerProc;
 	final private int id;
@@ -136,6 +150,8 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 			e.printStackTrace();
 		}
 		channel = new ActiveNamedPipe(ifile, ofile);
+		// a new worker has no code
+		workerCodeHashes.invalidateAll();
 		DelayProfiler.updateDelay("activeRestartWorker", lastWorkerStartedTime);
 	}
 	
@@ -182,9 +198,9 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 	@Override
 	public void run() {
 		/**
-		 * This is the receiving thread, it awakes the sending
-		 * thread if it receives the response or query from the
-		 * worker.
+		 * This is the receiving thread, it completes the request
+		 * if it receives the response from the worker, and hands
+		 * queries from the worker to the queryHandler.
 		 * 
 		 * If a null value is received, it means the worker is
 		 * crashed and the pipe is closed on both end. Therefore,
@@ -196,14 +212,15 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 			ActiveMessage response;
 			try {
 				if( (response = (ActiveMessage) channel.receiveMessage()) != null){					
-					long id = response.getId();
-					Monitor monitor = tasks.get(id);
-					assert(monitor != null):"the corresponding monitor is null!";
 					ActiveCodeHandler.getLogger().log(ActiveCodeHandler.DEBUG_LEVEL,
 							"receive a result or query from the worker:{0}",
 							new Object[]{response});
 					
-					monitor.setResult(response, response.type == Type.RESPONSE);
+					PendingRequest pending = tasks.get(response.getId());
+					if(pending != null){
+						// the request is gone if this arrived after it was released
+						handleMessage(pending, response);
+					}
 				} else {
 					if(!isRestarting.getAndSet(true)){
 						lastWorkerStartedTime = System.currentTimeMillis();
@@ -211,9 +228,16 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 						this.shutdown();
 						this.initializeChannelAndStartWorker();
 						
-						// release all the requests that waited on its monitor
-						for(Monitor monitor:this.tasks.values()){
-							monitor.setResult(null, true);
+						// fail all the requests sent to the crashed worker
+						for(Long id:this.tasks.keySet()){
+							PendingRequest pending = this.tasks.remove(id);
+							if(pending != null){
+								/**
+								 * No need to resend the request, as it might be
+								 * a malicious request. 
+								 */
+								pending.future.completeExceptionally(new ActiveException("Worker crashes!"));
+							}
 						}
 						isRestarting.set(false);
 						
@@ -279,6 +303,7 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 	    command.add(Boolean.toString(pipeEnable));
 	    command.add("ReconfigurableNode");
 	    command.add(nodeId);
+	    command.add(""+ActiveCodeConfig.activeWorkerCodeCacheSize);
 	    
 	    ProcessBuilder builder = new ProcessBuilder(command);
 		builder.directory(new File(System.getProperty("user.dir")));
@@ -319,6 +344,7 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 		command.add(Boolean.toString(pipeEnable));
 		command.add("ReconfigurableNode");
 	    command.add(nodeId);
+	    command.add(""+ActiveCodeConfig.activeWorkerCodeCacheSize);
 	    
 	    ProcessBuilder builder = new ProcessBuilder(command);
 		builder.directory(new File(System.getProperty("user.dir")));
@@ -366,10 +392,7 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 	
 	/**
 	 * This runCode method sends the request to worker, and
-	 * wait for worker to finish the request. If the worker
-	 * crashed during the request execution, this method
-	 * will resend the request to a new created worker, and
-	 * the new worker will execute this request again. 
+	 * waits for worker to finish the request, see {@link #runCodeAsync}.
 	 * <p>If the worker fails to execute the request, it will 
 	 * send back an error to inform this method that the execution
 	 * gets accomplished with an error. This method will raise
@@ -387,84 +410,102 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 	@Override
 	public JSONObject runCode(InternalRequestHeader header, String guid, String accessor, 
 			String code, JSONObject valuesMap, int ttl, long budget) throws ActiveException {
-		
-		ActiveMessage msg = new ActiveMessage(guid, accessor, code, valuesMap.toString(), ttl, budget);
-		Monitor monitor = new Monitor();
-		tasks.put(msg.getId(), monitor);
-		
-		ActiveMessage response = null;
-		synchronized(monitor){
-			while( !monitor.getDone() ){				
-				try {
-					if(!monitor.getWait()){
-						sendMessage(msg);
-						monitor.setWait();
-					}					
-					monitor.wait();
-				} catch (InterruptedException e) {
-					// this thread is interrupted, do nothing
-					e.printStackTrace();
-				}				
-				
-				response = monitor.getResult();	
-				
-				/**
-				 * If it's a query, queryHandler needs to handle it.
-				 * Otherwise, exit the while loop to process the response.
-				 */
-				if (response != null && response.type != Type.RESPONSE){
-					// submit the task to the worker and wait for the response
-					queryHandler.handleQueryAsync(response, header, monitor);
-					try {
-						monitor.wait();
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					}
-					/**
-					 * This can be awaken by two events:
-					 * <p>1. The response from the queryHandler, then we need to
-					 * send the response back to the worker.
-					 * <p>2. A timeout event happens on the worker, then there 
-					 * is no need for this response any more.
-					 */
-					
-					if(!monitor.getDone()){
-						// If it's not because of the timeout event, then send back the response  
-						ActiveMessage result = monitor.getResult();	
+		try {
+			return runCodeAsync(header, guid, accessor, code, valuesMap, ttl, budget).get();
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof ActiveException){
+				throw (ActiveException) e.getCause();
+			}
+			throw new ActiveException(String.valueOf(e.getCause()));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ActiveException("Interrupted while waiting for the worker");
+		}
+	}
+	
+	/**
+	 * This method sends the request to worker and returns without
+	 * waiting for it. The returned future is completed by the receiving
+	 * thread when the worker sends back the response, and queries the
+	 * worker sends while running the code are handled by the queryHandler
+	 * without blocking any thread on this request.
+	 * <p>If the worker crashes during the request execution or sends
+	 * back an error, the future completes exceptionally with an 
+	 * ActiveException. 
+	 * <p>The code is only sent to the worker if the worker doesn't
+	 * already have it compiled, otherwise only its hash is sent.
+	 * <p>Dependent actions that aren't async run on the receiving 
+	 * thread, so they must not block.
+	 * 
+	 * @param guid
+	 * @param accessor
+	 * @param code
+	 * @param valuesMap
+	 * @param ttl
+	 * @return a future of the executed result sent back from worker
+	 */
+	@Override
+	public CompletableFuture<JSONObject> runCodeAsync(InternalRequestHeader header, String guid, String accessor, 
+			String code, JSONObject valuesMap, int ttl, long budget) {
+		String codeHash = ActiveMessage.computeCodeHash(code);
+		PendingRequest pending = new PendingRequest(header, guid, accessor, code, codeHash, 
+				valuesMap.toString(), ttl, budget);
+		send(pending, workerCodeHashes.getIfPresent(codeHash) == null);
+		return pending.future;
+	}
+	
+	private void send(PendingRequest pending, boolean withCode){
+		ActiveMessage msg = new ActiveMessage(pending.guid, pending.accessor, withCode ? pending.code : null, 
+				pending.codeHash, pending.value, pending.ttl, pending.budget);
+		pending.request = msg;
+		tasks.put(msg.getId(), pending);
+		sendMessage(msg);
+	}
+	
+	/**
+	 * Handles a response or query from the worker for the pending request.
+	 * 
+	 * @param pending
+	 * @param message
+	 */
+	private void handleMessage(final PendingRequest pending, ActiveMessage message){
+		final long id = message.getId();
+		if(message.type == Type.RESPONSE){
+			if(!tasks.remove(id, pending)){
+				return;
+			}
+			if(ActiveMessage.CODE_NOT_CACHED_ERROR.equals(message.getError()) 
+					&& pending.request.getCode() == null){
+				// The worker has evicted the code, send it again with the code
+				workerCodeHashes.invalidate(pending.codeHash);
+				send(pending, true);
+				return;
+			}
+			ActiveCodeHandler.getLogger().log(ActiveCodeHandler.DEBUG_LEVEL,
+					"receive a response from the worker:{0}",
+					new Object[]{message});
+			if(message.getError() != null){
+				pending.future.completeExceptionally(new ActiveException("Message: " + pending.request.toString() +
+                                " Response: " + message.toString()));
+				return;
+			}
+			workerCodeHashes.put(pending.codeHash, Boolean.TRUE);
+			counter.getAndIncrement();
+			try {
+				pending.future.complete(new JSONObject(message.getValue()));
+			} catch (JSONException e) {
+				pending.future.completeExceptionally(new ActiveException("Bad JSON value returned from active code!"));
+			}
+		} else {
+			// a query, send back its result unless the request has already timed out on the worker
+			queryHandler.handleQueryAsync(message, pending.header).thenAccept(new Consumer<ActiveMessage>(){
+				@Override
+				public void accept(ActiveMessage result) {
+					if(tasks.get(id) == pending){
 						sendMessage(result);
-					}else{
-						// If it's because of timeout, then clean up the state and exit the loop
-						break;
 					}
-					
 				}
-			}		
-		}
-		
-		response = monitor.getResult();
-		
-		ActiveCodeHandler.getLogger().log(ActiveCodeHandler.DEBUG_LEVEL,
-				"receive a response from the worker:{0}",
-				new Object[]{response});
-		
-		if(response == null){
-			/**
-			 * No need to resend the request, as it might be
-			 * a malicious request. 
-			 */
-			throw new ActiveException("Worker crashes!");
-		}
-		if(response.getError() != null){
-			throw new ActiveException("Message: " + msg.toString() +
-                                " Response: " + response.toString());
-		}
-		counter.getAndIncrement();
-		tasks.remove(response.getId());
-		
-		try {
-			return new JSONObject(response.getValue());
-		} catch (JSONException e) {
-			throw new ActiveException("Bad JSON value returned from active code!");
+			});
 		}
 	}
 	
@@ -473,46 +514,31 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 	}
 	
 	/**
-	 * @author gaozy
-	 *
+	 * A request sent to the worker that the worker hasn't responded to yet.
 	 */
-	public static class Monitor {
-		boolean isDone;
-		ActiveMessage response;
-		boolean waited;
-		
-		Monitor(){
-			this.isDone = false;
-			this.waited = false;
-		}
-		
-		/**
-		 * @return true if the task is done
-		 */
-		public boolean getDone(){
-			return isDone;
-		}
-		
-		/**
-		 * @param response
-		 * @param isDone
-		 */
-		public synchronized void setResult(ActiveMessage response, boolean isDone){
-			this.response = response;
-			this.isDone = isDone;
-			notifyAll();
-		}
-		
-		ActiveMessage getResult(){
-			return response;
-		}
-		
-		void setWait(){
-			waited = true;
-		}
+	private static class PendingRequest {
+		final InternalRequestHeader header;
+		final String guid;
+		final String accessor;
+		final String code;
+		final String codeHash;
+		final String value;
+		final int ttl;
+		final long budget;
+		final CompletableFuture<JSONObject> future = new CompletableFuture<JSONObject>();
+		// the message most recently sent for this request
+		volatile ActiveMessage request;
 		
-		boolean getWait(){
-			return waited;
+		PendingRequest(InternalRequestHeader header, String guid, String accessor, String code, 
+				String codeHash, String value, int ttl, long budget){
+			this.header = header;
+			this.guid = guid;
+			this.accessor = accessor;
+			this.code = code;
+			this.codeHash = codeHash;
+			this.value = value;
+			this.ttl = ttl;
+			this.budget = budget;
 		}
 	}
 	
@@ -4,7 +4,6 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
@@ -13,6 +12,8 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.Invocable;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
@@ -21,8 +22,13 @@ import javax.script.SimpleScriptContext;
 
 import org.json.JSONException;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.maxmind.geoip2.DatabaseReader;
 
+import edu.umass.cs.gnsserver.activecode.ActiveCodeConfig;
 import edu.umass.cs.gnsserver.activecode.prototype.ActiveMessage;
 import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Channel;
 import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Runner;
@@ -39,8 +45,10 @@ public class ActiveNonBlockingRunner implements Runner {
 	final private ScriptEngine engine;
 	final private Invocable invocable;
 	
-	private final HashMap<String, ScriptContext> contexts = new HashMap<String, ScriptContext>();
-	private final HashMap<String, Integer> codeHashes = new HashMap<String, Integer>();
+	// code hash to the code compiled once
+	private final Cache<String, CompiledScript> scripts;
+	// guid to the context its code has been evaled in
+	private final LoadingCache<String, GuidContext> contexts;
 	private final Channel channel;
 	private final ConcurrentHashMap<Long, ActiveNonBlockingQuerier> map = new ConcurrentHashMap<Long, ActiveNonBlockingQuerier>();
 	private final DatabaseReader dbReader;
@@ -48,12 +56,38 @@ public class ActiveNonBlockingRunner implements Runner {
 	// This object is used to serialize/deserialize values passing between Java and Javascript
 	private static ScriptObjectMirror JSON;
 	
+	/**
+	 * The script context of a guid and the hash of the code evaled in it.
+	 */
+	private static class GuidContext {
+		final ScriptContext context = new SimpleScriptContext();
+		String codeHash;
+	}
+	
 	/**
 	 * @param channel 
+	 * @param dbReader 
 	 */
 	public ActiveNonBlockingRunner(Channel channel, DatabaseReader dbReader){
+		this(channel, dbReader, ActiveCodeConfig.activeWorkerCodeCacheSize);
+	}
+	
+	/**
+	 * @param channel 
+	 * @param dbReader 
+	 * @param codeCacheSize the number of compiled scripts and guid contexts to keep
+	 */
+	public ActiveNonBlockingRunner(Channel channel, DatabaseReader dbReader, int codeCacheSize){
 		this.channel = channel;
 		this.dbReader = dbReader;
+		this.scripts = CacheBuilder.newBuilder().maximumSize(codeCacheSize).build();
+		this.contexts = CacheBuilder.newBuilder().maximumSize(codeCacheSize)
+				.build(new CacheLoader<String, GuidContext>(){
+					@Override
+					public GuidContext load(String guid) {
+						return new GuidContext();
+					}
+				});
 		
 		// Initialize an script engine without extensions and java
 		NashornScriptEngineFactory factory = new NashornScriptEngineFactory();
@@ -69,25 +103,37 @@ public class ActiveNonBlockingRunner implements Runner {
 	}
 	
 	/**
-	 * Update cache needs to be synchronized, as some code cache may not be evaled before being used.
+	 * Returns the context of the guid with the code identified by codeHash
+	 * evaled in it. The code is compiled only the first time its hash is seen
+	 * (or after it has been evicted) and is only evaled into the guid's 
+	 * context when the guid's code changes. Only the update of a single guid's
+	 * context is synchronized, as its code may not be evaled before being used.
 	 * 
-	 * @param codeId
-	 * @param code
-	 * @throws ScriptException
+	 * @param guid
+	 * @param codeHash
+	 * @param code the code, or null if the request only carries the hash
+	 * @return the context to invoke the code in
+	 * @throws ScriptException if the code doesn't compile or if code is null 
+	 * and codeHash is not cached, see {@link ActiveMessage#CODE_NOT_CACHED_ERROR}
 	 */
-	private synchronized void updateCache(String codeId, String code) throws ScriptException {
-	    if (!contexts.containsKey(codeId)) {
-	      // Create a context if one does not yet exist and eval the code
-	      ScriptContext sc = new SimpleScriptContext();
-	      contexts.put(codeId, sc);
-	      codeHashes.put(codeId, code.hashCode());
-	      engine.eval(code, sc);
-	    } else if ( codeHashes.get(codeId) != code.hashCode()) {
-	      // The context exists, but we need to eval the new code
-	      ScriptContext sc = contexts.get(codeId);
-	      codeHashes.put(codeId, code.hashCode());
-	      engine.eval(code, sc);
-	    }
+	private ScriptContext updateCache(String guid, String codeHash, String code) throws ScriptException {
+		GuidContext guidContext = contexts.getUnchecked(guid);
+		synchronized(guidContext){
+			if (!codeHash.equals(guidContext.codeHash)) {
+				CompiledScript script = scripts.getIfPresent(codeHash);
+				if (script == null) {
+					if (code == null) {
+						throw new ScriptException(ActiveMessage.CODE_NOT_CACHED_ERROR);
+					}
+					script = ((Compilable) engine).compile(code);
+					scripts.put(codeHash, script);
+				}
+				// The context exists, but we need to eval the new code
+				script.eval(guidContext.context);
+				guidContext.codeHash = codeHash;
+			}
+		}
+		return guidContext.context;
 	}
 	
 	/**
@@ -112,11 +158,37 @@ public class ActiveNonBlockingRunner implements Runner {
 	 */
         @Override
 	public String runCode(String guid, String accessor, String code, String value, int ttl, long id) throws ScriptException, NoSuchMethodException {		
+		return runCode(guid, accessor, ActiveMessage.computeCodeHash(code), code, value, ttl, id);
+	}
+	
+	/**
+	 * Same as {@link #runCode(String, String, String, String, int, long)}
+	 * but the code is identified by codeHash and can be null if this runner
+	 * has already seen the code.
+	 * 
+	 * @param guid
+	 * @param accessor
+	 * @param codeHash
+	 * @param code
+	 * @param value
+	 * @param ttl
+	 * @param id
+	 * @return ValuesMap result 
+	 * @throws ScriptException
+	 * @throws NoSuchMethodException
+	 */
+	public String runCode(String guid, String accessor, String codeHash, String code, String value, int ttl, long id) throws ScriptException, NoSuchMethodException {
 		ActiveNonBlockingQuerier querier = new ActiveNonBlockingQuerier(channel, dbReader, JSON, ttl, guid, id);
 		map.put(id, querier);
 		
-		updateCache(guid, code);
-		engine.setContext(contexts.get(guid));
+		ScriptContext sc;
+		try {
+			sc = updateCache(guid, codeHash, code);
+		} catch (ScriptException e) {
+			map.remove(id);
+			throw e;
+		}
+		engine.setContext(sc);
 		
 		String result = querier.js2String((ScriptObjectMirror) invocable.invokeFunction("run", querier.string2JS(value),
 				accessor, querier));
@@ -14,6 +14,7 @@ import org.json.JSONException;
 
 import com.maxmind.geoip2.DatabaseReader;
 
+import edu.umass.cs.gnsserver.activecode.ActiveCodeConfig;
 import edu.umass.cs.gnsserver.activecode.prototype.ActiveMessage;
 import edu.umass.cs.gnsserver.activecode.prototype.ActiveMessage.Type;
 import edu.umass.cs.gnsserver.activecode.prototype.channels.ActiveNamedPipe;
@@ -51,8 +52,10 @@ public class ActiveNonBlockingWorker {
 	 * @param ofile
 	 * @param id 
 	 * @param numThread
+	 * @param geoip_file 
+	 * @param codeCacheSize 
 	 */
-	protected ActiveNonBlockingWorker(String ifile, String ofile, int id, int numThread, String geoip_file) {
+	protected ActiveNonBlockingWorker(String ifile, String ofile, int id, int numThread, String geoip_file, int codeCacheSize) {
 		this.id = id;
 		
 		executor = new ThreadPoolExecutor(numThread, numThread, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
@@ -74,7 +77,7 @@ public class ActiveNonBlockingWorker {
 		}
 		
 		channel = new ActiveNamedPipe(ifile, ofile);
-		runner = new ActiveNonBlockingRunner(channel, dbReader);
+		runner = new ActiveNonBlockingRunner(channel, dbReader, codeCacheSize);
 				
 		ActiveNonBlockingWorker.getLogger().log(Level.FINE, "{0} starts running", new Object[]{this});
 		try {
@@ -135,8 +138,10 @@ public class ActiveNonBlockingWorker {
 			int id = Integer.parseInt(args[2]);
 			int numThread = Integer.parseInt(args[3]);
 			String geoip_file = args[4];
+			// args[6] and args[7] are the node name
+			int codeCacheSize = (args.length > 8) ? Integer.parseInt(args[8]) : ActiveCodeConfig.activeWorkerCodeCacheSize;
 			
-			new ActiveNonBlockingWorker(cfile, sfile, id, numThread, geoip_file);
+			new ActiveNonBlockingWorker(cfile, sfile, id, numThread, geoip_file, codeCacheSize);
 		}
 	}
 }
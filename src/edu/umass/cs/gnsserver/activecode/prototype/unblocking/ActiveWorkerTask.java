@@ -26,7 +26,9 @@ public class ActiveWorkerTask implements Callable<ActiveMessage>  {
 		ActiveMessage response = null;
 		try {
 			response = new ActiveMessage(request.getId(), 
-					runner.runCode(request.getGuid(), request.getAccessor(), request.getCode(), request.getValue(), request.getTtl(), request.getId()),
+					(request.getCodeHash() != null)
+						? runner.runCode(request.getGuid(), request.getAccessor(), request.getCodeHash(), request.getCode(), request.getValue(), request.getTtl(), request.getId())
+						: runner.runCode(request.getGuid(), request.getAccessor(), request.getCode(), request.getValue(), request.getTtl(), request.getId()),
 					null);
 		} catch (NoSuchMethodException | ScriptException e) {	
 			//e.printStackTrace();
@@ -34,6 +34,7 @@ import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
 import edu.umass.cs.gnsserver.utils.ValuesMap;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -314,6 +315,21 @@ public class CassandraRecords implements NoSQLRecords {
   public void updateEntireRecord(String collection, String name, ValuesMap valuesMap) {
     throw new UnsupportedOperationException("Not supported yet.");
   }
+
+  @Override
+  public void upsert(String collection, String name, JSONObject value) {
+    throw new UnsupportedOperationException("Not supported yet.");
+  }
+
+  @Override
+  public void bulkUpsert(String collection, Map<String, JSONObject> values) {
+    throw new UnsupportedOperationException("Not supported yet.");
+  }
+
+  @Override
+  public Map<String, JSONObject> lookupEntireRecords(String collection, Collection<String> names) {
+    throw new UnsupportedOperationException("Not supported yet.");
+  }
   
   @Override
   public void updateIndividualFields(String collectionName, String guid, ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys, ArrayList<Object> valuesMapValues) throws FailedDBOperationException {
@@ -350,6 +366,30 @@ public class CassandraRecords implements NoSQLRecords {
     throw new UnsupportedOperationException("Not supported yet.");
   }
 
+  @Override
+  public AbstractRecordCursor selectRecords(String collectionName, ColumnField valuesMapField, String key, Object value,
+          PageRequest page, List<String> projection) {
+    throw new UnsupportedOperationException("Not supported yet.");
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecordsWithin(String collectionName, ColumnField valuesMapField, String key, String value,
+          PageRequest page, List<String> projection) {
+    throw new UnsupportedOperationException("Not supported yet.");
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecordsNear(String collectionName, ColumnField valuesMapField, String key, String value,
+          Double maxDistance, PageRequest page, List<String> projection) {
+    throw new UnsupportedOperationException("Not supported yet.");
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecordsQuery(String collectionName, ColumnField valuesMapField, String query,
+          PageRequest page, List<String> projection) {
+    throw new UnsupportedOperationException("Not supported yet.");
+  }
+
   @Override
   public void removeEntireRecord(String tableName, String guid) {
     CollectionSpec spec = getCollectionSpec(tableName);
@@ -10,15 +10,19 @@ package edu.umass.cs.gnsserver.database;
 import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 import edu.umass.cs.gnscommon.exceptions.server.RecordExistsException;
 import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
 import edu.umass.cs.gnsserver.main.GNSConfig;
 import static edu.umass.cs.gnsserver.database.MongoRecords.DBNAMERECORD;
 import edu.umass.cs.utils.Config;
 import edu.umass.cs.utils.DiskMap;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.json.JSONObject;
 
@@ -30,12 +34,24 @@ import org.json.JSONObject;
  * A collection is basically a named separate namespace for documents.
  * A document is a JSONObject.
  *
+ * Writes that haven't been committed to mongo yet are also kept in a
+ * {@link DiskMapIndex} so that selects can merge them with the results
+ * from mongo instead of committing the whole map first. Selects that the
+ * index can't answer only write those records (see {@link #flushUncommitted}).
+ * Commits always write the newest value of a record so that a commit of
+ * an older snapshot can't undo a flush.
+ *
  * @author westy
  */
 public class DiskMapCollection {
 
   private DiskMap<String, JSONObject> map;
   private MongoRecords mongoRecords;
+  private final DiskMapIndex uncommitted = new DiskMapIndex(NameRecord.VALUES_MAP.getName());
+  // Records written to mongo by flushUncommitted that the map hasn't committed yet
+  // and their values (REMOVED for removed records)
+  private final ConcurrentHashMap<String, JSONObject> flushed = new ConcurrentHashMap<>();
+  private static final JSONObject REMOVED = new JSONObject();
 
   /**
    * Create a DiskMapCollection name collection on a given nodeID.
@@ -65,7 +81,7 @@ public class DiskMapCollection {
       @Override
       public Set<String> commit(Map<String, JSONObject> toCommit) throws IOException {
         try {
-        	mongoRecords.bulkUpdate(DBNAMERECORD, toCommit);
+          commitNewest(toCommit);
         } catch (FailedDBOperationException | RecordExistsException e) {
           throw new IOException(e);
         }
@@ -86,6 +102,101 @@ public class DiskMapCollection {
         return null;
       }
     };
+    uncommitted.addGridIndex(GNSProtocol.LOCATION_FIELD_NAME.toString());
+    uncommitted.addGridIndex(GNSProtocol.LOCATION_FIELD_NAME_2D_SPHERE.toString());
+    uncommitted.addHashIndex(GNSProtocol.IPADDRESS_FIELD_NAME.toString());
+  }
+
+  // Writes the newest values of the records being committed. Called when the map
+  // commits and by tests.
+  synchronized void commitNewest(Map<String, JSONObject> toCommit)
+          throws FailedDBOperationException, RecordExistsException {
+    Map<String, JSONObject> newest = new HashMap<>(toCommit);
+    for (String name : toCommit.keySet()) {
+      if (uncommitted.contains(name)) {
+        newest.put(name, uncommitted.get(name));
+      } else if (flushed.containsKey(name)) {
+        JSONObject value = flushed.get(name);
+        newest.put(name, value != REMOVED ? value : null);
+      }
+    }
+    mongoRecords.bulkUpdate(DBNAMERECORD, newest);
+    for (Map.Entry<String, JSONObject> entry : newest.entrySet()) {
+      uncommitted.removeIfCommitted(entry.getKey(), entry.getValue());
+      // mongo now has the newest value so whatever was flushed before is obsolete
+      flushed.remove(entry.getKey());
+    }
+  }
+
+  // Returns true if a flushed record of name hasn't been committed by the map yet
+  boolean isFlushed(String name) {
+    return flushed.containsKey(name);
+  }
+
+  /**
+   * Writes the records that haven't been committed to mongo.
+   *
+   * @throws FailedDBOperationException
+   */
+  public synchronized void flushUncommitted() throws FailedDBOperationException {
+    if (uncommitted.isEmpty()) {
+      return;
+    }
+    Map<String, JSONObject> records = uncommitted.snapshot();
+    try {
+      mongoRecords.bulkUpdate(DBNAMERECORD, records);
+    } catch (RecordExistsException e) {
+      throw new FailedDBOperationException(DBNAMERECORD, records.keySet().toString(), e.getMessage());
+    }
+    for (Map.Entry<String, JSONObject> entry : records.entrySet()) {
+      // the map will still commit these so remember their values until it does
+      flushed.put(entry.getKey(), entry.getValue() != null ? entry.getValue() : REMOVED);
+      uncommitted.removeIfCommitted(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Writes a record.
+   *
+   * @param name
+   * @param record
+   */
+  public void put(String name, JSONObject record) {
+    // index first so that a select that doesn't find the write in mongo finds it here
+    uncommitted.put(name, record);
+    map.put(name, record);
+  }
+
+  /**
+   * Removes a record.
+   *
+   * @param name
+   */
+  public void remove(String name) {
+    uncommitted.put(name, null);
+    map.remove(name);
+  }
+
+  /**
+   * Adds an index on {@code field} for the uncommitted records.
+   *
+   * @param field
+   * @param index the mongo index type
+   */
+  public void createIndex(String field, String index) {
+    if ("2d".equals(index) || "2dsphere".equals(index)) {
+      uncommitted.addGridIndex(field);
+    } else {
+      uncommitted.addHashIndex(field);
+    }
+  }
+
+  /**
+   *
+   * @return the index of the records that haven't been committed
+   */
+  public DiskMapIndex getUncommitted() {
+    return uncommitted;
   }
 
   /**
@@ -0,0 +1,460 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.database;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * An in-memory secondary index over the records of a DiskMapCollection
+ * that haven't been written to mongo yet.
+ *
+ * Lets selects find the matching uncommitted records so that they can be
+ * merged with the results of the same select on mongo instead of
+ * committing the whole DiskMap first. Equality selects on indexed fields
+ * use a hash index and within and near selects on indexed location fields
+ * use a grid of {@link #CELL_SIZE_IN_DEGREES} cells. Selects on fields
+ * that aren't indexed scan the uncommitted records.
+ *
+ * Removed records are kept as null values so that the stale copies
+ * in mongo can be left out of select results.
+ *
+ * The semantics follow the mongo selects in MongoRecords: equality matches
+ * a value or a list that contains it, and locations are flat [x, y] points.
+ *
+ * @author westy
+ */
+public class DiskMapIndex {
+
+  /**
+   * The size of the grid cells of location indexes.
+   */
+  public static final double CELL_SIZE_IN_DEGREES = 1.0;
+
+  private final String valuesMapField;
+  // Name to record (or null if it was removed)
+  private final Map<String, JSONObject> records = new HashMap<>();
+  // Field to value to names
+  private final Map<String, Map<Object, Set<String>>> hashIndexes = new HashMap<>();
+  // Field to grid cell to names
+  private final Map<String, Map<Long, Set<String>>> gridIndexes = new HashMap<>();
+
+  /**
+   *
+   * @param valuesMapField the record field that holds the user fields
+   */
+  public DiskMapIndex(String valuesMapField) {
+    this.valuesMapField = valuesMapField;
+  }
+
+  /**
+   * Adds an equality index on {@code field}.
+   *
+   * @param field
+   */
+  public synchronized void addHashIndex(String field) {
+    if (!hashIndexes.containsKey(field)) {
+      hashIndexes.put(field, new HashMap<Object, Set<String>>());
+      for (Map.Entry<String, JSONObject> entry : records.entrySet()) {
+        indexHash(field, entry.getKey(), entry.getValue(), true);
+      }
+    }
+  }
+
+  /**
+   * Adds a location index on {@code field}.
+   *
+   * @param field
+   */
+  public synchronized void addGridIndex(String field) {
+    if (!gridIndexes.containsKey(field)) {
+      gridIndexes.put(field, new HashMap<Long, Set<String>>());
+      for (Map.Entry<String, JSONObject> entry : records.entrySet()) {
+        indexGrid(field, entry.getKey(), entry.getValue(), true);
+      }
+    }
+  }
+
+  /**
+   * Records that {@code name} was written but not committed.
+   *
+   * @param name
+   * @param record the record or null if it was removed
+   */
+  public synchronized void put(String name, JSONObject record) {
+    unindex(name, records.get(name));
+    records.put(name, record);
+    index(name, record);
+  }
+
+  /**
+   * Forgets {@code name} once {@code record} has been written to mongo unless
+   * it was written again in the meantime.
+   *
+   * @param name
+   * @param record the record that was written or null if it was removed
+   * @return true if the record was removed from the index
+   */
+  public synchronized boolean removeIfCommitted(String name, JSONObject record) {
+    if (!records.containsKey(name) || records.get(name) != record) {
+      return false;
+    }
+    unindex(name, records.remove(name));
+    return true;
+  }
+
+  /**
+   * Returns true if {@code name} has an uncommitted write.
+   *
+   * @param name
+   * @return true if the name is in the index
+   */
+  public synchronized boolean contains(String name) {
+    return records.containsKey(name);
+  }
+
+  /**
+   * Returns the uncommitted record of {@code name}.
+   *
+   * @param name
+   * @return the record or null if it was removed or isn't in the index
+   */
+  public synchronized JSONObject get(String name) {
+    return records.get(name);
+  }
+
+  /**
+   * Returns true if there aren't any uncommitted writes.
+   *
+   * @return true if the index is empty
+   */
+  public synchronized boolean isEmpty() {
+    return records.isEmpty();
+  }
+
+  /**
+   * Returns a copy of the uncommitted writes. Removed records have null values.
+   *
+   * @return a map of name to record
+   */
+  public synchronized Map<String, JSONObject> snapshot() {
+    return new HashMap<>(records);
+  }
+
+  /**
+   * The uncommitted records that match a select along with the names of all
+   * the uncommitted records, whose copies in mongo are stale.
+   */
+  public static class Selection {
+
+    private final Set<String> names;
+    private final List<JSONObject> matches;
+
+    private Selection(Set<String> names, List<JSONObject> matches) {
+      this.names = names;
+      this.matches = matches;
+    }
+
+    /**
+     * Returns the names whose mongo records should be ignored.
+     *
+     * @return a set of names
+     */
+    public Set<String> getNames() {
+      return names;
+    }
+
+    /**
+     * Returns the matching records. These are the records in the DiskMap
+     * so they must be copied before they are handed out.
+     *
+     * @return a list of records
+     */
+    public List<JSONObject> getMatches() {
+      return matches;
+    }
+  }
+
+  /**
+   * Selects the uncommitted records whose {@code field} equals {@code value}
+   * or is a list containing it.
+   *
+   * @param field
+   * @param value
+   * @return a Selection
+   */
+  public synchronized Selection selectEquals(String field, Object value) {
+    Object key = normalize(value);
+    List<JSONObject> matches = new ArrayList<>();
+    Map<Object, Set<String>> index = hashIndexes.get(field);
+    if (index != null) {
+      addRecords(index.get(key), matches);
+    } else {
+      for (JSONObject record : records.values()) {
+        if (record != null && hashKeys(getField(record, field)).contains(key)) {
+          matches.add(record);
+        }
+      }
+    }
+    return new Selection(new HashSet<>(records.keySet()), matches);
+  }
+
+  /**
+   * Selects the uncommitted records whose location {@code field} is within
+   * the box with corners {@code (x1, y1)} and {@code (x2, y2)}.
+   *
+   * @param field
+   * @param x1
+   * @param y1
+   * @param x2
+   * @param y2
+   * @return a Selection
+   */
+  public synchronized Selection selectWithin(String field, double x1, double y1, double x2, double y2) {
+    double minX = Math.min(x1, x2), maxX = Math.max(x1, x2);
+    double minY = Math.min(y1, y2), maxY = Math.max(y1, y2);
+    List<JSONObject> matches = new ArrayList<>();
+    for (JSONObject record : candidates(field, minX, minY, maxX, maxY)) {
+      double[] point = getPoint(getField(record, field));
+      if (point != null && point[0] >= minX && point[0] <= maxX
+              && point[1] >= minY && point[1] <= maxY) {
+        matches.add(record);
+      }
+    }
+    return new Selection(new HashSet<>(records.keySet()), matches);
+  }
+
+  /**
+   * Selects the uncommitted records whose location {@code field} is at most
+   * {@code maxDistance} from {@code (x, y)}.
+   *
+   * @param field
+   * @param x
+   * @param y
+   * @param maxDistance in the same units as the coordinates
+   * @return a Selection
+   */
+  public synchronized Selection selectNear(String field, double x, double y, double maxDistance) {
+    List<JSONObject> matches = new ArrayList<>();
+    for (JSONObject record : candidates(field, x - maxDistance, y - maxDistance,
+            x + maxDistance, y + maxDistance)) {
+      double[] point = getPoint(getField(record, field));
+      if (point != null && Math.hypot(point[0] - x, point[1] - y) <= maxDistance) {
+        matches.add(record);
+      }
+    }
+    return new Selection(new HashSet<>(records.keySet()), matches);
+  }
+
+  // The records that might be in the box
+  private Collection<JSONObject> candidates(String field, double minX, double minY, double maxX, double maxY) {
+    Map<Long, Set<String>> index = gridIndexes.get(field);
+    long cells = (cell(maxX) - cell(minX) + 1) * (cell(maxY) - cell(minY) + 1);
+    if (index == null || cells > index.size()) {
+      // cheaper to look at everything
+      List<JSONObject> result = new ArrayList<>();
+      for (JSONObject record : records.values()) {
+        if (record != null) {
+          result.add(record);
+        }
+      }
+      return result;
+    }
+    List<JSONObject> result = new ArrayList<>();
+    for (long cx = cell(minX); cx <= cell(maxX); cx++) {
+      for (long cy = cell(minY); cy <= cell(maxY); cy++) {
+        addRecords(index.get(cellKey(cx, cy)), result);
+      }
+    }
+    return result;
+  }
+
+  private void addRecords(Set<String> names, List<JSONObject> result) {
+    if (names != null) {
+      for (String name : names) {
+        JSONObject record = records.get(name);
+        if (record != null) {
+          result.add(record);
+        }
+      }
+    }
+  }
+
+  private void index(String name, JSONObject record) {
+    for (String field : hashIndexes.keySet()) {
+      indexHash(field, name, record, true);
+    }
+    for (String field : gridIndexes.keySet()) {
+      indexGrid(field, name, record, true);
+    }
+  }
+
+  private void unindex(String name, JSONObject record) {
+    for (String field : hashIndexes.keySet()) {
+      indexHash(field, name, record, false);
+    }
+    for (String field : gridIndexes.keySet()) {
+      indexGrid(field, name, record, false);
+    }
+  }
+
+  private void indexHash(String field, String name, JSONObject record, boolean add) {
+    if (record == null) {
+      return;
+    }
+    Map<Object, Set<String>> index = hashIndexes.get(field);
+    for (Object key : hashKeys(getField(record, field))) {
+      update(index, key, name, add);
+    }
+  }
+
+  private void indexGrid(String field, String name, JSONObject record, boolean add) {
+    if (record == null) {
+      return;
+    }
+    double[] point = getPoint(getField(record, field));
+    if (point != null) {
+      update(gridIndexes.get(field), cellKey(cell(point[0]), cell(point[1])), name, add);
+    }
+  }
+
+  private static <K> void update(Map<K, Set<String>> index, K key, String name, boolean add) {
+    Set<String> names = index.get(key);
+    if (add) {
+      if (names == null) {
+        index.put(key, names = new HashSet<>());
+      }
+      names.add(name);
+    } else if (names != null) {
+      names.remove(name);
+      if (names.isEmpty()) {
+        index.remove(key);
+      }
+    }
+  }
+
+  private static long cell(double coordinate) {
+    return (long) Math.floor(coordinate / CELL_SIZE_IN_DEGREES);
+  }
+
+  private static Long cellKey(long cx, long cy) {
+    return (cx << 32) ^ (cy & 0xffffffffL);
+  }
+
+  // The keys that an equality select matches: the value itself or the elements of a list
+  private static Set<Object> hashKeys(Object value) {
+    Set<Object> result = new HashSet<>();
+    if (value == null) {
+      return result;
+    }
+    Iterator<?> elements = elements(value);
+    if (elements != null) {
+      while (elements.hasNext()) {
+        Object element = elements.next();
+        if (element != null) {
+          result.add(normalize(element));
+        }
+      }
+    } else {
+      result.add(normalize(value));
+    }
+    return result;
+  }
+
+  // Numbers match regardless of their type like they do in mongo
+  private static Object normalize(Object value) {
+    if (value instanceof Number) {
+      return ((Number) value).doubleValue();
+    } else if (value instanceof String || value instanceof Boolean) {
+      return value;
+    }
+    return value.toString();
+  }
+
+  // Locations are stored as a list of [x, y]
+  private static double[] getPoint(Object value) {
+    Iterator<?> elements = value != null ? elements(value) : null;
+    if (elements == null) {
+      return null;
+    }
+    double[] point = new double[2];
+    for (int i = 0; i < 2; i++) {
+      Object coordinate = elements.hasNext() ? elements.next() : null;
+      if (!(coordinate instanceof Number)) {
+        return null;
+      }
+      point[i] = ((Number) coordinate).doubleValue();
+    }
+    return point;
+  }
+
+  private Object getField(JSONObject record, String field) {
+    Object value = record.opt(valuesMapField);
+    int start = 0;
+    int dot;
+    do {
+      dot = field.indexOf('.', start);
+      value = childValue(value, dot < 0 ? field.substring(start) : field.substring(start, dot));
+      start = dot + 1;
+    } while (dot >= 0 && value != null);
+    return value;
+  }
+
+  // The values can be JSON or java collections (for instance mongo's BasicDBObject)
+  // depending on how they were written so we handle both.
+  private static Object childValue(Object value, String key) {
+    if (value instanceof JSONObject) {
+      return ((JSONObject) value).opt(key);
+    } else if (value instanceof Map) {
+      return ((Map<?, ?>) value).get(key);
+    }
+    return null;
+  }
+
+  private static Iterator<?> elements(final Object value) {
+    if (value instanceof Collection) {
+      return ((Collection<?>) value).iterator();
+    } else if (value instanceof JSONArray) {
+      final JSONArray array = (JSONArray) value;
+      return new Iterator<Object>() {
+        private int i = 0;
+
+        @Override
+        public boolean hasNext() {
+          return i < array.length();
+        }
+
+        @Override
+        public Object next() {
+          try {
+            return array.get(i++);
+          } catch (JSONException e) {
+            return null;
+          }
+        }
+      };
+    }
+    return null;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "DiskMapIndex{" + records.size() + " uncommitted, hash=" + hashIndexes.keySet()
+            + ", grid=" + gridIndexes.keySet() + "}";
+  }
+}
@@ -21,7 +21,11 @@ import edu.umass.cs.utils.DiskMap;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 
@@ -36,6 +40,13 @@ import org.json.JSONObject;
  *
  * See DiskMapCollection for more details.
  *
+ * The records in the diskmap are never modified once they are put there.
+ * Updates copy the record along the path to each updated field and share
+ * the rest of it with the previous version, and reads copy out only what
+ * they return. The records only contain JSONObjects and JSONArrays (values
+ * are converted when they are written) so they can be read without any
+ * conversions.
+ *
  *
  * @author westy, arun
  */
@@ -43,14 +54,20 @@ public class DiskMapRecords implements NoSQLRecords {
 
   private static final Logger LOGGER = Logger.getLogger(DiskMapRecords.class.getName());
 
-  private Map<String, DiskMapCollection> collections;
+  private ConcurrentHashMap<String, DiskMapCollection> collections;
   private String mongoNodeID;
   private int mongoPort;
 
-  private DiskMapCollection getCollection(String name) {
+  DiskMapCollection getCollection(String name) {
     DiskMapCollection collection = collections.get(name);
     if (collection == null) {
-      collections.put(name, collection = new DiskMapCollection(mongoNodeID, mongoPort, name));
+      // only one collection per name or writes could be missing from its index
+      synchronized (collections) {
+        collection = collections.get(name);
+        if (collection == null) {
+          collections.put(name, collection = new DiskMapCollection(mongoNodeID, mongoPort, name));
+        }
+      }
     }
     return collection;
   }
@@ -95,21 +112,117 @@ public class DiskMapRecords implements NoSQLRecords {
   @Override
   public void insert(String collection, String name, JSONObject value)
           throws FailedDBOperationException, RecordExistsException {
-    getMap(collection).put(name, value);
+    try {
+      // the caller still has the value so we keep our own copy
+      getCollection(collection).put(name, recursiveCopyJSONObject(value));
+    } catch (JSONException e) {
+      throw new FailedDBOperationException(collection, name, "Unable to parse json record");
+    }
+  }
+
+  @Override
+  public void upsert(String collection, String name, JSONObject value)
+          throws FailedDBOperationException {
+    // the caller hands the value over so we don't need a copy
+    getCollection(collection).put(name, value);
+  }
+
+  @Override
+  public void bulkUpsert(String collection, Map<String, JSONObject> values)
+          throws FailedDBOperationException {
+    DiskMapCollection diskMapCollection = getCollection(collection);
+    for (Map.Entry<String, JSONObject> entry : values.entrySet()) {
+      if (entry.getValue() != null) {
+        diskMapCollection.put(entry.getKey(), entry.getValue());
+      } else {
+        diskMapCollection.remove(entry.getKey());
+      }
+    }
+  }
+
+  @Override
+  public Map<String, JSONObject> lookupEntireRecords(String collection, Collection<String> names)
+          throws FailedDBOperationException {
+    Map<String, JSONObject> records = new HashMap<>();
+    for (String name : names) {
+      // records in the diskmap are never modified so they can be handed out
+      JSONObject record = getMap(collection).get(name);
+      if (record != null) {
+        records.put(name, record);
+      }
+    }
+    return records;
   }
 
   @Override
   public JSONObject lookupEntireRecord(String collection, String name)
           throws FailedDBOperationException, RecordNotFoundException {
+    try {
+      // The caller is free to modify the record (updates do) so it gets a copy.
+      // Reads of some of the fields should use lookupSomeFields which only copies those.
+      return recursiveCopyJSONObject(getRecord(collection, name));
+    } catch (JSONException e) {
+      throw new FailedDBOperationException(collection, name, "Unable to parse json record");
+    }
+  }
+
+  // Returns the record in the diskmap which must not be modified
+  private JSONObject getRecord(String collection, String name) throws RecordNotFoundException {
     JSONObject record;
     if ((record = getMap(collection).get(name)) == null) {
       throw new RecordNotFoundException(name);
     }
-    try {
-      // Make a new object to make sure there aren't any DBObjects lurking in here
-      return recursiveCopyJSONObject(record); //copyJsonObject(record);
-    } catch (JSONException e) {
-      throw new FailedDBOperationException(collection, name, "Unable to parse json record");
+    return record;
+  }
+
+  private static JSONObject shallowCopyJSONObject(JSONObject json) throws JSONException {
+    JSONObject copy = new JSONObject();
+    Iterator<?> keys = json.keys();
+    while (keys.hasNext()) {
+      String key = (String) keys.next();
+      copy.put(key, json.get(key));
+    }
+    return copy;
+  }
+
+  // Puts value into destination, which must be a copy, copying the objects along the dotted path.
+  private static boolean putWithDotNotationCopyOnWrite(JSONObject destination, String key, Object value)
+          throws JSONException {
+    int indexOfDot = key.indexOf('.');
+    if (indexOfDot < 0) {
+      destination.put(key, value);
+      return true;
+    }
+    String subKey = key.substring(0, indexOfDot);
+    Object subDestination = destination.opt(subKey);
+    JSONObject subCopy;
+    if (subDestination == null) {
+      subCopy = new JSONObject();
+    } else if (subDestination instanceof JSONObject) {
+      subCopy = shallowCopyJSONObject((JSONObject) subDestination);
+    } else {
+      // FIXME: could also allow JSONArray here if the subkey is in integer
+      return false;
+    }
+    destination.put(subKey, subCopy);
+    return putWithDotNotationCopyOnWrite(subCopy, key.substring(indexOfDot + 1), value);
+  }
+
+  // Removes key from destination, which must be a copy, copying the objects along the dotted path.
+  private static void removeWithDotNotationCopyOnWrite(JSONObject destination, String key)
+          throws JSONException {
+    int indexOfDot = key.indexOf('.');
+    if (indexOfDot < 0) {
+      destination.remove(key);
+      return;
+    }
+    String subKey = key.substring(0, indexOfDot);
+    // throws like JSONDotNotation.removeWithDotNotation when the path is missing
+    Object subDestination = destination.get(subKey);
+    if (subDestination instanceof JSONObject) {
+      JSONObject subCopy = shallowCopyJSONObject((JSONObject) subDestination);
+      destination.put(subKey, subCopy);
+      removeWithDotNotationCopyOnWrite(subCopy, key.substring(indexOfDot + 1));
     }
   }
 
@@ -198,7 +311,8 @@ public class DiskMapRecords implements NoSQLRecords {
           ColumnField nameField, ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys)
           throws RecordNotFoundException, FailedDBOperationException {
 
-    JSONObject record = lookupEntireRecord(collection, name);
+    // Only the values we return are copied
+    JSONObject record = getRecord(collection, name);
 //    LOGGER.log(Level.FINE, "Full record " + record.toString());
     HashMap<ColumnField, Object> hashMap = new HashMap<>();
     hashMap.put(nameField, name);
@@ -216,16 +330,17 @@ public class DiskMapRecords implements NoSQLRecords {
           try {
             switch (valuesMapKeys.get(i).type()) {
               case USER_JSON:
-                Object value = JSONDotNotation.getWithDotNotation(userKey, readValuesMap);
+                Object value = recursiveCopyObject(JSONDotNotation.getWithDotNotation(userKey, readValuesMap));
                 LOGGER.log(Level.FINE,
-                        "Object is {0}", new Object[]{value.toString()});
+                        "Object is {0}", new Object[]{value});
                 valuesMapOut.put(userKey, value);
                 break;
               case LIST_STRING:
+                Object list = JSONDotNotation.getWithDotNotation(userKey, readValuesMap);
                 valuesMapOut.putAsArray(userKey,
-                        JSONUtils.JSONArrayToResultValue(
-                                new JSONArray(JSONDotNotation.getWithDotNotation(userKey,
-                                        readValuesMap).toString())));
+                        JSONUtils.JSONArrayToResultValue(list instanceof JSONArray
+                                ? recursiveCopyJSONArray((JSONArray) list)
+                                : new JSONArray(list.toString())));
                 break;
               default:
                 LOGGER.log(Level.SEVERE,
@@ -253,7 +368,7 @@ public class DiskMapRecords implements NoSQLRecords {
   @Override
   public void removeEntireRecord(String collection, String name) throws FailedDBOperationException {
     LOGGER.log(Level.FINE, "Remove: {0}", name);
-    getMap(collection).remove(name);
+    getCollection(collection).remove(name);
   }
 
   @Override
@@ -262,8 +377,8 @@ public class DiskMapRecords implements NoSQLRecords {
     JSONObject json = new JSONObject();
     try {
       json.put(NameRecord.NAME.getName(), name);
-      json.put(NameRecord.VALUES_MAP.getName(), valuesMap);
-      getMap(collection).put(name, json);
+      json.put(NameRecord.VALUES_MAP.getName(), recursiveCopyJSONObject(valuesMap));
+      getCollection(collection).put(name, json);
     } catch (JSONException e) {
 
     }
@@ -276,25 +391,24 @@ public class DiskMapRecords implements NoSQLRecords {
     LOGGER.log(Level.FINE, "Update fields {0}/{1}", new Object[]{name, valuesMapKeys});
     JSONObject record;
     try {
-      record = lookupEntireRecord(collection, name);
+      record = shallowCopyJSONObject(getRecord(collection, name));
     } catch (RecordNotFoundException e) {
       throw new FailedDBOperationException(collection, name, "Record not found.");
+    } catch (JSONException e) {
+      throw new FailedDBOperationException(collection, name, "Unable to parse json record");
     }
     LOGGER.log(Level.FINE, "Record before:{0}", record);
-    if (record == null) {
-      throw new FailedDBOperationException(collection, name, "Record is null.");
-    }
     if (valuesMapField != null && valuesMapKeys != null) {
       try {
-        JSONObject json = record.getJSONObject(valuesMapField.getName());
+        JSONObject json = shallowCopyJSONObject(record.getJSONObject(valuesMapField.getName()));
         for (int i = 0; i < valuesMapKeys.size(); i++) {
           String fieldName = valuesMapKeys.get(i).getName();
           switch (valuesMapKeys.get(i).type()) {
             case LIST_STRING:
-              JSONDotNotation.putWithDotNotation(json, fieldName, valuesMapValues.get(i));
+              putWithDotNotationCopyOnWrite(json, fieldName, recursiveCopyObject(valuesMapValues.get(i)));
               break;
             case USER_JSON:
-              JSONDotNotation.putWithDotNotation(json, fieldName, JSONParse(valuesMapValues.get(i)));
+              putWithDotNotationCopyOnWrite(json, fieldName, recursiveCopyObject(JSONParse(valuesMapValues.get(i))));
               break;
             default:
               LOGGER.log(Level.WARNING,
@@ -310,7 +424,7 @@ public class DiskMapRecords implements NoSQLRecords {
                 "Problem updating json: {0}", e.getMessage());
       }
     }
-    getMap(collection).put(name, record);
+    getCollection(collection).put(name, record);
   }
   // not sure why the JSON.parse doesn't handle things this way but it doesn't
 
@@ -326,23 +440,23 @@ public class DiskMapRecords implements NoSQLRecords {
   public void removeMapKeys(String collection, String name,
           ColumnField mapField, ArrayList<ColumnField> mapKeys)
           throws FailedDBOperationException {
-    JSONObject record = null;
+    JSONObject record;
     try {
-      record = lookupEntireRecord(collection, name);
+      record = shallowCopyJSONObject(getRecord(collection, name));
     } catch (RecordNotFoundException e) {
-    }
-    LOGGER.log(Level.FINE, "Record before:{0}", record);
-    if (record == null) {
       throw new FailedDBOperationException(collection, name, "Record not found.");
+    } catch (JSONException e) {
+      throw new FailedDBOperationException(collection, name, "Unable to parse json record");
     }
+    LOGGER.log(Level.FINE, "Record before:{0}", record);
     if (mapField != null && mapKeys != null) {
       try {
-        JSONObject json = record.getJSONObject(mapField.getName());
+        JSONObject json = shallowCopyJSONObject(record.getJSONObject(mapField.getName()));
         LOGGER.log(Level.FINE, "Json before:{0}", json);
         for (int i = 0; i < mapKeys.size(); i++) {
           String fieldName = mapKeys.get(i).getName();
           LOGGER.log(Level.FINE, "Removing: {0}", fieldName);
-          JSONDotNotation.removeWithDotNotation(fieldName, json);
+          removeWithDotNotationCopyOnWrite(json, fieldName);
         }
         LOGGER.log(Level.FINE, "Json after:{0}", json);
         record.put(mapField.getName(), json);
@@ -352,48 +466,189 @@ public class DiskMapRecords implements NoSQLRecords {
                 "Problem updating json: {0}", e.getMessage());
       }
     }
-    getMap(collection).put(name, record);
+    getCollection(collection).put(name, record);
   }
 
   @Override
   public AbstractRecordCursor getAllRowsIterator(String collection) throws FailedDBOperationException {
-    getMap(collection).commit();
+    getCollection(collection).flushUncommitted();
     return getMongoRecords(collection).getAllRowsIterator(MongoRecords.DBNAMERECORD);
   }
 
+  // The selects below don't commit the map. Equality, within and near selects merge
+  // the uncommitted records that match from the DiskMapIndex with the results from mongo.
+  // Paged selects and queries, which the index can't answer, write just the uncommitted
+  // records to mongo first.
   @Override
   public AbstractRecordCursor selectRecords(String collection, ColumnField valuesMapField, String key, Object value) throws FailedDBOperationException {
-    getMap(collection).commit();
-    return getMongoRecords(collection).selectRecords(MongoRecords.DBNAMERECORD, valuesMapField, key, value);
+    return selectRecords(collection, valuesMapField, key, value, null, null);
   }
 
   @Override
   public AbstractRecordCursor selectRecordsWithin(String collection, ColumnField valuesMapField, String key, String value) throws FailedDBOperationException {
-    getMap(collection).commit();
-    return getMongoRecords(collection).selectRecordsWithin(MongoRecords.DBNAMERECORD, valuesMapField, key, value);
+    return selectRecordsWithin(collection, valuesMapField, key, value, null, null);
   }
 
   @Override
   public AbstractRecordCursor selectRecordsNear(String collection, ColumnField valuesMapField, String key, String value, Double maxDistance) throws FailedDBOperationException {
-    getMap(collection).commit();
-    return getMongoRecords(collection).selectRecordsNear(MongoRecords.DBNAMERECORD, valuesMapField, key, value, maxDistance);
+    return selectRecordsNear(collection, valuesMapField, key, value, maxDistance, null, null);
   }
 
   @Override
   public AbstractRecordCursor selectRecordsQuery(String collection, ColumnField valuesMapField, String query) throws FailedDBOperationException {
-    getMap(collection).commit();
-    return getMongoRecords(collection).selectRecordsQuery(MongoRecords.DBNAMERECORD, valuesMapField, query);
+    return selectRecordsQuery(collection, valuesMapField, query, null, null);
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecords(String collection, ColumnField valuesMapField, String key, Object value,
+          PageRequest page, List<String> projection) throws FailedDBOperationException {
+    DiskMapIndex.Selection selection = null;
+    if (page == null) {
+      selection = getCollection(collection).getUncommitted().selectEquals(key, value);
+    } else {
+      getCollection(collection).flushUncommitted();
+    }
+    return merge(collection, selection, valuesMapField, projection,
+            getMongoRecords(collection).selectRecords(MongoRecords.DBNAMERECORD, valuesMapField, key, value, page, projection));
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecordsWithin(String collection, ColumnField valuesMapField, String key, String value,
+          PageRequest page, List<String> projection) throws FailedDBOperationException {
+    DiskMapIndex.Selection selection = null;
+    if (page == null) {
+      try {
+        JSONArray box = new JSONArray(value);
+        selection = getCollection(collection).getUncommitted().selectWithin(key,
+                box.getJSONArray(0).getDouble(0), box.getJSONArray(0).getDouble(1),
+                box.getJSONArray(1).getDouble(0), box.getJSONArray(1).getDouble(1));
+      } catch (JSONException e) {
+        LOGGER.log(Level.FINE, "Unable to parse box {0}: {1}", new Object[]{value, e.getMessage()});
+      }
+    }
+    if (selection == null) {
+      getCollection(collection).flushUncommitted();
+    }
+    return merge(collection, selection, valuesMapField, projection,
+            getMongoRecords(collection).selectRecordsWithin(MongoRecords.DBNAMERECORD, valuesMapField, key, value, page, projection));
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecordsNear(String collection, ColumnField valuesMapField, String key, String value,
+          Double maxDistance, PageRequest page, List<String> projection) throws FailedDBOperationException {
+    DiskMapIndex.Selection selection = null;
+    if (page == null) {
+      try {
+        JSONArray point = new JSONArray(value);
+        // same units as the mongo near select
+        selection = getCollection(collection).getUncommitted().selectNear(key,
+                point.getDouble(0), point.getDouble(1), maxDistance / MongoRecords.METERS_PER_DEGREE);
+      } catch (JSONException e) {
+        LOGGER.log(Level.FINE, "Unable to parse point {0}: {1}", new Object[]{value, e.getMessage()});
+      }
+    }
+    if (selection == null) {
+      getCollection(collection).flushUncommitted();
+    }
+    return merge(collection, selection, valuesMapField, projection,
+            getMongoRecords(collection).selectRecordsNear(MongoRecords.DBNAMERECORD, valuesMapField, key, value, maxDistance, page, projection));
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecordsQuery(String collection, ColumnField valuesMapField, String query,
+          PageRequest page, List<String> projection) throws FailedDBOperationException {
+    getCollection(collection).flushUncommitted();
+    return getMongoRecords(collection).selectRecordsQuery(MongoRecords.DBNAMERECORD, valuesMapField, query, page, projection);
+  }
+
+  private AbstractRecordCursor merge(String collection, DiskMapIndex.Selection selection,
+          ColumnField valuesMapField, List<String> projection, AbstractRecordCursor mongoCursor)
+          throws FailedDBOperationException {
+    if (selection == null || selection.getNames().isEmpty()) {
+      return mongoCursor;
+    }
+    List<JSONObject> matches = new ArrayList<>(selection.getMatches().size());
+    try {
+      for (JSONObject record : selection.getMatches()) {
+        matches.add(copyRecord(record, valuesMapField, projection));
+      }
+    } catch (JSONException e) {
+      throw new FailedDBOperationException(collection, selection.getNames().toString(), "Unable to copy json record");
+    }
+    return new MergedRecordCursor(mongoCursor, selection.getNames(), matches);
+  }
+
+  // Copies an uncommitted record keeping only the projected fields like the mongo projection does
+  private static JSONObject copyRecord(JSONObject record, ColumnField valuesMapField,
+          List<String> projection) throws JSONException {
+    if (projection == null) {
+      return recursiveCopyJSONObject(record);
+    }
+    JSONObject copy = shallowCopyJSONObject(record);
+    JSONObject valuesMap = record.optJSONObject(valuesMapField.getName());
+    JSONObject projected = new JSONObject();
+    for (String field : projection) {
+      if (valuesMap != null && JSONDotNotation.containsFieldDotNotation(field, valuesMap)) {
+        JSONDotNotation.putWithDotNotation(projected, field,
+                recursiveCopyObject(JSONDotNotation.getWithDotNotation(field, valuesMap)));
+      }
+    }
+    copy.put(valuesMapField.getName(), projected);
+    return copy;
+  }
+
+  /**
+   * Returns the records from mongo that aren't stale followed by the
+   * matching uncommitted records.
+   */
+  private static class MergedRecordCursor extends AbstractRecordCursor {
+
+    private final AbstractRecordCursor mongoCursor;
+    private final Set<String> staleNames;
+    private final Iterator<JSONObject> uncommitted;
+    private JSONObject next = null;
+
+    private MergedRecordCursor(AbstractRecordCursor mongoCursor, Set<String> staleNames,
+            List<JSONObject> uncommitted) {
+      this.mongoCursor = mongoCursor;
+      this.staleNames = staleNames;
+      this.uncommitted = uncommitted.iterator();
+    }
+
+    @Override
+    public boolean hasNext() throws FailedDBOperationException {
+      while (next == null && mongoCursor.hasNext()) {
+        JSONObject record = mongoCursor.nextJSONObject();
+        if (!staleNames.contains(record.optString(NameRecord.NAME.getName(), null))) {
+          next = record;
+        }
+      }
+      return next != null || uncommitted.hasNext();
+    }
+
+    @Override
+    public JSONObject nextJSONObject() throws FailedDBOperationException {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      if (next != null) {
+        JSONObject result = next;
+        next = null;
+        return result;
+      }
+      return uncommitted.next();
+    }
   }
 
   @Override
   public void createIndex(String collection, String field, String index) {
-    getMap(collection).commit();
+    getCollection(collection).createIndex(field, index);
     getMongoRecords(collection).createIndex(MongoRecords.DBNAMERECORD, field, index);
   }
 
   @Override
   public void printAllEntries(String collection) throws FailedDBOperationException {
-    getMap(collection).commit();
+    getCollection(collection).flushUncommitted();
     getMongoRecords(collection).printAllEntries(MongoRecords.DBNAMERECORD);
   }
 }
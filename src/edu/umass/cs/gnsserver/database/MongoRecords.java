@@ -52,6 +52,7 @@ import org.json.JSONObject;
 
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -184,6 +185,81 @@ public class MongoRecords implements NoSQLRecords {
     }
   }
 
+  @Override
+  public void upsert(String collectionName, String guid, JSONObject value) throws FailedDBOperationException {
+    db.requestStart();
+    try {
+      db.requestEnsureConnection();
+      String primaryKey = mongoCollectionSpecs.getCollectionSpec(collectionName).getPrimaryKey().getName();
+      DBCollection collection = db.getCollection(collectionName);
+      DBObject dbObject = (DBObject) JSON.parse(value.toString());
+      try {
+        collection.update(new BasicDBObject(primaryKey, guid), dbObject, true, false);
+      } catch (MongoException e) {
+        throw new FailedDBOperationException(collectionName, guid,
+                "Original mongo exception:" + e.getMessage());
+      }
+    } finally {
+      db.requestDone();
+    }
+  }
+
+  @Override
+  public void bulkUpsert(String collectionName, Map<String, JSONObject> values)
+          throws FailedDBOperationException {
+    // mongo refuses to execute an empty bulk operation
+    if (values.isEmpty()) {
+      return;
+    }
+    try {
+      bulkUpdate(collectionName, values);
+    } catch (RecordExistsException e) {
+      throw new FailedDBOperationException(collectionName, values.keySet().toString(), e.getMessage());
+    } catch (MongoException e) {
+      throw new FailedDBOperationException(collectionName, values.keySet().toString(),
+              "Original mongo exception:" + e.getMessage());
+    }
+  }
+
+  @Override
+  public Map<String, JSONObject> lookupEntireRecords(String collectionName, Collection<String> guids)
+          throws FailedDBOperationException {
+    Map<String, JSONObject> records = new HashMap<>();
+    if (guids.isEmpty()) {
+      return records;
+    }
+    db.requestStart();
+    try {
+      String primaryKey = mongoCollectionSpecs.getCollectionSpec(collectionName).getPrimaryKey().getName();
+      db.requestEnsureConnection();
+      DBCollection collection = db.getCollection(collectionName);
+      BasicDBObject query = new BasicDBObject(primaryKey,
+              new BasicDBObject("$in", new ArrayList<>(guids)));
+      DBCursor cursor = collection.find(query);
+      try {
+        while (cursor.hasNext()) {
+          DBObject obj = cursor.next();
+          @SuppressWarnings("unchecked")
+          JSONObject json = obj instanceof Map ? DiskMapRecords
+                  .recursiveCopyMap((Map<String, ?>) obj)
+                  : new JSONObject(obj.toString());
+          records.put(json.getString(primaryKey), json);
+        }
+      } finally {
+        cursor.close();
+      }
+    } catch (JSONException e) {
+      throw new FailedDBOperationException(collectionName, guids.toString(),
+              "Unable to parse JSON: " + e.getMessage());
+    } catch (MongoException e) {
+      throw new FailedDBOperationException(collectionName, guids.toString(),
+              "Original mongo exception:" + e.getMessage());
+    } finally {
+      db.requestDone();
+    }
+    return records;
+  }
+
   @Override
   public JSONObject lookupEntireRecord(String collectionName, String guid) throws RecordNotFoundException, FailedDBOperationException {
     return lookupEntireRecord(collectionName, guid, false);
@@ -504,11 +580,17 @@ public class MongoRecords implements NoSQLRecords {
   @Override
   public MongoRecordCursor selectRecords(String collectionName, ColumnField valuesMapField, String key, Object value)
           throws FailedDBOperationException {
-    return selectRecords(collectionName, valuesMapField, key, value, false);
+    return selectRecords(collectionName, valuesMapField, key, value, null, null, false);
+  }
+
+  @Override
+  public MongoRecordCursor selectRecords(String collectionName, ColumnField valuesMapField, String key, Object value,
+          PageRequest page, List<String> projection) throws FailedDBOperationException {
+    return selectRecords(collectionName, valuesMapField, key, value, page, projection, false);
   }
 
   private MongoRecordCursor selectRecords(String collectionName, ColumnField valuesMapField, String key, Object value,
-          boolean explain) throws FailedDBOperationException {
+          PageRequest page, List<String> projection, boolean explain) throws FailedDBOperationException {
     db.requestEnsureConnection();
     DBCollection collection = db.getCollection(collectionName);
     // note that if the value of the key in the database is a list (which it is) this
@@ -526,7 +608,7 @@ public class MongoRecords implements NoSQLRecords {
     //System.out.println("***GNSProtocol.QUERY.toString()***: " + query.toString());
     DBCursor cursor = null;
     try {
-      cursor = collection.find(query);
+      cursor = find(collectionName, collection, query, page, valuesMapField, projection);
     } catch (MongoException e) {
       throw new FailedDBOperationException(collectionName, fieldName,
               "Original mongo exception:" + e.getMessage());
@@ -540,11 +622,17 @@ public class MongoRecords implements NoSQLRecords {
   @Override
   public MongoRecordCursor selectRecordsWithin(String collectionName, ColumnField valuesMapField, String key, String value)
           throws FailedDBOperationException {
-    return selectRecordsWithin(collectionName, valuesMapField, key, value, false);
+    return selectRecordsWithin(collectionName, valuesMapField, key, value, null, null, false);
   }
 
-  private MongoRecordCursor selectRecordsWithin(String collectionName, ColumnField valuesMapField, String key, String value, boolean explain)
-          throws FailedDBOperationException {
+  @Override
+  public MongoRecordCursor selectRecordsWithin(String collectionName, ColumnField valuesMapField, String key, String value,
+          PageRequest page, List<String> projection) throws FailedDBOperationException {
+    return selectRecordsWithin(collectionName, valuesMapField, key, value, page, projection, false);
+  }
+
+  private MongoRecordCursor selectRecordsWithin(String collectionName, ColumnField valuesMapField, String key, String value,
+          PageRequest page, List<String> projection, boolean explain) throws FailedDBOperationException {
     db.requestEnsureConnection();
     DBCollection collection = db.getCollection(collectionName);
 
@@ -555,7 +643,7 @@ public class MongoRecords implements NoSQLRecords {
     BasicDBObject query = new BasicDBObject(fieldName, withinClause);
     DBCursor cursor = null;
     try {
-      cursor = collection.find(query);
+      cursor = find(collectionName, collection, query, page, valuesMapField, projection);
     } catch (MongoException e) {
       throw new FailedDBOperationException(collectionName, fieldName,
               "Original mongo exception:" + e.getMessage());
@@ -584,16 +672,22 @@ public class MongoRecords implements NoSQLRecords {
     return box;
   }
 
-  private final static double METERS_PER_DEGREE = 111.12 * 1000; // at the equator
+  final static double METERS_PER_DEGREE = 111.12 * 1000; // at the equator
 
   @Override
   public MongoRecordCursor selectRecordsNear(String collectionName, ColumnField valuesMapField, String key, String value,
           Double maxDistance) throws FailedDBOperationException {
-    return selectRecordsNear(collectionName, valuesMapField, key, value, maxDistance, false);
+    return selectRecordsNear(collectionName, valuesMapField, key, value, maxDistance, null, null, false);
+  }
+
+  @Override
+  public MongoRecordCursor selectRecordsNear(String collectionName, ColumnField valuesMapField, String key, String value,
+          Double maxDistance, PageRequest page, List<String> projection) throws FailedDBOperationException {
+    return selectRecordsNear(collectionName, valuesMapField, key, value, maxDistance, page, projection, false);
   }
 
   private MongoRecordCursor selectRecordsNear(String collectionName, ColumnField valuesMapField, String key, String value,
-          Double maxDistance, boolean explain) throws FailedDBOperationException {
+          Double maxDistance, PageRequest page, List<String> projection, boolean explain) throws FailedDBOperationException {
     db.requestEnsureConnection();
     DBCollection collection = db.getCollection(collectionName);
 
@@ -611,7 +705,7 @@ public class MongoRecords implements NoSQLRecords {
     BasicDBObject query = new BasicDBObject(fieldName, nearClause);
     DBCursor cursor = null;
     try {
-      cursor = collection.find(query);
+      cursor = find(collectionName, collection, query, page, valuesMapField, projection);
     } catch (MongoException e) {
       throw new FailedDBOperationException(collectionName, fieldName,
               "Original mongo exception:" + e.getMessage());
@@ -624,15 +718,22 @@ public class MongoRecords implements NoSQLRecords {
 
   @Override
   public MongoRecordCursor selectRecordsQuery(String collectionName, ColumnField valuesMapField, String query) throws FailedDBOperationException {
-    return selectRecordsQuery(collectionName, valuesMapField, query, false);
+    return selectRecordsQuery(collectionName, valuesMapField, query, null, null, false);
   }
 
-  private MongoRecordCursor selectRecordsQuery(String collectionName, ColumnField valuesMapField, String query, boolean explain) throws FailedDBOperationException {
+  @Override
+  public MongoRecordCursor selectRecordsQuery(String collectionName, ColumnField valuesMapField, String query,
+          PageRequest page, List<String> projection) throws FailedDBOperationException {
+    return selectRecordsQuery(collectionName, valuesMapField, query, page, projection, false);
+  }
+
+  private MongoRecordCursor selectRecordsQuery(String collectionName, ColumnField valuesMapField, String query,
+          PageRequest page, List<String> projection, boolean explain) throws FailedDBOperationException {
     db.requestEnsureConnection();
     DBCollection collection = db.getCollection(collectionName);
     DBCursor cursor = null;
     try {
-      cursor = collection.find(parseMongoQuery(query, valuesMapField));
+      cursor = find(collectionName, collection, parseMongoQuery(query, valuesMapField), page, valuesMapField, projection);
     } catch (MongoException e) {
       throw new FailedDBOperationException(collectionName, query,
               "Original mongo exception:" + e.getMessage());
@@ -643,6 +744,49 @@ public class MongoRecords implements NoSQLRecords {
     return new MongoRecordCursor(cursor, mongoCollectionSpecs.getCollectionSpec(collectionName).getPrimaryKey());
   }
 
+  // Runs the query, restricting it to the page if there is one. Pages are
+  // in primary key order so the next page is the records whose primary key
+  // follows the last one in this page. This uses the primary key index
+  // and, unlike skip, doesn't scan the records of the previous pages.
+  // If there is a projection only the primary key and those user fields are returned.
+  private DBCursor find(String collectionName, DBCollection collection, DBObject query, PageRequest page,
+          ColumnField valuesMapField, List<String> projection) {
+    String primaryKey = mongoCollectionSpecs.getCollectionSpec(collectionName).getPrimaryKey().getName();
+    DBObject keys = projection != null ? makeProjection(primaryKey, valuesMapField, projection) : null;
+    if (page == null) {
+      return collection.find(query, keys);
+    }
+    if (page.getCursor() != null) {
+      BasicDBList clauses = new BasicDBList();
+      clauses.add(query);
+      clauses.add(new BasicDBObject(primaryKey, new BasicDBObject("$gt", page.getCursor())));
+      query = new BasicDBObject("$and", clauses);
+    }
+    return collection.find(query, keys).sort(new BasicDBObject(primaryKey, 1)).limit(page.getLimit());
+  }
+
+  private static DBObject makeProjection(String primaryKey, ColumnField valuesMapField, List<String> fields) {
+    BasicDBObject keys = new BasicDBObject(primaryKey, 1);
+    for (String field : fields) {
+      // Mongo doesn't allow a field and one of its subfields in the same projection
+      // and the field includes the subfield anyway.
+      if (!hasParentField(field, fields)) {
+        keys.append(valuesMapField.getName() + "." + field, 1);
+      }
+    }
+    return keys;
+  }
+
+  private static boolean hasParentField(String field, List<String> fields) {
+    for (String other : fields) {
+      if (field.length() > other.length() && field.startsWith(other)
+              && field.charAt(other.length()) == '.') {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private DBObject parseMongoQuery(String query, ColumnField valuesMapField) {
     // convert something like this: ~fred : ($gt: 0) into the queryable 
     // format, namely this: {~nr_valuesMap.fred : ($gt: 0)}
@@ -25,7 +25,10 @@ import edu.umass.cs.gnsserver.utils.ValuesMap;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Provides an interface for insert, update, remove and lookup 
@@ -54,6 +57,44 @@ public interface NoSQLRecords {
           throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException,
           edu.umass.cs.gnscommon.exceptions.server.RecordExistsException;
 
+  /**
+   * Creates the record with the given name or replaces it entirely if it
+   * already exists, in one database operation. The implementation may keep
+   * {@code value} so the caller must not modify it afterwards.
+   *
+   * @param collection collection to be inserted into
+   * @param name the name of the record
+   * @param value value to be inserted (a JSONObject)
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  public void upsert(String collection, String name, JSONObject value)
+          throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+
+  /**
+   * Creates or replaces many records in one database operation. A null value
+   * removes the record. The implementation may keep the values so the caller
+   * must not modify them afterwards.
+   *
+   * @param collection the name of the collection
+   * @param values a map from record name to record
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  public void bulkUpsert(String collection, Map<String, JSONObject> values)
+          throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+
+  /**
+   * Returns the entire records of the names that exist in one database
+   * operation. Unlike {@link #lookupEntireRecord} the records may be shared
+   * with the database so they must not be modified.
+   *
+   * @param collection the name of the collection
+   * @param names
+   * @return a map from record name to record
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  public Map<String, JSONObject> lookupEntireRecords(String collection, Collection<String> names)
+          throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+
   /**
    * For the record with given name, return the entire record as a JSONObject.
    *
@@ -210,6 +251,74 @@ public interface NoSQLRecords {
   public AbstractRecordCursor selectRecordsQuery(String collection, ColumnField valuesMapField, String query)
           throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 
+  /**
+   * Like {@link #selectRecords(String, ColumnField, String, Object)} but only
+   * returns the records in the given page, in primary key order, and only
+   * the given fields of them.
+   *
+   * @param collectionName
+   * @param valuesMapField
+   * @param key
+   * @param value
+   * @param page the page to return or null for all the records
+   * @param projection the user fields to return or null for entire records
+   * @return AbstractRecordCursor
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  public AbstractRecordCursor selectRecords(String collectionName, ColumnField valuesMapField, String key, Object value,
+          PageRequest page, List<String> projection) throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+
+  /**
+   * Like {@link #selectRecordsWithin(String, ColumnField, String, String)} but only
+   * returns the records in the given page, in primary key order, and only
+   * the given fields of them.
+   *
+   * @param collectionName
+   * @param valuesMapField
+   * @param key
+   * @param value
+   * @param page the page to return or null for all the records
+   * @param projection the user fields to return or null for entire records
+   * @return AbstractRecordCursor
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  public AbstractRecordCursor selectRecordsWithin(String collectionName, ColumnField valuesMapField, String key, String value,
+          PageRequest page, List<String> projection) throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+
+  /**
+   * Like {@link #selectRecordsNear(String, ColumnField, String, String, Double)} but only
+   * returns the records in the given page, in primary key order, and only
+   * the given fields of them.
+   *
+   * @param collectionName
+   * @param valuesMapField
+   * @param key
+   * @param value
+   * @param maxDistance
+   * @param page the page to return or null for all the records
+   * @param projection the user fields to return or null for entire records
+   * @return an AbstractRecordCursor
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  public AbstractRecordCursor selectRecordsNear(String collectionName, ColumnField valuesMapField, String key, String value, Double maxDistance,
+          PageRequest page, List<String> projection) throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+
+  /**
+   * Like {@link #selectRecordsQuery(String, ColumnField, String)} but only
+   * returns the records in the given page, in primary key order, and only
+   * the given fields of them.
+   *
+   * @param collection the name of the collection
+   * @param valuesMapField the field that contains the ValuesMap
+   * @param query the query to execute
+   * @param page the page to return or null for all the records
+   * @param projection the user fields to return or null for entire records
+   * @return an AbstractRecordCursor
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  public AbstractRecordCursor selectRecordsQuery(String collection, ColumnField valuesMapField, String query,
+          PageRequest page, List<String> projection) throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+
   /**
    * Creates an index for the given field.
    *
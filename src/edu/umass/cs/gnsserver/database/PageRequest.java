@@ -0,0 +1,72 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.database;
+
+/**
+ * Limits a select to one page of records.
+ *
+ * A paged select returns the records in primary key order, starting
+ * after the primary key given by the cursor (or at the beginning if the
+ * cursor is null) and returning at most limit records. The cursor for
+ * the next page is the primary key of the last record returned.
+ *
+ * @author westy
+ */
+public class PageRequest {
+
+  private final String cursor;
+  private final int limit;
+
+  /**
+   *
+   * @param cursor the primary key of the last record of the previous page or null
+   * @param limit the maximum number of records to return
+   */
+  public PageRequest(String cursor, int limit) {
+    if (limit <= 0) {
+      throw new IllegalArgumentException("Page limit must be positive: " + limit);
+    }
+    this.cursor = cursor;
+    this.limit = limit;
+  }
+
+  /**
+   * Returns the primary key that all records in the page follow.
+   *
+   * @return the cursor or null for the first page
+   */
+  public String getCursor() {
+    return cursor;
+  }
+
+  /**
+   * Returns the maximum number of records in the page.
+   *
+   * @return the limit
+   */
+  public int getLimit() {
+    return limit;
+  }
+
+  @Override
+  public String toString() {
+    return "PageRequest{" + "cursor=" + cursor + ", limit=" + limit + '}';
+  }
+}
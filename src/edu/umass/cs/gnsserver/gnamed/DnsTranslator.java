@@ -22,6 +22,8 @@ package edu.umass.cs.gnsserver.gnamed;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
 import edu.umass.cs.gnsserver.utils.Shutdownable;
 import edu.umass.cs.gnscommon.utils.ThreadUtils;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
 import edu.umass.cs.utils.DelayProfiler;
 
 import java.io.IOException;
@@ -63,7 +65,7 @@ public class DnsTranslator extends Thread implements Shutdownable {
   public DnsTranslator(InetAddress addr, int port, ClientRequestHandlerInterface handler) throws SecurityException, SocketException, UnknownHostException {
     this.port = port;
     this.sock = new DatagramSocket(port, addr);
-    this.executor = Executors.newFixedThreadPool(5);
+    this.executor = Executors.newFixedThreadPool(Config.getGlobalInt(GNSConfig.GNSC.DNS_SERVER_WORKER_THREADS));
     this.handler = handler;
   }
 
@@ -84,7 +86,7 @@ public class DnsTranslator extends Thread implements Shutdownable {
           } catch (InterruptedIOException e) {
             continue;
           }
-          executor.execute(new LookupWorker(sock, incomingPacket, incomingData, null, null, null, handler));
+          executor.execute(new LookupWorker(sock, incomingPacket, incomingData, null, null, null, null, handler));
           NameResolution.getLogger().fine(DelayProfiler.getStats());
         }
       } catch (IOException e) {
@@ -0,0 +1,292 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnamed;
+
+import edu.umass.cs.gnsserver.main.GNSConfig.GNSC;
+import edu.umass.cs.utils.Config;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Caches the DNS fields that {@link NameResolution#lookupGnsServer} reads
+ * from the GNS for a domain name, including negative answers (names that
+ * don't resolve to a guid or a record).
+ *
+ * Positive answers live for the smallest TTL found in the record's fields
+ * (see {@link ManagedDNSServiceProxy#TTL_FIELD}); fields without a TTL use
+ * {@link GNSC#DNS_GNS_ANSWER_CACHE_DEFAULT_TTL_IN_SECONDS}. Negative answers
+ * live for {@link GNSC#DNS_GNS_ANSWER_CACHE_NEGATIVE_TTL_IN_SECONDS}.
+ * Answers are invalidated when the DNS fields of the backing guid are
+ * updated, when the guid is removed and when the record of the domain name
+ * or the guid is created or replaced.
+ *
+ * @author westy
+ */
+public class GnsAnswerCache {
+
+  /**
+   * The fields that {@link NameResolution#lookupGnsServer} reads.
+   */
+  public static final List<String> DNS_FIELDS
+          = Collections.unmodifiableList(Arrays.asList("A", "NS", "CNAME", "SOA", "PTR", "MX"));
+
+  // Domain name to answer
+  private static final Cache<String, Answer> ANSWERS
+          = CacheBuilder.newBuilder().concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
+          .maximumSize(Config.getGlobalInt(GNSC.DNS_GNS_ANSWER_CACHE_SIZE))
+          .removalListener(new RemovalListener<String, Answer>() {
+            @Override
+            public void onRemoval(RemovalNotification<String, Answer> notification) {
+              // A replacement was already indexed by put
+              if (notification.getCause() != RemovalCause.REPLACED) {
+                removeFromIndex(notification.getValue().guid, notification.getKey());
+              }
+            }
+          })
+          .build();
+
+  // Guid to the domain names whose answers came from it
+  private static final ConcurrentHashMap<String, Set<String>> GUID_INDEX = new ConcurrentHashMap<>();
+
+  // Invalidation counts striped by name. A lookup that raced with an
+  // invalidation of its domain or guid sees a changed generation and
+  // doesn't cache what it read.
+  private static final int GENERATION_STRIPES = 1024;
+  private static final AtomicLongArray GENERATIONS = new AtomicLongArray(GENERATION_STRIPES);
+
+  /**
+   * The cached result of looking up the DNS fields of a domain name.
+   */
+  public static class Answer {
+
+    private final String guid;
+    private final JSONObject fields;
+    private final long expiresAt;
+
+    private Answer(String guid, JSONObject fields, long expiresAt) {
+      this.guid = guid;
+      this.fields = fields;
+      this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Returns the guid the domain name resolved to or null if it didn't.
+     *
+     * @return the guid or null
+     */
+    public String getGuid() {
+      return guid;
+    }
+
+    /**
+     * Returns the DNS fields of the guid or null if this is a negative
+     * answer. Callers must not modify the returned object.
+     *
+     * @return a JSONObject or null
+     */
+    public JSONObject getFields() {
+      return fields;
+    }
+  }
+
+  /**
+   * Returns the cached answer for {@code domain} or null if there isn't an
+   * unexpired one.
+   *
+   * @param domain
+   * @return an Answer or null
+   */
+  public static Answer get(String domain) {
+    Answer answer = ANSWERS.getIfPresent(domain);
+    if (answer == null) {
+      return null;
+    }
+    if (answer.expiresAt <= System.currentTimeMillis()) {
+      ANSWERS.asMap().remove(domain, answer);
+      return null;
+    }
+    return answer;
+  }
+
+  /**
+   * Returns the invalidation generation of {@code name}. Lookups read this
+   * for the domain name and the guid before reading the records that they
+   * will pass to {@link #put}.
+   *
+   * @param name
+   * @return the generation
+   */
+  public static long getGeneration(String name) {
+    return GENERATIONS.get(stripe(name));
+  }
+
+  /**
+   * Caches the answer for {@code domain} if neither the domain name nor the
+   * guid were invalidated since their generations were read. A null
+   * {@code fields} means a negative answer.
+   *
+   * @param domain
+   * @param domainGeneration
+   * @param guid the guid of the domain or null if there isn't one
+   * @param guidGeneration ignored if guid is null
+   * @param fields
+   */
+  public static void put(String domain, long domainGeneration,
+          String guid, long guidGeneration, JSONObject fields) {
+    long ttlInSeconds = fields != null ? ttlInSeconds(fields)
+            : Config.getGlobalInt(GNSC.DNS_GNS_ANSWER_CACHE_NEGATIVE_TTL_IN_SECONDS);
+    if (ttlInSeconds <= 0
+            || !isCurrent(domain, domainGeneration, guid, guidGeneration)) {
+      return;
+    }
+    if (guid != null) {
+      Set<String> domains = GUID_INDEX.get(guid);
+      if (domains == null) {
+        Set<String> newDomains = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        domains = GUID_INDEX.putIfAbsent(guid, newDomains);
+        if (domains == null) {
+          domains = newDomains;
+        }
+      }
+      domains.add(domain);
+    }
+    Answer answer = new Answer(guid, fields,
+            System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttlInSeconds));
+    ANSWERS.put(domain, answer);
+    // Check again in case an invalidation snuck in before the put.
+    if (!isCurrent(domain, domainGeneration, guid, guidGeneration)) {
+      ANSWERS.asMap().remove(domain, answer);
+    }
+  }
+
+  private static boolean isCurrent(String domain, long domainGeneration,
+          String guid, long guidGeneration) {
+    return getGeneration(domain) == domainGeneration
+            && (guid == null || getGeneration(guid) == guidGeneration);
+  }
+
+  /**
+   * Removes all the answers that came from {@code guid}.
+   *
+   * @param guid
+   */
+  public static void invalidateGuid(String guid) {
+    GENERATIONS.incrementAndGet(stripe(guid));
+    Set<String> domains = GUID_INDEX.remove(guid);
+    if (domains != null) {
+      NameResolution.getLogger().log(Level.FINE,
+              "Invalidating cached GNS answers {0} for {1}", new Object[]{domains, guid});
+      ANSWERS.invalidateAll(domains);
+    }
+  }
+
+  /**
+   * Removes all the answers for {@code name} as a domain name, including
+   * negative ones, and all the answers that came from {@code name} as a guid.
+   * Should be called whenever the record of {@code name} is created or
+   * replaced.
+   *
+   * @param name
+   */
+  public static void invalidateName(String name) {
+    GENERATIONS.incrementAndGet(stripe(name));
+    ANSWERS.invalidate(name);
+    invalidateGuid(name);
+  }
+
+  /**
+   * Returns true if {@code field} holds data that is cached here. Dotted
+   * fields such as A.ttl are matched on their first component.
+   *
+   * @param field
+   * @return true if the field is or is within a DNS field
+   */
+  public static boolean isDnsField(String field) {
+    int dot = field.indexOf('.');
+    return DNS_FIELDS.contains(dot < 0 ? field : field.substring(0, dot));
+  }
+
+  /**
+   * Returns true if any of the top level keys of {@code json} is or is
+   * within a DNS field.
+   *
+   * @param json
+   * @return true if json contains a DNS field
+   */
+  public static boolean hasDnsField(JSONObject json) {
+    Iterator<?> keys = json.keys();
+    while (keys.hasNext()) {
+      if (isDnsField(keys.next().toString())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static int stripe(String name) {
+    return (name.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+  }
+
+  private static long ttlInSeconds(JSONObject fields) {
+    long ttl = Config.getGlobalInt(GNSC.DNS_GNS_ANSWER_CACHE_DEFAULT_TTL_IN_SECONDS);
+    for (String field : DNS_FIELDS) {
+      JSONObject recordObj = fields.optJSONObject(field);
+      if (recordObj != null && recordObj.has(ManagedDNSServiceProxy.TTL_FIELD)) {
+        try {
+          ttl = Math.min(ttl, recordObj.getLong(ManagedDNSServiceProxy.TTL_FIELD));
+        } catch (JSONException e) {
+          // a bad ttl means don't cache at all
+          return 0;
+        }
+      }
+    }
+    return ttl;
+  }
+
+  private static void removeFromIndex(String guid, String domain) {
+    if (guid == null) {
+      return;
+    }
+    Set<String> domains = GUID_INDEX.get(guid);
+    if (domains != null) {
+      domains.remove(domain);
+      if (domains.isEmpty()) {
+        GUID_INDEX.remove(guid, domains);
+      }
+    }
+  }
+}
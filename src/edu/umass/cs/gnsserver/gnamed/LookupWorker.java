@@ -20,11 +20,14 @@
 package edu.umass.cs.gnsserver.gnamed;
 
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
 import edu.umass.cs.utils.DelayProfiler;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.SocketAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -32,7 +35,6 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.logging.Level;
 
@@ -63,8 +65,9 @@ public class LookupWorker implements Runnable {
   private final SimpleResolver gnsServer;
   private final Cache dnsCache;
   private final DatagramSocket socket;
-  private final DatagramPacket incomingPacket;
+  private final SocketAddress clientAddress;
   private final byte[] incomingData;
+  private final ExecutorService lookupExecutor;
   private final ClientRequestHandlerInterface handler;
 
   /**
@@ -76,16 +79,40 @@ public class LookupWorker implements Runnable {
    * @param dnsServer (might be null meaning don't send requests to a DNS server)
    * @param gnsServer (might be null gns requests are resolved locally)
    * @param dnsCache (might be null meaning DNS responses are not cached)
+   * @param lookupExecutor the executor shared by all workers for running the parallel
+   * GNS and DNS lookups (might be null if dnsServer is null)
    * @param handler
    */
   public LookupWorker(DatagramSocket socket, DatagramPacket incomingPacket, byte[] incomingData, SimpleResolver gnsServer,
-          SimpleResolver dnsServer, Cache dnsCache, ClientRequestHandlerInterface handler) {
+          SimpleResolver dnsServer, Cache dnsCache, ExecutorService lookupExecutor,
+          ClientRequestHandlerInterface handler) {
+    this(socket, incomingPacket.getSocketAddress(), incomingData, gnsServer, dnsServer, dnsCache,
+            lookupExecutor, handler);
+  }
+
+  /**
+   * Creates a new <code>LookupWorker</code> object which handles the parallel GNS and DNS requesting.
+   *
+   * @param socket
+   * @param clientAddress the address the response is sent to
+   * @param incomingData exactly the bytes of the query
+   * @param dnsServer (might be null meaning don't send requests to a DNS server)
+   * @param gnsServer (might be null gns requests are resolved locally)
+   * @param dnsCache (might be null meaning DNS responses are not cached)
+   * @param lookupExecutor the executor shared by all workers for running the parallel
+   * GNS and DNS lookups (might be null if dnsServer is null)
+   * @param handler
+   */
+  public LookupWorker(DatagramSocket socket, SocketAddress clientAddress, byte[] incomingData, SimpleResolver gnsServer,
+          SimpleResolver dnsServer, Cache dnsCache, ExecutorService lookupExecutor,
+          ClientRequestHandlerInterface handler) {
     this.socket = socket;
-    this.incomingPacket = incomingPacket;
+    this.clientAddress = clientAddress;
     this.incomingData = incomingData;
     this.dnsServer = dnsServer;
     this.dnsCache = dnsCache;
     this.gnsServer = gnsServer;
+    this.lookupExecutor = lookupExecutor;
     this.handler = handler;
   }
 
@@ -114,7 +141,9 @@ public class LookupWorker implements Runnable {
       return;
     }
     if (query.getOPT() != null) {
-      maxLength = Math.max(query.getOPT().getPayloadSize(), 512);
+      // EDNS0: honor the client's payload size up to what we are willing to send
+      maxLength = Math.min(Math.max(query.getOPT().getPayloadSize(), 512),
+              Math.max(Config.getGlobalInt(GNSConfig.GNSC.DNS_MAX_UDP_PAYLOAD_SIZE), 512));
     } else {
       maxLength = 512;
     }
@@ -189,8 +218,7 @@ public class LookupWorker implements Runnable {
 
     // A little bit of overkill for two tasks, but it's really not that much longer (if any) than
     // the altenative. Plus it's cool and trendy to use futures.
-    ExecutorService executor = Executors.newFixedThreadPool(2);
-    ExecutorCompletionService<Message> completionService = new ExecutorCompletionService<>(executor);
+    ExecutorCompletionService<Message> completionService = new ExecutorCompletionService<>(lookupExecutor);
     List<Future<Message>> futures = new ArrayList<>(2);
     for (Callable<Message> task : tasks) {
       futures.add(completionService.submit(task));
@@ -212,10 +240,14 @@ public class LookupWorker implements Runnable {
         NameResolution.getLogger().log(Level.WARNING, "Problem handling lookup task: {0}", e);
       } catch (InterruptedException e) {
         NameResolution.getLogger().log(Level.WARNING, "Lookup task interrupted: {0}", e);
+        Thread.currentThread().interrupt();
+        break;
       }
     }
-    // Shutdown the executor threadpool
-    executor.shutdown();
+    // Cancel the losing lookup so it doesn't tie up a thread in the shared executor.
+    for (Future<Message> future : futures) {
+      future.cancel(true);
+    }
     if (successResponse != null) {
       // Cache the successful response
       try {
@@ -252,12 +284,11 @@ public class LookupWorker implements Runnable {
    * @param responseBytes
    */
   private void sendResponse(byte[] responseBytes) {
-    DatagramPacket outgoingPacket = new DatagramPacket(responseBytes, responseBytes.length, incomingPacket.getAddress(), incomingPacket.getPort());
+    DatagramPacket outgoingPacket = new DatagramPacket(responseBytes, responseBytes.length, clientAddress);
     try {
       socket.send(outgoingPacket);
       NameResolution.getLogger().log(Level.FINE,
-              "Response sent to {0} {1}", new Object[]{incomingPacket.getAddress().toString(),
-                incomingPacket.getPort()});
+              "Response sent to {0}", new Object[]{clientAddress});
     } catch (IOException e) {
       NameResolution.getLogger().log(Level.SEVERE, "Failed to send response{0}", e);
     }
@@ -26,9 +26,12 @@ import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
 import static edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.AccountAccess.HRN_GUID;
 import edu.umass.cs.gnsserver.gnsapp.GNSApp;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.ActiveCode;
 import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSFieldAccess;
 import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import edu.umass.cs.gnsserver.main.GNSConfig;
 import edu.umass.cs.gnsserver.utils.ValuesMap;
+import edu.umass.cs.utils.Config;
 import edu.umass.cs.utils.DelayProfiler;
 
 import java.io.IOException;
@@ -37,6 +40,7 @@ import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -165,13 +169,12 @@ public class NameResolution {
     response.getHeader().setFlag(Flags.AA);
 
     /* Request DNS fields of an alias and prepare a DNS response message */
-    ArrayList<String> fields = new ArrayList<>(Arrays.asList("A", "NS", "CNAME", "SOA", "PTR", "MX"));
     Boolean nameResolved = false;
     String nameToResolve = domainName;
 
     while (!nameResolved) {
       long resolveStart = System.currentTimeMillis();
-      JSONObject fieldResponseJson = lookupGuidField(nameToResolve, null, fields, handler);
+      JSONObject fieldResponseJson = lookupDnsFields(nameToResolve, handler);
       if (fieldResponseJson == null) {
         NameResolution.getLogger().log(Level.FINE, "GNS lookup for domain {0} failed.", domainName);
         return errorMessage(query, Rcode.NXDOMAIN);
@@ -275,6 +278,77 @@ public class NameResolution {
     return response;
   }
 
+  /**
+   * Lookup the DNS fields ({@link GnsAnswerCache#DNS_FIELDS}) of the guid
+   * for the domain name using the {@link GnsAnswerCache}.
+   * Returns a JSONObject containing the fields and values
+   * or null if the domainName doesn't exist.
+   * The returned JSONObject is shared and must not be modified.
+   *
+   * @param domain - the HRN of the guid
+   * @param handler
+   * @return a JSONObject containing the fields and values or null
+   */
+  private static JSONObject lookupDnsFields(String domain, ClientRequestHandlerInterface handler) {
+    GnsAnswerCache.Answer answer = GnsAnswerCache.get(domain);
+    if (answer != null) {
+      NameResolution.getLogger().log(Level.FINE, "Cached GNS answer for {0}", domain);
+      return answer.getFields();
+    }
+    String guid;
+    JSONObject value;
+    try {
+      // Read the generations before the records they guard
+      long domainGeneration = GnsAnswerCache.getGeneration(domain);
+      guid = lookupGuid(domain, handler);
+      long guidGeneration = guid != null ? GnsAnswerCache.getGeneration(guid) : 0;
+      value = guid != null
+              ? lookupFields(guid, GnsAnswerCache.DNS_FIELDS, handler) : null;
+      // Read active code can make every answer different so those aren't cached
+      if (guid == null || !hasReadActiveCode(guid, handler)) {
+        GnsAnswerCache.put(domain, domainGeneration, guid, guidGeneration, value);
+      }
+    } catch (FailedDBOperationException | JSONException e) {
+      // Failures aren't cached
+      NameResolution.getLogger().log(Level.FINE,
+              "Fetching record failed for {0}: {1}", new Object[]{domain, e});
+      return null;
+    }
+    return value;
+  }
+
+  private static String lookupGuid(String domain, ClientRequestHandlerInterface handler)
+          throws FailedDBOperationException, JSONException {
+    ValuesMap result = NSFieldAccess.lookupJSONFieldLocalNoAuth(null, domain,
+            HRN_GUID, handler.getApp(), false);
+    if (result != null && result.has(HRN_GUID)) {
+      return result.getString(HRN_GUID);
+    }
+    NameResolution.getLogger().log(Level.FINE,
+            "No guid for {0} is found", new Object[]{domain});
+    return null;
+  }
+
+  private static JSONObject lookupFields(String guid, List<String> fields,
+          ClientRequestHandlerInterface handler) throws FailedDBOperationException {
+    //FIXME: the internal request header should not be null
+    return NSFieldAccess.lookupFieldsLocalNoAuth(null, guid, fields, ColumnFieldType.USER_JSON, handler);
+  }
+
+  private static boolean hasReadActiveCode(String guid, ClientRequestHandlerInterface handler)
+          throws FailedDBOperationException {
+    if (Config.getGlobalBoolean(GNSConfig.GNSC.DISABLE_ACTIVE_CODE)) {
+      return false;
+    }
+    try {
+      NameRecord nameRecord = NameRecord.getNameRecordMultiUserFields(handler.getApp().getDB(), guid,
+              ColumnFieldType.USER_JSON, ActiveCode.ON_READ);
+      return nameRecord.getValuesMap().has(ActiveCode.ON_READ);
+    } catch (RecordNotFoundException | FieldNotFoundException e) {
+      return false;
+    }
+  }
+
   /**
    * Lookup the field or fields in the guid.
    * Returns a JSONObject containing the fields and values
@@ -297,11 +371,7 @@ public class NameResolution {
      */
     String guid = null;
     try{
-	    ValuesMap result = NSFieldAccess.lookupJSONFieldLocalNoAuth(null, domain,
-	            HRN_GUID, handler.getApp(), false);
-	    if (result != null) {
-	        guid = result.getString(HRN_GUID);
-	    }
+	    guid = lookupGuid(domain, handler);
     } catch (FailedDBOperationException | JSONException e) {
     	NameResolution.getLogger().log(Level.FINE,
                 "No guid for {0}: {1}", new Object[]{domain, e});
@@ -314,14 +384,11 @@ public class NameResolution {
     if(guid != null){
     	//FIXME: the internal request header should not be null
     	try {
-			value = NSFieldAccess.lookupFieldsLocalNoAuth(null, guid, fields, ColumnFieldType.USER_JSON, handler);
+			value = lookupFields(guid, fields, handler);
 		} catch (FailedDBOperationException e) {
 			NameResolution.getLogger().log(Level.FINE,
 	                "Fetching record failed for {0}: {1}", new Object[]{domain, e});
 		}
-    }else{
-    	NameResolution.getLogger().log(Level.FINE,
-                "No guid for {0} is found", new Object[]{domain});
     }
     return value;
     
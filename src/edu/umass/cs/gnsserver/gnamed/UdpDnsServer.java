@@ -22,14 +22,20 @@ package edu.umass.cs.gnsserver.gnamed;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
 import edu.umass.cs.gnsserver.utils.Shutdownable;
 import edu.umass.cs.gnscommon.utils.ThreadUtils;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
 
 import java.io.IOException;
-import java.io.InterruptedIOException;
-import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.SocketException;
+import java.net.StandardSocketOptions;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.logging.Level;
@@ -53,8 +59,11 @@ public class UdpDnsServer extends Thread implements Shutdownable {
   private final SimpleResolver dnsServer;
   private final SimpleResolver gnsServer;
   private final Cache dnsCache;
-  private final DatagramSocket sock;
+  private final DatagramChannel channel;
   private ExecutorService executor = null;
+  // Shared by all the workers for running the parallel GNS and DNS lookups.
+  private ExecutorService lookupExecutor = null;
+  private final int receiveBufferSize;
   private final String dnsServerIP; // just stored for informational purposes
   private final String gnsServerIP; // just stored for informational purposes
   private final ClientRequestHandlerInterface handler;
@@ -82,32 +91,68 @@ public class UdpDnsServer extends Thread implements Shutdownable {
     this.dnsCache = dnsServerIP != null ? new Cache() : null;
     this.dnsServerIP = dnsServerIP;
     this.gnsServerIP = gnsServerIP;
-    this.sock = new DatagramSocket(port, addr);
-    this.executor = Executors.newFixedThreadPool(5);
+    this.channel = openChannel(addr, port);
+    int workerThreads = Config.getGlobalInt(GNSConfig.GNSC.DNS_SERVER_WORKER_THREADS);
+    this.executor = Executors.newFixedThreadPool(workerThreads);
+    // Each worker has at most two lookups in flight so this never starves a worker.
+    this.lookupExecutor = Executors.newFixedThreadPool(2 * workerThreads);
+    this.receiveBufferSize = Config.getGlobalInt(GNSConfig.GNSC.DNS_MAX_UDP_PAYLOAD_SIZE);
     this.handler = handler;
   }
 
+  private static DatagramChannel openChannel(InetAddress addr, int port) throws SocketException {
+    DatagramChannel channel = null;
+    try {
+      channel = DatagramChannel.open();
+      channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+      channel.bind(new InetSocketAddress(addr, port));
+      return channel;
+    } catch (IOException e) {
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException f) {
+          // ignore
+        }
+      }
+      if (e instanceof SocketException) {
+        throw (SocketException) e;
+      }
+      SocketException socketException = new SocketException(e.getMessage());
+      socketException.initCause(e);
+      throw socketException;
+    }
+  }
+
+  /**
+   * Reads queries off the channel and hands them to the workers. This is the
+   * only thread reading the channel since concurrent receives on one channel
+   * just take turns on its read lock. It reuses a single receive buffer that
+   * is large enough for EDNS0 sized queries.
+   */
   @Override
   public void run() {
     NameResolution.getLogger().log(Level.INFO,
             "Starting local DNS Server on port {0}{1}fallback DNS server at {2}",
-            new Object[]{sock.getLocalPort(),
+            new Object[]{channel.socket().getLocalPort(),
               gnsServerIP != null ? (" with GNS server at " + gnsServerIP + " and ") : " with ", dnsServerIP});
-    while (true) {
+    ByteBuffer buffer = ByteBuffer.allocate(receiveBufferSize);
+    DatagramSocket socket = channel.socket();
+    while (channel.isOpen()) {
       try {
-        final short udpLength = 512;
-        while (true) {
-          byte[] incomingData = new byte[udpLength];
-          DatagramPacket incomingPacket = new DatagramPacket(incomingData, incomingData.length);
-          // Read the incoming request
-          incomingPacket.setLength(incomingData.length);
-          try {
-            sock.receive(incomingPacket);
-          } catch (InterruptedIOException e) {
-            continue;
-          }
-          executor.execute(new LookupWorker(sock, incomingPacket, incomingData, gnsServer, dnsServer, dnsCache, handler));
+        buffer.clear();
+        SocketAddress client = channel.receive(buffer);
+        if (client == null) {
+          continue;
         }
+        buffer.flip();
+        byte[] incomingData = new byte[buffer.remaining()];
+        buffer.get(incomingData);
+        executor.execute(new LookupWorker(socket, client, incomingData, gnsServer, dnsServer, dnsCache,
+                lookupExecutor, handler));
+      } catch (ClosedChannelException e) {
+        NameResolution.getLogger().log(Level.INFO, "UDP Server channel closed");
+        return;
       } catch (IOException e) {
         NameResolution.getLogger().log(Level.SEVERE, 
                 "Error in UDP Server (will sleep for 3 seconds and try again): {0}", e);
@@ -118,8 +163,16 @@ public class UdpDnsServer extends Thread implements Shutdownable {
 
   @Override
   public void shutdown() {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      NameResolution.getLogger().log(Level.WARNING, "Problem closing UDP Server channel: {0}", e);
+    }
     if (executor != null) {
       executor.shutdown();
     }
+    if (lookupExecutor != null) {
+      lookupExecutor.shutdownNow();
+    }
   }
 }
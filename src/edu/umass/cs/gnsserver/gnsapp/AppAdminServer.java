@@ -26,9 +26,11 @@ import edu.umass.cs.gnsserver.database.AbstractRecordCursor;
 import edu.umass.cs.gnscommon.exceptions.server.FieldNotFoundException;
 import edu.umass.cs.gnsserver.main.GNSConfig;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.AccountAccess;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.CommandLatencies;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.GuidInfo;
 import edu.umass.cs.gnsserver.gnsapp.packet.Packet;
 import edu.umass.cs.gnsserver.gnsapp.packet.admin.AdminRequestPacket;
+import edu.umass.cs.gnsserver.gnsapp.packet.admin.AdminResponsePacket;
 import edu.umass.cs.gnsserver.gnsapp.packet.admin.DumpRequestPacket;
 import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
 
@@ -175,6 +177,19 @@ public class AppAdminServer extends Thread implements Shutdownable {
                   GNSConfig.getLogger().log(Level.WARNING,
                           "NSListenerAdmin ({0}) : Ignoring DUMPCACHE request", app.getNodeID());
                   break;
+                case COMMANDSTATS:
+                  Packet.sendTCPPacket(new AdminResponsePacket(adminRequestPacket.getId(),
+                          CommandLatencies.toJSONObject()).toJSONObject(),
+                          adminRequestPacket.getReturnAddress());
+                  break;
+                case CNSSTATS:
+                  // empty if the context service isn't enabled
+                  Packet.sendTCPPacket(new AdminResponsePacket(adminRequestPacket.getId(),
+                          app.getContextServiceGNSClient() != null
+                                  ? app.getContextServiceGNSClient().getStats()
+                                  : new JSONObject()).toJSONObject(),
+                          adminRequestPacket.getReturnAddress());
+                  break;
 
               }
               break;
@@ -28,9 +28,7 @@ import edu.umass.cs.gnsserver.activecode.ActiveCodeHandler;
 import edu.umass.cs.gnsserver.database.ColumnField;
 import edu.umass.cs.gnsserver.database.MongoRecords;
 import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
-import edu.umass.cs.gnscommon.exceptions.server.FieldNotFoundException;
 import edu.umass.cs.gnscommon.exceptions.server.InternalRequestException;
-import edu.umass.cs.gnscommon.exceptions.server.RecordExistsException;
 import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
 import edu.umass.cs.gnscommon.packets.AdminCommandPacket;
 import edu.umass.cs.gnscommon.packets.CommandPacket;
@@ -51,8 +49,10 @@ import edu.umass.cs.gnsserver.nodeconfig.GNSNodeConfig;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandler;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.Admintercessor;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.CommandHandler;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.AccountAccess;
 import edu.umass.cs.gnsserver.gnsapp.packet.BasicPacketWithClientAddress;
 import edu.umass.cs.gnsserver.gnamed.DnsTranslator;
+import edu.umass.cs.gnsserver.gnamed.GnsAnswerCache;
 import edu.umass.cs.gnsserver.gnamed.UdpDnsServer;
 import edu.umass.cs.gnsserver.gnsapp.packet.InternalCommandPacket;
 import edu.umass.cs.gnsserver.gnsapp.packet.Packet;
@@ -544,19 +544,20 @@ public class GNSApp extends AbstractReconfigurablePaxosApp<String> implements
   @Override
   public String checkpoint(String name) {
     try {
-      NameRecord nameRecord = NameRecord
-              .getNameRecord(nameRecordDB, name);
+      // No need for a NameRecord and its copy of the values map just to stringify it
+      JSONObject valuesMap = nameRecordDB.lookupEntireRecord(name)
+              .getJSONObject(NameRecord.VALUES_MAP.getName());
+      String state = valuesMap.toString();
       GNSConfig.getLogger().log(
               Level.FINE,
               "{0} getting state for {1} : {2} ",
-              new Object[]{this, name,
-                nameRecord.getValuesMap().getSummary()});
-      return nameRecord.getValuesMap().toString();
+              new Object[]{this, name, Util.truncate(state, 32, 32)});
+      return state;
     } catch (RecordNotFoundException e) {
       // the above RecordNotFoundException is a normal result
-    } catch (FieldNotFoundException e) {
+    } catch (JSONException e) {
       GNSConfig.getLogger().log(Level.SEVERE,
-              "Field not found exception: {0}", e.getMessage());
+              "Values map not found: {0}", e.getMessage());
       e.printStackTrace();
     } catch (FailedDBOperationException e) {
       GNSConfig.getLogger().log(Level.SEVERE,
@@ -579,36 +580,24 @@ public class GNSApp extends AbstractReconfigurablePaxosApp<String> implements
             "{0} updating {1} with state [{2}]",
             new Object[]{this, name, Util.truncate(state, 32, 32)});
     try {
+      invalidateCachedState(name);
       if (state == null) {
         // If state is null the only thing it means is that we need to
         // delete
         // the record. If the record does not exists this is just a
         // noop.
         NameRecord.removeNameRecord(nameRecordDB, name);
-      } else // state does not equal null so we either create a new record
-      // or update the existing one
-       if (!NameRecord.containsRecord(nameRecordDB, name)) {
-          // create a new record
-          try {
-            ValuesMap valuesMap = new ValuesMap(new JSONObject(state));
-            NameRecord nameRecord = new NameRecord(nameRecordDB, name,
-                    valuesMap);
-            NameRecord.addNameRecord(nameRecordDB, nameRecord);
-          } catch (RecordExistsException | JSONException e) {
-            GNSConfig.getLogger().log(Level.SEVERE,
-                    "Problem updating state: {0}", e.getMessage());
-          }
-        } else { // update the existing record
-          try {
-            NameRecord nameRecord = NameRecord.getNameRecord(
-                    nameRecordDB, name);
-            nameRecord
-                    .updateState(new ValuesMap(new JSONObject(state)));
-          } catch (JSONException | FieldNotFoundException | RecordNotFoundException | FailedDBOperationException e) {
-            GNSConfig.getLogger().log(Level.SEVERE,
-                    "Problem updating state: {0}", e.getMessage());
-          }
+      } else {
+        // state does not equal null so we either create a new record
+        // or replace the existing one in one go
+        try {
+          NameRecord.upsertNameRecord(nameRecordDB, new NameRecord(nameRecordDB, name,
+                  new ValuesMap(new JSONObject(state))));
+        } catch (JSONException e) {
+          GNSConfig.getLogger().log(Level.SEVERE,
+                  "Problem updating state: {0}", e.getMessage());
         }
+      }
       return true;
     } catch (FailedDBOperationException e) {
       GNSConfig.getLogger().log(Level.SEVERE,
@@ -618,6 +607,18 @@ public class GNSApp extends AbstractReconfigurablePaxosApp<String> implements
     return false;
   }
 
+  /**
+   * Removes everything cached about {@code name} because its state is being
+   * created, replaced wholesale or removed. Cached guid info and DNS answers,
+   * including negative ones, may be stale.
+   *
+   * @param name
+   */
+  private static void invalidateCachedState(String name) {
+    AccountAccess.invalidateGuidInfo(name);
+    GnsAnswerCache.invalidateName(name);
+  }
+
   /**
    * Returns a stop request packet.
    *
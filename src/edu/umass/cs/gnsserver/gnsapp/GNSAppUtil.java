@@ -2,7 +2,10 @@ package edu.umass.cs.gnsserver.gnsapp;
 
 import edu.umass.cs.gigapaxos.interfaces.Request;
 import edu.umass.cs.gnscommon.packets.CommandPacket;
+import edu.umass.cs.gnscommon.packets.ResponsePacket;
 import edu.umass.cs.gnsserver.gnsapp.packet.Packet;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectRequestPacket;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectResponsePacket;
 import edu.umass.cs.nio.JSONPacket;
 import edu.umass.cs.nio.MessageExtractor;
 import edu.umass.cs.nio.interfaces.Byteable;
@@ -48,7 +51,7 @@ public class GNSAppUtil {
           request = (Request) Packet.createInstance(json, unstringer);
         } else {
           // parse non-JSON byteified form
-          return fromBytes(msgBytes);
+          return fromBytes(msgBytes, header);
         }
         if (Util.oneIn(100)) {
           DelayProfiler.updateDelayNano(
@@ -65,17 +68,24 @@ public class GNSAppUtil {
      * {@link Byteable#toBytes()} method for GNSApp packets.
      *
      * @param msgBytes
+     * @param header
      * @return a request
      * @throws RequestParseException
      */
-    private static Request fromBytes(byte[] msgBytes)
+    private static Request fromBytes(byte[] msgBytes, NIOHeader header)
             throws RequestParseException {
-      switch (Packet.PacketType.getPacketType(ByteBuffer.wrap(msgBytes)
-              .getInt())) {
+      ByteBuffer buf = ByteBuffer.wrap(msgBytes);
+      switch (Packet.PacketType.getPacketType(buf.getInt())) {
         case COMMAND:
           return new CommandPacket(msgBytes);
-        /* Currently only CommandPacket is Byteable, so we shouldn't come
-               * here for anything else. */
+        case COMMAND_RETURN_VALUE:
+          return new ResponsePacket(buf);
+        case SELECT_REQUEST:
+          return SelectRequestPacket.fromBytes(buf, header != null ? header.sndr : null);
+        case SELECT_RESPONSE:
+          return SelectResponsePacket.fromBytes(buf, header != null ? header.sndr : null);
+        /* Currently only CommandPacket, ResponsePacket and the select
+         * packets are Byteable, so we shouldn't come here for anything else. */
         default:
           throw new RequestParseException(new RuntimeException(
                   "Unrecognizable request type"));
@@ -27,19 +27,29 @@ import java.util.ArrayList;
 
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.junit.Assert;
 import org.junit.Test;
 
+import edu.umass.cs.gnscommon.CommandType;
+import edu.umass.cs.gnscommon.GNSProtocol;
 import edu.umass.cs.gnscommon.packets.CommandPacket;
+import edu.umass.cs.gnsserver.main.GNSConfig;
 import edu.umass.cs.gnsserver.utils.Util;
 import edu.umass.cs.reconfiguration.interfaces.ReplicableRequest;
 import edu.umass.cs.reconfiguration.reconfigurationutils.AbstractDemandProfile;
 import edu.umass.cs.reconfiguration.reconfigurationutils.InterfaceGetActiveIPs;
+import edu.umass.cs.utils.Config;
 import edu.umass.cs.utils.DefaultTest;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -124,14 +134,44 @@ public class LocationBasedDemandProfile extends AbstractDemandProfile {
    */
   private static final long NUMBER_OF_REQUESTS_BETWEEN_RECONFIGURATIONS = 1000;
 
-  private double interArrivalTime = 0.0;
-  private long lastRequestTime = 0;
-  private int numRequests = 0;
-  private int numTotalRequests = 0;
+  /**
+   * Only one in this many requests votes for its closest active.
+   */
+  private static final int VOTE_SAMPLING
+          = Math.max(1, Config.getGlobalInt(GNSConfig.GNSC.DEMAND_PROFILE_VOTE_SAMPLING));
+
+  /**
+   * Senders whose closest active we've remembered before we start over.
+   */
+  private static final int MAX_CLOSEST_ACTIVES = 1 << 16;
+
+  // Everything below is updated by register on every request, possibly
+  // concurrently, so it's all counters that don't need locks.
+  // Losing the odd update of the moving average is fine.
+  private volatile double interArrivalTime = 0.0;
+  private volatile long lastRequestTime = 0;
+  private final LongAdder numRequests = new LongAdder();
+  private final LongAdder numTotalRequests = new LongAdder();
   private LocationBasedDemandProfile lastReconfiguredProfile = null;
-  private VotesMap votesMap = new VotesMap();
-  private int lookupCount = 0;
-  private int updateCount = 0;
+  private final ConcurrentHashMap<InetAddress, LongAdder> votes = new ConcurrentHashMap<>();
+  private final LongAdder lookupCount = new LongAdder();
+  private final LongAdder updateCount = new LongAdder();
+
+  /**
+   * The closest active of the senders we've seen for one list of actives.
+   * The actives are the same for all names so this is shared.
+   */
+  private static class ClosestActives {
+
+    private final List<InetAddress> actives;
+    private final ConcurrentHashMap<InetAddress, InetAddress> closest = new ConcurrentHashMap<>();
+
+    ClosestActives(List<InetAddress> actives) {
+      this.actives = new ArrayList<>(actives);
+    }
+  }
+
+  private static volatile ClosestActives closestActives = new ClosestActives(new ArrayList<InetAddress>());
 
   /**
    * Create a LocationBasedDemandProfile instance.
@@ -151,11 +191,13 @@ public class LocationBasedDemandProfile extends AbstractDemandProfile {
     super(dp.name);
     this.interArrivalTime = dp.interArrivalTime;
     this.lastRequestTime = dp.lastRequestTime;
-    this.numRequests = dp.numRequests;
-    this.numTotalRequests = dp.numTotalRequests;
-    this.votesMap = new VotesMap(dp.votesMap);
-    this.lookupCount = dp.lookupCount;
-    this.updateCount = dp.updateCount;
+    this.numRequests.add(dp.numRequests.sum());
+    this.numTotalRequests.add(dp.numTotalRequests.sum());
+    for (Map.Entry<InetAddress, LongAdder> entry : dp.votes.entrySet()) {
+      addVotes(entry.getKey(), entry.getValue().sum());
+    }
+    this.lookupCount.add(dp.lookupCount.sum());
+    this.updateCount.add(dp.updateCount.sum());
   }
 
   /**
@@ -167,12 +209,12 @@ public class LocationBasedDemandProfile extends AbstractDemandProfile {
   public LocationBasedDemandProfile(JSONObject json) throws JSONException {
     super(json.getString(Keys.SERVICE_NAME.toString()));
     this.interArrivalTime = 1.0 / json.getDouble(Keys.RATE.toString());
-    this.numRequests = json.getInt(Keys.NUM_REQUESTS.toString());
-    this.numTotalRequests = json.getInt(Keys.NUM_TOTAL_REQUESTS.toString());
-    this.votesMap = new VotesMap(json.getJSONObject(Keys.VOTES_MAP.toString()));
-    this.lookupCount = json.getInt(Keys.LOOKUP_COUNT.toString());
-    this.updateCount = json.getInt(Keys.UPDATE_COUNT.toString());
-    LOG.log(Level.FINE, "%%%%%%%%%%%%%%%%%%%%%%%%%>>> {0} VOTES MAP AFTER READ: {1}", new Object[]{this.name, this.votesMap});
+    this.numRequests.add(json.getLong(Keys.NUM_REQUESTS.toString()));
+    this.numTotalRequests.add(json.getLong(Keys.NUM_TOTAL_REQUESTS.toString()));
+    addVotes(new VotesMap(json.getJSONObject(Keys.VOTES_MAP.toString())));
+    this.lookupCount.add(json.getLong(Keys.LOOKUP_COUNT.toString()));
+    this.updateCount.add(json.getLong(Keys.UPDATE_COUNT.toString()));
+    LOG.log(Level.FINE, "%%%%%%%%%%%%%%%%%%%%%%%%%>>> {0} VOTES MAP AFTER READ: {1}", new Object[]{this.name, this.votes});
   }
 
   /**
@@ -181,7 +223,7 @@ public class LocationBasedDemandProfile extends AbstractDemandProfile {
    */
   @Override
   public JSONObject getStats() {
-    LOG.log(Level.FINE, "%%%%%%%%%%%%%%%%%%%%%%%%%>>> {0} VOTES MAP BEFORE GET STATS: {1}", new Object[]{this.name, this.votesMap});
+    LOG.log(Level.FINE, "%%%%%%%%%%%%%%%%%%%%%%%%%>>> {0} VOTES MAP BEFORE GET STATS: {1}", new Object[]{this.name, this.votes});
     JSONObject json = new JSONObject();
     try {
       json.put(Keys.SERVICE_NAME.toString(), this.name);
@@ -189,8 +231,8 @@ public class LocationBasedDemandProfile extends AbstractDemandProfile {
       json.put(Keys.NUM_REQUESTS.toString(), getNumRequests());
       json.put(Keys.NUM_TOTAL_REQUESTS.toString(), getNumTotalRequests());
       json.put(Keys.VOTES_MAP.toString(), getVotesMap().toJSONObject());
-      json.put(Keys.LOOKUP_COUNT.toString(), this.lookupCount);
-      json.put(Keys.UPDATE_COUNT.toString(), this.updateCount);
+      json.put(Keys.LOOKUP_COUNT.toString(), this.lookupCount.sum());
+      json.put(Keys.UPDATE_COUNT.toString(), this.updateCount.sum());
     } catch (JSONException je) {
       je.printStackTrace();
     }
@@ -247,35 +289,78 @@ public class LocationBasedDemandProfile extends AbstractDemandProfile {
     if (nodeConfig == null) {
       return;
     }
-    this.numRequests++;
-    this.numTotalRequests++;
-    long iaTime = 0;
-    if (lastRequestTime > 0) {
-      iaTime = System.currentTimeMillis() - this.lastRequestTime;
-      this.interArrivalTime = Util.movingAverage(iaTime, interArrivalTime);
-    } else {
-      lastRequestTime = System.currentTimeMillis(); // initialization
+    this.numRequests.increment();
+    this.numTotalRequests.increment();
+    long now = System.currentTimeMillis();
+    long last = this.lastRequestTime;
+    if (last > 0) {
+      this.interArrivalTime = Util.movingAverage(now - last, interArrivalTime);
     }
+    this.lastRequestTime = now;
 
-    if (sender != null) { // should not happen, but just in case
-      this.votesMap.increment(findActiveReplicaClosestToSender(sender, nodeConfig.getActiveIPs()));
+    if (sender != null // should not happen, but just in case
+            && (VOTE_SAMPLING == 1 || ThreadLocalRandom.current().nextInt(VOTE_SAMPLING) == 0)) {
+      // a sampled vote counts for all the requests it stands for
+      addVotes(findActiveReplicaClosestToSender(sender, nodeConfig.getActiveIPs()), VOTE_SAMPLING);
     }
 
     if (request instanceof ReplicableRequest
             && ((ReplicableRequest) request).needsCoordination()) {
-      updateCount++;
+      updateCount.increment();
     } else {
-      lookupCount++;
+      lookupCount.increment();
+    }
+    // don't stringify this unless we're logging it
+    LOG.log(Level.FINE, "%%%%%%%%%%%%%%%%%%%%%%%%%>>> AFTER REGISTER:{0}", this);
+  }
+
+  private void addVotes(InetAddress active, long count) {
+    LongAdder adder = votes.get(active);
+    if (adder == null) {
+      LongAdder newAdder = new LongAdder();
+      adder = votes.putIfAbsent(active, newAdder);
+      if (adder == null) {
+        adder = newAdder;
+      }
+    }
+    adder.add(count);
+  }
+
+  private void addVotes(VotesMap votesMap) {
+    JSONObject json = votesMap.toJSONObject();
+    Iterator<?> keys = json.keys();
+    while (keys.hasNext()) {
+      String key = (String) keys.next();
+      try {
+        addVotes(InetAddresses.forString(key), json.getLong(key));
+      } catch (IllegalArgumentException | JSONException e) {
+        LOG.log(Level.WARNING, "Ignoring votes for {0}: {1}", new Object[]{key, e});
+      }
     }
-    LOG.log(Level.FINE, "%%%%%%%%%%%%%%%%%%%%%%%%%>>> AFTER REGISTER:{0}", this.toString());
   }
 
-  private InetAddress findActiveReplicaClosestToSender(InetAddress sender, List<InetAddress> allActives) {
+  // Looking for the closest active on every request is a scan of all the
+  // actives so we remember the answer for each sender until the actives change.
+  private static InetAddress findActiveReplicaClosestToSender(InetAddress sender, List<InetAddress> allActives) {
+    ClosestActives table = closestActives;
+    if (!table.actives.equals(allActives) || table.closest.size() >= MAX_CLOSEST_ACTIVES) {
+      table = new ClosestActives(allActives);
+      closestActives = table;
+    }
+    InetAddress closest = table.closest.get(sender);
+    if (closest == null) {
+      closest = scanForActiveReplicaClosestToSender(sender, table.actives);
+      table.closest.put(sender, closest);
+    }
+    return closest;
+  }
+
+  private static InetAddress scanForActiveReplicaClosestToSender(InetAddress sender, List<InetAddress> allActives) {
     assert !allActives.isEmpty();
     InetAddress closest = allActives.get(0);
-    int minDistance = Integer.MAX_VALUE;
+    long minDistance = distanceBetween(sender, closest);
     for (InetAddress active : allActives.subList(1, allActives.size())) {
-      int distance = distanceBetween(sender, active);
+      long distance = distanceBetween(sender, active);
       if (distance < minDistance) {
         closest = active;
         minDistance = distance;
@@ -285,14 +370,15 @@ public class LocationBasedDemandProfile extends AbstractDemandProfile {
   }
 
   // TODO: arun: should use better IP-to-geo techniques here.
-  private int distanceBetween(InetAddress one, InetAddress two) {
-    int result;
+  private static long distanceBetween(InetAddress one, InetAddress two) {
+    long result;
     try {
       // Probably a stupid matcher but it gets close.
-      result = InetAddresses.coerceToInteger(one)
-              ^ InetAddresses.coerceToInteger(two);
+      // Unsigned so that differing in the first bit is the farthest.
+      result = (InetAddresses.coerceToInteger(one)
+              ^ InetAddresses.coerceToInteger(two)) & 0xFFFFFFFFL;
     } catch (Exception e) {
-      result = Integer.MAX_VALUE;
+      result = Long.MAX_VALUE;
     }
     return result;
   }
@@ -304,10 +390,10 @@ public class LocationBasedDemandProfile extends AbstractDemandProfile {
   public void reset() {
     this.interArrivalTime = 0.0;
     this.lastRequestTime = 0;
-    this.numRequests = 0;
-    this.votesMap = new VotesMap();
-    this.updateCount = 0;
-    this.lookupCount = 0;
+    this.numRequests.reset();
+    this.votes.clear();
+    this.updateCount.reset();
+    this.lookupCount.reset();
   }
 
   @Override
@@ -326,12 +412,14 @@ public class LocationBasedDemandProfile extends AbstractDemandProfile {
             update.lastRequestTime);
     this.interArrivalTime = Util.movingAverage(update.interArrivalTime,
             this.interArrivalTime, update.getNumRequests());
-    this.numRequests += update.numRequests; // this number is not meaningful at RC
-    this.numTotalRequests += update.numTotalRequests;
-    this.updateCount += update.updateCount;
-    this.lookupCount += update.lookupCount;
-    this.votesMap.combine(update.getVotesMap());
-    LOG.log(Level.FINE, "%%%%%%%%%%%%%%%%%%%%%%%%%>>> AFTER COMBINE:{0}", this.toString());
+    this.numRequests.add(update.numRequests.sum()); // this number is not meaningful at RC
+    this.numTotalRequests.add(update.numTotalRequests.sum());
+    this.updateCount.add(update.updateCount.sum());
+    this.lookupCount.add(update.lookupCount.sum());
+    for (Map.Entry<InetAddress, LongAdder> entry : update.votes.entrySet()) {
+      addVotes(entry.getKey(), entry.getValue().sum());
+    }
+    LOG.log(Level.FINE, "%%%%%%%%%%%%%%%%%%%%%%%%%>>> AFTER COMBINE:{0}", this);
   }
 
   /**
@@ -366,8 +454,8 @@ public class LocationBasedDemandProfile extends AbstractDemandProfile {
       return null;
     }
     if (this.lastReconfiguredProfile != null) {
-      LOG.log(Level.FINE, "%%%%%%%%%%%%%%%%%%%%%%%%%>>> LAST: {0}", this.lastReconfiguredProfile.toString());
-      LOG.log(Level.FINE, "%%%%%%%%%%%%%%%%%%%%%%%%%>>> CURRENT: {0}", this.toString());
+      LOG.log(Level.FINE, "%%%%%%%%%%%%%%%%%%%%%%%%%>>> LAST: {0}", this.lastReconfiguredProfile);
+      LOG.log(Level.FINE, "%%%%%%%%%%%%%%%%%%%%%%%%%>>> CURRENT: {0}", this);
       LOG.log(Level.FINE, "%%%%%%%%%%%%%%%%%%%%%%%%%>>> interval: {0}",
               (System.currentTimeMillis() - this.lastReconfiguredProfile.lastRequestTime));
       if (System.currentTimeMillis()
@@ -375,21 +463,24 @@ public class LocationBasedDemandProfile extends AbstractDemandProfile {
         return null;
       }
       LOG.log(Level.FINE, "%%%%%%%%%%%%%%%%%%%%%%%%%>>> request diff: {0}",
-              (this.numTotalRequests - this.lastReconfiguredProfile.numTotalRequests));
+              (this.numTotalRequests.sum() - this.lastReconfiguredProfile.numTotalRequests.sum()));
 
-      if (this.numTotalRequests
-              - this.lastReconfiguredProfile.numTotalRequests < NUMBER_OF_REQUESTS_BETWEEN_RECONFIGURATIONS) {
+      if (this.numTotalRequests.sum()
+              - this.lastReconfiguredProfile.numTotalRequests.sum() < NUMBER_OF_REQUESTS_BETWEEN_RECONFIGURATIONS) {
         return null;
       }
     }
-    int numberOfReplicas = computeNumberOfReplicas(lookupCount, updateCount, nodeConfig.getActiveIPs().size());
+    long lookups = lookupCount.sum();
+    long updates = updateCount.sum();
+    int numberOfReplicas = computeNumberOfReplicas(lookups, updates, nodeConfig.getActiveIPs().size());
+    VotesMap votesMap = getVotesMap();
+    ArrayList<InetAddress> topN = votesMap.getTopN(numberOfReplicas);
     LOG.log(Level.INFO, "%%%%%%%%%%%%%%%%%%%%%%%%%>>> {0} "
             + "VOTES MAP: {1} TOP: {2} Lookup: {3} Update: {4} ReplicaCount: {5}",
-            new Object[]{this.name, this.votesMap, this.votesMap.getTopN(numberOfReplicas),
-              lookupCount, updateCount, numberOfReplicas});
+            new Object[]{this.name, votesMap, topN,
+              lookups, updates, numberOfReplicas});
 
-    return pickNewActiveReplicas(numberOfReplicas, curActives,
-            this.votesMap.getTopN(numberOfReplicas),
+    return pickNewActiveReplicas(numberOfReplicas, curActives, topN,
             nodeConfig.getActiveIPs());
   }
 
@@ -469,7 +560,7 @@ public class LocationBasedDemandProfile extends AbstractDemandProfile {
    * Otherwise returns a value in the range {@link edu.umass.cs.utils.Config.Config#minReplica} and
    * {@link edu.umass.cs.utils.Config.Config#maxReplica}.
    */
-  private int computeNumberOfReplicas(int lookupCount, int updateCount, int actualReplicasCount) {
+  private int computeNumberOfReplicas(long lookupCount, long updateCount, int actualReplicasCount) {
 
     if (updateCount == 0) {
       // no updates, replicate everywhere.
@@ -500,7 +591,7 @@ public class LocationBasedDemandProfile extends AbstractDemandProfile {
    * @return the number of requests
    */
   public double getNumRequests() {
-    return this.numRequests;
+    return this.numRequests.sum();
   }
 
   /**
@@ -509,16 +600,24 @@ public class LocationBasedDemandProfile extends AbstractDemandProfile {
    * @return the total number of requests
    */
   public double getNumTotalRequests() {
-    return this.numTotalRequests;
+    return this.numTotalRequests.sum();
   }
 
   /**
-   * Return the votes map.
+   * Return a copy of the votes map.
    *
    * @return the votes map
    */
   public VotesMap getVotesMap() {
-    return votesMap;
+    JSONObject json = new JSONObject();
+    for (Map.Entry<InetAddress, LongAdder> entry : votes.entrySet()) {
+      try {
+        json.put(entry.getKey().getHostAddress(), entry.getValue().sum());
+      } catch (JSONException e) {
+        LOG.log(Level.SEVERE, "Unable to create JSON: {0}", e);
+      }
+    }
+    return new VotesMap(json);
   }
 
   @Override
@@ -527,7 +626,7 @@ public class LocationBasedDemandProfile extends AbstractDemandProfile {
             + interArrivalTime + ", lastRequestTime=" + lastRequestTime
             + ", numRequests=" + numRequests + ", numTotalRequests=" + numTotalRequests
             + ", lastReconfiguredProfile=" + lastReconfiguredProfile + ", votesMap="
-            + votesMap + ", lookupCount=" + lookupCount + ", updateCount=" + updateCount + '}';
+            + getVotesMap() + ", lookupCount=" + lookupCount + ", updateCount=" + updateCount + '}';
   }
 
   /**
@@ -538,11 +637,10 @@ public class LocationBasedDemandProfile extends AbstractDemandProfile {
     super("FRANK");
     this.interArrivalTime = 2.0;
     this.lastRequestTime = System.currentTimeMillis();
-    this.numRequests = 100;
-    this.numTotalRequests = 200;
-    this.votesMap = new VotesMap();
-    this.lookupCount = 40;
-    this.updateCount = 50;
+    this.numRequests.add(100);
+    this.numTotalRequests.add(200);
+    this.lookupCount.add(40);
+    this.updateCount.add(50);
   }
 
   /**
@@ -558,13 +656,94 @@ public class LocationBasedDemandProfile extends AbstractDemandProfile {
     testThings(dp);
   }
 
-  private static class LocationBasedDemandProfileTest extends DefaultTest {
+  /**
+   * Unit tests for {@link LocationBasedDemandProfile}.
+   */
+  public static class LocationBasedDemandProfileTest extends DefaultTest {
 
+    /**
+     *
+     */
     @Test
     public void testShouldReconfigure() {
       LocationBasedDemandProfile dp = new LocationBasedDemandProfile();
 
     }
+
+    /**
+     * Each sampled vote counts for {@link #VOTE_SAMPLING} requests and goes
+     * to the closest active.
+     *
+     * @throws JSONException
+     */
+    @Test
+    public void testVoteSampling() throws JSONException {
+      final ArrayList<InetAddress> actives = new ArrayList<>(Arrays.asList(
+              InetAddresses.forString("128.119.1.1"),
+              InetAddresses.forString("10.0.0.1")));
+      InterfaceGetActiveIPs nodeConfig = new InterfaceGetActiveIPs() {
+        @Override
+        public ArrayList<InetAddress> getActiveIPs() {
+          return actives;
+        }
+      };
+      String name = "votes";
+      LocationBasedDemandProfile dp = new LocationBasedDemandProfile(name);
+      int requests = 100 * VOTE_SAMPLING;
+      for (int i = 0; i < requests; i++) {
+        dp.register(new CommandPacket(i, new JSONObject()
+                .put(GNSProtocol.COMMAND_INT.toString(), CommandType.Read.getInt())
+                .put(GNSProtocol.GUID.toString(), name)),
+                InetAddresses.forString("128.119.2.2"), nodeConfig);
+      }
+      Assert.assertEquals(requests, dp.getNumRequests(), 0);
+      Assert.assertEquals(1, dp.votes.size());
+      long votes = dp.votes.get(InetAddresses.forString("128.119.1.1")).sum();
+      Assert.assertEquals(0, votes % VOTE_SAMPLING);
+      if (VOTE_SAMPLING == 1) {
+        Assert.assertEquals(requests, votes);
+      } else {
+        Assert.assertTrue(votes > 0);
+      }
+    }
+
+    /**
+     * The remembered closest actives match a scan and are dropped when the
+     * actives change.
+     */
+    @Test
+    public void testClosestActives() {
+      List<InetAddress> actives = Arrays.asList(
+              InetAddresses.forString("128.119.1.1"),
+              InetAddresses.forString("128.119.10.2"),
+              InetAddresses.forString("10.0.0.1"));
+      for (String sender : Arrays.asList("128.119.1.7", "128.119.10.1", "10.1.1.1", "200.0.0.1")) {
+        InetAddress address = InetAddresses.forString(sender);
+        InetAddress expected = scanForActiveReplicaClosestToSender(address, actives);
+        Assert.assertEquals(expected, findActiveReplicaClosestToSender(address, actives));
+        // again from the table
+        Assert.assertEquals(expected, findActiveReplicaClosestToSender(address, actives));
+      }
+      InetAddress sender = InetAddresses.forString("128.119.1.7");
+      List<InetAddress> otherActives = Arrays.asList(InetAddresses.forString("10.0.0.1"));
+      Assert.assertEquals(otherActives.get(0), findActiveReplicaClosestToSender(sender, otherActives));
+    }
+
+    /**
+     * Differing in the first bit is the farthest, not the closest.
+     */
+    @Test
+    public void testDistanceIsUnsigned() {
+      InetAddress zero = InetAddresses.forString("0.0.0.0");
+      long highBit = distanceBetween(zero, InetAddresses.forString("128.0.0.0"));
+      long lowBits = distanceBetween(zero, InetAddresses.forString("127.255.255.255"));
+      Assert.assertTrue(highBit > 0);
+      Assert.assertTrue(highBit > lowBits);
+      Assert.assertEquals(InetAddresses.forString("200.0.0.2"),
+              scanForActiveReplicaClosestToSender(InetAddresses.forString("200.0.0.1"),
+                      Arrays.asList(InetAddresses.forString("10.0.0.1"),
+                              InetAddresses.forString("200.0.0.2"))));
+    }
   }
 
   private static void testThings(LocationBasedDemandProfile dp) throws UnknownHostException {
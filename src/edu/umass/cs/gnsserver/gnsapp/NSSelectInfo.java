@@ -21,13 +21,17 @@ package edu.umass.cs.gnsserver.gnsapp;
 
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectGroupBehavior;
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectOperation;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectResponsePacket;
+import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
 
 import java.net.InetSocketAddress;
 import org.json.JSONObject;
 
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -43,6 +47,16 @@ public class NSSelectInfo {
   private final String guid; // the group GUID we are maintaining or null for simple select
   private final String query; // The string used to set up the query if applicable
   private final int minRefreshInterval; // in seconds
+  private final long requestId; // the id of the client's request
+  private final InetSocketAddress clientAddress;
+  private final InternalRequestHeader header; // the header of the client's request
+  private final int pageSize; // -1 if the select isn't paged
+  private final List<String> projection; // the user fields to return or null for entire records
+  private String pageCursor; // the smallest last guid of the servers that returned full pages
+  private final CompletableFuture<SelectResponsePacket> future = new CompletableFuture<>();
+  private boolean completed = false;
+  private boolean incomplete = false; // true if some server's records are missing
+
   /**
    * 
    * @param id
@@ -54,7 +68,33 @@ public class NSSelectInfo {
    * @param guid 
    */
   public NSSelectInfo(int id, Set<InetSocketAddress> serverIds, SelectOperation selectOperation, SelectGroupBehavior groupBehavior, String query, int minRefreshInterval, String guid) {
+    this(id, -1, null, null, -1, null, serverIds, selectOperation, groupBehavior, query, minRefreshInterval, guid);
+  }
+
+  /**
+   * 
+   * @param id
+   * @param requestId
+   * @param clientAddress
+   * @param header
+   * @param pageSize
+   * @param projection
+   * @param serverIds 
+   * @param selectOperation 
+   * @param groupBehavior 
+   * @param query 
+   * @param minRefreshInterval 
+   * @param guid 
+   */
+  public NSSelectInfo(int id, long requestId, InetSocketAddress clientAddress, InternalRequestHeader header,
+          int pageSize, List<String> projection, Set<InetSocketAddress> serverIds, SelectOperation selectOperation,
+          SelectGroupBehavior groupBehavior, String query, int minRefreshInterval, String guid) {
     this.queryId = id;
+    this.requestId = requestId;
+    this.clientAddress = clientAddress;
+    this.header = header;
+    this.pageSize = pageSize;
+    this.projection = projection;
     this.serversToBeProcessed = Collections.newSetFromMap(new ConcurrentHashMap<InetSocketAddress, Boolean>());
     this.serversToBeProcessed.addAll(serverIds);
     this.responses = new ConcurrentHashMap<>(10, 0.75f, 3);
@@ -121,6 +161,25 @@ public class NSSelectInfo {
     return new HashSet<>(responses.values());
   }
 
+  /**
+   * Returns the response for a guid.
+   * 
+   * @param name
+   * @return a JSONObject or null if the guid wasn't seen
+   */
+  public JSONObject getResponse(String name) {
+    return responses.get(name);
+  }
+
+  /**
+   * Return the user fields that are returned for each guid.
+   * 
+   * @return the fields or null for entire records
+   */
+  public List<String> getProjection() {
+    return projection;
+  }
+
   /**
    * Return the operation.
    * 
@@ -165,5 +224,112 @@ public class NSSelectInfo {
   public int getMinRefreshInterval() {
     return minRefreshInterval;
   }
+
+  /**
+   * Return the id of the client's request.
+   * 
+   * @return a long
+   */
+  public long getRequestId() {
+    return requestId;
+  }
+
+  /**
+   * Return the address of the client.
+   * 
+   * @return an address or null
+   */
+  public InetSocketAddress getClientAddress() {
+    return clientAddress;
+  }
+
+  /**
+   * Return the header of the client's request.
+   * 
+   * @return an InternalRequestHeader or null
+   */
+  public InternalRequestHeader getHeader() {
+    return header;
+  }
+
+  /**
+   * Return the page size.
+   * 
+   * @return the page size or -1 if the select isn't paged
+   */
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  /**
+   * Returns true if the select returns one page of results.
+   * 
+   * @return true if the select is paged
+   */
+  public boolean isPaged() {
+    return pageSize > 0;
+  }
+
+  /**
+   * Records the last guid of a server that returned a full page. Records
+   * after the smallest of these may not have been seen yet so they
+   * can't be part of this page.
+   * 
+   * @param cursor
+   */
+  public synchronized void updatePageCursor(String cursor) {
+    if (pageCursor == null || cursor.compareTo(pageCursor) < 0) {
+      pageCursor = cursor;
+    }
+  }
+
+  /**
+   * Returns the smallest last guid of the servers that returned full pages.
+   * 
+   * @return the cursor or null if no server returned a full page
+   */
+  public synchronized String getPageCursor() {
+    return pageCursor;
+  }
+
+  /**
+   * Returns the future that is completed with the response to the client.
+   * 
+   * @return a CompletableFuture
+   */
+  public CompletableFuture<SelectResponsePacket> getFuture() {
+    return future;
+  }
+
+  /**
+   * Marks this query as completed. Only the first call returns true so that
+   * exactly one of the last response and the deadline completes the query.
+   * 
+   * @return true if the query wasn't already completed
+   */
+  public synchronized boolean markCompleted() {
+    if (completed) {
+      return false;
+    }
+    completed = true;
+    return true;
+  }
+
+  /**
+   * Notes that the records of some server are missing because it returned an
+   * error, couldn't be reached or didn't respond in time.
+   */
+  public synchronized void markIncomplete() {
+    incomplete = true;
+  }
+
+  /**
+   * Returns true if the records of some server are missing.
+   * 
+   * @return true if the responses are incomplete
+   */
+  public synchronized boolean isIncomplete() {
+    return incomplete;
+  }
   
 }
@@ -25,17 +25,17 @@ package edu.umass.cs.gnsserver.gnsapp;
  * All Rights Reserved
  */
 import edu.umass.cs.gigapaxos.PaxosConfig;
-import edu.umass.cs.gnscommon.ResponseCode;
 import edu.umass.cs.gnscommon.exceptions.client.ClientException;
 import edu.umass.cs.gnsserver.database.AbstractRecordCursor;
+import edu.umass.cs.gnsserver.database.PageRequest;
 import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 import edu.umass.cs.gnscommon.exceptions.server.InternalRequestException;
-import edu.umass.cs.gnscommon.packets.PacketUtils;
 
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.AccountAccess;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.GroupAccess;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.MetaDataTypeName;
-import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSAuthentication;
+import edu.umass.cs.gnsserver.gnsapp.clientSupport.BatchAclCheck;
+import edu.umass.cs.gnsserver.gnsapp.clientSupport.CompiledAcl;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -44,8 +44,16 @@ import java.io.IOException;
 import java.net.UnknownHostException;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 
 import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSGroupAccess;
@@ -60,17 +68,14 @@ import edu.umass.cs.gnsserver.utils.ResultValue;
 import edu.umass.cs.reconfiguration.ReconfigurationConfig;
 import edu.umass.cs.utils.Config;
 
-import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.security.SignatureException;
-import java.security.spec.InvalidKeySpecException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.TreeSet;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -127,8 +132,20 @@ public class Select {
   private static final Random RANDOM_ID = new Random();
   private static final ConcurrentMap<Integer, NSSelectInfo> QUERIES_IN_PROGRESS
           = new ConcurrentHashMap<>(10, 0.75f, 3);
-  private static final ConcurrentMap<Integer, SelectResponsePacket> QUERY_RESULT
-          = new ConcurrentHashMap<>(10, 0.75f, 3);
+  // Completes queries whose servers haven't all responded by the deadline
+  private static final ScheduledThreadPoolExecutor DEADLINE_EXECUTOR
+          = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread thread = new Thread(r, Select.class.getSimpleName() + "-deadline");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+
+  static {
+    DEADLINE_EXECUTOR.setRemoveOnCancelPolicy(true);
+  }
 
   /**
    * Handles a select request that was received from a client.
@@ -153,23 +170,64 @@ public class Select {
    */
   private static final long SELECT_REQUEST_TIMEOUT = Config.getGlobalInt(GNSConfig.GNSC.SELECT_REQUEST_TIMEOUT);
 
+  private static final long SELECT_SERVER_TIMEOUT = Config.getGlobalInt(GNSConfig.GNSC.SELECT_SERVER_TIMEOUT);
+
+  private static final int SELECT_MAX_PAGE_SIZE = Config.getGlobalInt(GNSConfig.GNSC.SELECT_MAX_PAGE_SIZE);
+
   /**
    * Handle a select request from a client.
    * This node is the broadcaster and selector.
+   * Blocks until the response is available or SELECT_REQUEST_TIMEOUT
+   * has elapsed.
    *
+   * @param header
    * @param packet
    * @param app
-   * @return a select response packet
+   * @return a select response packet or null if the select failed
    * @throws JSONException
    * @throws UnknownHostException
    * @throws FailedDBOperationException
    * @throws InternalRequestException
    */
-  @SuppressWarnings("unchecked")
   public static SelectResponsePacket handleSelectRequestFromClient(InternalRequestHeader header,
           SelectRequestPacket packet,
           GNSApplicationInterface<String> app) throws JSONException, UnknownHostException,
           FailedDBOperationException, InternalRequestException {
+    CompletableFuture<SelectResponsePacket> future = handleSelectRequestFromClientAsync(header, packet, app);
+    try {
+      return future.get(SELECT_REQUEST_TIMEOUT, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException | TimeoutException e) {
+      LOGGER.log(Level.SEVERE, "Select request {0} failed: {1}",
+              new Object[]{packet.getSummary(), e});
+    }
+    return null;
+  }
+
+  /**
+   * Handle a select request from a client without waiting for the responses.
+   * This node is the broadcaster and selector.
+   * The returned future completes as soon as all the servers have responded.
+   * Servers that haven't responded within SELECT_SERVER_TIMEOUT are given
+   * up on and the future completes with the records from the servers that did,
+   * or exceptionally for a paged select since a partial page would make the
+   * cursor skip records.
+   *
+   * @param header
+   * @param packet
+   * @param app
+   * @return a future select response packet
+   * @throws JSONException
+   * @throws UnknownHostException
+   * @throws FailedDBOperationException
+   * @throws InternalRequestException
+   */
+  @SuppressWarnings("unchecked")
+  public static CompletableFuture<SelectResponsePacket> handleSelectRequestFromClientAsync(InternalRequestHeader header,
+          SelectRequestPacket packet,
+          GNSApplicationInterface<String> app) throws JSONException, UnknownHostException,
+          FailedDBOperationException, InternalRequestException {
     // special case handling of the GROUP_LOOK operation
     // If sufficient time hasn't passed we just send the current value back
     if (packet.getGroupBehavior().equals(SelectGroupBehavior.GROUP_LOOKUP)) {
@@ -187,7 +245,8 @@ public class Select {
                   "GROUP_LOOKUP Request: Time has not elapsed. Returning current group value for {0}",
                   packet.getGuid());
           ResultValue result = NSGroupAccess.lookupMembers(header, packet.getGuid(), true, app.getRequestHandler());
-          return createReponsePacket(header, packet.getId(), packet.getClientAddress(), result.toStringSet(), app);
+          return CompletableFuture.completedFuture(createReponsePacket(header, packet.getId(),
+                  packet.getClientAddress(), result.toStringSet(), app));
         }
       } else {
         LOGGER.fine("GROUP_LOOKUP Request: No Last Update Info ");
@@ -205,9 +264,31 @@ public class Select {
     Set<InetSocketAddress> serverAddresses = new HashSet<InetSocketAddress>(PaxosConfig.getActives().values());
     //Set<String> serverIds = app.getGNSNodeConfig().getActiveReplicas();
 
+    if (packet.isPaged()) {
+      // paging doesn't make sense for selects that maintain a group guid
+      packet.setPageSize(packet.getGroupBehavior().equals(SelectGroupBehavior.NONE)
+              ? Math.min(packet.getPageSize(), SELECT_MAX_PAGE_SIZE) : -1);
+    }
+    if (packet.getProjection() == null) {
+      // we only hand back the guids so the servers don't need to send us any fields
+      packet.setProjection(Collections.<String>emptyList());
+    }
     // store the info for later
-    int queryId = addQueryInfo(serverAddresses, packet.getSelectOperation(), packet.getGroupBehavior(),
-            packet.getQuery(), packet.getMinRefreshInterval(), packet.getGuid());
+    final NSSelectInfo info = addQueryInfo(header, packet, serverAddresses);
+    int queryId = info.getId();
+    // give up on the servers that haven't responded by the deadline
+    final ScheduledFuture<?> deadline = DEADLINE_EXECUTOR.schedule(new Runnable() {
+      @Override
+      public void run() {
+        handleDeadline(info, app);
+      }
+    }, SELECT_SERVER_TIMEOUT, TimeUnit.MILLISECONDS);
+    info.getFuture().whenComplete(new BiConsumer<SelectResponsePacket, Throwable>() {
+      @Override
+      public void accept(SelectResponsePacket response, Throwable e) {
+        deadline.cancel(false);
+      }
+    });
     if (packet.getGroupBehavior().equals(SelectGroupBehavior.GROUP_LOOKUP)) {
       // the query string is supplied with a lookup so we stuff in it there. It was saved from the SETUP operation.
       packet.setQuery(NSGroupAccess.getQueryString(header, packet.getGuid(), app.getRequestHandler()));
@@ -218,41 +299,39 @@ public class Select {
     //packet.setNameServerID(app.getNodeID());
     packet.setNsQueryId(queryId); // Note: this also tells handleSelectRequest that it should go to NS now
     JSONObject outgoingJSON = packet.toJSONObject();
-    try {
-
-      LOGGER.log(Level.FINER, "addresses: {0} node address: {1}",
-              new Object[]{serverAddresses, app.getNodeAddress()});
-      // Forward to all but self because...
-      for (InetSocketAddress address : serverAddresses) {
-        if (!address.equals(app.getNodeAddress())) {
-          InetSocketAddress offsetAddress = new InetSocketAddress(address.getAddress(),
-                  ReconfigurationConfig.getClientFacingPort(address.getPort()));
-          LOGGER.log(Level.INFO, "NS {0} sending select {1} to {2} ({3})",
-                  new Object[]{app.getNodeID(), outgoingJSON, offsetAddress, address});
+    LOGGER.log(Level.FINER, "addresses: {0} node address: {1}",
+            new Object[]{serverAddresses, app.getNodeAddress()});
+    Set<InetSocketAddress> unreachable = new HashSet<>();
+    // Forward to all but self because...
+    for (InetSocketAddress address : serverAddresses) {
+      if (!address.equals(app.getNodeAddress())) {
+        InetSocketAddress offsetAddress = new InetSocketAddress(address.getAddress(),
+                ReconfigurationConfig.getClientFacingPort(address.getPort()));
+        LOGGER.log(Level.INFO, "NS {0} sending select {1} to {2} ({3})",
+                new Object[]{app.getNodeID(), outgoingJSON, offsetAddress, address});
+        try {
           app.sendToAddress(offsetAddress, outgoingJSON);
+        } catch (IOException e) {
+          LOGGER.log(Level.SEVERE, "Exception while sending select request to {0}: {1}",
+                  new Object[]{offsetAddress, e});
+          unreachable.add(address);
         }
       }
-
+    }
+    try {
+      // don't wait for responses that won't come
+      for (InetSocketAddress address : unreachable) {
+        info.markIncomplete();
+        serverResponded(info, address, app);
+      }
       // we handle our self by locally getting self-select records
       handleSelectResponse(getMySelectedRecords(packet, app), app);
-      // Wait for responses, otherwise you are violating Replicable.execute(.)'s semantics.
-      synchronized (QUERIES_IN_PROGRESS) {
-        while (QUERIES_IN_PROGRESS.containsKey(queryId)) {
-          try {
-            QUERIES_IN_PROGRESS.wait(SELECT_REQUEST_TIMEOUT);
-          } catch (InterruptedException e) {
-            e.printStackTrace();
-          }
-        }
-      }
-      if (QUERY_RESULT.containsKey(queryId)) {
-        return QUERY_RESULT.remove(queryId);
-      }
-
     } catch (IOException | ClientException e) {
-      LOGGER.log(Level.SEVERE, "Exception while sending select request: {0}", e);
+      LOGGER.log(Level.SEVERE, "Exception while handling select responses: {0}", e);
     }
-    return null;
+    // Responses from the other servers (or the deadline) complete the future.
+    // Command handling replies to the client from its callbacks.
+    return info.getFuture();
   }
 
   @SuppressWarnings("unchecked")
@@ -263,17 +342,20 @@ public class Select {
     try {
       // grab the records
       JSONArray jsonRecords = getJSONRecordsForSelect(request, app);
+      String cursor = getPageCursor(request, jsonRecords);
       jsonRecords = aclCheckFilterForRecordsArray(request, jsonRecords, request.getReader(), app);
+      jsonRecords = projectRecords(request, jsonRecords);
       response = SelectResponsePacket.makeSuccessPacketForRecordsOnly(
               request.getId(), request.getClientAddress(),
               request.getCcpQueryId(), request.getNsQueryId(),
               app.getNodeAddress(), jsonRecords);
+      response.setCursor(cursor);
       LOGGER.log(
               Level.FINE,
               "NS {0} sending back {1} record(s) in response to self-select request {2}",
               new Object[]{app.getNodeID(), jsonRecords.length(),
                 request.getSummary()});
-    } catch (FailedDBOperationException e) {
+    } catch (FailedDBOperationException | JSONException e) {
       LOGGER.log(Level.SEVERE, "Exception while handling self-select request: {0}",
               e.getMessage());
       //e.printStackTrace();
@@ -303,11 +385,14 @@ public class Select {
     try {
       // grab the records
       JSONArray jsonRecords = getJSONRecordsForSelect(request, app);
+      String cursor = getPageCursor(request, jsonRecords);
       jsonRecords = aclCheckFilterForRecordsArray(request, jsonRecords, request.getReader(), app);
+      jsonRecords = projectRecords(request, jsonRecords);
       @SuppressWarnings("unchecked")
       SelectResponsePacket response = SelectResponsePacket.makeSuccessPacketForRecordsOnly(request.getId(),
               request.getClientAddress(),
               request.getCcpQueryId(), request.getNsQueryId(), app.getNodeAddress(), jsonRecords);
+      response.setCursor(cursor);
       LOGGER.log(Level.FINE,
               "NS {0} sending back {1} record(s) in response to {2}",
               new Object[]{app.getNodeID(), jsonRecords.length(), request.getSummary()});
@@ -328,26 +413,17 @@ public class Select {
 
   private static JSONArray aclCheckFilterForRecordsArray(SelectRequestPacket packet, JSONArray records,
           String reader, GNSApplicationInterface<String> app) {
-    JSONArray result = new JSONArray();
-    for (int i = 0; i < records.length(); i++) {
-      try {
-        JSONObject record = records.getJSONObject(i);
-        String guid = record.getString(NameRecord.NAME.getName());
-        List<String> fields = getFieldsForQueryType(packet);
-        ResponseCode responseCode = NSAuthentication.signatureAndACLCheck(null, guid, null, fields, reader,
-                null, null, MetaDataTypeName.READ_WHITELIST, app, true);
-//        ResponseCode responseCode = signatureAndACLCheckForRead(header, commandPacket, guid, null,
-//                fields, reader, signature, message, null, app, true);
-        LOGGER.log(Level.FINE, "ACL check for select: guid={0} fields={1} responsecode={2}",
-                new Object[]{guid, fields, responseCode});
-        if (responseCode.isOKResult()) {
-          result.put(record);
-        }
-      } catch (JSONException | InvalidKeyException | InvalidKeySpecException | SignatureException | NoSuchAlgorithmException | FailedDBOperationException | UnsupportedEncodingException e) {
-        // ignore json errros
-        LOGGER.log(Level.FINE, "Problem getting guid from json: {0}", e.getMessage());
-      }
+    // the fields are the same for every record so only parse them once
+    List<String> fields = getFieldsForQueryType(packet);
+    if (packet.getProjection() != null) {
+      // the reader also needs to be able to read the fields we return
+      fields.addAll(packet.getProjection());
     }
+    // the records include the ACLs so this doesn't have to read them from the database
+    JSONArray result = new BatchAclCheck(null, reader, fields, MetaDataTypeName.READ_WHITELIST, app)
+            .filterRecords(records);
+    LOGGER.log(Level.FINE, "ACL check for select: fields={0} {1} of {2} records passed",
+            new Object[]{fields, result.length(), records.length()});
     return result;
   }
 
@@ -403,23 +479,33 @@ public class Select {
     if (SelectResponsePacket.ResponseCode.NOERROR.equals(packet.getResponseCode())) {
       // stuff all the unique records into the info structure
       processJSONRecords(packet.getRecords(), info, replica);
+      if (packet.getCursor() != null) {
+        info.updatePageCursor(packet.getCursor());
+      }
     } else {
       // error response
       LOGGER.log(Level.FINE,
               "NS {0} processing error response: {1}",
               new Object[]{replica.getNodeID(), packet.getErrorMessage()});
+      info.markIncomplete();
     }
-    // Remove the NS Address from the list to keep track of who has responded
+    serverResponded(info, packet.getNSAddress(), replica);
+  }
+
+  // Remove the NS Address from the list to keep track of who has responded
+  // and complete the query if it was the last one.
+  private static void serverResponded(NSSelectInfo info, InetSocketAddress address,
+          GNSApplicationInterface<String> replica) throws JSONException,
+          ClientException, IOException, InternalRequestException {
     boolean allServersResponded = false;
-    /* synchronization needed, otherwise assertion in app.sendToClient
-     * implying that an outstanding request is always found gets violated. */
+    /* synchronization needed so that exactly one of the last response and
+     * the deadline completes the query. */
     synchronized (info) {
-      // Remove the NS Address from the list to keep track of who has responded
-      info.removeServerAddress(packet.getNSAddress());
-      allServersResponded = info.allServersResponded();
+      info.removeServerAddress(address);
+      allServersResponded = info.allServersResponded() && info.markCompleted();
     }
     if (allServersResponded) {
-      handledAllServersResponded(PacketUtils.getInternalRequestHeader(packet), packet, info, replica);
+      handledAllServersResponded(info, replica);
     } else {
       LOGGER.log(Level.FINE,
               "NS{0} servers yet to respond:{1}",
@@ -427,6 +513,25 @@ public class Select {
     }
   }
 
+  // Completes the query with the records we have if some servers haven't responded yet.
+  private static void handleDeadline(NSSelectInfo info, GNSApplicationInterface<String> replica) {
+    synchronized (info) {
+      if (!info.markCompleted()) {
+        return;
+      }
+      info.markIncomplete();
+    }
+    LOGGER.log(Level.WARNING,
+            "NS{0} select {1} timed out waiting for {2}",
+            new Object[]{replica.getNodeID(), info.getId(), info.serversYetToRespond()});
+    try {
+      handledAllServersResponded(info, replica);
+    } catch (JSONException | ClientException | IOException | InternalRequestException e) {
+      LOGGER.log(Level.SEVERE, "Exception while completing select {0}: {1}",
+              new Object[]{info.getId(), e});
+    }
+  }
+
   @SuppressWarnings("unchecked")
   private static SelectResponsePacket createReponsePacket(InternalRequestHeader header, long id,
           InetSocketAddress address, Set<String> guids,
@@ -434,27 +539,60 @@ public class Select {
     return SelectResponsePacket.makeSuccessPacketForGuidsOnly(id, null, -1, null, new JSONArray(guids));
   }
 
-  private static void handledAllServersResponded(InternalRequestHeader header,
-          SelectResponsePacket packet, NSSelectInfo info,
+  // The fields of each guid go in the same order as the guids.
+  private static SelectResponsePacket createReponsePacketWithFields(NSSelectInfo info,
+          Set<String> guids) throws JSONException {
+    JSONArray guidArray = new JSONArray();
+    JSONArray fields = new JSONArray();
+    for (String guid : guids) {
+      JSONObject valuesMap = info.getResponse(guid).optJSONObject(NameRecord.VALUES_MAP.getName());
+      guidArray.put(guid);
+      fields.put(valuesMap != null ? valuesMap : new JSONObject());
+    }
+    return SelectResponsePacket.makeSuccessPacketForGuidsAndFields(info.getRequestId(), guidArray, fields);
+  }
+
+  // Called exactly once per query, either when all the servers have responded
+  // or when the deadline passes.
+  private static void handledAllServersResponded(NSSelectInfo info,
           GNSApplicationInterface<String> replica) throws JSONException,
           ClientException, IOException, InternalRequestException {
+    InternalRequestHeader header = info.getHeader();
+    if (info.isPaged() && info.isIncomplete()) {
+      // The missing records could belong in this page so fail rather than
+      // hand back a cursor that skips them.
+      QUERIES_IN_PROGRESS.remove(info.getId());
+      info.getFuture().completeExceptionally(new IOException("Paged select "
+              + info.getId() + " is missing the records of some servers"));
+      return;
+    }
     // If all the servers have sent us a response we're done.
     Set<String> guids = extractGuidsFromRecords(info.getResponsesAsSet());
+    String nextCursor = null;
+    if (info.isPaged()) {
+      TreeSet<String> page = new TreeSet<>(guids);
+      nextCursor = trimToPage(page, info);
+      guids = page;
+    }
 
-    // must be done before the notify below
     // we're done processing this select query
-    QUERIES_IN_PROGRESS.remove(packet.getNsQueryId());
+    QUERIES_IN_PROGRESS.remove(info.getId());
 
     // Create a response from the returned guids
-    SelectResponsePacket response = createReponsePacket(header, packet.getId(), packet.getReturnAddress(), guids, replica);
-    // and put the result where the coordinator can see it.
-    QUERY_RESULT.put(packet.getNsQueryId(), response);
-    // and let the coordinator know the value is there
-    if (GNSApp.DELEGATE_CLIENT_MESSAGING) {
-      synchronized (QUERIES_IN_PROGRESS) {
-        QUERIES_IN_PROGRESS.notify();
+    SelectResponsePacket response;
+    try {
+      if (info.getProjection() != null && !info.getProjection().isEmpty()) {
+        response = createReponsePacketWithFields(info, guids);
+      } else {
+        response = createReponsePacket(header, info.getRequestId(), info.getClientAddress(), guids, replica);
       }
+      response.setCursor(nextCursor);
+    } catch (JSONException e) {
+      info.getFuture().completeExceptionally(e);
+      throw e;
     }
+    // and let the coordinator know the value is there
+    info.getFuture().complete(response);
     //sendReponsePacketToCaller(packet.getId(), packet.getReturnAddress(), guids, replica);
     // Now we update any group guid stuff
     if (info.getGroupBehavior().equals(SelectGroupBehavior.GROUP_SETUP)) {
@@ -475,6 +613,33 @@ public class Select {
     }
   }
 
+  // Removes the guids that don't belong in this page and returns the cursor for the next page
+  // or null if this is the last page.
+  private static String trimToPage(TreeSet<String> guids, NSSelectInfo info) {
+    // A server that returned a full page may have more guids after its last one
+    // so we can only be sure we've seen everything up to the smallest of those.
+    String cursor = info.getPageCursor();
+    if (cursor != null) {
+      guids.tailSet(cursor, false).clear();
+    }
+    if (guids.size() > info.getPageSize()) {
+      while (guids.size() > info.getPageSize()) {
+        guids.pollLast();
+      }
+      cursor = guids.last();
+    }
+    return cursor;
+  }
+
+  // The cursor a name server returns for a page. If it read a full page there may be
+  // more records after the last one it read.
+  private static String getPageCursor(SelectRequestPacket request, JSONArray records) throws JSONException {
+    if (request.isPaged() && records.length() >= request.getPageSize()) {
+      return records.getJSONObject(records.length() - 1).getString(NameRecord.NAME.getName());
+    }
+    return null;
+  }
+
   private static Set<String> extractGuidsFromRecords(Set<JSONObject> records) {
     Set<String> result = new HashSet<>();
     for (JSONObject json : records) {
@@ -486,38 +651,50 @@ public class Select {
     return result;
   }
 
-  private static int addQueryInfo(Set<InetSocketAddress> serverAddresses, SelectOperation selectOperation,
-          SelectGroupBehavior groupBehavior, String query, int minRefreshInterval, String guid) {
-    int id;
-    do {
-      id = RANDOM_ID.nextInt();
-    } while (QUERIES_IN_PROGRESS.containsKey(id));
+  private static NSSelectInfo addQueryInfo(InternalRequestHeader header, SelectRequestPacket packet,
+          Set<InetSocketAddress> serverAddresses) {
+    NSSelectInfo info;
     //Add query info
-    NSSelectInfo info = new NSSelectInfo(id, serverAddresses, selectOperation, groupBehavior, query, minRefreshInterval, guid);
-    QUERIES_IN_PROGRESS.put(id, info);
-    return id;
+    do {
+      int id = RANDOM_ID.nextInt();
+      info = new NSSelectInfo(id, packet.getId(), packet.getClientAddress(), header,
+              packet.getPageSize(), packet.getProjection(), serverAddresses,
+              packet.getSelectOperation(), packet.getGroupBehavior(), packet.getQuery(),
+              packet.getMinRefreshInterval(), packet.getGuid());
+    } while (QUERIES_IN_PROGRESS.putIfAbsent(info.getId(), info) != null);
+    return info;
   }
 
   private static JSONArray getJSONRecordsForSelect(SelectRequestPacket request,
           GNSApplicationInterface<String> ar) throws FailedDBOperationException {
     JSONArray jsonRecords = new JSONArray();
-    // actually only need name and values map... fix this
+    // the page is pushed down into the database so we only read the records in it
+    PageRequest page = request.isPaged() ? new PageRequest(request.getCursor(), request.getPageSize()) : null;
+    // and so are the fields
+    List<String> projection = null;
+    if (request.getProjection() != null) {
+      projection = new ArrayList<>(request.getProjection());
+      // needed to tell guid records from other records
+      projection.add(AccountAccess.GUID_INFO);
+      // and to check the ACLs
+      projection.addAll(Arrays.asList(CompiledAcl.getMetaDataFields()));
+    }
     AbstractRecordCursor cursor = null;
     switch (request.getSelectOperation()) {
       case EQUALS:
-        cursor = NameRecord.selectRecords(ar.getDB(), request.getKey(), request.getValue());
+        cursor = NameRecord.selectRecords(ar.getDB(), request.getKey(), request.getValue(), page, projection);
         break;
       case NEAR:
         if (request.getValue() instanceof String) {
           cursor = NameRecord.selectRecordsNear(ar.getDB(), request.getKey(), (String) request.getValue(),
-                  Double.parseDouble((String) request.getOtherValue()));
+                  Double.parseDouble((String) request.getOtherValue()), page, projection);
         } else {
           break;
         }
         break;
       case WITHIN:
         if (request.getValue() instanceof String) {
-          cursor = NameRecord.selectRecordsWithin(ar.getDB(), request.getKey(), (String) request.getValue());
+          cursor = NameRecord.selectRecordsWithin(ar.getDB(), request.getKey(), (String) request.getValue(), page, projection);
         } else {
           break;
         }
@@ -525,19 +702,43 @@ public class Select {
       case QUERY:
         LOGGER.log(Level.FINE, "NS{0} query: {1}",
                 new Object[]{ar.getNodeID(), request.getQuery()});
-        cursor = NameRecord.selectRecordsQuery(ar.getDB(), request.getQuery());
+        cursor = NameRecord.selectRecordsQuery(ar.getDB(), request.getQuery(), page, projection);
         break;
       default:
         break;
     }
-    // think about returning a cursor that has prefetched a limited (100 which is like mongo limit)
-    // number of records in it and the ability to fetch more
-    while (cursor != null && cursor.hasNext()) {
+    while (cursor != null && cursor.hasNext()
+            && (page == null || jsonRecords.length() < page.getLimit())) {
       jsonRecords.put(cursor.nextJSONObject());
     }
     return jsonRecords;
   }
 
+  // Drops the records that aren't guids and, if the request has a projection, the guid info
+  // and ACLs that were only read to tell them apart and check access so that just the guids
+  // and the requested fields go back to the collecting NS.
+  private static JSONArray projectRecords(SelectRequestPacket request, JSONArray records) throws JSONException {
+    if (request.getProjection() == null) {
+      return records;
+    }
+    boolean keepGuidInfo = request.getProjection().contains(AccountAccess.GUID_INFO);
+    JSONArray result = new JSONArray();
+    for (int i = 0; i < records.length(); i++) {
+      JSONObject record = records.getJSONObject(i);
+      if (isGuidRecord(record)) {
+        JSONObject valuesMap = record.getJSONObject(NameRecord.VALUES_MAP.getName());
+        if (!keepGuidInfo) {
+          valuesMap.remove(AccountAccess.GUID_INFO);
+        }
+        for (String field : CompiledAcl.getMetaDataFields()) {
+          valuesMap.remove(field);
+        }
+        result.put(record);
+      }
+    }
+    return result;
+  }
+
   private static boolean isGuidRecord(JSONObject json) {
     JSONObject valuesMap = json.optJSONObject(NameRecord.VALUES_MAP.getName());
     if (valuesMap != null) {
@@ -554,7 +755,8 @@ public class Select {
             "NS{0} processing {1} records", new Object[]{ar.getNodeID(), length});
     for (int i = 0; i < length; i++) {
       JSONObject record = jsonArray.getJSONObject(i);
-      if (isGuidRecord(record)) { // Filter out any non-guids
+      // Filter out any non-guids, name servers already did that for projected records
+      if (info.getProjection() != null || isGuidRecord(record)) {
         String name = record.getString(NameRecord.NAME.getName());
         if (info.addResponseIfNotSeenYet(name, record)) {
           LOGGER.log(Level.FINE, "NS{0} added record for {1}", new Object[]{ar.getNodeID(), name});
@@ -27,10 +27,12 @@ import edu.umass.cs.gnsserver.main.GNSConfig;
 import edu.umass.cs.gnscommon.utils.RandomString;
 import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 import edu.umass.cs.gnscommon.packets.CommandPacket;
+import edu.umass.cs.gnsserver.gnamed.GnsAnswerCache;
 import edu.umass.cs.gnsserver.gnsapp.GNSApplicationInterface;
 import edu.umass.cs.gnsserver.utils.Email;
 import edu.umass.cs.gnsserver.gnsapp.GNSCommandInternal;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
+import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSAuthentication;
 import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSFieldAccess;
 import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
 import edu.umass.cs.gnsserver.utils.ValuesMap;
@@ -464,6 +466,18 @@ public class AccountAccess {
     return null;
   }
 
+  /**
+   * Removes the cached guid info and public key of {@code guid}. Should be
+   * called whenever the guid info of a guid changes, the record of the guid
+   * is replaced or the guid is removed.
+   *
+   * @param guid
+   */
+  public static void invalidateGuidInfo(String guid) {
+    GUID_INFO_CACHE.invalidate(guid);
+    NSAuthentication.invalidatePublicKey(guid);
+  }
+
   /**
    * Obtains the account info record from the database for the account whose
    * HRN is name. Will use a remote query if necessary.
@@ -774,10 +788,13 @@ public class AccountAccess {
               + GNSProtocol.BAD_ACCOUNT.toString() + " "
               + "Unable to read guid info");
     } else {
+      // The looked up instance may be the cached one so change a copy
+      guidInfo = new GuidInfo(guidInfo);
       guidInfo.setPublicKey(publicKey);
       guidInfo.noteUpdate();
       if (updateGuidInfoNoAuthentication(header, commandPacket,
               guidInfo, handler)) {
+        invalidateGuidInfo(guid);
         return new CommandResponse(ResponseCode.NO_ERROR,
                 GNSProtocol.OK_RESPONSE.toString() + " "
                 + "Public key has been updated.");
@@ -1066,7 +1083,8 @@ public class AccountAccess {
       );
     } else {
       // Step 4.5 - delete the cache guid info cache entry
-      GUID_INFO_CACHE.invalidate(accountInfo.getGuid());
+      invalidateGuidInfo(accountInfo.getGuid());
+      GnsAnswerCache.invalidateGuid(accountInfo.getGuid());
       // Step 5 - If all the above stuff worked we delete the account guid record
       ResponseCode deleteGuidResponseCode;
       try {
@@ -1539,7 +1557,8 @@ public class AccountAccess {
       );
     } else {
       // Step 3.5 - delete the cache entry
-      GUID_INFO_CACHE.invalidate(guidInfo.getGuid());
+      invalidateGuidInfo(guidInfo.getGuid());
+      GnsAnswerCache.invalidateGuid(guidInfo.getGuid());
 
       // Step 4 - If all the above stuff worked we delete the guid record
       ResponseCode deleteGuidResponseCode;
@@ -28,6 +28,7 @@ import edu.umass.cs.gnscommon.packets.PacketUtils;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientCommandProcessorConfig;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
 import edu.umass.cs.gnsserver.gnsapp.GNSApplicationInterface;
+import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSAuthentication;
 import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
 import edu.umass.cs.gnsserver.main.GNSConfig;
 import edu.umass.cs.reconfiguration.ReconfigurationConfig.RC;
@@ -46,6 +47,13 @@ import java.security.NoSuchAlgorithmException;
 import java.security.SignatureException;
 import java.security.spec.InvalidKeySpecException;
 import java.text.ParseException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 
 /**
@@ -78,47 +86,102 @@ public class CommandHandler {
             app.getRequestHandler(), doNotReplyToClient, app);
   }
 
-  private static final long LONG_DELAY_THRESHOLD = 1;
+  private static final long LONG_DELAY_THRESHOLD_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
 
-  private static void runCommand(CommandPacket commandPacket,
-          AbstractCommand command, ClientRequestHandlerInterface handler,
-          boolean doNotReplyToClient, GNSApplicationInterface<String> app) {
+  private static final long PENDING_RESPONSE_TIMEOUT
+          = Config.getGlobalInt(GNSConfig.GNSC.SELECT_REQUEST_TIMEOUT);
+
+  private static void runCommand(final CommandPacket commandPacket,
+          final AbstractCommand command, final ClientRequestHandlerInterface handler,
+          final boolean doNotReplyToClient, final GNSApplicationInterface<String> app) {
     JSONObject jsonFormattedCommand = PacketUtils.getCommand(commandPacket);
-    try {
-      long receiptTime = System.currentTimeMillis(); // instrumentation
-      final Long executeCommandStart = System.currentTimeMillis(); // instrumentation
-      // Other than this line, one below and some catches all of this
-      // method is instrumentation.
-      CommandResponse returnValue = executeCommand(command,
-              commandPacket, handler);
+    final long executeCommandStart = System.nanoTime(); // instrumentation
+    CommandResponse returnValue = startCommand(command,
+            commandPacket, handler);
+    CompletableFuture<CommandResponse> pending = returnValue.getPending();
+    if (pending != null && !pending.isDone()) {
+      // The response isn't ready yet (e.g., a select waiting on the other servers)
+      // so reply from the callback instead of holding this thread until then.
+      pending.whenComplete(new BiConsumer<CommandResponse, Throwable>() {
+        @Override
+        public void accept(CommandResponse response, Throwable e) {
+          finishCommand(commandPacket, command, handler, doNotReplyToClient, app,
+                  executeCommandStart, e == null ? response : pendingFailed(e), true);
+        }
+      });
+    } else {
+      if (pending != null) {
+        try {
+          returnValue = pending.join();
+        } catch (CompletionException | CancellationException e) {
+          returnValue = pendingFailed(e);
+        }
+      }
+      finishCommand(commandPacket, command, handler, doNotReplyToClient, app,
+              executeCommandStart, returnValue, false);
+    }
+
+    // reply to client is true, this means this is the active replica
+    // that recvd the request from the gnsClient. So, let's check for
+    // sending trigger to Context service here.
+    if (Config.getGlobalBoolean(GNSConfig.GNSC.ENABLE_CNS)) {
+      if (!doNotReplyToClient) {
+
+        if (command.getClass().getSuperclass() == AbstractUpdate.class) {
+          GNSConfig
+                  .getLogger()
+                  .log(Level.FINE,
+                          "{0} sending trigger to context service for {1}:{2}",
+                          new Object[]{handler.getApp(), command,
+                            jsonFormattedCommand});
+
+          app.getContextServiceGNSClient().sendTiggerOnGnsCommand(
+                  jsonFormattedCommand, command, false);
+        }
+      }
+    }
+
+  }
+
+  private static CommandResponse pendingFailed(Throwable e) {
+    return CommandResponse.toCommandResponse(e instanceof CompletionException
+            && e.getCause() != null ? e.getCause() : e);
+  }
 
+  // Sends the reply once the command has its response. If the response was
+  // pending, execute has already returned so the reply is sent straight to
+  // the client instead of being handed back to gigapaxos.
+  private static void finishCommand(CommandPacket commandPacket,
+          AbstractCommand command, ClientRequestHandlerInterface handler,
+          boolean doNotReplyToClient, GNSApplicationInterface<String> app,
+          long executeCommandStart, CommandResponse returnValue, boolean wasPending) {
+    try {
+      // Other than the callers computing returnValue, the reply below and
+      // some catches all of this method is instrumentation.
       assert (commandPacket.getRequestType() != null) : "request type is null";
       assert (commandPacket.getCommandType() != null) : "command type is null";
       assert (command != null) : "command is null";
       // instrumentation
-      DelayProfiler.updateDelay("executeCommand", executeCommandStart);
-      if (System.currentTimeMillis() - executeCommandStart > LONG_DELAY_THRESHOLD) {
-        DelayProfiler.updateDelay(commandPacket.getRequestType() + "."
-                + command.getCommandType(),
-                executeCommandStart);
-      }
-      if (System.currentTimeMillis() - executeCommandStart > LONG_DELAY_THRESHOLD) {
+      long executeCommandDelay = System.nanoTime() - executeCommandStart;
+      CommandLatencies.record(command.getCommandType(), executeCommandDelay);
+      if (executeCommandDelay > LONG_DELAY_THRESHOLD_NANOS
+              && ClientCommandProcessorConfig.getLogger().isLoggable(Level.FINE)) {
         ClientCommandProcessorConfig
                 .getLogger()
                 .log(Level.FINE,
-                        "{0} command {1} took {2}ms of execution delay (delay logging threshold={2}ms)",
+                        "{0} command {1} took {2}ms of execution delay (delay logging threshold={3}ms)",
                         new Object[]{
                           handler.getApp(),
                           command.getSummary(),
-                          (System.currentTimeMillis() - executeCommandStart),
-                          LONG_DELAY_THRESHOLD});
+                          TimeUnit.NANOSECONDS.toMillis(executeCommandDelay),
+                          TimeUnit.NANOSECONDS.toMillis(LONG_DELAY_THRESHOLD_NANOS)});
       }
       // the last arguments here in the call below are instrumentation
       // that the client can use to determine LNS load
       ResponsePacket returnPacket = new ResponsePacket(
               commandPacket.getRequestID(),
               commandPacket.getServiceName(), returnValue, 0, 0,
-              System.currentTimeMillis() - receiptTime);
+              TimeUnit.NANOSECONDS.toMillis(executeCommandDelay));
 
       try {
         assert (returnPacket.getErrorCode() != null);
@@ -126,8 +189,14 @@ public class CommandHandler {
                 "{0} handling command reply: {1}",
                 new Object[]{handler.getApp(), returnPacket});
         // Possibly send the return value back to the client
-        handleCommandReturnValuePacketForApp(commandPacket, returnPacket,
-                doNotReplyToClient, app);
+        if (wasPending) {
+          if (!doNotReplyToClient) {
+            app.sendToAddress(commandPacket.getClientAddress(), returnPacket.toJSONObject());
+          }
+        } else {
+          handleCommandReturnValuePacketForApp(commandPacket, returnPacket,
+                  doNotReplyToClient, app);
+        }
       } catch (IOException e) {
         ClientCommandProcessorConfig.getLogger().log(Level.SEVERE,
                 "Problem replying to command: {0}", e);
@@ -139,27 +208,6 @@ public class CommandHandler {
               new Object[]{handler.getApp(), e});
       e.printStackTrace();
     }
-
-    // reply to client is true, this means this is the active replica
-    // that recvd the request from the gnsClient. So, let's check for
-    // sending trigger to Context service here.
-    if (Config.getGlobalBoolean(GNSConfig.GNSC.ENABLE_CNS)) {
-      if (!doNotReplyToClient) {
-
-        if (command.getClass().getSuperclass() == AbstractUpdate.class) {
-          GNSConfig
-                  .getLogger()
-                  .log(Level.FINE,
-                          "{0} sending trigger to context service for {1}:{2}",
-                          new Object[]{handler.getApp(), command,
-                            jsonFormattedCommand});
-
-          app.getContextServiceGNSClient().sendTiggerOnGnsCommand(
-                  jsonFormattedCommand, command, false);
-        }
-      }
-    }
-
   }
 
   private static CommandPacket addMessageWithoutSignatureToCommand(
@@ -171,6 +219,7 @@ public class CommandHandler {
 
   /**
    * Execute the commandPacket.
+   * Waits for the response of commands that complete later, such as selects.
    *
    * @param commandHandler
    * @param commandPacket
@@ -179,6 +228,25 @@ public class CommandHandler {
    */
   public static CommandResponse executeCommand(AbstractCommand commandHandler,
           CommandPacket commandPacket, ClientRequestHandlerInterface handler) {
+    CommandResponse response = startCommand(commandHandler, commandPacket, handler);
+    if (response.getPending() == null) {
+      return response;
+    }
+    try {
+      return response.getPending().get(PENDING_RESPONSE_TIMEOUT, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return CommandResponse.toCommandResponse(e);
+    } catch (ExecutionException e) {
+      return CommandResponse.toCommandResponse(e.getCause());
+    } catch (TimeoutException e) {
+      return CommandResponse.toCommandResponse(e);
+    }
+  }
+
+  // Returns a pending response for commands that complete later.
+  private static CommandResponse startCommand(AbstractCommand commandHandler,
+          CommandPacket commandPacket, ClientRequestHandlerInterface handler) {
     try {
       if (commandHandler != null) {
         return commandHandler.execute(getInternalHeaderAfterEnforcingChecks(commandPacket,
@@ -265,8 +333,9 @@ public class CommandHandler {
             && Config.getGlobalBoolean(RC.ENABLE_INSTRUMENTATION)) {
       if (System.currentTimeMillis() - lastStatsTime > 5000) {
         ClientCommandProcessorConfig.getLogger().log(Level.INFO,
-                "{0} {1}",
-                new Object[]{app, DelayProfiler.getStats()});
+                "{0} {1} {2}",
+                new Object[]{app, DelayProfiler.getStats(),
+                  NSAuthentication.getPublicKeyCacheStats()});
         lastStatsTime = System.currentTimeMillis();
       }
     }
@@ -0,0 +1,137 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport;
+
+import edu.umass.cs.gnscommon.CommandType;
+import edu.umass.cs.gnsserver.utils.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The execution latencies of the commands run by this server, one
+ * {@link LatencyHistogram} per {@link CommandType}.
+ *
+ * The histograms are indexed by the ordinal of the command type and are
+ * created the first time a command type runs, after which recording
+ * doesn't allocate.
+ *
+ * @author westy
+ */
+public class CommandLatencies {
+
+  /**
+   * The JSON key of the number of commands.
+   */
+  public static final String COUNT = "count";
+  /**
+   * The JSON key of the commands per second since the last reset.
+   */
+  public static final String THROUGHPUT = "throughput";
+  /**
+   * The JSON key of the median latency in microseconds.
+   */
+  public static final String P50 = "p50";
+  /**
+   * The JSON key of the 99th percentile latency in microseconds.
+   */
+  public static final String P99 = "p99";
+  /**
+   * The JSON key of the 99.9th percentile latency in microseconds.
+   */
+  public static final String P999 = "p999";
+
+  private static final AtomicReferenceArray<LatencyHistogram> HISTOGRAMS
+          = new AtomicReferenceArray<>(CommandType.values().length);
+
+  private static volatile long startTime = System.currentTimeMillis();
+
+  /**
+   * Records the execution latency of a command.
+   *
+   * @param commandType
+   * @param nanos the latency in nanoseconds
+   */
+  public static void record(CommandType commandType, long nanos) {
+    int index = commandType.ordinal();
+    LatencyHistogram histogram = HISTOGRAMS.get(index);
+    if (histogram == null) {
+      HISTOGRAMS.compareAndSet(index, null, new LatencyHistogram());
+      histogram = HISTOGRAMS.get(index);
+    }
+    histogram.recordNanos(nanos);
+  }
+
+  /**
+   * Returns the histogram of a command type or null if it hasn't run.
+   *
+   * @param commandType
+   * @return a LatencyHistogram or null
+   */
+  public static LatencyHistogram getHistogram(CommandType commandType) {
+    return HISTOGRAMS.get(commandType.ordinal());
+  }
+
+  /**
+   * Clears all the histograms and restarts the throughput interval.
+   */
+  public static void reset() {
+    for (int i = 0; i < HISTOGRAMS.length(); i++) {
+      LatencyHistogram histogram = HISTOGRAMS.get(i);
+      if (histogram != null) {
+        histogram.reset();
+      }
+    }
+    startTime = System.currentTimeMillis();
+  }
+
+  /**
+   * Returns the stats of each command type that has run as a JSON object
+   * keyed by the command type name. Each value has {@link #COUNT},
+   * {@link #THROUGHPUT}, {@link #P50}, {@link #P99} and {@link #P999}.
+   *
+   * @return a JSONObject
+   * @throws JSONException
+   */
+  public static JSONObject toJSONObject() throws JSONException {
+    double seconds = Math.max(1, System.currentTimeMillis() - startTime) / 1000.0;
+    JSONObject json = new JSONObject();
+    for (CommandType commandType : CommandType.values()) {
+      LatencyHistogram histogram = HISTOGRAMS.get(commandType.ordinal());
+      if (histogram == null) {
+        continue;
+      }
+      long count = histogram.getCount();
+      if (count == 0) {
+        continue;
+      }
+      JSONObject stats = new JSONObject();
+      stats.put(COUNT, count);
+      stats.put(THROUGHPUT, count / seconds);
+      stats.put(P50, histogram.getValueAtPercentile(50));
+      stats.put(P99, histogram.getValueAtPercentile(99));
+      stats.put(P999, histogram.getValueAtPercentile(99.9));
+      json.put(commandType.name(), stats);
+    }
+    return json;
+  }
+}
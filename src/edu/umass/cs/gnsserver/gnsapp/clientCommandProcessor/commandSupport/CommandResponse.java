@@ -15,6 +15,8 @@
  * Initial developer(s): Westy, Arun */
 package edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.json.JSONException;
 
 import edu.umass.cs.gnscommon.GNSProtocol;
@@ -35,6 +37,11 @@ public class CommandResponse {
 	 * Indicates if the response is an error. Can be null.
 	 */
 	private final ResponseCode errorCode;
+	/**
+	 * Completes with the actual response if this one is pending. Null
+	 * otherwise.
+	 */
+	private final CompletableFuture<CommandResponse> pending;
 
 	/**
 	 * @param errorCode
@@ -55,6 +62,33 @@ public class CommandResponse {
 	public CommandResponse(ResponseCode errorCode, String returnValue) {
 		this.returnValue = returnValue;
 		this.errorCode = errorCode;
+		this.pending = null;
+	}
+
+	private CommandResponse(CompletableFuture<CommandResponse> pending) {
+		this.returnValue = null;
+		this.errorCode = null;
+		this.pending = pending;
+	}
+
+	/**
+	 * Creates a response for a command that completes later, such as a select
+	 * that has to hear back from the other servers. The return value and error
+	 * code come from the response {@code future} completes with.
+	 *
+	 * @param future
+	 * @return a pending CommandResponse
+	 */
+	public static CommandResponse pending(CompletableFuture<CommandResponse> future) {
+		return new CommandResponse(future);
+	}
+
+	/**
+	 * @return the future actual response or null if this response is not
+	 *         pending
+	 */
+	public CompletableFuture<CommandResponse> getPending() {
+		return pending;
 	}
 
 	/**
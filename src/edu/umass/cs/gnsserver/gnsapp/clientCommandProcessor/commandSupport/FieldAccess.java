@@ -60,6 +60,9 @@ import edu.umass.cs.utils.Config;
 import java.net.UnknownHostException;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.lang3.time.DateUtils;
@@ -77,6 +80,7 @@ public class FieldAccess {
   private final static Logger LOGGER = Logger.getLogger(FieldAccess.class.getName());
 
   private static final String EMPTY_JSON_ARRAY_STRING = new JSONArray().toString();
+  private static final String EMPTY_JSON_STRING = new JSONObject().toString();
   private static final String EMPTY_STRING = "";
 
   /* false means that even single field queries will return a JSONObject response
@@ -570,7 +574,7 @@ public class FieldAccess {
   ///
   /// SELECT METHODS
   ///
-  private static JSONArray executeSelect(InternalRequestHeader header, CommandPacket commandPacket,
+  private static CommandResponse executeSelect(InternalRequestHeader header, CommandPacket commandPacket,
           SelectOperation operation,
           String reader, String key, Object value, Object otherValue,
           String signature, String message,
@@ -581,25 +585,54 @@ public class FieldAccess {
     return executeSelectHelper(header, commandPacket, packet, reader, signature, message, app);
   }
 
-  private static JSONArray executeSelectHelper(InternalRequestHeader header, CommandPacket commandPacket,
+  // Returns a pending response with the guids or an empty array if the select failed
+  private static CommandResponse executeSelectHelper(InternalRequestHeader header, CommandPacket commandPacket,
           SelectRequestPacket packet,
           String reader, String signature, String message,
           GNSApplicationInterface<String> app)
           throws FailedDBOperationException, JSONException, UnknownHostException, InternalRequestException {
+    return CommandResponse.pending(executeSelectForResponse(header, commandPacket, packet,
+            reader, signature, message, app)
+            .thenApply(new Function<SelectResponsePacket, CommandResponse>() {
+              @Override
+              public CommandResponse apply(SelectResponsePacket responsePacket) {
+                if (responsePacket != null && responsePacket.getGuids() != null) {
+                  return new CommandResponse(ResponseCode.NO_ERROR, responsePacket.getGuids().toString());
+                }
+                // FIXME: why silently fail?
+                return new CommandResponse(ResponseCode.NO_ERROR, EMPTY_JSON_ARRAY_STRING);
+              }
+            }));
+  }
+
+  // The future completes with null if the select failed.
+  // Nothing waits on it here; the command is completed from its callbacks.
+  private static CompletableFuture<SelectResponsePacket> executeSelectForResponse(InternalRequestHeader header,
+          CommandPacket commandPacket,
+          final SelectRequestPacket packet,
+          String reader, String signature, String message,
+          GNSApplicationInterface<String> app)
+          throws FailedDBOperationException, JSONException, UnknownHostException, InternalRequestException {
     // First do a signature check 
     if (!signatureCheckForSelect(reader, signature, message, app)) {
-      return null;
+      return CompletableFuture.completedFuture(null);
     }
 
-    SelectResponsePacket responsePacket = Select.handleSelectRequestFromClient(header, packet, app);
-    if (responsePacket != null
-            && // Fixme: probably should just have handleSelectRequestFromClient throw a clientException
-            SelectResponsePacket.ResponseCode.NOERROR.equals(responsePacket.getResponseCode())) {
-      JSONArray guids = responsePacket.getGuids();
-      return guids;
-    } else {
-      return null;
-    }
+    return Select.handleSelectRequestFromClientAsync(header, packet, app)
+            .handle(new BiFunction<SelectResponsePacket, Throwable, SelectResponsePacket>() {
+              @Override
+              public SelectResponsePacket apply(SelectResponsePacket responsePacket, Throwable e) {
+                if (e != null) {
+                  LOGGER.log(Level.SEVERE, "Select request {0} failed: {1}",
+                          new Object[]{packet.getSummary(), e});
+                  return null;
+                }
+                // Fixme: probably should just have the future complete exceptionally
+                return responsePacket != null
+                        && SelectResponsePacket.ResponseCode.NOERROR.equals(responsePacket.getResponseCode())
+                        ? responsePacket : null;
+              }
+            });
   }
 
   private static boolean signatureCheckForSelect(String reader, String signature,
@@ -641,13 +674,9 @@ public class FieldAccess {
           String reader, String key, Object value,
           String signature, String message,
           ClientRequestHandlerInterface handler) throws InternalRequestException {
-    JSONArray result;
     try {
-      result = executeSelect(header, commandPacket, SelectOperation.EQUALS, reader, key, value, null,
+      return executeSelect(header, commandPacket, SelectOperation.EQUALS, reader, key, value, null,
               signature, message, handler.getApp());
-      if (result != null) {
-        return new CommandResponse(ResponseCode.NO_ERROR, result.toString());
-      }
     } catch (IOException | JSONException | FailedDBOperationException e) {
       // FIXME: why silently fail?
     }
@@ -673,14 +702,10 @@ public class FieldAccess {
           String key, String value,
           String signature, String message,
           ClientRequestHandlerInterface handler) throws InternalRequestException {
-    JSONArray result;
     try {
-      result = executeSelect(header, commandPacket, SelectOperation.WITHIN, reader, key, value, null,
+      return executeSelect(header, commandPacket, SelectOperation.WITHIN, reader, key, value, null,
               signature, message,
               handler.getApp());
-      if (result != null) {
-        return new CommandResponse(ResponseCode.NO_ERROR, result.toString());
-      }
     } catch (IOException | JSONException | FailedDBOperationException e) {
       // FIXME: why silently fail?
     }
@@ -707,20 +732,142 @@ public class FieldAccess {
           String reader, String key, String value, String maxDistance,
           String signature, String message,
           ClientRequestHandlerInterface handler) throws InternalRequestException {
-    JSONArray result;
     try {
-      result = executeSelect(header, commandPacket, SelectOperation.NEAR, reader, key, value, maxDistance,
+      return executeSelect(header, commandPacket, SelectOperation.NEAR, reader, key, value, maxDistance,
               signature, message,
               handler.getApp());
-      if (result != null) {
-        return new CommandResponse(ResponseCode.NO_ERROR, result.toString());
-      }
     } catch (IOException | JSONException | FailedDBOperationException e) {
       // FIXME: why silently fail?
     }
     return new CommandResponse(ResponseCode.NO_ERROR, EMPTY_JSON_ARRAY_STRING);
   }
 
+  /**
+   * Sends a select request to the server to retrieve one page of the guids matching the query.
+   * The result is a JSON object containing the guids and the cursor for the next page.
+   *
+   * @param header
+   * @param commandPacket
+   * @param reader
+   * @param query
+   * @param cursor the cursor returned with the previous page or null for the first page
+   * @param pageSize
+   * @param signature
+   * @param message
+   * @param handler
+   * @return a command response
+   * @throws InternalRequestException
+   */
+  public static CommandResponse selectQueryPage(InternalRequestHeader header, CommandPacket commandPacket,
+          String reader, String query, String cursor, int pageSize,
+          String signature, String message,
+          ClientRequestHandlerInterface handler) throws InternalRequestException {
+    if (Select.queryContainsEvil(query)) {
+      return new CommandResponse(ResponseCode.OPERATION_NOT_SUPPORTED,
+              GNSProtocol.BAD_RESPONSE.toString() + " "
+              + GNSProtocol.OPERATION_NOT_SUPPORTED.toString()
+              + " Bad query operators in " + query);
+    }
+    if (pageSize <= 0) {
+      return new CommandResponse(ResponseCode.QUERY_PROCESSING_ERROR,
+              GNSProtocol.BAD_RESPONSE.toString() + " "
+              + GNSProtocol.QUERY_PROCESSING_ERROR.toString()
+              + " Bad page size " + pageSize);
+    }
+    try {
+      SelectRequestPacket packet = SelectRequestPacket.MakePagedQueryRequest(-1, reader, query,
+              cursor, pageSize);
+      return CommandResponse.pending(executeSelectForResponse(header, commandPacket, packet,
+              reader, signature, message, handler.getApp())
+              .thenApply(new Function<SelectResponsePacket, CommandResponse>() {
+                @Override
+                public CommandResponse apply(SelectResponsePacket response) {
+                  if (response != null) {
+                    try {
+                      JSONObject result = new JSONObject();
+                      result.put(GNSProtocol.SELECT_GUIDS.toString(), response.getGuids());
+                      if (response.getCursor() != null) {
+                        result.put(GNSProtocol.SELECT_CURSOR.toString(), response.getCursor());
+                      }
+                      return new CommandResponse(ResponseCode.NO_ERROR, result.toString());
+                    } catch (JSONException e) {
+                      LOGGER.log(Level.FINE, "Paged select failed: {0}", e.getMessage());
+                    }
+                  }
+                  return pagedSelectFailed(query);
+                }
+              }));
+    } catch (IOException | JSONException | FailedDBOperationException e) {
+      LOGGER.log(Level.FINE, "Paged select failed: {0}", e.getMessage());
+    }
+    return pagedSelectFailed(query);
+  }
+
+  // Unlike the other selects we can't return an empty result here because
+  // that would look like the last page.
+  private static CommandResponse pagedSelectFailed(String query) {
+    return new CommandResponse(ResponseCode.QUERY_PROCESSING_ERROR,
+            GNSProtocol.BAD_RESPONSE.toString() + " "
+            + GNSProtocol.QUERY_PROCESSING_ERROR.toString()
+            + " Unable to execute paged select " + query);
+  }
+
+  /**
+   * Sends a select request to the server to retrieve all the guids matching the query
+   * along with the given fields of each of them. Only those fields are read from
+   * the database and sent between the servers.
+   * The result is a JSON object mapping each guid to a JSON object of its fields.
+   *
+   * @param header
+   * @param commandPacket
+   * @param reader
+   * @param query
+   * @param fields
+   * @param signature
+   * @param message
+   * @param handler
+   * @return a command response
+   * @throws InternalRequestException
+   */
+  public static CommandResponse selectQueryWithFields(InternalRequestHeader header, CommandPacket commandPacket,
+          String reader, String query, List<String> fields,
+          String signature, String message,
+          ClientRequestHandlerInterface handler) throws InternalRequestException {
+    if (Select.queryContainsEvil(query)) {
+      return new CommandResponse(ResponseCode.OPERATION_NOT_SUPPORTED,
+              GNSProtocol.BAD_RESPONSE.toString() + " "
+              + GNSProtocol.OPERATION_NOT_SUPPORTED.toString()
+              + " Bad query operators in " + query);
+    }
+    try {
+      SelectRequestPacket packet = SelectRequestPacket.MakeQueryWithFieldsRequest(-1, reader, query, fields);
+      return CommandResponse.pending(executeSelectForResponse(header, commandPacket, packet,
+              reader, signature, message, handler.getApp())
+              .thenApply(new Function<SelectResponsePacket, CommandResponse>() {
+                @Override
+                public CommandResponse apply(SelectResponsePacket response) {
+                  if (response != null) {
+                    try {
+                      JSONObject result = new JSONObject();
+                      JSONArray guids = response.getGuids();
+                      JSONArray values = response.getRecords();
+                      for (int i = 0; i < guids.length(); i++) {
+                        result.put(guids.getString(i), values != null ? values.getJSONObject(i) : new JSONObject());
+                      }
+                      return new CommandResponse(ResponseCode.NO_ERROR, result.toString());
+                    } catch (JSONException e) {
+                      // FIXME: why silently fail?
+                    }
+                  }
+                  return new CommandResponse(ResponseCode.NO_ERROR, EMPTY_JSON_STRING);
+                }
+              }));
+    } catch (IOException | JSONException | FailedDBOperationException e) {
+      // FIXME: why silently fail?
+    }
+    return new CommandResponse(ResponseCode.NO_ERROR, EMPTY_JSON_STRING);
+  }
+
   /**
    * Sends a select request to the server to retrieve all the guid matching the query.
    *
@@ -744,13 +891,9 @@ public class FieldAccess {
               + GNSProtocol.OPERATION_NOT_SUPPORTED.toString()
               + " Bad query operators in " + query);
     }
-    JSONArray result;
     try {
       SelectRequestPacket packet = SelectRequestPacket.MakeQueryRequest(-1, reader, query);
-      result = executeSelectHelper(header, commandPacket, packet, reader, signature, message, handler.getApp());
-      if (result != null) {
-        return new CommandResponse(ResponseCode.NO_ERROR, result.toString());
-      }
+      return executeSelectHelper(header, commandPacket, packet, reader, signature, message, handler.getApp());
     } catch (IOException | JSONException | FailedDBOperationException e) {
       // FIXME: why silently fail?
     }
@@ -813,15 +956,10 @@ public class FieldAccess {
         }
       }
     }
-    JSONArray result;
-
     try {
       SelectRequestPacket packet = SelectRequestPacket.MakeGroupSetupRequest(-1,
               reader, query, guid, interval);
-      result = executeSelectHelper(header, commandPacket, packet, reader, signature, message, handler.getApp());
-      if (result != null) {
-        return new CommandResponse(ResponseCode.NO_ERROR, result.toString());
-      }
+      return executeSelectHelper(header, commandPacket, packet, reader, signature, message, handler.getApp());
     } catch (IOException | JSONException | FailedDBOperationException e) {
       // FIXME: why silently fail?
     }
@@ -845,13 +983,9 @@ public class FieldAccess {
           String reader, String accountGuid,
           String signature, String message,
           ClientRequestHandlerInterface handler) throws InternalRequestException {
-    JSONArray result;
     try {
       SelectRequestPacket packet = SelectRequestPacket.MakeGroupLookupRequest(-1, reader, accountGuid);
-      result = executeSelectHelper(header, commandPacket, packet, reader, signature, message, handler.getApp());
-      if (result != null) {
-        return new CommandResponse(ResponseCode.NO_ERROR, result.toString());
-      }
+      return executeSelectHelper(header, commandPacket, packet, reader, signature, message, handler.getApp());
     } catch (IOException | JSONException | FailedDBOperationException e) {
       // FIXME: why silently fail?
     }
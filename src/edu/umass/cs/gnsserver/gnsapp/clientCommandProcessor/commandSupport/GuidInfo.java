@@ -82,6 +82,21 @@ public class GuidInfo {
     this.tags = new HashSet<String>();
   }
 
+  /**
+   * Creates a copy of a GuidInfo instance.
+   *
+   * @param guidInfo
+   */
+  public GuidInfo(GuidInfo guidInfo) {
+    this.name = guidInfo.name;
+    this.guid = guidInfo.guid;
+    this.type = guidInfo.type;
+    this.publicKey = guidInfo.publicKey;
+    this.created = guidInfo.created;
+    this.updated = guidInfo.updated;
+    this.tags = new HashSet<String>(guidInfo.tags);
+  }
+
   /**
    Convert GuidInfo to and from the format which is used to store it in the DB. 
    Use a JSON Object which is put as the first element of an ArrayList
@@ -0,0 +1,230 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.clientSupport;
+
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+import edu.umass.cs.gnsserver.gnsapp.GNSApplicationInterface;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.AccountAccess;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.GuidInfo;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.MetaDataTypeName;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
+import edu.umass.cs.gnsserver.main.GNSConfig.GNSC;
+import edu.umass.cs.utils.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Checks that one accessor can access the same fields of many guids, for
+ * instance all the records returned by a select.
+ *
+ * This makes the same decisions as
+ * {@link NSAuthentication#signatureAndACLCheck} without the signature check
+ * but the ACLs are compiled from the records themselves, which must include
+ * the fields returned by {@link CompiledAcl#getMetaDataFields}, so there
+ * are no database reads per record. The accessor's guid info and groups
+ * are looked up at most once per batch. Large batches are split across
+ * all the cores.
+ *
+ * @author westy
+ */
+public class BatchAclCheck {
+
+  private static final int PARALLEL_THRESHOLD = Config.getGlobalInt(GNSC.SELECT_PARALLEL_ACL_CHECK_THRESHOLD);
+  private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+  private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(THREADS,
+          new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = Executors.defaultThreadFactory().newThread(r);
+      thread.setName(BatchAclCheck.class.getSimpleName() + thread.getName());
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  private final InternalRequestHeader header;
+  private final String accessorGuid;
+  private final List<String> fields;
+  private final MetaDataTypeName access;
+  private final GNSApplicationInterface<String> gnsApp;
+
+  // Looked up lazily because most checks don't need them
+  private boolean accessorLookedUp = false;
+  private GuidInfo accessorGuidInfo;
+  private Set<String> accessorGroups;
+
+  /**
+   *
+   * @param header
+   * @param accessorGuid the guid doing the access or null for an unsigned access
+   * @param fields the fields being accessed
+   * @param access the type of access
+   * @param gnsApp
+   */
+  public BatchAclCheck(InternalRequestHeader header, String accessorGuid, List<String> fields,
+          MetaDataTypeName access, GNSApplicationInterface<String> gnsApp) {
+    this.header = header;
+    this.accessorGuid = accessorGuid;
+    this.fields = fields;
+    this.access = access;
+    this.gnsApp = gnsApp;
+  }
+
+  /**
+   * Returns the name records in {@code records} whose fields can be accessed.
+   * The order of the records is preserved.
+   *
+   * @param records
+   * @return a JSONArray of records
+   */
+  public JSONArray filterRecords(JSONArray records) {
+    int length = records.length();
+    boolean[] accessible = new boolean[length];
+    if (length < PARALLEL_THRESHOLD || THREADS == 1) {
+      checkRecords(records, accessible, 0, length);
+    } else {
+      int chunk = (length + THREADS - 1) / THREADS;
+      List<Future<?>> futures = new ArrayList<>();
+      // the last chunk is checked by this thread
+      for (int start = chunk; start < length; start += chunk) {
+        final int from = start;
+        final int to = Math.min(start + chunk, length);
+        futures.add(EXECUTOR.submit(new Runnable() {
+          @Override
+          public void run() {
+            checkRecords(records, accessible, from, to);
+          }
+        }));
+      }
+      checkRecords(records, accessible, 0, Math.min(chunk, length));
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          // the records in unfinished chunks are left out
+          break;
+        } catch (ExecutionException e) {
+          ClientSupportConfig.getLogger().log(Level.WARNING, "ACL check failed: {0}", e.getCause());
+        }
+      }
+    }
+    JSONArray result = new JSONArray();
+    for (int i = 0; i < length; i++) {
+      if (accessible[i]) {
+        result.put(records.opt(i));
+      }
+    }
+    return result;
+  }
+
+  private void checkRecords(JSONArray records, boolean[] accessible, int from, int to) {
+    for (int i = from; i < to; i++) {
+      try {
+        JSONObject record = records.getJSONObject(i);
+        String guid = record.getString(NameRecord.NAME.getName());
+        JSONObject valuesMap = record.optJSONObject(NameRecord.VALUES_MAP.getName());
+        CompiledAcl acl = valuesMap != null ? CompiledAcl.compile(valuesMap) : CompiledAcl.EMPTY;
+        accessible[i] = isAccessible(guid, acl);
+        ClientSupportConfig.getLogger().log(Level.FINE, "ACL check for batch: guid={0} fields={1} result={2}",
+                new Object[]{guid, fields, accessible[i]});
+      } catch (JSONException | FailedDBOperationException e) {
+        ClientSupportConfig.getLogger().log(Level.FINE, "Problem checking ACL of record: {0}", e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Returns true if all the fields of {@code guid} can be accessed.
+   *
+   * @param guid
+   * @param acl the compiled metadata of the guid
+   * @return true if the fields can be accessed
+   * @throws FailedDBOperationException
+   */
+  public boolean isAccessible(String guid, CompiledAcl acl) throws FailedDBOperationException {
+    for (String field : fields) {
+      if (!isAccessible(guid, acl, field)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // See NSAuthentication.aclCheck and NSAccessSupport.fieldAccessibleByEveryone
+  private boolean isAccessible(String guid, CompiledAcl acl, String field) throws FailedDBOperationException {
+    if (accessorGuid == null) {
+      Set<String> allowedUsers = acl.lookup(access, field);
+      if (allowedUsers == null) {
+        allowedUsers = acl.lookup(access, GNSProtocol.ENTIRE_RECORD.toString());
+      }
+      return allowedUsers != null && allowedUsers.contains(GNSProtocol.EVERYONE.toString());
+    }
+    // Access to all of our fields is always allowed to our own guid
+    if (accessorGuid.equals(guid)) {
+      return true;
+    }
+    Set<String> publicKeys = acl.lookupHierarchical(access, field);
+    if (publicKeys == null) {
+      return false;
+    }
+    Map<String, String> guids = acl.lookupHierarchicalGuids(access, field);
+    if (guids.containsKey(accessorGuid)) {
+      return true;
+    }
+    if (publicKeys.isEmpty() || !lookupAccessor()) {
+      return false;
+    }
+    if (publicKeys.contains(GNSProtocol.EVERYONE.toString())) {
+      return true;
+    }
+    // the accessor may be a member of a group guid that is in the ACL
+    return !Collections.disjoint(guids.keySet(), accessorGroups);
+  }
+
+  // Returns true if the accessor guid exists
+  private synchronized boolean lookupAccessor() throws FailedDBOperationException {
+    if (!accessorLookedUp) {
+      accessorGuidInfo = AccountAccess.lookupGuidInfoAnywhere(header, accessorGuid, gnsApp.getRequestHandler());
+      accessorGroups = accessorGuidInfo != null
+              ? NSGroupAccess.lookupGroups(header, accessorGuid, gnsApp.getRequestHandler())
+              : Collections.<String>emptySet();
+      accessorLookedUp = true;
+    }
+    return accessorGuidInfo != null;
+  }
+}
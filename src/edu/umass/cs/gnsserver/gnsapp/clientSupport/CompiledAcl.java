@@ -0,0 +1,312 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.clientSupport;
+
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.MetaDataTypeName;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * An in-memory form of all the field metadata (ACLs) of a single guid.
+ *
+ * The metadata is stored in the record as nested JSON of the form
+ * {@code _GNS_ACL.READ_WHITELIST.a.b.MD : [keys]} (see
+ * {@link edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.FieldMetaData#makeFieldMetaDataKey}).
+ * This class compiles that into a trie of field path components per
+ * {@link MetaDataTypeName} so that looking up the ACL that governs a
+ * deeply dotted field is a walk down the trie instead of one database
+ * read per level. The public keys of each ACL are also kept keyed by
+ * their guids (see {@link #lookupHierarchicalGuids}) so checking whether
+ * a guid is in an ACL doesn't hash every key in it.
+ *
+ * Instances are immutable.
+ *
+ * @author westy
+ */
+public final class CompiledAcl {
+
+  /**
+   * The field (leaf) key used in the record for metadata values.
+   */
+  private static final String METADATA_LEAF = "MD";
+
+  /**
+   * An acl with no entries.
+   */
+  public static final CompiledAcl EMPTY = new CompiledAcl(new EnumMap<MetaDataTypeName, Node>(MetaDataTypeName.class));
+
+  private final EnumMap<MetaDataTypeName, Node> roots;
+
+  private CompiledAcl(EnumMap<MetaDataTypeName, Node> roots) {
+    this.roots = roots;
+  }
+
+  /**
+   * Returns the record fields that hold all the metadata. Reading these
+   * fields from a record gives everything needed by {@link #compile}.
+   *
+   * @return the field names
+   */
+  public static String[] getMetaDataFields() {
+    Set<String> prefixes = new LinkedHashSet<>();
+    for (MetaDataTypeName type : MetaDataTypeName.values()) {
+      prefixes.add(type.getPrefix());
+    }
+    return prefixes.toArray(new String[prefixes.size()]);
+  }
+
+  /**
+   * Returns true if {@code field} is (or is inside of) a metadata field.
+   *
+   * @param field
+   * @return true if the field holds metadata
+   */
+  public static boolean isMetaDataField(String field) {
+    for (MetaDataTypeName type : MetaDataTypeName.values()) {
+      if (field.startsWith(type.getPrefix())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Compiles the metadata contained in {@code valuesMap}, which should contain
+   * the fields returned by {@link #getMetaDataFields}.
+   *
+   * @param valuesMap
+   * @return a CompiledAcl
+   * @throws JSONException
+   */
+  public static CompiledAcl compile(JSONObject valuesMap) throws JSONException {
+    EnumMap<MetaDataTypeName, Node> roots = new EnumMap<>(MetaDataTypeName.class);
+    for (MetaDataTypeName type : MetaDataTypeName.values()) {
+      if (!valuesMap.has(type.getPrefix())) {
+        continue;
+      }
+      Object prefixValue = valuesMap.get(type.getPrefix());
+      Object typeValue = childValue(prefixValue, type.name());
+      if (typeValue != null) {
+        Node root = compileNode(typeValue);
+        if (root != null) {
+          roots.put(type, root);
+        }
+      }
+    }
+    return roots.isEmpty() ? EMPTY : new CompiledAcl(roots);
+  }
+
+  /**
+   * Returns the metadata values of exactly {@code field} or null if the
+   * field has no metadata.
+   *
+   * @param type
+   * @param field
+   * @return a set of values or null
+   */
+  public Set<String> lookup(MetaDataTypeName type, String field) {
+    Node node = roots.get(type);
+    if (node == null) {
+      return null;
+    }
+    int start = 0;
+    int dot;
+    do {
+      dot = field.indexOf('.', start);
+      node = node.getChild(dot < 0 ? field.substring(start) : field.substring(start, dot));
+      if (node == null) {
+        return null;
+      }
+      start = dot + 1;
+    } while (dot >= 0);
+    return node.values;
+  }
+
+  /**
+   * Returns the metadata values that govern {@code field}. Fields with dot
+   * notation are handled by looking at the deepest field that has metadata
+   * and then at GNSProtocol.ENTIRE_RECORD. Returns null if none of those has
+   * metadata.
+   *
+   * @param type
+   * @param field
+   * @return a set of values or null
+   */
+  public Set<String> lookupHierarchical(MetaDataTypeName type, String field) {
+    Node node = findHierarchical(type, field);
+    return node != null ? node.values : null;
+  }
+
+  /**
+   * Returns the metadata values that govern {@code field} (see
+   * {@link #lookupHierarchical}) as a map from the guid of each public key
+   * to the public key. Returns null if there is no metadata.
+   *
+   * @param type
+   * @param field
+   * @return an unmodifiable map or null
+   */
+  public Map<String, String> lookupHierarchicalGuids(MetaDataTypeName type, String field) {
+    Node node = findHierarchical(type, field);
+    return node != null ? node.getGuids() : null;
+  }
+
+  // Returns the deepest node with values along field or the GNSProtocol.ENTIRE_RECORD one
+  private Node findHierarchical(MetaDataTypeName type, String field) {
+    Node root = roots.get(type);
+    if (root == null) {
+      return null;
+    }
+    Node deepest = null;
+    Node node = root;
+    int start = 0;
+    int dot;
+    do {
+      dot = field.indexOf('.', start);
+      node = node.getChild(dot < 0 ? field.substring(start) : field.substring(start, dot));
+      if (node == null) {
+        break;
+      }
+      if (node.values != null) {
+        deepest = node;
+      }
+      start = dot + 1;
+    } while (dot >= 0);
+    if (deepest != null) {
+      return deepest;
+    }
+    Node entireRecord = root.getChild(GNSProtocol.ENTIRE_RECORD.toString());
+    return entireRecord != null && entireRecord.values != null ? entireRecord : null;
+  }
+
+  private static Node compileNode(Object value) throws JSONException {
+    Map<String, Node> children = null;
+    Set<String> values = null;
+    Iterator<String> keys = childKeys(value);
+    while (keys.hasNext()) {
+      String key = keys.next();
+      Object child = childValue(value, key);
+      if (METADATA_LEAF.equals(key) && isList(child)) {
+        values = compileValues(child);
+      } else if (isMap(child)) {
+        Node childNode = compileNode(child);
+        if (childNode != null) {
+          if (children == null) {
+            children = new HashMap<>();
+          }
+          children.put(key, childNode);
+        }
+      }
+    }
+    if (children == null && values == null) {
+      return null;
+    }
+    return new Node(children, values);
+  }
+
+  private static Set<String> compileValues(Object list) throws JSONException {
+    Set<String> result = new HashSet<>();
+    if (list instanceof JSONArray) {
+      JSONArray array = (JSONArray) list;
+      for (int i = 0; i < array.length(); i++) {
+        result.add(array.get(i).toString());
+      }
+    } else {
+      for (Object element : (Collection<?>) list) {
+        result.add(element.toString());
+      }
+    }
+    return Collections.unmodifiableSet(result);
+  }
+
+  // The values can come back from the database as JSON or as java collections
+  // (for instance mongo's BasicDBObject) so we handle both.
+  private static boolean isMap(Object value) {
+    return value instanceof JSONObject || value instanceof Map;
+  }
+
+  private static boolean isList(Object value) {
+    return value instanceof JSONArray || value instanceof Collection;
+  }
+
+  private static Object childValue(Object value, String key) throws JSONException {
+    if (value instanceof JSONObject) {
+      JSONObject json = (JSONObject) value;
+      return json.has(key) ? json.get(key) : null;
+    } else if (value instanceof Map) {
+      return ((Map<?, ?>) value).get(key);
+    }
+    return null;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Iterator<String> childKeys(Object value) {
+    if (value instanceof JSONObject) {
+      return ((JSONObject) value).keys();
+    } else if (value instanceof Map) {
+      return ((Map<String, ?>) value).keySet().iterator();
+    }
+    return Collections.<String>emptyIterator();
+  }
+
+  private static final class Node {
+
+    private final Map<String, Node> children;
+    // Null if this field has no metadata
+    private final Set<String> values;
+    // Computed from values when first needed. Racing threads compute equal maps.
+    private volatile Map<String, String> guids;
+
+    private Node(Map<String, Node> children, Set<String> values) {
+      this.children = children;
+      this.values = values;
+    }
+
+    private Node getChild(String name) {
+      return children != null ? children.get(name) : null;
+    }
+
+    private Map<String, String> getGuids() {
+      Map<String, String> result = guids;
+      if (result == null && values != null) {
+        guids = result = PublicKeyGuids.mapGuidsToPublicKeys(values);
+      }
+      return result;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "CompiledAcl{" + roots.keySet() + "}";
+  }
+}
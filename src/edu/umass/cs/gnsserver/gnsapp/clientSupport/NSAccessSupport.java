@@ -19,9 +19,9 @@
  */
 package edu.umass.cs.gnsserver.gnsapp.clientSupport;
 
-import com.google.common.collect.Sets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
-import edu.umass.cs.gnscommon.exceptions.server.FieldNotFoundException;
 import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
 import edu.umass.cs.gnsserver.main.GNSConfig.GNSC;
 import edu.umass.cs.gnscommon.utils.Base64;
@@ -29,11 +29,12 @@ import java.nio.ByteBuffer;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 
-import edu.umass.cs.gnscommon.SharedGuidUtils;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.MetaDataTypeName;
 import edu.umass.cs.gnsserver.gnsapp.GNSApplicationInterface;
 import edu.umass.cs.gnsserver.gnsapp.recordmap.BasicRecordMap;
@@ -67,20 +68,63 @@ import javax.xml.bind.DatatypeConverter;
  */
 public class NSAccessSupport {
 
-  private static KeyFactory keyFactory;
-  // arun: at least as many instances as cores for parallelism.
-  private static Signature[] signatureInstances = new Signature[2 * Runtime.getRuntime().availableProcessors()];
+  // One instance of each crypto primitive per thread so that verification
+  // does not need to be serialized through a global monitor.
+  private static final ThreadLocal<KeyFactory> KEY_FACTORIES = new ThreadLocal<KeyFactory>() {
+    @Override
+    protected KeyFactory initialValue() {
+      try {
+        return KeyFactory.getInstance(GNSProtocol.RSA_ALGORITHM.toString());
+      } catch (NoSuchAlgorithmException e) {
+        ClientSupportConfig.getLogger().log(Level.SEVERE, "Unable to initialize for authentication:{0}", e);
+        throw new RuntimeException(e);
+      }
+    }
+  };
 
-  static {
-    try {
-      keyFactory = KeyFactory.getInstance(GNSProtocol.RSA_ALGORITHM.toString());
-      for (int i = 0; i < signatureInstances.length; i++) {
-        signatureInstances[i] = Signature.getInstance(GNSProtocol.SIGNATURE_ALGORITHM.toString());
+  private static final ThreadLocal<Signature> SIGNATURES = new ThreadLocal<Signature>() {
+    @Override
+    protected Signature initialValue() {
+      try {
+        return Signature.getInstance(GNSProtocol.SIGNATURE_ALGORITHM.toString());
+      } catch (NoSuchAlgorithmException e) {
+        ClientSupportConfig.getLogger().log(Level.SEVERE, "Unable to initialize for authentication:{0}", e);
+        throw new RuntimeException(e);
       }
-    } catch (NoSuchAlgorithmException e) {
-      ClientSupportConfig.getLogger().log(Level.SEVERE, "Unable to initialize for authentication:{0}", e);
     }
-  }
+  };
+
+  private static final ThreadLocal<MessageDigest> MESSAGE_DIGESTS = new ThreadLocal<MessageDigest>() {
+    @Override
+    protected MessageDigest initialValue() {
+      try {
+        return MessageDigest.getInstance(GNSProtocol.DIGEST_ALGORITHM.toString());
+      } catch (NoSuchAlgorithmException e) {
+        ClientSupportConfig.getLogger().log(Level.SEVERE, "Unable to initialize for authentication:{0}", e);
+        throw new RuntimeException(e);
+      }
+    }
+  };
+
+  private static final ThreadLocal<Cipher> CIPHERS = new ThreadLocal<Cipher>() {
+    @Override
+    protected Cipher initialValue() {
+      try {
+        return Cipher.getInstance(GNSProtocol.SECRET_KEY_ALGORITHM.toString());
+      } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+        ClientSupportConfig.getLogger().log(Level.SEVERE, "Unable to initialize for authentication:{0}", e);
+        throw new RuntimeException(e);
+      }
+    }
+  };
+
+  /**
+   * Decoded public keys indexed by their Base64 encoding so that we don't
+   * run the key factory on every request.
+   */
+  private static final Cache<String, PublicKey> DECODED_PUBLIC_KEY_CACHE
+          = CacheBuilder.newBuilder().concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
+          .maximumSize(10000).build();
 
   /**
    * Verifies that the signature corresponds to the message using the public key.
@@ -96,8 +140,8 @@ public class NSAccessSupport {
    */
   public static boolean verifySignature(String accessorPublicKey, String signature, String message) throws
           InvalidKeyException, SignatureException, UnsupportedEncodingException, InvalidKeySpecException {
-    byte[] publickeyBytes = Base64.decode(accessorPublicKey);
-    if (publickeyBytes == null) { // bogus public key
+    PublicKey publicKey = getPublicKey(accessorPublicKey);
+    if (publicKey == null) { // bogus public key
       ClientSupportConfig.getLogger().log(Level.FINE, "&&&&Base 64 decoding is bogus!!!");
       return false;
     }
@@ -107,7 +151,7 @@ public class NSAccessSupport {
               Util.truncate(signature, 16, 16),
               Util.truncate(message, 16, 16)});
     long t = System.nanoTime();
-    boolean result = verifySignatureInternal(publickeyBytes, signature, message);
+    boolean result = verifySignatureInternal(publicKey, signature, message);
     if (Util.oneIn(100)) {
       DelayProfiler.updateDelayNano("verification", t);
     }
@@ -120,18 +164,34 @@ public class NSAccessSupport {
     return result;
   }
 
-  private static int sigIndex = 0;
-
-  private synchronized static Signature getSignatureInstance() {
-    return signatureInstances[sigIndex++ % signatureInstances.length];
+  /**
+   * Returns the decoded public key for the Base64 encoded {@code encodedPublicKey}
+   * or null if the encoding is bogus.
+   *
+   * @param encodedPublicKey
+   * @return the public key
+   * @throws InvalidKeySpecException
+   */
+  private static PublicKey getPublicKey(String encodedPublicKey) throws InvalidKeySpecException {
+    PublicKey publicKey = DECODED_PUBLIC_KEY_CACHE.getIfPresent(encodedPublicKey);
+    if (publicKey != null) {
+      return publicKey;
+    }
+    byte[] publickeyBytes = Base64.decode(encodedPublicKey);
+    if (publickeyBytes == null) {
+      return null;
+    }
+    publicKey = KEY_FACTORIES.get().generatePublic(new X509EncodedKeySpec(publickeyBytes));
+    DECODED_PUBLIC_KEY_CACHE.put(encodedPublicKey, publicKey);
+    return publicKey;
   }
 
-  private static synchronized boolean verifySignatureInternal(byte[] publickeyBytes, String signature, String message)
-          throws InvalidKeyException, SignatureException, UnsupportedEncodingException, InvalidKeySpecException {
+  private static boolean verifySignatureInternal(PublicKey publicKey, String signature, String message)
+          throws InvalidKeyException, SignatureException, UnsupportedEncodingException {
 
     if (Config.getGlobalBoolean(GNSC.ENABLE_SECRET_KEY)) {
       try {
-        return verifySignatureInternalSecretKey(publickeyBytes, signature, message);
+        return verifySignatureInternalSecretKey(publicKey, signature, message);
       } catch (Exception e) {
         // This provided backward support for clients that don't have ENABLE_SECRET_KEY on by
         // falling through to non-secret method.
@@ -143,69 +203,25 @@ public class NSAccessSupport {
     }
 
     // Non-secret method kept for backwards compatbility with older clients.
-    X509EncodedKeySpec publicKeySpec = new X509EncodedKeySpec(publickeyBytes);
-    PublicKey publicKey = keyFactory.generatePublic(publicKeySpec);
-
-    Signature sigInstance = getSignatureInstance();
-    synchronized (sigInstance) {
-      sigInstance.initVerify(publicKey);
-      // iOS client uses UTF-8 - should switch to ISO-8859-1 to be consistent with
-      // secret key version
-      sigInstance.update(message.getBytes("UTF-8"));
-      // Non secret uses ISO-8859-1, but the iOS client uses hex so 
-      // we need to keep this for now.
-      try {
-        return sigInstance.verify(DatatypeConverter.parseHexBinary(signature));
-        // This will get thrown if the signature is not a hex string.
-      } catch (IllegalArgumentException e) {
-        return false;
-      }
-      //return sigInstance.verify(ByteUtils.hexStringToByteArray(signature));
-    }
-  }
-
-  private static final MessageDigest[] mds = new MessageDigest[Runtime.getRuntime().availableProcessors()];
-
-  static {
-    for (int i = 0; i < mds.length; i++) {
-      try {
-        mds[i] = MessageDigest.getInstance(GNSProtocol.DIGEST_ALGORITHM.toString());
-      } catch (NoSuchAlgorithmException e) {
-        e.printStackTrace();
-        System.exit(1);
-      }
-    }
-  }
-  private static int mdIndex = 0;
-
-  private static MessageDigest getMessageDigestInstance() {
-    return mds[mdIndex++ % mds.length];
-  }
-
-  private static final Cipher[] ciphers = new Cipher[2 * Runtime.getRuntime().availableProcessors()];
-
-  static {
-    for (int i = 0; i < ciphers.length; i++) {
-      try {
-        ciphers[i] = Cipher.getInstance(GNSProtocol.SECRET_KEY_ALGORITHM.toString());
-      } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
-        e.printStackTrace();
-        System.exit(1);
-      }
+    Signature sigInstance = SIGNATURES.get();
+    sigInstance.initVerify(publicKey);
+    // iOS client uses UTF-8 - should switch to ISO-8859-1 to be consistent with
+    // secret key version
+    sigInstance.update(message.getBytes("UTF-8"));
+    // Non secret uses ISO-8859-1, but the iOS client uses hex so 
+    // we need to keep this for now.
+    try {
+      return sigInstance.verify(DatatypeConverter.parseHexBinary(signature));
+      // This will get thrown if the signature is not a hex string.
+    } catch (IllegalArgumentException e) {
+      return false;
     }
+    //return sigInstance.verify(ByteUtils.hexStringToByteArray(signature));
   }
 
-  private static int cipherIndex = 0;
-
-  private static Cipher getCipherInstance() {
-    return ciphers[cipherIndex++ % ciphers.length];
-  }
-
-  private static synchronized boolean verifySignatureInternalSecretKey(byte[] publickeyBytes, String signature, String message)
+  private static boolean verifySignatureInternalSecretKey(PublicKey publicKey, String signature, String message)
           throws InvalidKeyException, SignatureException, UnsupportedEncodingException, InvalidKeySpecException, NoSuchAlgorithmException, NoSuchPaddingException, IllegalBlockSizeException, BadPaddingException {
 
-    PublicKey publicKey = keyFactory.generatePublic(new X509EncodedKeySpec(publickeyBytes));
-
     // FIXME: The reason why we use CHARSET should be more throughly documented here.
     byte[] sigBytes = signature.getBytes(GNSProtocol.CHARSET.toString());
     byte[] bytes = message.getBytes(GNSProtocol.CHARSET.toString());
@@ -219,16 +235,10 @@ public class NSAccessSupport {
     bbuf.get(skCertEncoded);
     SecretKey secretKey = SessionKeys.getSecretKeyFromCertificate(skCertEncoded, publicKey);
 
-    MessageDigest md = getMessageDigestInstance();
-    byte[] digest;
-    synchronized (md) {
-      digest = md.digest(bytes);
-    }
-    Cipher cipher = getCipherInstance();
-    synchronized (cipher) {
-      cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-      return Arrays.equals(sign, cipher.doFinal(digest));
-    }
+    byte[] digest = MESSAGE_DIGESTS.get().digest(bytes);
+    Cipher cipher = CIPHERS.get();
+    cipher.init(Cipher.ENCRYPT_MODE, secretKey);
+    return Arrays.equals(sign, cipher.doFinal(digest));
   }
 
   /**
@@ -248,49 +258,18 @@ public class NSAccessSupport {
           GNSApplicationInterface<String> activeReplica) throws FailedDBOperationException {
     ClientSupportConfig.getLogger().log(Level.FINE, "###field={0}", field);
     try {
-      return checkForGroupAccess(accessType, guid, field, groups, activeReplica);
-    } catch (FieldNotFoundException e) {
-      ClientSupportConfig.getLogger().log(Level.FINE, "###field NOT FOUND={0}.. GOING UP", new Object[]{field});
-    }
-    // otherwise go up the hierarchy and check
-    if (field.contains(".")) {
-      return hierarchicalAccessGroupCheck(accessType, guid, field.substring(0, field.lastIndexOf(".")),
-              groups, activeReplica);
-    } else if (!GNSProtocol.ENTIRE_RECORD.toString().equals(field)) {
-      return hierarchicalAccessGroupCheck(accessType, guid, GNSProtocol.ENTIRE_RECORD.toString(), groups, activeReplica);
-    } else {
+      Map<String, String> allowedGuids = NSFieldMetaData.lookupCompiledLocally(guid, activeReplica.getDB())
+              .lookupHierarchicalGuids(accessType, field);
+      ClientSupportConfig.getLogger().log(Level.FINE, "{0} allowed guids of {1} : {2}",
+              new Object[]{guid, field, allowedGuids});
       // check all the way up and there is no access
-      return false;
-    }
-  }
-
-  /**
-   * Check for one of the groups that accessorguid is in being a member of allowed users.
-   * Field can be dotted and at any level.
-   *
-   * @param accessType
-   * @param guid
-   * @param field
-   * @param accessorGuid
-   * @param activeReplica
-   * @return true if access is allowed
-   * @throws FailedDBOperationException
-   */
-  private static boolean checkForGroupAccess(MetaDataTypeName accessType,
-          String guid, String field, Set<String> groups,
-          GNSApplicationInterface<String> activeReplica)
-          throws FieldNotFoundException, FailedDBOperationException {
-    try {
-      // FIXME: Tidy this mess up.
-      @SuppressWarnings("unchecked")
-      Set<String> allowedUsers = (Set<String>) (Set<?>) NSFieldMetaData.lookupLocally(accessType,
-              guid, field, activeReplica.getDB());
-      ClientSupportConfig.getLogger().log(Level.FINE, "{0} allowed users of {1} : {2}",
-              new Object[]{guid, field, allowedUsers});
-      return !Sets.intersection(SharedGuidUtils.convertPublicKeysToGuids(allowedUsers), groups).isEmpty();
+      if (allowedGuids == null) {
+        return false;
+      }
+      return !Collections.disjoint(allowedGuids.keySet(), groups);
     } catch (RecordNotFoundException e) {
       ClientSupportConfig.getLogger().log(Level.WARNING,
-              "User {0} access problem for {2} field: {3}",
+              "User {0} access problem for {1} field: {2}",
               new Object[]{guid, field, e});
       return false;
     }
@@ -308,23 +287,18 @@ public class NSAccessSupport {
    */
   public static boolean fieldAccessibleByEveryone(MetaDataTypeName access, String guid, String field,
           GNSApplicationInterface<String> activeReplica) throws FailedDBOperationException {
-    // First we check to see if the field has an acl that allows everyone access.
-    // Note: If ACL exists and doesn't give all access we return false because this ACL
-    // overrides the ENTIRE_RECORD ACL.
     try {
-      try {
-        return (NSFieldMetaData.lookupLocally(access, guid, field, activeReplica.getDB())
-                .contains(GNSProtocol.EVERYONE.toString()));
-      } catch (FieldNotFoundException e) {
+      CompiledAcl acl = NSFieldMetaData.lookupCompiledLocally(guid, activeReplica.getDB());
+      // First we check to see if the field has an acl that allows everyone access.
+      // Note: If ACL exists and doesn't give all access we return false because this ACL
+      // overrides the ENTIRE_RECORD ACL.
+      Set<String> allowedUsers = acl.lookup(access, field);
+      if (allowedUsers == null) {
         // If the field has no ACL then we also want to check to see if the entire record has an
         // ACL that allows access to everyone.
-        try {
-          return NSFieldMetaData.lookupLocally(access, guid, GNSProtocol.ENTIRE_RECORD.toString(),
-                  activeReplica.getDB()).contains(GNSProtocol.EVERYONE.toString());
-        } catch (FieldNotFoundException f) {
-          return false;
-        }
+        allowedUsers = acl.lookup(access, GNSProtocol.ENTIRE_RECORD.toString());
       }
+      return allowedUsers != null && allowedUsers.contains(GNSProtocol.EVERYONE.toString());
     } catch (RecordNotFoundException e) {
       ClientSupportConfig.getLogger().log(Level.WARNING,
               "User {0} access problem for {1}''s {2} field: {3}", 
@@ -333,9 +307,33 @@ public class NSAccessSupport {
     }
   }
 
+  /**
+   * Looks up the public keys in the acl of a field keyed by their guids.
+   * Handles fields that uses dot notation like {@link #lookupPublicKeysFromAcl}.
+   *
+   * @param access
+   * @param guid
+   * @param field
+   * @param database
+   * @return a map from guid to public key
+   * @throws FailedDBOperationException
+   */
+  public static Map<String, String> lookupGuidsFromAcl(MetaDataTypeName access, String guid, String field,
+          BasicRecordMap database) throws FailedDBOperationException {
+    try {
+      Map<String, String> guids = NSFieldMetaData.lookupCompiledLocally(guid, database)
+              .lookupHierarchicalGuids(access, field);
+      return guids != null ? guids : Collections.<String, String>emptyMap();
+    } catch (RecordNotFoundException e) {
+      ClientSupportConfig.getLogger().log(Level.WARNING, "User {0} access problem for {1}''s {2} field: {3}",
+              new Object[]{guid, field, access.toString(), e});
+      return Collections.emptyMap();
+    }
+  }
+
   /**
    * Looks up the public key for a guid using the acl of a field.
-   * Handles fields that uses dot notation. Recursively goes up the tree
+   * Handles fields that uses dot notation. Goes up the tree
    * towards the root (GNSProtocol.ENTIRE_RECORD.toString()) node.
    *
    * @param access
@@ -345,29 +343,19 @@ public class NSAccessSupport {
    * @return a set of public keys
    * @throws FailedDBOperationException
    */
-  @SuppressWarnings("unchecked")
   public static Set<String> lookupPublicKeysFromAcl(MetaDataTypeName access, String guid, String field,
           BasicRecordMap database) throws FailedDBOperationException {
     ClientSupportConfig.getLogger().log(Level.FINE, "###field={0}", new Object[]{field});
     try {
       // If the field is found this will return a list of the public keys in the ACL,
       // empty or otherwise. If it is empty we will stop looking.
-      return (Set<String>) (Set<?>) NSFieldMetaData.lookupLocally(access, guid, field, database);
+      Set<String> publicKeys = NSFieldMetaData.lookupCompiledLocally(guid, database)
+              .lookupHierarchical(access, field);
+      return publicKeys != null ? publicKeys : new HashSet<String>();
     } catch (RecordNotFoundException e) {
       ClientSupportConfig.getLogger().log(Level.WARNING, "User {0} access problem for {1}'s {2} field: {3}",
               new Object[]{guid, field, access.toString(), e});
       return new HashSet<>();
-    } catch (FieldNotFoundException e) {
-      ClientSupportConfig.getLogger().log(Level.FINE, "###field NOT FOUND={0}.. GOING UP", new Object[]{field});
-    }
-    // otherwise go up the hierarchy and check
-    if (field.contains(".")) {
-      return lookupPublicKeysFromAcl(access, guid, field.substring(0, field.lastIndexOf(".")), database);
-      // One last check at the root (GNSProtocol.ENTIRE_RECORD.toString()) field.
-    } else if (!GNSProtocol.ENTIRE_RECORD.toString().equals(field)) {
-      return lookupPublicKeysFromAcl(access, guid, GNSProtocol.ENTIRE_RECORD.toString(), database);
-    } else {
-      return new HashSet<>();
     }
   }
 
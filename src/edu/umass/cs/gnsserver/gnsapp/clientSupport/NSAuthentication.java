@@ -21,10 +21,10 @@ package edu.umass.cs.gnsserver.gnsapp.clientSupport;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 
 import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 import edu.umass.cs.gnscommon.ResponseCode;
-import edu.umass.cs.gnscommon.SharedGuidUtils;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.GuidInfo;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.MetaDataTypeName;
 import edu.umass.cs.gnsserver.gnsapp.GNSApplicationInterface;
@@ -32,13 +32,20 @@ import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
 
 import java.io.UnsupportedEncodingException;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SignatureException;
 import java.security.spec.InvalidKeySpecException;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.utils.Base64;
+import edu.umass.cs.gnsserver.main.GNSConfig.GNSC;
+import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.Util;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.AccountAccess;
 
 /**
@@ -47,8 +54,41 @@ import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.Accou
  */
 public class NSAuthentication {
 
+  /**
+   * Public keys of local guids. Entries are invalidated by
+   * {@link #invalidatePublicKey} when the guid info is written or the guid is
+   * removed and otherwise expire after PUBLIC_KEY_CACHE_EXPIRY_IN_MINUTES.
+   */
   private static final Cache<String, String> PUBLIC_KEY_CACHE
-          = CacheBuilder.newBuilder().concurrencyLevel(5).maximumSize(1000).build();
+          = CacheBuilder.newBuilder().concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
+          .maximumSize(Config.getGlobalInt(GNSC.PUBLIC_KEY_CACHE_SIZE))
+          .expireAfterWrite(Config.getGlobalInt(GNSC.PUBLIC_KEY_CACHE_EXPIRY_IN_MINUTES), TimeUnit.MINUTES)
+          .recordStats().build();
+
+  /**
+   * Recent successful signature verifications so that retransmitted and
+   * coordinated commands don't redo the RSA verify. Entries expire once the
+   * command would be considered stale anyway.
+   */
+  private static final Cache<String, Boolean> VERIFIED_SIGNATURE_CACHE
+          = CacheBuilder.newBuilder().concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
+          .maximumSize(Config.getGlobalInt(GNSC.VERIFIED_SIGNATURE_CACHE_SIZE))
+          .expireAfterWrite(Config.getGlobalInt(GNSC.STALE_COMMAND_INTERVAL_IN_MINUTES), TimeUnit.MINUTES)
+          .build();
+
+  // Stronger than GNSProtocol.DIGEST_ALGORITHM because a collision here means a bypassed signature check.
+  private static final String VERIFIED_SIGNATURE_DIGEST_ALGORITHM = "SHA-256";
+
+  private static final ThreadLocal<MessageDigest> VERIFIED_SIGNATURE_DIGESTS = new ThreadLocal<MessageDigest>() {
+    @Override
+    protected MessageDigest initialValue() {
+      try {
+        return MessageDigest.getInstance(VERIFIED_SIGNATURE_DIGEST_ALGORITHM);
+      } catch (NoSuchAlgorithmException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  };
 
   /**
    * Does access and signature checking for a field OR fields in a guid.
@@ -156,7 +196,7 @@ public class NSAuthentication {
     if (skipSigCheck) {
       return ResponseCode.NO_ERROR;
     } else // Now check signatures
-    if (NSAccessSupport.verifySignature(aclResult.getPublicKey(), signature, message)) {
+    if (verifySignatureWithCaching(aclResult.getPublicKey(), signature, message)) {
       return ResponseCode.NO_ERROR;
     } else {
       ClientSupportConfig.getLogger().log(Level.FINE,
@@ -165,6 +205,61 @@ public class NSAuthentication {
     }
   }
 
+  /**
+   * Verifies the signature using {@link NSAccessSupport#verifySignature} unless
+   * the same public key, signature and message have recently been verified.
+   * Only successful verifications are cached.
+   *
+   * @param publicKey
+   * @param signature
+   * @param message
+   * @return true if the signature verifies successfully
+   * @throws InvalidKeyException
+   * @throws SignatureException
+   * @throws UnsupportedEncodingException
+   * @throws InvalidKeySpecException
+   */
+  private static boolean verifySignatureWithCaching(String publicKey, String signature, String message)
+          throws InvalidKeyException, SignatureException, UnsupportedEncodingException, InvalidKeySpecException {
+    String key = verifiedSignatureKey(publicKey, signature, message);
+    if (VERIFIED_SIGNATURE_CACHE.getIfPresent(key) != null) {
+      return true;
+    }
+    if (NSAccessSupport.verifySignature(publicKey, signature, message)) {
+      VERIFIED_SIGNATURE_CACHE.put(key, Boolean.TRUE);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the {@link #VERIFIED_SIGNATURE_CACHE} key for a verification.
+   * Each field is prefixed with its length because secret key signatures
+   * are arbitrary bytes so no separator can be relied on to keep the fields apart.
+   *
+   * @param publicKey
+   * @param signature
+   * @param message
+   * @return the key
+   * @throws UnsupportedEncodingException
+   */
+  static String verifiedSignatureKey(String publicKey, String signature, String message)
+          throws UnsupportedEncodingException {
+    MessageDigest md = VERIFIED_SIGNATURE_DIGESTS.get();
+    updateWithLength(md, publicKey.getBytes(GNSProtocol.CHARSET.toString()));
+    updateWithLength(md, signature.getBytes(GNSProtocol.CHARSET.toString()));
+    updateWithLength(md, message.getBytes("UTF-8"));
+    return Base64.encodeToString(md.digest(), false);
+  }
+
+  private static void updateWithLength(MessageDigest md, byte[] bytes) {
+    md.update((byte) (bytes.length >>> 24));
+    md.update((byte) (bytes.length >>> 16));
+    md.update((byte) (bytes.length >>> 8));
+    md.update((byte) bytes.length);
+    md.update(bytes);
+  }
+
   /**
    * Check the acl to insure that {@code accessorGuid} can access {@code targetGuid}'s {@code field}.
    *
@@ -250,15 +345,17 @@ public class NSAuthentication {
           throws FailedDBOperationException {
     String publicKey;
     // Field could also be GNSProtocol.ENTIRE_RECORD.toString() here 
-    Set<String> publicKeys = NSAccessSupport.lookupPublicKeysFromAcl(access, guid, field, gnsApp.getDB());
-    publicKey = SharedGuidUtils.findPublicKeyForGuid(accessorGuid, publicKeys);
+    Map<String, String> guids = NSAccessSupport.lookupGuidsFromAcl(access, guid, field, gnsApp.getDB());
+    publicKey = accessorGuid != null ? guids.get(accessorGuid) : null;
     ClientSupportConfig.getLogger().log(Level.FINE,
-            "================> {0} lookup for {1} returned: {2} public keys={3}",
+            "================> {0} lookup for {1} returned: {2} guids={3}",
             new Object[]{access.toString(), field, publicKey,
-              publicKeys});
+              guids.keySet()});
     // See if public keys contains GNSProtocol.EVERYONE.toString() which means we need to go old school and lookup the guid 
     // explicitly because it's not going to have an entry in the ACL
-    if (publicKey == null && publicKeys.contains(GNSProtocol.EVERYONE.toString())) {
+    if (publicKey == null
+            && NSAccessSupport.lookupPublicKeysFromAcl(access, guid, field, gnsApp.getDB())
+            .contains(GNSProtocol.EVERYONE.toString())) {
       GuidInfo accessorGuidInfo;
       if ((accessorGuidInfo = AccountAccess.lookupGuidInfoAnywhere(header, accessorGuid, gnsApp.getRequestHandler())) != null) {
         ClientSupportConfig.getLogger().log(Level.FINE,
@@ -269,8 +366,8 @@ public class NSAuthentication {
     }
     if (publicKey == null) {
       ClientSupportConfig.getLogger().log(Level.FINE,
-              "================> Public key not found: accessor={0} guid={1} field={2} public keys={3}",
-              new Object[]{accessorGuid, guid, field, publicKeys});
+              "================> Public key not found: accessor={0} guid={1} field={2} guids={3}",
+              new Object[]{accessorGuid, guid, field, guids.keySet()});
     }
     return publicKey;
   }
@@ -300,4 +397,29 @@ public class NSAuthentication {
     }
   }
 
+  /**
+   * Removes the cached public key of {@code guid}. Callers outside this class
+   * should use {@link AccountAccess#invalidateGuidInfo} which also clears the
+   * cached guid info.
+   *
+   * @param guid
+   */
+  public static void invalidatePublicKey(String guid) {
+    PUBLIC_KEY_CACHE.invalidate(guid);
+  }
+
+  /**
+   * Returns the hit, miss and eviction statistics of the public key cache.
+   *
+   * @return a string
+   */
+  public static String getPublicKeyCacheStats() {
+    CacheStats stats = PUBLIC_KEY_CACHE.stats();
+    return "PublicKeyCache{size=" + PUBLIC_KEY_CACHE.size()
+            + ", hits=" + stats.hitCount()
+            + ", misses=" + stats.missCount()
+            + ", hitRate=" + Util.df(stats.hitRate())
+            + ", evictions=" + stats.evictionCount() + "}";
+  }
+
 }
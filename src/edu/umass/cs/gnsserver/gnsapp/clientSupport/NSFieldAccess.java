@@ -333,21 +333,38 @@ public class NSFieldAccess {
     ValuesMap result = lookupJSONFieldLocally(null, guid, field, gnsApp);
     // if values wasn't found and the guid doesn't exist on this server and we're allowed then send a query to the LNS
     if (result == null && !gnsApp.getDB().containsName(guid)) {
-      try {
-    	  String stringResult = gnsApp.getRequestHandler().getInternalClient().execute(GNSCommandInternal.fieldRead(guid, field, header)).getResultString();
-        if (stringResult != null) {
-          result = new ValuesMap();
-          result.put(field, stringResult);
-        }
-      } catch (IOException | JSONException | ClientException | InternalRequestException e) {
-        ClientSupportConfig.getLogger().log(Level.SEVERE,
-                "Problem getting record from remote server: {0}", e);
-      }
-      if (result != null) {
-        ClientSupportConfig.getLogger().log(Level.FINE,
-                "@@@@@@ Field {0} in {1} not found on this server but was found thru remote query.",
-                new Object[]{field, guid});
+      result = lookupJSONFieldRemotely(header, guid, field, gnsApp);
+    }
+    return result;
+  }
+
+  /**
+   * Looks up the value of a field in a guid that isn't on this server
+   * by sending a read query thru the internal client.
+   *
+   * @param header
+   * @param guid
+   * @param field
+   * @param gnsApp
+   * @return ValuesMap containing the value of the field or null if field cannot be found
+   */
+  static ValuesMap lookupJSONFieldRemotely(InternalRequestHeader header, String guid, String field,
+          GNSApplicationInterface<String> gnsApp) {
+    ValuesMap result = null;
+    try {
+      String stringResult = gnsApp.getRequestHandler().getInternalClient().execute(GNSCommandInternal.fieldRead(guid, field, header)).getResultString();
+      if (stringResult != null) {
+        result = new ValuesMap();
+        result.put(field, stringResult);
       }
+    } catch (IOException | JSONException | ClientException | InternalRequestException e) {
+      ClientSupportConfig.getLogger().log(Level.SEVERE,
+              "Problem getting record from remote server: {0}", e);
+    }
+    if (result != null) {
+      ClientSupportConfig.getLogger().log(Level.FINE,
+              "@@@@@@ Field {0} in {1} not found on this server but was found thru remote query.",
+              new Object[]{field, guid});
     }
     return result;
   }
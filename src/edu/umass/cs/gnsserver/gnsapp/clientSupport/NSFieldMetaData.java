@@ -33,6 +33,8 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.logging.Level;
 
+import org.json.JSONException;
+
 /**
  * Implements metadata on fields.
  *
@@ -76,6 +78,41 @@ public class NSFieldMetaData {
     }
   }
 
+  /**
+   * Returns all the metadata of the guid in compiled form. Uses the compiled
+   * form cached in the database if there is one, otherwise reads all the
+   * metadata from the record with one database lookup and caches the result.
+   *
+   * @param guid
+   * @param database
+   * @return a {@link CompiledAcl}
+   * @throws FailedDBOperationException
+   * @throws RecordNotFoundException
+   */
+  public static CompiledAcl lookupCompiledLocally(String guid, BasicRecordMap database)
+          throws FailedDBOperationException, RecordNotFoundException {
+    CompiledAcl result = database.getCompiledAcl(guid);
+    if (result != null) {
+      return result;
+    }
+    long generation = database.getCompiledAclGeneration(guid);
+    NameRecord nameRecord = NameRecord.getNameRecordMultiUserFields(database, guid,
+            ColumnFieldType.USER_JSON, CompiledAcl.getMetaDataFields());
+    try {
+      result = CompiledAcl.compile(nameRecord.getValuesMap());
+    } catch (FieldNotFoundException e) {
+      result = CompiledAcl.EMPTY;
+    } catch (JSONException e) {
+      ClientSupportConfig.getLogger().log(Level.SEVERE, "Unable to compile metadata for {0}: {1}",
+              new Object[]{guid, e});
+      result = CompiledAcl.EMPTY;
+    }
+    ClientSupportConfig.getLogger().log(Level.FINE, "Compiled metadata for {0}: {1}",
+            new Object[]{guid, result});
+    database.putCompiledAcl(guid, result, generation);
+    return result;
+  }
+
   /**
    * Returns true if the ACL field exists.
    * 
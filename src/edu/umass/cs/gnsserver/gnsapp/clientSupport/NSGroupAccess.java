@@ -30,12 +30,24 @@ import edu.umass.cs.gnsserver.gnsapp.GNSApplicationInterface;
 import edu.umass.cs.gnsserver.gnsapp.recordmap.BasicRecordMap;
 import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
 import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.gnsserver.main.GNSConfig.GNSC;
 import edu.umass.cs.gnsserver.utils.ResultValue;
 import edu.umass.cs.gnsserver.utils.ValuesMap;
+import edu.umass.cs.utils.Config;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 
 import org.json.JSONArray;
@@ -74,6 +86,19 @@ public class NSGroupAccess {
    */
   public static final int DEFAULT_MIN_REFRESH_INTERVAL_FOR_SELECT = 60; //seconds
 
+  // Reads the fields of group members that are on other servers
+  private static final ExecutorService MEMBER_READ_EXECUTOR
+          = Executors.newFixedThreadPool(Config.getGlobalInt(GNSC.GROUP_MEMBER_READ_CONCURRENCY),
+                  new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread thread = Executors.defaultThreadFactory().newThread(r);
+              thread.setName(NSGroupAccess.class.getSimpleName() + thread.getName());
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+
   /**
    * Return the members of a the group guid.
    *
@@ -287,7 +312,8 @@ public class NSGroupAccess {
 
   /**
    * Returns the values of a field in a set of guids contained in a group guid.
-   * The result is return as an array of values.
+   * The result is return as an array of values. Waits at most
+   * GROUP_MEMBER_READ_TIMEOUT for the members on other servers.
    *
    * @param header
    * @param groupGuid
@@ -299,14 +325,88 @@ public class NSGroupAccess {
    */
   public static ValuesMap lookupFieldInGroupGuid(InternalRequestHeader header, String groupGuid, String field,
           GNSApplicationInterface<String> gnsApp) throws FailedDBOperationException, JSONException {
+    return lookupFieldInGroupGuid(header, groupGuid, field,
+            Config.getGlobalInt(GNSC.GROUP_MEMBER_READ_TIMEOUT), gnsApp);
+  }
+
+  /**
+   * Returns the values of a field in a set of guids contained in a group guid.
+   * The result is return as an array of values in the order of the members.
+   *
+   * Members on this server are read from the database. The other members
+   * are read concurrently (at most GROUP_MEMBER_READ_CONCURRENCY reads
+   * at a time for all groups). If {@code timeoutInMillis} is positive the
+   * values of members that haven't been read by then are left out of the
+   * result.
+   *
+   * @param header
+   * @param groupGuid
+   * @param field
+   * @param timeoutInMillis the time to wait for the members or 0 to wait for all of them
+   * @param gnsApp
+   * @return a ValuesMap containing the field with an array of the values
+   * @throws FailedDBOperationException
+   * @throws JSONException
+   */
+  public static ValuesMap lookupFieldInGroupGuid(final InternalRequestHeader header, String groupGuid,
+          final String field, long timeoutInMillis, final GNSApplicationInterface<String> gnsApp)
+          throws FailedDBOperationException, JSONException {
+    long deadline = System.currentTimeMillis() + timeoutInMillis;
+    ResultValue members = lookupMembers(header, groupGuid, false, gnsApp.getRequestHandler());
+    // Holds the ValuesMap of local members and the Future of remote ones
+    List<Object> lookups = new ArrayList<>(members.size());
+    for (Object guidObject : members) {
+      final String guid = (String) guidObject;
+      ValuesMap valuesMap = NSFieldAccess.lookupJSONFieldLocally(null, guid, field, gnsApp);
+      if (valuesMap == null && !gnsApp.getDB().containsName(guid)) {
+        lookups.add(MEMBER_READ_EXECUTOR.submit(new Callable<ValuesMap>() {
+          @Override
+          public ValuesMap call() {
+            return NSFieldAccess.lookupJSONFieldRemotely(header, guid, field, gnsApp);
+          }
+        }));
+      } else {
+        lookups.add(valuesMap);
+      }
+    }
     JSONArray resultArray = new JSONArray();
-    for (Object guidObject : lookupMembers(header, groupGuid, false, gnsApp.getRequestHandler())) {
-      String guid = (String) guidObject;
-      ValuesMap valuesMap = NSFieldAccess.lookupJSONFieldAnywhere(header, guid, field, gnsApp);
+    boolean timedOut = false;
+    for (Object lookup : lookups) {
+      ValuesMap valuesMap = null;
+      if (lookup instanceof Future) {
+        @SuppressWarnings("unchecked")
+        Future<ValuesMap> future = (Future<ValuesMap>) lookup;
+        if (timedOut) {
+          future.cancel(true);
+          continue;
+        }
+        try {
+          valuesMap = timeoutInMillis > 0
+                  ? future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)
+                  : future.get();
+        } catch (TimeoutException e) {
+          timedOut = true;
+          future.cancel(true);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          timedOut = true;
+          future.cancel(true);
+        } catch (ExecutionException e) {
+          ClientSupportConfig.getLogger().log(Level.SEVERE,
+                  "Problem reading {0} of a member of {1}: {2}", new Object[]{field, groupGuid, e.getCause()});
+        }
+      } else {
+        valuesMap = (ValuesMap) lookup;
+      }
       if (valuesMap != null && valuesMap.has(field)) {
         resultArray.put(valuesMap.get(field));
       }
     }
+    if (timedOut) {
+      ClientSupportConfig.getLogger().log(Level.INFO,
+              "Partial group result for {0}/{1}: {2} of {3} members read",
+              new Object[]{groupGuid, field, resultArray.length(), members.size()});
+    }
     ClientSupportConfig.getLogger().log(Level.FINE,
             "Group result for {0}/{1} = {2}",
             new Object[]{groupGuid, field, resultArray.toString()});
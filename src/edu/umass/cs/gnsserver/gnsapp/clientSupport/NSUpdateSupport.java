@@ -16,7 +16,9 @@ import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
 import edu.umass.cs.gnscommon.packets.CommandPacket;
 import edu.umass.cs.gnsserver.activecode.ActiveCodeHandler;
 import edu.umass.cs.gnsserver.database.ColumnFieldType;
+import edu.umass.cs.gnsserver.gnamed.GnsAnswerCache;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.ActiveCode;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.AccountAccess;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.InternalField;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.MetaDataTypeName;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.UpdateOperation;
@@ -180,6 +182,16 @@ public class NSUpdateSupport {
     }
     // Apply updateEntireValuesMap to record in the database
     nameRecord.updateNameRecord(field, updateValue, oldValue, argument, newValue, operation);
+    // Every replica executes this so it is where we catch public key changes
+    if (AccountAccess.GUID_INFO.equals(field)
+            || (field == null && newValue != null && newValue.has(AccountAccess.GUID_INFO))) {
+      AccountAccess.invalidateGuidInfo(guid);
+    }
+    // and changes to what the DNS service answers for the guid
+    if (field != null ? (GnsAnswerCache.isDnsField(field) || ActiveCode.ON_READ.equals(field))
+            : (newValue != null && (GnsAnswerCache.hasDnsField(newValue) || newValue.has(ActiveCode.ON_READ)))) {
+      GnsAnswerCache.invalidateGuid(guid);
+    }
     // This is for MOB-893 - logging updates
     writeUpdateLog(guid, field, updateValue, newValue, operation);
   }
@@ -0,0 +1,93 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.clientSupport;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import edu.umass.cs.gnscommon.SharedGuidUtils;
+import edu.umass.cs.gnsserver.main.GNSConfig.GNSC;
+import edu.umass.cs.utils.Config;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Memoizes the guids of the public keys that appear in ACLs.
+ *
+ * The guid of a public key is the SHA-1 hash of the key (see
+ * {@link SharedGuidUtils#createGuidStringFromBase64PublicKey}) and ACLs
+ * hold public keys, so without this every access check would hash every
+ * key in the ACL. The mapping never changes so entries are only evicted
+ * when the table is full.
+ *
+ * @author westy
+ */
+public class PublicKeyGuids {
+
+  // Marks keys that aren't valid base64 so that we don't try them again
+  private static final String BOGUS_KEY = "";
+
+  private static final Cache<String, String> GUIDS
+          = CacheBuilder.newBuilder().concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
+          .maximumSize(Config.getGlobalInt(GNSC.PUBLIC_KEY_GUID_CACHE_SIZE)).build();
+
+  /**
+   * Returns the guid of a base64 encoded public key or null if it isn't one.
+   *
+   * @param publicKey
+   * @return a guid string or null
+   */
+  public static String getGuid(String publicKey) {
+    String guid = GUIDS.getIfPresent(publicKey);
+    if (guid == null) {
+      try {
+        guid = SharedGuidUtils.createGuidStringFromBase64PublicKey(publicKey);
+      } catch (IllegalArgumentException e) {
+        guid = BOGUS_KEY;
+      }
+      GUIDS.put(publicKey, guid);
+    }
+    return BOGUS_KEY.equals(guid) ? null : guid;
+  }
+
+  /**
+   * Returns a map from guid to public key for the public keys in an ACL.
+   * Bogus keys are ignored.
+   *
+   * @param publicKeys
+   * @return an unmodifiable map
+   */
+  public static Map<String, String> mapGuidsToPublicKeys(Collection<String> publicKeys) {
+    if (publicKeys.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    Map<String, String> result = new HashMap<>(publicKeys.size() * 2);
+    for (String publicKey : publicKeys) {
+      String guid = getGuid(publicKey);
+      if (guid != null) {
+        result.put(guid, publicKey);
+      }
+    }
+    return Collections.unmodifiableMap(result);
+  }
+}
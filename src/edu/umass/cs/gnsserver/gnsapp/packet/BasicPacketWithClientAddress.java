@@ -93,4 +93,14 @@ public BasicPacketWithClientAddress setResponse(ClientRequest response) {
     return clientAddress;
   }
 
+  /**
+   * Sets the address from which this packet originated. Used when decoding
+   * packets that weren't sent as JSON.
+   *
+   * @param clientAddress
+   */
+  protected void setClientAddress(InetSocketAddress clientAddress) {
+    this.clientAddress = clientAddress;
+  }
+
 }
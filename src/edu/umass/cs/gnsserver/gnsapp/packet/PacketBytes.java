@@ -0,0 +1,178 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.packet;
+
+import edu.umass.cs.gnsclient.client.GNSClientConfig;
+import edu.umass.cs.nio.MessageNIOTransport;
+import edu.umass.cs.reconfiguration.reconfigurationutils.RequestParseException;
+import edu.umass.cs.utils.Config;
+
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Helpers for the versioned byte forms of packets.
+ *
+ * Every byte form starts with the packet type as an int followed by a
+ * version byte. Strings are written as an int length followed by UTF-8
+ * bytes, with length -1 for null. Addresses are written as the host string
+ * followed by the port as an int.
+ *
+ * @author westy
+ */
+public class PacketBytes {
+
+  /**
+   * True if packets should be sent in their byte form. Only used at the
+   * sender; receivers handle both the byte and JSON forms.
+   */
+  public static final boolean SEND_BYTES = Config.getGlobalInt(
+          GNSClientConfig.GNSCC.BYTE_MODE) != 0;
+
+  /**
+   * Encodes a string as UTF-8.
+   *
+   * @param string
+   * @return the bytes or null if string is null
+   * @throws UnsupportedEncodingException
+   */
+  public static byte[] encode(String string) throws UnsupportedEncodingException {
+    return string != null ? string.getBytes(MessageNIOTransport.NIO_CHARSET_ENCODING) : null;
+  }
+
+  /**
+   * Returns the number of bytes {@link #putBytes} will write.
+   *
+   * @param bytes
+   * @return the size
+   */
+  public static int sizeOf(byte[] bytes) {
+    return Integer.BYTES + (bytes != null ? bytes.length : 0);
+  }
+
+  /**
+   * Writes the length of the bytes followed by the bytes, or -1 if bytes is null.
+   *
+   * @param buf
+   * @param bytes
+   */
+  public static void putBytes(ByteBuffer buf, byte[] bytes) {
+    if (bytes == null) {
+      buf.putInt(-1);
+    } else {
+      buf.putInt(bytes.length).put(bytes);
+    }
+  }
+
+  /**
+   * Reads a string written by {@link #putBytes}. Decodes straight from the
+   * backing array to avoid copying the bytes first.
+   *
+   * @param buf
+   * @return the string or null
+   * @throws UnsupportedEncodingException
+   */
+  public static String getString(ByteBuffer buf)
+          throws UnsupportedEncodingException {
+    int length = buf.getInt();
+    if (length < 0) {
+      return null;
+    }
+    if (length > buf.remaining()) {
+      throw new BufferUnderflowException();
+    }
+    String string;
+    if (buf.hasArray()) {
+      string = new String(buf.array(), buf.arrayOffset() + buf.position(), length,
+              MessageNIOTransport.NIO_CHARSET_ENCODING);
+      buf.position(buf.position() + length);
+    } else {
+      byte[] bytes = new byte[length];
+      buf.get(bytes);
+      string = new String(bytes, MessageNIOTransport.NIO_CHARSET_ENCODING);
+    }
+    return string;
+  }
+
+  /**
+   * Encodes the host string of an address.
+   *
+   * @param address
+   * @return the bytes or null if address is null
+   * @throws UnsupportedEncodingException
+   */
+  public static byte[] encodeHost(InetSocketAddress address) throws UnsupportedEncodingException {
+    return address != null ? encode(address.getHostString()) : null;
+  }
+
+  /**
+   * Returns the number of bytes {@link #putAddress} will write.
+   *
+   * @param hostBytes
+   * @return the size
+   */
+  public static int sizeOfAddress(byte[] hostBytes) {
+    return sizeOf(hostBytes) + Integer.BYTES;
+  }
+
+  /**
+   * Writes an address given the bytes from {@link #encodeHost}.
+   *
+   * @param buf
+   * @param hostBytes
+   * @param address
+   */
+  public static void putAddress(ByteBuffer buf, byte[] hostBytes, InetSocketAddress address) {
+    putBytes(buf, hostBytes);
+    buf.putInt(address != null ? address.getPort() : -1);
+  }
+
+  /**
+   * Reads an address written by {@link #putAddress}.
+   *
+   * @param buf
+   * @return the address or null
+   * @throws UnsupportedEncodingException
+   */
+  public static InetSocketAddress getAddress(ByteBuffer buf) throws UnsupportedEncodingException {
+    String host = getString(buf);
+    int port = buf.getInt();
+    return host != null && port != -1 ? new InetSocketAddress(host, port) : null;
+  }
+
+  /**
+   * Reads the version byte and rejects versions other than {@code expected}.
+   *
+   * @param buf
+   * @param expected
+   * @param type
+   * @throws RequestParseException
+   */
+  public static void checkVersion(ByteBuffer buf, byte expected, Packet.PacketType type)
+          throws RequestParseException {
+    byte version = buf.get();
+    if (version != expected) {
+      throw new RequestParseException(new RuntimeException(
+              "Unsupported " + type + " version " + version));
+    }
+  }
+}
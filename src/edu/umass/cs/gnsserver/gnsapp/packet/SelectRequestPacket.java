@@ -22,7 +22,18 @@ package edu.umass.cs.gnsserver.gnsapp.packet;
 import edu.umass.cs.gigapaxos.interfaces.ClientRequest;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.ShaOneHashFunction;
 import edu.umass.cs.gnscommon.utils.Base64;
-
+import edu.umass.cs.nio.MessageNIOTransport;
+import edu.umass.cs.nio.interfaces.Byteable;
+import edu.umass.cs.reconfiguration.reconfigurationutils.RequestParseException;
+
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -35,7 +46,7 @@ import org.json.JSONObject;
  */
 @SuppressWarnings("deprecation")
 public class SelectRequestPacket extends BasicPacketWithNSReturnAddress
-        implements ClientRequest {
+        implements ClientRequest, Byteable {
 
   private final static String ID = "id";
   private final static String KEY = "key";
@@ -49,6 +60,9 @@ public class SelectRequestPacket extends BasicPacketWithNSReturnAddress
   private final static String GROUP_BEHAVIOR = "group";
   private final static String GUID = "guid";
   private final static String REFRESH = "refresh";
+  private final static String CURSOR = "cursor";
+  private final static String PAGE_SIZE = "pageSize";
+  private final static String PROJECTION = "projection";
   
   //
   private long requestId;
@@ -64,6 +78,10 @@ public class SelectRequestPacket extends BasicPacketWithNSReturnAddress
   // for group guid
   private String guid; // the group GUID we are maintaning or null for simple select
   private int minRefreshInterval; // minimum time between allowed refreshes of the guid
+  // for paged selects
+  private String cursor; // the last guid of the previous page or null for the first page
+  private int pageSize = -1; // -1 means return everything in one response
+  private List<String> projection; // the user fields to return or null for entire records
 
   /**
    * Constructs a new SelectRequestPacket
@@ -133,6 +151,42 @@ public class SelectRequestPacket extends BasicPacketWithNSReturnAddress
              SelectGroupBehavior.NONE, reader, query, null, -1);
   }
 
+  /**
+   * Creates a request to search all name servers for one page of the GUIDs
+   * that match the given query. Pages are in GUID order.
+   *
+   * @param id
+   * @param reader
+   * @param query
+   * @param cursor the last GUID of the previous page or null for the first page
+   * @param pageSize the maximum number of GUIDs in the page
+   * @return a SelectRequestPacket
+   */
+  public static SelectRequestPacket MakePagedQueryRequest(long id, String reader, String query,
+          String cursor, int pageSize) {
+    SelectRequestPacket packet = MakeQueryRequest(id, reader, query);
+    packet.cursor = cursor;
+    packet.pageSize = pageSize;
+    return packet;
+  }
+
+  /**
+   * Creates a request to search all name servers for GUIDs that match the given query
+   * that also returns the given fields of each of them.
+   *
+   * @param id
+   * @param reader
+   * @param query
+   * @param fields the fields to return
+   * @return a SelectRequestPacket
+   */
+  public static SelectRequestPacket MakeQueryWithFieldsRequest(long id, String reader, String query,
+          List<String> fields) {
+    SelectRequestPacket packet = MakeQueryRequest(id, reader, query);
+    packet.projection = fields;
+    return packet;
+  }
+
   /**
    * Just like a MakeQueryRequest except we're creating a new group guid to maintain results.
    * Creates a request to search all name servers for GUIDs that match the given query.
@@ -190,6 +244,15 @@ public class SelectRequestPacket extends BasicPacketWithNSReturnAddress
     this.groupBehavior = SelectGroupBehavior.valueOf(json.getString(GROUP_BEHAVIOR));
     this.guid = json.optString(GUID, null);
     this.minRefreshInterval = json.optInt(REFRESH, -1);
+    this.cursor = json.optString(CURSOR, null);
+    this.pageSize = json.optInt(PAGE_SIZE, -1);
+    JSONArray fields = json.optJSONArray(PROJECTION);
+    if (fields != null) {
+      this.projection = new ArrayList<>(fields.length());
+      for (int i = 0; i < fields.length(); i++) {
+        this.projection.add(fields.getString(i));
+      }
+    }
   }
 
   /**
@@ -236,6 +299,164 @@ public class SelectRequestPacket extends BasicPacketWithNSReturnAddress
     if (minRefreshInterval != -1) {
       json.put(REFRESH, minRefreshInterval);
     }
+    if (cursor != null) {
+      json.put(CURSOR, cursor);
+    }
+    if (pageSize != -1) {
+      json.put(PAGE_SIZE, pageSize);
+    }
+    if (projection != null) {
+      json.put(PROJECTION, new JSONArray(projection));
+    }
+  }
+
+  /**
+   * Version of the byte format written by {@link #toBinaryBytes()}. Bump this
+   * whenever the layout changes.
+   */
+  private static final byte BYTES_VERSION = 1;
+
+  /**
+   * Converts the SelectRequestPacket to bytes. Unless BYTE_MODE is set this is
+   * just the JSON form.
+   *
+   * @return Refer {@link Byteable#toBytes()}
+   */
+  @Override
+  public byte[] toBytes() {
+    if (PacketBytes.SEND_BYTES) {
+      return toBinaryBytes();
+    }
+    try {
+      return this.toJSONObject().toString()
+              .getBytes(MessageNIOTransport.NIO_CHARSET_ENCODING);
+    } catch (JSONException | UnsupportedEncodingException e) {
+      throw new RuntimeException("Unable to byteify " + this, e);
+    }
+  }
+
+  /**
+   * Converts the SelectRequestPacket to its byte form regardless of BYTE_MODE.
+   *
+   * The byte form is:
+   * packet type - int
+   * version - byte
+   * requestId - long
+   * ccpQueryId, nsQueryId - int
+   * selectOperation, groupBehavior - enum names
+   * reader, key, value, otherValue, query, guid - strings
+   * minRefreshInterval - int
+   * cursor - string
+   * pageSize - int
+   * projection - int count, -1 for null, followed by the strings
+   * clientAddress, nsReturnAddress - addresses
+   *
+   * Strings and addresses are written as described in {@link PacketBytes}.
+   * Like the JSON form, value and otherValue are sent as strings.
+   *
+   * @return the bytes
+   */
+  public byte[] toBinaryBytes() {
+    try {
+      byte[][] strings = {
+        PacketBytes.encode(selectOperation.name()),
+        PacketBytes.encode(groupBehavior.name()),
+        PacketBytes.encode(reader),
+        PacketBytes.encode(key),
+        PacketBytes.encode(value != null ? value.toString() : null),
+        PacketBytes.encode(otherValue != null ? otherValue.toString() : null),
+        PacketBytes.encode(query),
+        PacketBytes.encode(guid)};
+      byte[] cursorBytes = PacketBytes.encode(cursor);
+      byte[][] projectionBytes = null;
+      int size = Integer.BYTES + 1 + Long.BYTES + 2 * Integer.BYTES
+              // minRefreshInterval, pageSize, projection count
+              + 3 * Integer.BYTES + PacketBytes.sizeOf(cursorBytes);
+      for (byte[] bytes : strings) {
+        size += PacketBytes.sizeOf(bytes);
+      }
+      if (projection != null) {
+        projectionBytes = new byte[projection.size()][];
+        for (int i = 0; i < projectionBytes.length; i++) {
+          projectionBytes[i] = PacketBytes.encode(projection.get(i));
+          size += PacketBytes.sizeOf(projectionBytes[i]);
+        }
+      }
+      byte[] clientHost = PacketBytes.encodeHost(getClientAddress());
+      byte[] nsReturnHost = PacketBytes.encodeHost(getNSReturnAddress());
+      size += PacketBytes.sizeOfAddress(clientHost) + PacketBytes.sizeOfAddress(nsReturnHost);
+
+      ByteBuffer buf = ByteBuffer.allocate(size);
+      buf.putInt(getType().getInt())
+              .put(BYTES_VERSION)
+              .putLong(requestId)
+              .putInt(ccpQueryId)
+              .putInt(nsQueryId);
+      for (byte[] bytes : strings) {
+        PacketBytes.putBytes(buf, bytes);
+      }
+      buf.putInt(minRefreshInterval);
+      PacketBytes.putBytes(buf, cursorBytes);
+      buf.putInt(pageSize);
+      if (projectionBytes == null) {
+        buf.putInt(-1);
+      } else {
+        buf.putInt(projectionBytes.length);
+        for (byte[] bytes : projectionBytes) {
+          PacketBytes.putBytes(buf, bytes);
+        }
+      }
+      PacketBytes.putAddress(buf, clientHost, getClientAddress());
+      PacketBytes.putAddress(buf, nsReturnHost, getNSReturnAddress());
+      return buf.array();
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException("Unable to byteify " + this, e);
+    }
+  }
+
+  /**
+   * Reconstructs a SelectRequestPacket from the bytes created by
+   * {@link #toBinaryBytes()}. The buffer is positioned just after the packet type.
+   *
+   * @param buf
+   * @param sender the address the bytes came from, used as the client address
+   * if the packet doesn't have one
+   * @return a SelectRequestPacket
+   * @throws RequestParseException
+   */
+  public static SelectRequestPacket fromBytes(ByteBuffer buf, InetSocketAddress sender)
+          throws RequestParseException {
+    PacketBytes.checkVersion(buf, BYTES_VERSION, Packet.PacketType.SELECT_REQUEST);
+    try {
+      long requestId = buf.getLong();
+      int ccpQueryId = buf.getInt();
+      int nsQueryId = buf.getInt();
+      SelectOperation selectOperation = SelectOperation.valueOf(PacketBytes.getString(buf));
+      SelectGroupBehavior groupBehavior = SelectGroupBehavior.valueOf(PacketBytes.getString(buf));
+      String reader = PacketBytes.getString(buf);
+      SelectRequestPacket packet = new SelectRequestPacket(requestId, selectOperation, groupBehavior,
+              reader, PacketBytes.getString(buf), PacketBytes.getString(buf), PacketBytes.getString(buf));
+      packet.ccpQueryId = ccpQueryId;
+      packet.nsQueryId = nsQueryId;
+      packet.query = PacketBytes.getString(buf);
+      packet.guid = PacketBytes.getString(buf);
+      packet.minRefreshInterval = buf.getInt();
+      packet.cursor = PacketBytes.getString(buf);
+      packet.pageSize = buf.getInt();
+      int fields = buf.getInt();
+      if (fields >= 0) {
+        packet.projection = new ArrayList<>(Math.min(fields, buf.remaining() / Integer.BYTES));
+        for (int i = 0; i < fields; i++) {
+          packet.projection.add(PacketBytes.getString(buf));
+        }
+      }
+      InetSocketAddress clientAddress = PacketBytes.getAddress(buf);
+      packet.setClientAddress(clientAddress != null ? clientAddress : sender);
+      packet.setNSReturnAddress(PacketBytes.getAddress(buf));
+      return packet;
+    } catch (UnsupportedEncodingException | BufferUnderflowException | IllegalArgumentException e) {
+      throw new RequestParseException(e);
+    }
   }
 
   /**
@@ -399,6 +620,61 @@ public class SelectRequestPacket extends BasicPacketWithNSReturnAddress
     return minRefreshInterval;
   }
 
+  /**
+   * Return the last guid of the previous page.
+   *
+   * @return the cursor or null for the first page
+   */
+  public String getCursor() {
+    return cursor;
+  }
+
+  /**
+   * Return the page size.
+   *
+   * @return the page size or -1 if the select isn't paged
+   */
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  /**
+   * Set the page size.
+   *
+   * @param pageSize
+   */
+  public void setPageSize(int pageSize) {
+    this.pageSize = pageSize;
+  }
+
+  /**
+   * Return the user fields that name servers return for each record.
+   * An empty list means only the guids.
+   *
+   * @return the fields or null for entire records
+   */
+  public List<String> getProjection() {
+    return projection;
+  }
+
+  /**
+   * Set the user fields that name servers return for each record.
+   *
+   * @param projection the fields or null for entire records
+   */
+  public void setProjection(List<String> projection) {
+    this.projection = projection;
+  }
+
+  /**
+   * Returns true if this select returns one page of results.
+   *
+   * @return true if the select is paged
+   */
+  public boolean isPaged() {
+    return pageSize > 0;
+  }
+
   /**
    *
    * @return the response
@@ -20,8 +20,14 @@
 package edu.umass.cs.gnsserver.gnsapp.packet;
 
 import edu.umass.cs.gigapaxos.interfaces.ClientRequest;
+import edu.umass.cs.nio.MessageNIOTransport;
+import edu.umass.cs.nio.interfaces.Byteable;
+import edu.umass.cs.reconfiguration.reconfigurationutils.RequestParseException;
 
+import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -35,7 +41,7 @@ import org.json.JSONObject;
  */
 @SuppressWarnings("deprecation")
 public class SelectResponsePacket extends BasicPacketWithReturnAddressAndNsAddress
-        implements ClientRequest {
+        implements ClientRequest, Byteable {
 
   //
   private final static String ID = "id";
@@ -44,6 +50,7 @@ public class SelectResponsePacket extends BasicPacketWithReturnAddressAndNsAddre
   private final static String NSQUERYID = "nsQueryId";
   private final static String RESPONSECODE = "code";
   private final static String ERRORSTRING = "error";
+  private final static String CURSOR = "cursor";
   
   /**
    * The possible response codes for select packets.
@@ -66,6 +73,8 @@ public class SelectResponsePacket extends BasicPacketWithReturnAddressAndNsAddre
   private JSONArray guids;
   private ResponseCode responseCode;
   private String errorMessage;
+  // for paged selects
+  private String cursor;
 
   /*
    * Constructs a new SelectResponsePacket
@@ -122,6 +131,21 @@ public class SelectResponsePacket extends BasicPacketWithReturnAddressAndNsAddre
             null, guids, ResponseCode.NOERROR, null);
   }
 
+  /**
+   * Used by a NameServer to a send response with a list of guids and the
+   * requested fields of each of them back to the Local NameServer
+   *
+   * @param id
+   * @param guids
+   * @param fields a JSON object of the fields of each guid in the same order as the guids
+   * @return a SelectResponsePacket
+   */
+  public static SelectResponsePacket makeSuccessPacketForGuidsAndFields(long id,
+          JSONArray guids, JSONArray fields) {
+    return new SelectResponsePacket(id, null, -1, null,
+            fields, guids, ResponseCode.NOERROR, null);
+  }
+
   /**
    * Used by a NameServer to a failure response to a NameServer or Local NameServer
    *
@@ -159,6 +183,7 @@ public class SelectResponsePacket extends BasicPacketWithReturnAddressAndNsAddre
     this.records = json.optJSONArray(RECORDS);
     this.guids = json.optJSONArray(GUIDS);
     this.errorMessage = json.optString(ERRORSTRING, null);
+    this.cursor = json.optString(CURSOR, null);
 
   }
 
@@ -187,9 +212,150 @@ public class SelectResponsePacket extends BasicPacketWithReturnAddressAndNsAddre
     if (errorMessage != null) {
       json.put(ERRORSTRING, errorMessage);
     }
+    if (cursor != null) {
+      json.put(CURSOR, cursor);
+    }
     return json;
   }
 
+  /**
+   * Version of the byte format written by {@link #toBinaryBytes()}. Bump this
+   * whenever the layout changes.
+   */
+  private static final byte BYTES_VERSION = 1;
+
+  /**
+   * Converts the SelectResponsePacket to bytes. Unless BYTE_MODE is set this is
+   * just the JSON form.
+   *
+   * @return Refer {@link Byteable#toBytes()}
+   */
+  @Override
+  public byte[] toBytes() {
+    if (PacketBytes.SEND_BYTES) {
+      return toBinaryBytes();
+    }
+    try {
+      return this.toJSONObject().toString()
+              .getBytes(MessageNIOTransport.NIO_CHARSET_ENCODING);
+    } catch (JSONException | UnsupportedEncodingException e) {
+      throw new RuntimeException("Unable to byteify " + this, e);
+    }
+  }
+
+  /**
+   * Converts the SelectResponsePacket to its byte form regardless of BYTE_MODE.
+   *
+   * The byte form is:
+   * packet type - int
+   * version - byte
+   * requestId - long
+   * nsQueryId - int
+   * responseCode - enum name
+   * guids - int count, -1 for null, followed by the guid strings
+   * records - the JSON string of the records
+   * errorMessage, cursor - strings
+   * returnAddress, nsAddress, clientAddress - addresses
+   *
+   * Strings and addresses are written as described in {@link PacketBytes}.
+   * The records are full JSON records so they stay JSON.
+   *
+   * @return the bytes
+   */
+  public byte[] toBinaryBytes() {
+    try {
+      byte[] responseCodeBytes = PacketBytes.encode(responseCode.name());
+      byte[][] guidBytes = null;
+      int size = Integer.BYTES + 1 + Long.BYTES + Integer.BYTES
+              + PacketBytes.sizeOf(responseCodeBytes)
+              // guid count
+              + Integer.BYTES;
+      if (guids != null) {
+        guidBytes = new byte[guids.length()][];
+        for (int i = 0; i < guidBytes.length; i++) {
+          guidBytes[i] = PacketBytes.encode(String.valueOf(guids.get(i)));
+          size += PacketBytes.sizeOf(guidBytes[i]);
+        }
+      }
+      byte[] recordsBytes = PacketBytes.encode(records != null ? records.toString() : null);
+      byte[] errorMessageBytes = PacketBytes.encode(errorMessage);
+      byte[] cursorBytes = PacketBytes.encode(cursor);
+      byte[] returnHost = PacketBytes.encodeHost(getReturnAddress());
+      byte[] nsHost = PacketBytes.encodeHost(getNSAddress());
+      byte[] clientHost = PacketBytes.encodeHost(getClientAddress());
+      size += PacketBytes.sizeOf(recordsBytes) + PacketBytes.sizeOf(errorMessageBytes)
+              + PacketBytes.sizeOf(cursorBytes) + PacketBytes.sizeOfAddress(returnHost)
+              + PacketBytes.sizeOfAddress(nsHost) + PacketBytes.sizeOfAddress(clientHost);
+
+      ByteBuffer buf = ByteBuffer.allocate(size);
+      buf.putInt(getType().getInt())
+              .put(BYTES_VERSION)
+              .putLong(requestId)
+              .putInt(nsQueryId);
+      PacketBytes.putBytes(buf, responseCodeBytes);
+      if (guidBytes == null) {
+        buf.putInt(-1);
+      } else {
+        buf.putInt(guidBytes.length);
+        for (byte[] bytes : guidBytes) {
+          PacketBytes.putBytes(buf, bytes);
+        }
+      }
+      PacketBytes.putBytes(buf, recordsBytes);
+      PacketBytes.putBytes(buf, errorMessageBytes);
+      PacketBytes.putBytes(buf, cursorBytes);
+      PacketBytes.putAddress(buf, returnHost, getReturnAddress());
+      PacketBytes.putAddress(buf, nsHost, getNSAddress());
+      PacketBytes.putAddress(buf, clientHost, getClientAddress());
+      return buf.array();
+    } catch (JSONException | UnsupportedEncodingException e) {
+      throw new RuntimeException("Unable to byteify " + this, e);
+    }
+  }
+
+  /**
+   * Reconstructs a SelectResponsePacket from the bytes created by
+   * {@link #toBinaryBytes()}. The buffer is positioned just after the packet type.
+   *
+   * @param buf
+   * @param sender the address the bytes came from, used as the client address
+   * if the packet doesn't have one
+   * @return a SelectResponsePacket
+   * @throws RequestParseException
+   */
+  public static SelectResponsePacket fromBytes(ByteBuffer buf, InetSocketAddress sender)
+          throws RequestParseException {
+    PacketBytes.checkVersion(buf, BYTES_VERSION, Packet.PacketType.SELECT_RESPONSE);
+    try {
+      long requestId = buf.getLong();
+      int nsQueryId = buf.getInt();
+      ResponseCode responseCode = ResponseCode.valueOf(PacketBytes.getString(buf));
+      JSONArray guids = null;
+      int count = buf.getInt();
+      if (count >= 0) {
+        guids = new JSONArray();
+        for (int i = 0; i < count; i++) {
+          guids.put(PacketBytes.getString(buf));
+        }
+      }
+      String recordsString = PacketBytes.getString(buf);
+      JSONArray records = recordsString != null ? new JSONArray(recordsString) : null;
+      String errorMessage = PacketBytes.getString(buf);
+      String cursor = PacketBytes.getString(buf);
+      InetSocketAddress returnAddress = PacketBytes.getAddress(buf);
+      InetSocketAddress nsAddress = PacketBytes.getAddress(buf);
+      InetSocketAddress clientAddress = PacketBytes.getAddress(buf);
+      SelectResponsePacket packet = new SelectResponsePacket(requestId, returnAddress, nsQueryId,
+              nsAddress, records, guids, responseCode, errorMessage);
+      packet.cursor = cursor;
+      packet.setClientAddress(clientAddress != null ? clientAddress : sender);
+      return packet;
+    } catch (JSONException | UnsupportedEncodingException | BufferUnderflowException
+            | IllegalArgumentException e) {
+      throw new RequestParseException(e);
+    }
+  }
+
   /**
    * Return the requestId.
    *
@@ -244,6 +410,27 @@ public class SelectResponsePacket extends BasicPacketWithReturnAddressAndNsAddre
     return errorMessage;
   }
 
+  /**
+   * Return the cursor of a paged select. In a response from a name server
+   * this is the last guid it read if it read a full page, in a response to
+   * the client it is the cursor for the next page. Null if there are no
+   * more records.
+   *
+   * @return the cursor or null
+   */
+  public String getCursor() {
+    return cursor;
+  }
+
+  /**
+   * Set the cursor of a paged select.
+   *
+   * @param cursor
+   */
+  public void setCursor(String cursor) {
+    this.cursor = cursor;
+  }
+
   /**
    *
    * @return the service name
@@ -41,7 +41,11 @@ public class AdminRequestPacket extends BasicPacketWithReturnAddress {
     /** Clear the cache. **/
     CLEARCACHE,
     /** Prints the cache. **/
-    DUMPCACHE;
+    DUMPCACHE,
+    /** Returns the command latency stats. **/
+    COMMANDSTATS,
+    /** Returns the context service trigger stats. **/
+    CNSSTATS;
   };
 
   private final static String ID = "id";
@@ -19,10 +19,106 @@
  */
 package edu.umass.cs.gnsserver.gnsapp.recordmap;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import edu.umass.cs.gnsserver.database.ColumnField;
+import edu.umass.cs.gnsserver.gnsapp.clientSupport.CompiledAcl;
+import edu.umass.cs.gnsserver.main.GNSConfig.GNSC;
+import edu.umass.cs.utils.Config;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
 /**
  *
  * @author westy
  */
 public abstract class BasicRecordMap implements RecordMapInterface {
 
+  /**
+   * Compiled field metadata of recently accessed records. Subclasses
+   * must call {@link #invalidateCompiledAcl} whenever they write metadata.
+   */
+  private final Cache<String, CompiledAcl> compiledAcls
+          = CacheBuilder.newBuilder().concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
+          .maximumSize(Config.getGlobalInt(GNSC.COMPILED_ACL_CACHE_SIZE)).build();
+
+  // Invalidation counts striped by name. A compiled acl read from the database
+  // before a concurrent metadata write of the same record sees a changed
+  // generation and doesn't get cached after the write. Writes to other
+  // records only collide when they land in the same stripe.
+  private static final int GENERATION_STRIPES = 1024;
+  private final AtomicLongArray compiledAclGenerations = new AtomicLongArray(GENERATION_STRIPES);
+
+  /**
+   * Returns the cached compiled metadata for the record or null if it isn't cached.
+   *
+   * @param name
+   * @return a CompiledAcl or null
+   */
+  public CompiledAcl getCompiledAcl(String name) {
+    return compiledAcls.getIfPresent(name);
+  }
+
+  /**
+   * Returns the current generation for the record. Callers should grab this
+   * before reading the metadata that they will pass to {@link #putCompiledAcl}.
+   *
+   * @param name
+   * @return the generation
+   */
+  public long getCompiledAclGeneration(String name) {
+    return compiledAclGenerations.get(stripe(name));
+  }
+
+  /**
+   * Caches the compiled metadata for the record if there were no invalidations
+   * of it since {@code generation}.
+   *
+   * @param name
+   * @param acl
+   * @param generation
+   */
+  public void putCompiledAcl(String name, CompiledAcl acl, long generation) {
+    int stripe = stripe(name);
+    if (compiledAclGenerations.get(stripe) == generation) {
+      compiledAcls.put(name, acl);
+      // Check again in case an invalidation snuck in before the put.
+      if (compiledAclGenerations.get(stripe) != generation) {
+        compiledAcls.invalidate(name);
+      }
+    }
+  }
+
+  /**
+   * Removes the compiled metadata for the record.
+   *
+   * @param name
+   */
+  protected void invalidateCompiledAcl(String name) {
+    compiledAclGenerations.incrementAndGet(stripe(name));
+    compiledAcls.invalidate(name);
+  }
+
+  /**
+   * Removes the compiled metadata for the record if any of {@code fields} is
+   * a metadata field.
+   *
+   * @param name
+   * @param fields
+   */
+  protected void invalidateCompiledAcl(String name, List<ColumnField> fields) {
+    for (ColumnField field : fields) {
+      if (CompiledAcl.isMetaDataField(field.getName())) {
+        invalidateCompiledAcl(name);
+        return;
+      }
+    }
+  }
+
+  private static int stripe(String name) {
+    return (name.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+  }
+
 }
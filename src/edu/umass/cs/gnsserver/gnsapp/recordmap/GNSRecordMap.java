@@ -22,6 +22,7 @@ package edu.umass.cs.gnsserver.gnsapp.recordmap;
 import edu.umass.cs.gnsserver.database.AbstractRecordCursor;
 import edu.umass.cs.gnsserver.database.ColumnField;
 import edu.umass.cs.gnsserver.database.NoSQLRecords;
+import edu.umass.cs.gnsserver.database.PageRequest;
 import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 import edu.umass.cs.gnscommon.exceptions.server.RecordExistsException;
 import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
@@ -31,7 +32,10 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 
 /**
@@ -80,6 +84,7 @@ public class GNSRecordMap<NodeIDType> extends BasicRecordMap {
     try {
       String name = json.getString(NameRecord.NAME.getName());
       records.insert(collectionName, name, json);
+      invalidateCompiledAcl(name);
       GNSConfig.getLogger().log(Level.FINER, "{0}:: Added {1} JSON: {2}",
               new Object[]{records.toString(), name, json});
     } catch (JSONException e) {
@@ -88,9 +93,40 @@ public class GNSRecordMap<NodeIDType> extends BasicRecordMap {
     }
   }
 
+  @Override
+  public void upsertRecord(JSONObject json) throws FailedDBOperationException {
+    try {
+      String name = json.getString(NameRecord.NAME.getName());
+      noSqlRecords.upsert(collectionName, name, json);
+      invalidateCompiledAcl(name);
+      GNSConfig.getLogger().log(Level.FINER, "{0}:: Upserted {1}",
+              new Object[]{noSqlRecords.toString(), name});
+    } catch (JSONException e) {
+      GNSConfig.getLogger().log(Level.SEVERE, "{0}:: Error upserting name record: {1}",
+              new Object[]{noSqlRecords.toString(), e});
+    }
+  }
+
+  @Override
+  public void bulkUpsertRecords(Map<String, JSONObject> records) throws FailedDBOperationException {
+    noSqlRecords.bulkUpsert(collectionName, records);
+    for (String name : records.keySet()) {
+      invalidateCompiledAcl(name);
+    }
+    GNSConfig.getLogger().log(Level.FINER, "{0}:: Upserted {1} records",
+            new Object[]{noSqlRecords.toString(), records.size()});
+  }
+
+  @Override
+  public Map<String, JSONObject> lookupEntireRecords(Collection<String> names)
+          throws FailedDBOperationException {
+    return noSqlRecords.lookupEntireRecords(collectionName, names);
+  }
+
   @Override
   public void removeRecord(String name) throws FailedDBOperationException {
     noSqlRecords.removeEntireRecord(collectionName, name);
+    invalidateCompiledAcl(name);
   }
 
   @Override
@@ -102,6 +138,7 @@ public class GNSRecordMap<NodeIDType> extends BasicRecordMap {
   public void updateEntireValuesMap(String name, ValuesMap valuesMap)
           throws FailedDBOperationException {
     noSqlRecords.updateEntireRecord(collectionName, name, valuesMap);
+    invalidateCompiledAcl(name);
   }
 
   @Override
@@ -109,12 +146,14 @@ public class GNSRecordMap<NodeIDType> extends BasicRecordMap {
           throws FailedDBOperationException {
     noSqlRecords.updateIndividualFields(collectionName, name,
             NameRecord.VALUES_MAP, valuesMapKeys, valuesMapValues);
+    invalidateCompiledAcl(name, valuesMapKeys);
   }
 
   @Override
   public void removeMapKeys(String name, ColumnField mapField, ArrayList<ColumnField> mapKeys)
           throws FailedDBOperationException {
     noSqlRecords.removeMapKeys(collectionName, name, mapField, mapKeys);
+    invalidateCompiledAcl(name, mapKeys);
   }
 
   @Override
@@ -142,6 +181,30 @@ public class GNSRecordMap<NodeIDType> extends BasicRecordMap {
     return noSqlRecords.selectRecordsQuery(collectionName, valuesMapField, query);
   }
 
+  @Override
+  public AbstractRecordCursor selectRecords(ColumnField valuesMapField, String key, Object value,
+          PageRequest page, List<String> projection) throws FailedDBOperationException {
+    return noSqlRecords.selectRecords(collectionName, valuesMapField, key, value, page, projection);
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecordsWithin(ColumnField valuesMapField, String key, String value,
+          PageRequest page, List<String> projection) throws FailedDBOperationException {
+    return noSqlRecords.selectRecordsWithin(collectionName, valuesMapField, key, value, page, projection);
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecordsNear(ColumnField valuesMapField, String key, String value, Double maxDistance,
+          PageRequest page, List<String> projection) throws FailedDBOperationException {
+    return noSqlRecords.selectRecordsNear(collectionName, valuesMapField, key, value, maxDistance, page, projection);
+  }
+
+  @Override
+  public AbstractRecordCursor selectRecordsQuery(ColumnField valuesMapField, String query,
+          PageRequest page, List<String> projection) throws FailedDBOperationException {
+    return noSqlRecords.selectRecordsQuery(collectionName, valuesMapField, query, page, projection);
+  }
+
   @Override
   public String toString() {
     return "MongoRecordMap{" + "collectionName=" + collectionName + ", records=" + noSqlRecords + '}';
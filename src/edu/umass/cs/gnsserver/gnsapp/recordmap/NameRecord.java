@@ -24,6 +24,7 @@ import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.Updat
 import edu.umass.cs.gnsserver.database.AbstractRecordCursor;
 import edu.umass.cs.gnsserver.database.ColumnField;
 import edu.umass.cs.gnsserver.database.ColumnFieldType;
+import edu.umass.cs.gnsserver.database.PageRequest;
 import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 import edu.umass.cs.gnscommon.exceptions.server.FieldNotFoundException;
 import edu.umass.cs.gnscommon.exceptions.server.RecordExistsException;
@@ -37,6 +38,7 @@ import org.json.JSONObject;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.logging.Level;
 
 /**
@@ -401,6 +403,19 @@ public class NameRecord implements Comparable<NameRecord>, Summarizable {
     recordMap.addRecord(record.toJSONObject());
   }
 
+  /**
+   * Add this name record to DB or replace the one that is there.
+   * The record must not be used afterwards.
+   *
+   * @param recordMap
+   * @param record
+   * @throws org.json.JSONException
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  public static void upsertNameRecord(BasicRecordMap recordMap, NameRecord record) throws JSONException, FailedDBOperationException {
+    recordMap.upsertRecord(record.toJSONObject());
+  }
+
   /**
    * Remove name record from DB
    *
@@ -477,6 +492,78 @@ public class NameRecord implements Comparable<NameRecord>, Summarizable {
     return recordMap.selectRecordsQuery(NameRecord.VALUES_MAP, query);
   }
 
+  /**
+   * Like {@link #selectRecords(BasicRecordMap, String, Object)} but only
+   * returns the records in the given page in name order and only the
+   * given fields of them.
+   *
+   * @param recordMap
+   * @param key
+   * @param value
+   * @param page the page to return or null for all the records
+   * @param projection the user fields to return or null for entire records
+   * @return an {@link AbstractRecordCursor}
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  public static AbstractRecordCursor selectRecords(BasicRecordMap recordMap, String key, Object value,
+          PageRequest page, List<String> projection) throws FailedDBOperationException {
+    return recordMap.selectRecords(NameRecord.VALUES_MAP, key, value, page, projection);
+  }
+
+  /**
+   * Like {@link #selectRecordsWithin(BasicRecordMap, String, String)} but only
+   * returns the records in the given page in name order and only the
+   * given fields of them.
+   *
+   * @param recordMap
+   * @param key
+   * @param value - a string that looks like this: [[LONG_UL, LAT_UL],[LONG_BR, LAT_BR]]
+   * @param page the page to return or null for all the records
+   * @param projection the user fields to return or null for entire records
+   * @return an {@link AbstractRecordCursor}
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  public static AbstractRecordCursor selectRecordsWithin(BasicRecordMap recordMap, String key, String value,
+          PageRequest page, List<String> projection) throws FailedDBOperationException {
+    return recordMap.selectRecordsWithin(NameRecord.VALUES_MAP, key, value, page, projection);
+  }
+
+  /**
+   * Like {@link #selectRecordsNear(BasicRecordMap, String, String, Double)} but only
+   * returns the records in the given page in name order and only the
+   * given fields of them.
+   *
+   * @param recordMap
+   * @param key
+   * @param value - a string that looks like this: [LONG, LAT]
+   * @param maxDistance - the distance in meters
+   * @param page the page to return or null for all the records
+   * @param projection the user fields to return or null for entire records
+   * @return an {@link AbstractRecordCursor}
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  public static AbstractRecordCursor selectRecordsNear(BasicRecordMap recordMap, String key, String value,
+          Double maxDistance, PageRequest page, List<String> projection) throws FailedDBOperationException {
+    return recordMap.selectRecordsNear(NameRecord.VALUES_MAP, key, value, maxDistance, page, projection);
+  }
+
+  /**
+   * Like {@link #selectRecordsQuery(BasicRecordMap, String)} but only
+   * returns the records in the given page in name order and only the
+   * given fields of them.
+   *
+   * @param recordMap
+   * @param query
+   * @param page the page to return or null for all the records
+   * @param projection the user fields to return or null for entire records
+   * @return an {@link AbstractRecordCursor}
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  public static AbstractRecordCursor selectRecordsQuery(BasicRecordMap recordMap, String query,
+          PageRequest page, List<String> projection) throws FailedDBOperationException {
+    return recordMap.selectRecordsQuery(NameRecord.VALUES_MAP, query, page, projection);
+  }
+
   /**
    * PLEASE DO NOT DELETE THE THIS. IT IS NECESSARY!!!! - Westy
    *
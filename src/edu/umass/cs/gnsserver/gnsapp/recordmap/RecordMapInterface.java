@@ -22,13 +22,17 @@ package edu.umass.cs.gnsserver.gnsapp.recordmap;
 //import edu.umass.cs.gnsserver.nsdesign.recordmap.ReplicaControllerRecord;
 import edu.umass.cs.gnsserver.database.AbstractRecordCursor;
 import edu.umass.cs.gnsserver.database.ColumnField;
+import edu.umass.cs.gnsserver.database.PageRequest;
 import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 import edu.umass.cs.gnscommon.exceptions.server.RecordExistsException;
 import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
 import edu.umass.cs.gnsserver.utils.ValuesMap;
 import org.json.JSONObject;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  *
@@ -77,6 +81,34 @@ public interface RecordMapInterface {
           ColumnField valuesMapField, ArrayList<ColumnField> valuesMapKeys)
           throws RecordNotFoundException, FailedDBOperationException;
 
+  /**
+   * Add a name record to the database or replace it if it exists.
+   * The JSONObject must not be modified afterwards.
+   *
+   * @param json
+   * @throws FailedDBOperationException
+   */
+  public void upsertRecord(JSONObject json) throws FailedDBOperationException;
+
+  /**
+   * Add, replace or remove many name records at once. A null record removes
+   * the name. The records must not be modified afterwards.
+   *
+   * @param records a map from name to record
+   * @throws FailedDBOperationException
+   */
+  public void bulkUpsertRecords(Map<String, JSONObject> records) throws FailedDBOperationException;
+
+  /**
+   * Returns the records of the names that exist. The records must not be modified.
+   *
+   * @param names
+   * @return a map from name to record
+   * @throws FailedDBOperationException
+   */
+  public Map<String, JSONObject> lookupEntireRecords(Collection<String> names)
+          throws FailedDBOperationException;
+
   /**
    * Remove a name record from the database.
    *
@@ -197,4 +229,64 @@ public interface RecordMapInterface {
   public abstract AbstractRecordCursor selectRecordsQuery(ColumnField valuesMapField,
           String query) throws FailedDBOperationException;
 
+  /**
+   * Like {@link #selectRecords(ColumnField, String, Object)} but only returns
+   * the records in the given page and only the given fields of them.
+   *
+   * @param valuesMapField - the field in the row that contains the *user* fields
+   * @param key
+   * @param value
+   * @param page the page to return or null for all the records
+   * @param projection the user fields to return or null for entire records
+   * @return an {@link AbstractRecordCursor}
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  public abstract AbstractRecordCursor selectRecords(ColumnField valuesMapField,
+          String key, Object value, PageRequest page, List<String> projection) throws FailedDBOperationException;
+
+  /**
+   * Like {@link #selectRecordsWithin(ColumnField, String, String)} but only returns
+   * the records in the given page and only the given fields of them.
+   *
+   * @param valuesMapField - the field in the row that contains the *user* fields
+   * @param key
+   * @param value - a string that looks like this [[LONG_UL, LAT_UL],[LONG_BR, LAT_BR]]
+   * @param page the page to return or null for all the records
+   * @param projection the user fields to return or null for entire records
+   * @return an {@link AbstractRecordCursor}
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  public abstract AbstractRecordCursor selectRecordsWithin(ColumnField valuesMapField,
+          String key, String value, PageRequest page, List<String> projection) throws FailedDBOperationException;
+
+  /**
+   * Like {@link #selectRecordsNear(ColumnField, String, String, Double)} but only returns
+   * the records in the given page and only the given fields of them.
+   *
+   * @param valuesMapField - the field in the row that contains the *user* fields
+   * @param key
+   * @param value - a string that looks like this [LONG, LAT]
+   * @param maxDistance - the distance in meters
+   * @param page the page to return or null for all the records
+   * @param projection the user fields to return or null for entire records
+   * @return an {@link AbstractRecordCursor}
+   * @throws edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException
+   */
+  public abstract AbstractRecordCursor selectRecordsNear(ColumnField valuesMapField,
+          String key, String value, Double maxDistance, PageRequest page, List<String> projection) throws FailedDBOperationException;
+
+  /**
+   * Like {@link #selectRecordsQuery(ColumnField, String)} but only returns
+   * the records in the given page and only the given fields of them.
+   *
+   * @param valuesMapField
+   * @param query
+   * @param page the page to return or null for all the records
+   * @param projection the user fields to return or null for entire records
+   * @return {@link AbstractRecordCursor}
+   * @throws FailedDBOperationException
+   */
+  public abstract AbstractRecordCursor selectRecordsQuery(ColumnField valuesMapField,
+          String query, PageRequest page, List<String> projection) throws FailedDBOperationException;
+
 }
@@ -47,6 +47,7 @@ import edu.umass.cs.gnscommon.ResponseCode;
 import static edu.umass.cs.gnsserver.httpserver.Defs.QUERYPREFIX;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.CommandHandler;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.CommandLatencies;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.CommandModule;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.AbstractCommand;
 import edu.umass.cs.gnscommon.exceptions.client.ClientException;
@@ -85,6 +86,10 @@ public class GNSHttpServer {
    *
    */
   protected static final String GNS_PATH = Config.getGlobalString(GNSConfig.GNSC.HTTP_SERVER_GNS_URL_PATH);
+  /**
+   * The path of the command latency stats.
+   */
+  protected static final String STATS_PATH = "stats";
   private HttpServer httpServer = null;
   // handles command processing
   private final CommandModule commandModule;
@@ -162,6 +167,7 @@ public class GNSHttpServer {
 
       httpServer.createContext("/", new EchoHttpHandler());
       httpServer.createContext("/" + GNS_PATH, new DefaultHttpHandler());
+      httpServer.createContext("/" + STATS_PATH, new StatsHttpHandler());
       httpServer.setExecutor(Executors.newCachedThreadPool());
       httpServer.start();
       // Need to do this for the places where we expose the insecure http service to the user
@@ -402,6 +408,42 @@ public class GNSHttpServer {
 
   }
 
+  /**
+   * Returns the command latency stats of the server as JSON.
+   * See {@link CommandLatencies#toJSONObject}.
+   */
+  protected class StatsHttpHandler implements HttpHandler {
+
+    /**
+     *
+     * @param exchange
+     * @throws IOException
+     */
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      try {
+        if (exchange.getRequestMethod().equalsIgnoreCase("GET")) {
+          byte[] response;
+          try {
+            response = CommandLatencies.toJSONObject().toString().getBytes();
+          } catch (JSONException e) {
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_INTERNAL_ERROR, -1);
+            return;
+          }
+          exchange.getResponseHeaders().set("Content-Type", "application/json");
+          exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, response.length);
+          try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(response);
+          }
+        } else {
+          exchange.sendResponseHeaders(HttpURLConnection.HTTP_BAD_METHOD, -1);
+        }
+      } finally {
+        exchange.close();
+      }
+    }
+  }
+
   /**
    * Returns info about the server.
    */
@@ -96,6 +96,7 @@ public class GNSHttpsServer extends GNSHttpServer {
 
       httpsServer.createContext("/", new EchoHttpHandler());
       httpsServer.createContext("/" + GNS_PATH, new DefaultHttpHandler());
+      httpsServer.createContext("/" + STATS_PATH, new StatsHttpHandler());
       httpsServer.setExecutor(Executors.newCachedThreadPool());
       httpsServer.start();
       // Need to do this for the places where we expose the secure http service to the user
@@ -133,6 +133,30 @@ public class GNSConfig {
      * interval ago) will be rejected by the server.
      */
     STALE_COMMAND_INTERVAL_IN_MINUTES(30),
+    /**
+     * The maximum number of recent successful signature verifications
+     * remembered by the server. Entries expire after
+     * {@link GNSC#STALE_COMMAND_INTERVAL_IN_MINUTES}.
+     */
+    VERIFIED_SIGNATURE_CACHE_SIZE(10000),
+    /**
+     * The maximum number of guids whose compiled ACLs are kept in memory.
+     */
+    COMPILED_ACL_CACHE_SIZE(100000),
+    /**
+     * The maximum number of guids whose public keys are cached by the server.
+     */
+    PUBLIC_KEY_CACHE_SIZE(100000),
+    /**
+     * The amount of time a cached public key is used before it is looked up
+     * again. Bounds staleness on servers that don't see the update of a key.
+     */
+    PUBLIC_KEY_CACHE_EXPIRY_IN_MINUTES(30),
+    /**
+     * The maximum number of public keys whose guids (hashes) are remembered
+     * for checking ACL membership.
+     */
+    PUBLIC_KEY_GUID_CACHE_SIZE(100000),
     /**
      * The default port used by mongo. 27017 is the default mongo uses.
      */
@@ -158,6 +182,40 @@ public class GNSConfig {
     /* FIXME: arun: need to determine this timeout systematically, not an ad
 		 * hoc constant. */
     SELECT_REQUEST_TIMEOUT(5000),
+    /**
+     * How long in milliseconds the collecting server waits for each of the
+     * other servers to answer a select before it responds with the records
+     * it has. Paged selects fail instead because a partial page would make
+     * the cursor skip records. Should be less than SELECT_REQUEST_TIMEOUT.
+     */
+    SELECT_SERVER_TIMEOUT(3000),
+    /**
+     * The largest page size allowed for paged selects.
+     */
+    SELECT_MAX_PAGE_SIZE(1000),
+    /**
+     * Select results with at least this many records have their ACLs
+     * checked in parallel on all the cores.
+     */
+    SELECT_PARALLEL_ACL_CHECK_THRESHOLD(1000),
+    /**
+     * The maximum number of concurrent reads of group members on other
+     * servers when reading a field of all the members of a group.
+     */
+    GROUP_MEMBER_READ_CONCURRENCY(32),
+    /**
+     * How long in milliseconds to wait for the members on other servers
+     * when reading a field of all the members of a group. The values of
+     * members that haven't been read by then are left out. 0 waits for
+     * all of them.
+     */
+    GROUP_MEMBER_READ_TIMEOUT(0),
+    /**
+     * The demand profile of a name only looks for the closest active replica
+     * of one in this many requests, and gives it this many votes. 1 means
+     * every request votes.
+     */
+    DEMAND_PROFILE_VOTE_SAMPLING(1),
     /**
      *
      */
@@ -285,6 +343,33 @@ public class GNSConfig {
      * requests to DNS and GNS servers.
      */
     DNS_ONLY(false),
+    /**
+     * The number of threads the DNS service uses to handle queries. The
+     * parallel GNS and DNS lookups of those queries share a pool of twice
+     * this size.
+     */
+    DNS_SERVER_WORKER_THREADS(16),
+    /**
+     * The largest UDP DNS message the DNS service will receive or send.
+     * Responses are sized to the client's EDNS0 payload size up to this
+     * limit; clients without EDNS0 get 512 bytes.
+     */
+    DNS_MAX_UDP_PAYLOAD_SIZE(4096),
+    /**
+     * The maximum number of domain names whose GNS answers are cached by
+     * the DNS service.
+     */
+    DNS_GNS_ANSWER_CACHE_SIZE(100000),
+    /**
+     * How long GNS answers are cached when none of the record's fields
+     * specify a shorter ttl. Zero disables the GNS answer cache.
+     */
+    DNS_GNS_ANSWER_CACHE_DEFAULT_TTL_IN_SECONDS(60),
+    /**
+     * How long the DNS service caches names that don't exist in the GNS.
+     * Zero disables negative caching.
+     */
+    DNS_GNS_ANSWER_CACHE_NEGATIVE_TTL_IN_SECONDS(5),
     //
     // Contect Name Service
     //
@@ -297,6 +382,20 @@ public class GNSConfig {
      * this option should definitely be set.
      */
     CNS_NODE_ADDRESS(NONE),
+    /**
+     * The maximum number of triggers waiting to be sent to the CNS. Triggers
+     * are dropped (and counted) when the queue is full.
+     */
+    CNS_TRIGGER_QUEUE_SIZE(10000),
+    /**
+     * How long triggers are collected before they are sent to the CNS.
+     * Updates of the same guid within this window are sent as one update.
+     */
+    CNS_TRIGGER_BATCH_WINDOW_IN_MS(50),
+    /**
+     * The maximum number of triggers sent to the CNS in one batch.
+     */
+    CNS_TRIGGER_MAX_BATCH_SIZE(1000),
     /**
      * The alias of the private key in the java keyStore.
      */
@@ -16,6 +16,7 @@ import edu.umass.cs.gnscommon.ResponseCode;
 import edu.umass.cs.gnscommon.packets.ResponsePacket;
 import edu.umass.cs.gnscommon.utils.JSONByteConverter;
 import edu.umass.cs.gnsserver.utils.DefaultGNSTest;
+import edu.umass.cs.reconfiguration.reconfigurationutils.RequestParseException;
 import edu.umass.cs.utils.Util;
 
 import org.junit.runners.MethodSorters;
@@ -271,19 +272,20 @@ public class ByteificationComparison extends DefaultGNSTest {
    *
    * @throws UnsupportedEncodingException
    * @throws JSONException
+   * @throws RequestParseException
    */
   @Test
-  public void test_14_CommandValueReturnPacket_128B() throws UnsupportedEncodingException, JSONException {
+  public void test_14_CommandValueReturnPacket_128B() throws UnsupportedEncodingException, JSONException, RequestParseException {
     ResponsePacket packet = new ResponsePacket(1, ResponseCode.NO_ERROR.getCodeValue(), new String(Util.getRandomAlphanumericBytes(64)), new String(Util.getRandomAlphanumericBytes(64)));
     long startTime = System.nanoTime();
     for (int i = 0; i < TEST_RUNS; i++) {
-      byte[] bytes = packet.toBytes();
+      byte[] bytes = packet.toBinaryBytes();
       ResponsePacket.fromBytes(bytes);
     }
     long endTime = System.nanoTime();
     double avg = (endTime - startTime) / (TEST_RUNS);
     System.out.println("Average byteification time CommandValueReturnPacket 128B was " + avg + " nanoseconds.");
-    byte[] bytes = packet.toBytes();
+    byte[] bytes = packet.toBinaryBytes();
     ResponsePacket outputPacket = ResponsePacket.fromBytes(bytes);
     assert (packet.toJSONObject().toString().equals(outputPacket.toJSONObject().toString()));
   }
@@ -292,19 +294,20 @@ public class ByteificationComparison extends DefaultGNSTest {
    *
    * @throws UnsupportedEncodingException
    * @throws JSONException
+   * @throws RequestParseException
    */
   @Test
-  public void test_15_CommandValueReturnPacket_1024B_Strings() throws UnsupportedEncodingException, JSONException {
+  public void test_15_CommandValueReturnPacket_1024B_Strings() throws UnsupportedEncodingException, JSONException, RequestParseException {
     ResponsePacket packet = new ResponsePacket(1, ResponseCode.NO_ERROR.getCodeValue(), new String(Util.getRandomAlphanumericBytes(512)), new String(Util.getRandomAlphanumericBytes(512)));
     long startTime = System.nanoTime();
     for (int i = 0; i < TEST_RUNS; i++) {
-      byte[] bytes = packet.toBytes();
+      byte[] bytes = packet.toBinaryBytes();
       ResponsePacket.fromBytes(bytes);
     }
     long endTime = System.nanoTime();
     double avg = (endTime - startTime) / (TEST_RUNS);
     System.out.println("Average byteification time CommandValueReturnPacket 1024B was " + avg + " nanoseconds.");
-    byte[] bytes = packet.toBytes();
+    byte[] bytes = packet.toBinaryBytes();
     ResponsePacket outputPacket = ResponsePacket.fromBytes(bytes);
     assert (packet.toJSONObject().toString().equals(outputPacket.toJSONObject().toString()));
   }
@@ -313,18 +316,19 @@ public class ByteificationComparison extends DefaultGNSTest {
    *
    * @throws UnsupportedEncodingException
    * @throws JSONException
+   * @throws RequestParseException
    */
   @Test
-  public void test_16_CommandValueReturnPacket_toBytes_128B() throws UnsupportedEncodingException, JSONException {
+  public void test_16_CommandValueReturnPacket_toBytes_128B() throws UnsupportedEncodingException, JSONException, RequestParseException {
     ResponsePacket packet = new ResponsePacket(1, ResponseCode.NO_ERROR.getCodeValue(), new String(Util.getRandomAlphanumericBytes(64)), new String(Util.getRandomAlphanumericBytes(64)));
     long startTime = System.nanoTime();
     for (int i = 0; i < TEST_RUNS; i++) {
-      packet.toBytes();
+      packet.toBinaryBytes();
     }
     long endTime = System.nanoTime();
     double avg = (endTime - startTime) / (TEST_RUNS);
     System.out.println("Average byteification time CommandValueReturnPacket toBytes 128B was " + avg + " nanoseconds.");
-    byte[] bytes = packet.toBytes();
+    byte[] bytes = packet.toBinaryBytes();
     ResponsePacket outputPacket = ResponsePacket.fromBytes(bytes);
     assert (packet.toJSONObject().toString().equals(outputPacket.toJSONObject().toString()));
   }
@@ -333,20 +337,21 @@ public class ByteificationComparison extends DefaultGNSTest {
    *
    * @throws UnsupportedEncodingException
    * @throws JSONException
+   * @throws RequestParseException
    */
   @Test
-  public void test_17_CommandValueReturnPacket_toBytes_1024B_Strings() throws UnsupportedEncodingException, JSONException {
+  public void test_17_CommandValueReturnPacket_toBytes_1024B_Strings() throws UnsupportedEncodingException, JSONException, RequestParseException {
     ResponsePacket packet
             = new ResponsePacket(1, ResponseCode.NO_ERROR.getCodeValue(),
                     new String(Util.getRandomAlphanumericBytes(512)), new String(Util.getRandomAlphanumericBytes(512)));
     long startTime = System.nanoTime();
     for (int i = 0; i < TEST_RUNS; i++) {
-      packet.toBytes();
+      packet.toBinaryBytes();
     }
     long endTime = System.nanoTime();
     double avg = (endTime - startTime) / (TEST_RUNS);
     System.out.println("Average byteification time CommandValueReturnPacket toBytes 1024B was " + avg + " nanoseconds.");
-    byte[] bytes = packet.toBytes();
+    byte[] bytes = packet.toBinaryBytes();
     ResponsePacket outputPacket = ResponsePacket.fromBytes(bytes);
     assert (packet.toJSONObject().toString().equals(outputPacket.toJSONObject().toString()));
   }
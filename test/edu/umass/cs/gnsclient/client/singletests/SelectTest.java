@@ -37,8 +37,10 @@ import java.awt.geom.Point2D;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 import java.util.Set;
 import org.hamcrest.Matchers;
@@ -359,6 +361,88 @@ public class SelectTest extends DefaultGNSTest {
     }
   }
 
+  /**
+   * Check that a paged query select returns every match exactly once
+   */
+  @Test
+  public void test_53_QuerySelectPaged() {
+    String fieldName = "testQueryPaged";
+    Set<String> expected = new HashSet<>();
+    try {
+      for (int cnt = 0; cnt < 5; cnt++) {
+        GuidEntry testEntry = clientCommands.guidCreate(masterGuid, "queryTest-" + RandomString.randomString(12));
+        createdGuids.add(testEntry); // save them so we can delete them later
+        expected.add(testEntry.getGuid());
+        JSONArray array = new JSONArray(Arrays.asList(25));
+        clientCommands.fieldReplaceOrCreateList(testEntry.getGuid(), fieldName, array, testEntry);
+      }
+      waitSettle(100);
+    } catch (ClientException | IOException e) {
+      Utils.failWithStackTrace("Exception while trying to create the guids: " + e);
+    }
+    try {
+      String query = "~" + fieldName + " : ($gt: 0)";
+      int pageSize = 2;
+      List<String> guids = new ArrayList<>();
+      int pages = 0;
+      String cursor = null;
+      do {
+        JSONObject page = clientCommands.selectQueryPage(query, cursor, pageSize);
+        JSONArray pageGuids = page.getJSONArray(GNSProtocol.SELECT_GUIDS.toString());
+        Assert.assertThat(pageGuids.length(), Matchers.lessThanOrEqualTo(pageSize));
+        for (int i = 0; i < pageGuids.length(); i++) {
+          guids.add(pageGuids.getString(i));
+        }
+        cursor = page.optString(GNSProtocol.SELECT_CURSOR.toString(), null);
+        pages++;
+      } while (cursor != null && pages < 100);
+      Assert.assertNull("Too many pages", cursor);
+      // no guid is repeated across pages
+      Assert.assertEquals(guids.size(), new HashSet<>(guids).size());
+      // and none is skipped
+      Assert.assertTrue(new HashSet<>(guids).containsAll(expected));
+      Assert.assertThat(pages, Matchers.greaterThanOrEqualTo((expected.size() + pageSize - 1) / pageSize));
+    } catch (ClientException | IOException | JSONException e) {
+      Utils.failWithStackTrace("Exception executing selectQueryPage: " + e);
+    }
+  }
+
+  /**
+   * Check that a select with fields returns only the requested fields of each match
+   */
+  @Test
+  public void test_54_QuerySelectWithFields() {
+    String fieldName = "testQueryWithFields";
+    String projectedField = "testProjectedField";
+    Map<String, String> expected = new HashMap<>();
+    try {
+      for (int cnt = 0; cnt < 3; cnt++) {
+        GuidEntry testEntry = clientCommands.guidCreate(masterGuid, "queryTest-" + RandomString.randomString(12));
+        createdGuids.add(testEntry); // save them so we can delete them later
+        String value = "projected-" + cnt;
+        expected.put(testEntry.getGuid(), value);
+        JSONArray array = new JSONArray(Arrays.asList(25));
+        clientCommands.fieldReplaceOrCreateList(testEntry.getGuid(), fieldName, array, testEntry);
+        clientCommands.fieldUpdate(testEntry.getGuid(), projectedField, value, testEntry);
+      }
+      waitSettle(100);
+    } catch (ClientException | IOException e) {
+      Utils.failWithStackTrace("Exception while trying to create the guids: " + e);
+    }
+    try {
+      String query = "~" + fieldName + " : ($gt: 0)";
+      JSONObject result = clientCommands.selectQueryWithFields(query, Arrays.asList(projectedField));
+      for (Map.Entry<String, String> entry : expected.entrySet()) {
+        JSONObject fields = result.getJSONObject(entry.getKey());
+        Assert.assertEquals(entry.getValue(), fields.getString(projectedField));
+        // only the requested fields come back
+        Assert.assertFalse(fields.has(fieldName));
+      }
+    } catch (ClientException | IOException | JSONException e) {
+      Utils.failWithStackTrace("Exception executing selectQueryWithFields: " + e);
+    }
+  }
+
   private static String createIndexTestField;
 
   /**
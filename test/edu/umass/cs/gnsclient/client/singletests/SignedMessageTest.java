@@ -0,0 +1,169 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsclient.client.singletests;
+
+import edu.umass.cs.gnsclient.client.GNSClientCommands;
+import edu.umass.cs.gnsclient.client.GNSCommand;
+import edu.umass.cs.gnsclient.client.util.GuidEntry;
+import edu.umass.cs.gnsclient.client.util.GuidUtils;
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.exceptions.client.ClientException;
+import edu.umass.cs.gnscommon.packets.CommandPacket;
+import edu.umass.cs.gnscommon.utils.CanonicalJSON;
+import edu.umass.cs.gnscommon.utils.RandomString;
+import edu.umass.cs.gnsserver.utils.DefaultGNSTest;
+import edu.umass.cs.utils.Utils;
+import java.io.IOException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import org.junit.Assert;
+
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+/**
+ * Tests commands that carry the message the client signed in
+ * {@link GNSProtocol#SIGNED_MESSAGE}. The signed message is added by hand so
+ * these tests don't depend on the client's SEND_SIGNED_MESSAGE setting.
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class SignedMessageTest extends DefaultGNSTest {
+
+  private static GNSClientCommands clientCommands = null;
+  private static GuidEntry masterGuid;
+  private static GuidEntry testEntry;
+  private static final String FIELD = "signedMessageField";
+
+  /**
+   *
+   */
+  public SignedMessageTest() {
+    if (clientCommands == null) {
+      try {
+        clientCommands = new GNSClientCommands();
+        clientCommands.setForceCoordinatedReads(true);
+      } catch (IOException e) {
+        Utils.failWithStackTrace("Exception creating client: " + e);
+      }
+      try {
+        masterGuid = GuidUtils.getGUIDKeys(globalAccountName);
+      } catch (Exception e) {
+        Utils.failWithStackTrace("Exception while creating account guid: " + e);
+      }
+    }
+  }
+
+  /**
+   * Create the guid
+   */
+  @Test
+  public void test_10_CreateGuid() {
+    try {
+      testEntry = clientCommands.guidCreate(masterGuid, "signedMessageTest-" + RandomString.randomString(12));
+    } catch (ClientException | IOException e) {
+      Utils.failWithStackTrace("Exception registering guid: " + e);
+    }
+  }
+
+  /**
+   * An update that carries the message it was signed over is executed
+   */
+  @Test
+  public void test_20_SignedMessageUpdate() {
+    try {
+      CommandPacket packet = GNSCommand.fieldUpdate(testEntry.getGuid(), FIELD, "original", testEntry);
+      JSONObject command = packet.getCommand();
+      command.put(GNSProtocol.SIGNED_MESSAGE.toString(), signedMessage(command));
+      clientCommands.execute(packet);
+      Assert.assertEquals("original", clientCommands.fieldRead(testEntry.getGuid(), FIELD, testEntry));
+    } catch (ClientException | IOException | JSONException e) {
+      Utils.failWithStackTrace("Exception executing signed message update: " + e);
+    }
+  }
+
+  /**
+   * An update whose signed message was altered after signing is rejected
+   */
+  @Test
+  public void test_30_TamperedSignedMessageUpdate() {
+    try {
+      CommandPacket packet = GNSCommand.fieldUpdate(testEntry.getGuid(), FIELD, "honest", testEntry);
+      JSONObject command = packet.getCommand();
+      JSONObject tampered = withoutSignature(command);
+      tampered.put(GNSProtocol.USER_JSON.toString(), new JSONObject().put(FIELD, "tampered").toString());
+      command.put(GNSProtocol.SIGNED_MESSAGE.toString(), CanonicalJSON.getCanonicalForm(tampered));
+      try {
+        clientCommands.execute(packet);
+        Utils.failWithStackTrace("Update with a tampered signed message should have been rejected.");
+      } catch (ClientException e) {
+        // normal result
+      }
+      Assert.assertEquals("original", clientCommands.fieldRead(testEntry.getGuid(), FIELD, testEntry));
+    } catch (ClientException | IOException | JSONException e) {
+      Utils.failWithStackTrace("Exception executing tampered signed message update: " + e);
+    }
+  }
+
+  /**
+   * An update whose fields were altered after signing executes what was signed
+   */
+  @Test
+  public void test_40_TamperedCommandUpdate() {
+    try {
+      CommandPacket packet = GNSCommand.fieldUpdate(testEntry.getGuid(), FIELD, "signed", testEntry);
+      JSONObject command = packet.getCommand();
+      command.put(GNSProtocol.SIGNED_MESSAGE.toString(), signedMessage(command));
+      command.put(GNSProtocol.USER_JSON.toString(), new JSONObject().put(FIELD, "tampered").toString());
+      clientCommands.execute(packet);
+      Assert.assertEquals("signed", clientCommands.fieldRead(testEntry.getGuid(), FIELD, testEntry));
+    } catch (ClientException | IOException | JSONException e) {
+      Utils.failWithStackTrace("Exception executing tampered command update: " + e);
+    }
+  }
+
+  /**
+   * Remove the guid
+   */
+  @Test
+  public void test_999_SignedMessageCleanup() {
+    try {
+      clientCommands.guidRemove(masterGuid, testEntry.getGuid());
+    } catch (ClientException | IOException e) {
+      Utils.failWithStackTrace("Exception during cleanup: " + e);
+    }
+  }
+
+  // HELPER STUFF
+  private static JSONObject withoutSignature(JSONObject command) throws JSONException {
+    JSONObject copy = new JSONObject(command.toString());
+    copy.remove(GNSProtocol.SIGNATURE.toString());
+    copy.remove(GNSProtocol.SIGNED_MESSAGE.toString());
+    return copy;
+  }
+
+  // The same string the client signed
+  private static String signedMessage(JSONObject command) throws JSONException {
+    return CanonicalJSON.getCanonicalForm(withoutSignature(command));
+  }
+}
@@ -19,6 +19,7 @@
  */
 package edu.umass.cs.gnsserver.database;
 
+import edu.umass.cs.gnscommon.GNSProtocol;
 import edu.umass.cs.gnsclient.jsonassert.JSONAssert;
 import edu.umass.cs.gnsclient.jsonassert.JSONCompareMode;
 import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
@@ -30,8 +31,11 @@ import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
 import edu.umass.cs.gnsserver.utils.ValuesMap;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import static org.junit.Assert.*;
@@ -373,4 +377,277 @@ public class NoSQLTest {
       fail("Problem during LookupEntireRecord: " + e);
     }
   }
+
+  // The selects below run on records that DiskMapRecords hasn't committed to mongo
+  // so they are answered by the DiskMapIndex merged with the results from mongo.
+  private static String location = GNSProtocol.LOCATION_FIELD_NAME.toString();
+  private static String select1 = "select#1";
+  private static String select2 = "select#2";
+  private static String select3 = "select#3";
+  private static String select4 = "select#4";
+
+  private static JSONObject makeRecord(String name, String key, Object value) throws JSONException {
+    JSONObject valuesMap = new JSONObject();
+    valuesMap.put(key, value);
+    JSONObject record = new JSONObject();
+    record.put(NameRecord.NAME.getName(), name);
+    record.put(NameRecord.VALUES_MAP.getName(), valuesMap);
+    return record;
+  }
+
+  private static List<String> selectedNames(AbstractRecordCursor cursor) throws FailedDBOperationException {
+    List<String> names = new ArrayList<>();
+    while (cursor.hasNext()) {
+      names.add(cursor.nextJSONObject().optString(NameRecord.NAME.getName()));
+    }
+    Collections.sort(names);
+    return names;
+  }
+
+  private static DiskMapCollection diskMapCollection() {
+    return ((DiskMapRecords) instance).getCollection(collection);
+  }
+
+  // Writes the current value of name to mongo the way the diskmap does when it commits
+  private static void commit(String name) throws FailedDBOperationException, RecordExistsException {
+    Map<String, JSONObject> toCommit = new HashMap<>();
+    toCommit.put(name, diskMapCollection().getMap().get(name));
+    diskMapCollection().commitNewest(toCommit);
+  }
+
+  private static void update(String name, String key, String value) throws FailedDBOperationException {
+    instance.updateIndividualFields(collection, name, NameRecord.VALUES_MAP,
+            new ArrayList<>(Arrays.asList(new ColumnField(key, ColumnFieldType.USER_JSON))),
+            new ArrayList<Object>(Arrays.asList(value)));
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_40_InsertSelectRecords() {
+    try {
+      instance.insert(collection, select1, makeRecord(select1, field, "red"));
+      instance.insert(collection, select2, makeRecord(select2, field, "blue"));
+      instance.insert(collection, select3, makeRecord(select3, location, new JSONArray("[10.5, 20.5]")));
+    } catch (FailedDBOperationException | JSONException | RecordExistsException e) {
+      fail("Problem during insert " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_41_SelectEqualsUncommitted() {
+    try {
+      assertTrue(diskMapCollection().getUncommitted().contains(select1));
+      assertEquals(Arrays.asList(select1),
+              selectedNames(instance.selectRecords(collection, NameRecord.VALUES_MAP, field, "red")));
+      assertEquals(Arrays.asList(select2),
+              selectedNames(instance.selectRecords(collection, NameRecord.VALUES_MAP, field, "blue")));
+      assertEquals(Collections.emptyList(),
+              selectedNames(instance.selectRecords(collection, NameRecord.VALUES_MAP, field, "green")));
+    } catch (FailedDBOperationException e) {
+      fail("Problem during select " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_42_SelectWithinUncommitted() {
+    try {
+      assertEquals(Arrays.asList(select3),
+              selectedNames(instance.selectRecordsWithin(collection, NameRecord.VALUES_MAP,
+                      location, "[[10, 20], [11, 21]]")));
+      assertEquals(Collections.emptyList(),
+              selectedNames(instance.selectRecordsWithin(collection, NameRecord.VALUES_MAP,
+                      location, "[[-11, -21], [-10, -20]]")));
+    } catch (FailedDBOperationException e) {
+      fail("Problem during select " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_43_SelectNearUncommitted() {
+    try {
+      assertEquals(Arrays.asList(select3),
+              selectedNames(instance.selectRecordsNear(collection, NameRecord.VALUES_MAP,
+                      location, "[10.6, 20.6]", 100000.0)));
+      assertEquals(Collections.emptyList(),
+              selectedNames(instance.selectRecordsNear(collection, NameRecord.VALUES_MAP,
+                      location, "[-10.5, -20.5]", 100000.0)));
+    } catch (FailedDBOperationException e) {
+      fail("Problem during select " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_44_SelectSkipsStaleMongoCopies() {
+    try {
+      commit(select1);
+      assertFalse(diskMapCollection().getUncommitted().contains(select1));
+      // mongo still has red
+      update(select1, field, "green");
+      assertEquals(Collections.emptyList(),
+              selectedNames(instance.selectRecords(collection, NameRecord.VALUES_MAP, field, "red")));
+      assertEquals(Arrays.asList(select1),
+              selectedNames(instance.selectRecords(collection, NameRecord.VALUES_MAP, field, "green")));
+    } catch (FailedDBOperationException | RecordExistsException e) {
+      fail("Problem during select " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_45_SelectSkipsRemoved() {
+    try {
+      commit(select2);
+      instance.removeEntireRecord(collection, select2);
+      assertEquals(Collections.emptyList(),
+              selectedNames(instance.selectRecords(collection, NameRecord.VALUES_MAP, field, "blue")));
+      commit(select2);
+      assertFalse(diskMapCollection().getUncommitted().contains(select2));
+      assertEquals(Collections.emptyList(),
+              selectedNames(instance.selectRecords(collection, NameRecord.VALUES_MAP, field, "blue")));
+    } catch (FailedDBOperationException | RecordExistsException e) {
+      fail("Problem during select " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_46_FlushThenCommit() {
+    try {
+      DiskMapCollection mapCollection = diskMapCollection();
+      instance.insert(collection, select4, makeRecord(select4, field, "one"));
+      mapCollection.flushUncommitted();
+      assertTrue(mapCollection.isFlushed(select4));
+      assertFalse(mapCollection.getUncommitted().contains(select4));
+      // written again before the map commits the flushed value
+      update(select4, field, "two");
+      commit(select4);
+      assertFalse(mapCollection.isFlushed(select4));
+      assertFalse(mapCollection.getUncommitted().contains(select4));
+      assertEquals(Collections.emptyList(),
+              selectedNames(instance.selectRecords(collection, NameRecord.VALUES_MAP, field, "one")));
+      assertEquals(Arrays.asList(select4),
+              selectedNames(instance.selectRecords(collection, NameRecord.VALUES_MAP, field, "two")));
+    } catch (FailedDBOperationException | JSONException | RecordExistsException e) {
+      fail("Problem during flush and commit " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_47_RemoveSelectRecords() {
+    try {
+      for (String name : Arrays.asList(select1, select2, select3, select4)) {
+        instance.removeEntireRecord(collection, name);
+      }
+      assertEquals(Collections.emptyList(),
+              selectedNames(instance.selectRecords(collection, NameRecord.VALUES_MAP, field, "green")));
+    } catch (FailedDBOperationException e) {
+      fail("Problem while deleting record: " + e);
+    }
+  }
+
+  // Bulk lookup and upsert of many names through the record map.
+  private static String restoreCollection = "testRestoreCollection";
+  private static List<String> bulkNames = Arrays.asList("bulk#1", "bulk#2", "bulk#3");
+  private static String bulkMissing = "bulk#missing";
+
+  private static ValuesMap makeValuesMap(String name) throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put(field, "value of " + name);
+    JSONObject innerJson = new JSONObject();
+    innerJson.put("key", name);
+    json.put("map", innerJson);
+    return new ValuesMap(json);
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_50_BulkUpsertAndLookup() {
+    try {
+      Map<String, JSONObject> records = new HashMap<>();
+      for (String name : bulkNames) {
+        records.put(name, new NameRecord(recordMap, name, makeValuesMap(name)).toJSONObject());
+      }
+      recordMap.bulkUpsertRecords(records);
+      Map<String, JSONObject> actual = recordMap.lookupEntireRecords(
+              new ArrayList<>(Arrays.asList("bulk#1", "bulk#2", "bulk#3", bulkMissing)));
+      assertEquals(bulkNames.size(), actual.size());
+      for (String name : bulkNames) {
+        JSONAssert.assertEquals(makeValuesMap(name),
+                actual.get(name).getJSONObject(NameRecord.VALUES_MAP.getName()),
+                JSONCompareMode.STRICT);
+      }
+    } catch (FailedDBOperationException | JSONException e) {
+      fail("Problem during bulk upsert " + e);
+    }
+  }
+
+  /**
+   * Copies records to another collection and removes a name there with a null record.
+   */
+  @Test
+  public void test_51_BulkCopyToOtherCollection() {
+    GNSRecordMap<String> restoreMap = new GNSRecordMap<>(instance, restoreCollection);
+    try {
+      // should be removed by the null record it is upserted with
+      instance.insert(restoreCollection, bulkMissing,
+              new NameRecord(restoreMap, bulkMissing, makeValuesMap(bulkMissing)).toJSONObject());
+      List<String> names = new ArrayList<>(bulkNames);
+      names.add(bulkMissing);
+      Map<String, JSONObject> records = recordMap.lookupEntireRecords(names);
+      Map<String, JSONObject> copied = new HashMap<>();
+      for (String name : names) {
+        copied.put(name, records.get(name));
+      }
+      restoreMap.bulkUpsertRecords(copied);
+
+      Map<String, JSONObject> actual = restoreMap.lookupEntireRecords(names);
+      assertEquals(bulkNames.size(), actual.size());
+      assertFalse(actual.containsKey(bulkMissing));
+      for (String name : bulkNames) {
+        JSONAssert.assertEquals(records.get(name), actual.get(name), JSONCompareMode.STRICT);
+      }
+    } catch (FailedDBOperationException | JSONException | RecordExistsException e) {
+      fail("Problem during bulk copy " + e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_52_RemoveBulkRecords() {
+    try {
+      for (String name : bulkNames) {
+        instance.removeEntireRecord(collection, name);
+        instance.removeEntireRecord(restoreCollection, name);
+      }
+      instance.removeEntireRecord(restoreCollection, bulkMissing);
+      assertTrue(recordMap.lookupEntireRecords(bulkNames).isEmpty());
+    } catch (FailedDBOperationException e) {
+      fail("Problem while deleting record: " + e);
+    }
+  }
 }
@@ -0,0 +1,69 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.clientSupport;
+
+import java.io.UnsupportedEncodingException;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the key used by the verified signature cache.
+ *
+ */
+public class NSAuthenticationTest {
+
+  /**
+   *
+   * @throws UnsupportedEncodingException
+   */
+  @Test
+  public void test_01_SameInputsSameKey() throws UnsupportedEncodingException {
+    assertEquals(NSAuthentication.verifiedSignatureKey("key", "sig", "message"),
+            NSAuthentication.verifiedSignatureKey("key", "sig", "message"));
+  }
+
+  /**
+   *
+   * @throws UnsupportedEncodingException
+   */
+  @Test
+  public void test_02_DifferentInputsDifferentKeys() throws UnsupportedEncodingException {
+    String key = NSAuthentication.verifiedSignatureKey("key", "sig", "message");
+    assertNotEquals(key, NSAuthentication.verifiedSignatureKey("key2", "sig", "message"));
+    assertNotEquals(key, NSAuthentication.verifiedSignatureKey("key", "sig2", "message"));
+    assertNotEquals(key, NSAuthentication.verifiedSignatureKey("key", "sig", "message2"));
+  }
+
+  /**
+   * Secret key signatures are binary so they can contain the bytes that
+   * would have separated the fields.
+   *
+   * @throws UnsupportedEncodingException
+   */
+  @Test
+  public void test_03_FieldBoundariesMatter() throws UnsupportedEncodingException {
+    assertNotEquals(NSAuthentication.verifiedSignatureKey("key", "a\u0000b", "c"),
+            NSAuthentication.verifiedSignatureKey("key", "a", "b\u0000c"));
+    assertNotEquals(NSAuthentication.verifiedSignatureKey("key\u0000a", "b", "c"),
+            NSAuthentication.verifiedSignatureKey("key", "a\u0000b", "c"));
+    assertNotEquals(NSAuthentication.verifiedSignatureKey("key", "ab", "c"),
+            NSAuthentication.verifiedSignatureKey("key", "a", "bc"));
+  }
+}
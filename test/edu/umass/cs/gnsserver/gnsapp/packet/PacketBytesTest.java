@@ -0,0 +1,190 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.packet;
+
+import edu.umass.cs.gnscommon.ResponseCode;
+import edu.umass.cs.gnscommon.packets.ResponsePacket;
+import edu.umass.cs.reconfiguration.reconfigurationutils.RequestParseException;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the versioned byte forms of packets.
+ *
+ */
+public class PacketBytesTest {
+
+  // the version byte follows the packet type
+  private static final int VERSION_OFFSET = Integer.BYTES;
+
+  private static ByteBuffer afterType(byte[] bytes) {
+    ByteBuffer buf = ByteBuffer.wrap(bytes);
+    buf.getInt();
+    return buf;
+  }
+
+  /**
+   *
+   * @throws JSONException
+   * @throws RequestParseException
+   */
+  @Test
+  public void test_01_ResponsePacketRoundTrip() throws JSONException, RequestParseException {
+    ResponsePacket packet = new ResponsePacket("name", 42, ResponseCode.NO_ERROR, "value é");
+    ResponsePacket copy = ResponsePacket.fromBytes(packet.toBinaryBytes());
+    assertEquals(packet.toJSONObject().toString(), copy.toJSONObject().toString());
+  }
+
+  /**
+   *
+   * @throws JSONException
+   * @throws RequestParseException
+   */
+  @Test
+  public void test_02_ResponsePacketNulls() throws JSONException, RequestParseException {
+    ResponsePacket packet = new ResponsePacket(null, 42, ResponseCode.ACCESS_ERROR, null);
+    ResponsePacket copy = ResponsePacket.fromBytes(packet.toBinaryBytes());
+    assertEquals(ResponseCode.ACCESS_ERROR, copy.getErrorCode());
+    assertNull(copy.getServiceName());
+    assertNull(copy.getReturnValue());
+  }
+
+  /**
+   * fromBytes also takes the JSON form, which is what toBytes sends by default.
+   *
+   * @throws JSONException
+   * @throws RequestParseException
+   */
+  @Test
+  public void test_03_ResponsePacketJSONForm() throws JSONException, RequestParseException {
+    ResponsePacket packet = new ResponsePacket("name", 42, ResponseCode.NO_ERROR, "value");
+    ResponsePacket copy = ResponsePacket.fromBytes(packet.toBytes());
+    assertEquals(packet.toJSONObject().toString(), copy.toJSONObject().toString());
+  }
+
+  /**
+   *
+   * @throws RequestParseException
+   */
+  @Test(expected = RequestParseException.class)
+  public void test_04_ResponsePacketUnknownVersion() throws RequestParseException {
+    byte[] bytes = new ResponsePacket("name", 42, ResponseCode.NO_ERROR, "value").toBinaryBytes();
+    bytes[VERSION_OFFSET]++;
+    ResponsePacket.fromBytes(bytes);
+  }
+
+  /**
+   *
+   * @throws RequestParseException
+   */
+  @Test(expected = RequestParseException.class)
+  public void test_05_ResponsePacketTruncated() throws RequestParseException {
+    byte[] bytes = new ResponsePacket("name", 42, ResponseCode.NO_ERROR, "value").toBinaryBytes();
+    ResponsePacket.fromBytes(Arrays.copyOf(bytes, bytes.length - 1));
+  }
+
+  /**
+   *
+   * @throws JSONException
+   * @throws RequestParseException
+   */
+  @Test
+  public void test_10_SelectRequestRoundTrip() throws JSONException, RequestParseException {
+    SelectRequestPacket packet = SelectRequestPacket.MakeQueryWithFieldsRequest(7, "reader",
+            "~field : ($gt: 0)", Arrays.asList("a", "b"));
+    packet.setCCPQueryId(3);
+    packet.setNsQueryId(4);
+    packet.setNSReturnAddress(new InetSocketAddress("127.0.0.1", 24403));
+    SelectRequestPacket copy = SelectRequestPacket.fromBytes(afterType(packet.toBinaryBytes()), null);
+    assertEquals(packet.toJSONObject().toString(), copy.toJSONObject().toString());
+
+    packet = SelectRequestPacket.MakePagedQueryRequest(8, null, "~field : ($gt: 0)", "cursor", 10);
+    copy = SelectRequestPacket.fromBytes(afterType(packet.toBinaryBytes()), null);
+    assertEquals(packet.toJSONObject().toString(), copy.toJSONObject().toString());
+  }
+
+  /**
+   * The sender is the client address if the packet doesn't have one,
+   * just like the JSON form.
+   *
+   * @throws RequestParseException
+   */
+  @Test
+  public void test_11_SelectRequestSender() throws RequestParseException {
+    InetSocketAddress sender = new InetSocketAddress("127.0.0.1", 24404);
+    SelectRequestPacket packet = SelectRequestPacket.MakeQueryRequest(7, "reader", "~field : ($gt: 0)");
+    SelectRequestPacket copy = SelectRequestPacket.fromBytes(afterType(packet.toBinaryBytes()), sender);
+    assertEquals(sender, copy.getClientAddress());
+  }
+
+  /**
+   *
+   * @throws RequestParseException
+   */
+  @Test(expected = RequestParseException.class)
+  public void test_12_SelectRequestUnknownVersion() throws RequestParseException {
+    byte[] bytes = SelectRequestPacket.MakeQueryRequest(7, "reader", "~field : ($gt: 0)").toBinaryBytes();
+    bytes[VERSION_OFFSET]++;
+    SelectRequestPacket.fromBytes(afterType(bytes), null);
+  }
+
+  /**
+   *
+   * @throws JSONException
+   * @throws RequestParseException
+   */
+  @Test
+  public void test_20_SelectResponseRoundTrip() throws JSONException, RequestParseException {
+    InetSocketAddress address = new InetSocketAddress("127.0.0.1", 24403);
+    SelectResponsePacket packet = SelectResponsePacket.makeSuccessPacketForGuidsOnly(7, address, 4,
+            address, new JSONArray(Arrays.asList("guid1", "guid2")));
+    packet.setCursor("guid2");
+    SelectResponsePacket copy = SelectResponsePacket.fromBytes(afterType(packet.toBinaryBytes()), null);
+    assertEquals(packet.toJSONObject().toString(), copy.toJSONObject().toString());
+
+    packet = SelectResponsePacket.makeSuccessPacketForRecordsOnly(7, address, 0, 4, address,
+            new JSONArray().put(new JSONObject().put("field", 1)));
+    copy = SelectResponsePacket.fromBytes(afterType(packet.toBinaryBytes()), null);
+    assertEquals(packet.toJSONObject().toString(), copy.toJSONObject().toString());
+
+    packet = SelectResponsePacket.makeFailPacket(7, address, 4, address, "failed");
+    copy = SelectResponsePacket.fromBytes(afterType(packet.toBinaryBytes()), null);
+    assertEquals(packet.toJSONObject().toString(), copy.toJSONObject().toString());
+  }
+
+  /**
+   *
+   * @throws RequestParseException
+   */
+  @Test(expected = RequestParseException.class)
+  public void test_21_SelectResponseUnknownVersion() throws RequestParseException {
+    byte[] bytes = SelectResponsePacket.makeFailPacket(7, null, 4, null, "failed").toBinaryBytes();
+    bytes[VERSION_OFFSET]++;
+    SelectResponsePacket.fromBytes(afterType(bytes), null);
+  }
+}